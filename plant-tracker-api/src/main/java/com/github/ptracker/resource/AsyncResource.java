@@ -0,0 +1,67 @@
+package com.github.ptracker.resource;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+
+/**
+ * Non-blocking version of {@link Resource}. The returned futures complete once the backing store has responded,
+ * without holding a thread while waiting.
+ */
+public interface AsyncResource<KEY_TYPE, VALUE_TYPE> {
+
+  CompletableFuture<ResourceResponse<VALUE_TYPE>> get(KEY_TYPE key, GetRequestOptions options);
+
+  CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> query(VALUE_TYPE template, QueryRequestOptions options);
+
+  /**
+   * @return the page of matches that starts at the continuation token of {@code options}.
+   */
+  CompletableFuture<ResourcePage<VALUE_TYPE>> queryPage(VALUE_TYPE template, QueryRequestOptions options);
+
+  CompletableFuture<ResourceResponse<Void>> create(VALUE_TYPE payload, CreateRequestOptions options);
+
+  CompletableFuture<ResourceResponse<Void>> update(VALUE_TYPE payload, UpdateRequestOptions options);
+
+  CompletableFuture<ResourceResponse<Void>> delete(KEY_TYPE key, DeleteRequestOptions options);
+
+  /**
+   * @return one response per key, in the order of the keys.
+   */
+  default CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> batchGet(List<KEY_TYPE> keys,
+      GetRequestOptions options) {
+    List<CompletableFuture<ResourceResponse<VALUE_TYPE>>> futures =
+        keys.stream().map(key -> get(key, options)).collect(Collectors.toList());
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+  }
+
+  /**
+   * @return the matches of each template, in the order of the templates.
+   */
+  default CompletableFuture<List<List<ResourceResponse<VALUE_TYPE>>>> batchQuery(List<VALUE_TYPE> templates,
+      QueryRequestOptions options) {
+    List<CompletableFuture<List<ResourceResponse<VALUE_TYPE>>>> futures =
+        templates.stream().map(template -> query(template, options)).collect(Collectors.toList());
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+  }
+
+  /**
+   * Creates all the payloads. Each one is created or fails on its own, regardless of the others.
+   * @return one future per payload, in the order of the payloads.
+   */
+  default List<CompletableFuture<ResourceResponse<Void>>> batchCreate(List<VALUE_TYPE> payloads,
+      CreateRequestOptions options) {
+    return payloads.stream().map(payload -> {
+      try {
+        return create(payload, options);
+      } catch (RuntimeException e) {
+        CompletableFuture<ResourceResponse<Void>> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+      }
+    }).collect(Collectors.toList());
+  }
+}
@@ -1,4 +1,10 @@
 package com.github.ptracker.resource;
 
 public interface DeleteRequestOptions extends ExistingItemRequestOptions {
+
+  /**
+   * @return the partition key of the value, if the caller knows it, or {@code null}. A resource whose partitions cannot
+   * be derived from the key deletes the value from this partition without looking it up first.
+   */
+  String getPartitionKey();
 }
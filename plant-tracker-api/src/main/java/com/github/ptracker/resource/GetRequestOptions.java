@@ -1,4 +1,19 @@
 package com.github.ptracker.resource;
 
+import java.util.List;
+
+
 public interface GetRequestOptions extends ExistingItemRequestOptions {
+
+  /**
+   * @return the top level fields of the values that the caller needs, or an empty list if it needs whole values. The
+   * resource can leave the other fields out, so these values may not pass the checks that whole values do.
+   */
+  List<String> getFieldMask();
+
+  /**
+   * @return the partition key of the value, if the caller knows it, or {@code null}. A resource whose partitions cannot
+   * be derived from the key reads the value from this partition alone instead of looking for it in all of them.
+   */
+  String getPartitionKey();
 }
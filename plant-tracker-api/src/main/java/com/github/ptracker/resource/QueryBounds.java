@@ -0,0 +1,148 @@
+package com.github.ptracker.resource;
+
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Narrows the matches of a query beyond what its template selects: to a range of an int64 field (e.g. the timestamp
+ * of events), in the order of a field, and to the first few of them.
+ *
+ * Int64 fields are stored as decimal strings, which resources order lexicographically. Ranges take the number of
+ * digits into account (for values that are not negative), but the order of the matches only follows their numerical
+ * order among values with the same number of digits, as e.g. timestamps in milliseconds have had since 2001.
+ */
+public class QueryBounds {
+  public static final QueryBounds NONE = new Builder().build();
+
+  private final String _rangePath;
+  private final Long _lowerBound;
+  private final Long _upperBound;
+  private final String _orderPath;
+  private final boolean _descending;
+  private final int _limit;
+
+  private QueryBounds(String rangePath, Long lowerBound, Long upperBound, String orderPath, boolean descending,
+      int limit) {
+    _rangePath = rangePath;
+    _lowerBound = lowerBound;
+    _upperBound = upperBound;
+    _orderPath = orderPath;
+    _descending = descending;
+    _limit = limit;
+  }
+
+  /**
+   * @return the path of the field that the range is on, or {@code null} if there is no range.
+   */
+  public String getRangePath() {
+    return _rangePath;
+  }
+
+  /**
+   * @return the least value in the range (inclusive), or {@code null} if it is not bounded below.
+   */
+  public Long getLowerBound() {
+    return _lowerBound;
+  }
+
+  /**
+   * @return the value that the range ends before (exclusive), or {@code null} if it is not bounded above.
+   */
+  public Long getUpperBound() {
+    return _upperBound;
+  }
+
+  /**
+   * @return the path of the field that the matches are ordered by, or {@code null} to leave the order to the resource.
+   */
+  public String getOrderPath() {
+    return _orderPath;
+  }
+
+  public boolean isDescending() {
+    return _descending;
+  }
+
+  /**
+   * @return the maximum number of matches, across all pages, or 0 for all of them.
+   */
+  public int getLimit() {
+    return _limit;
+  }
+
+  public boolean hasRange() {
+    return _rangePath != null;
+  }
+
+  public boolean hasOrder() {
+    return _orderPath != null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    QueryBounds that = (QueryBounds) o;
+    return _descending == that._descending && _limit == that._limit && Objects.equals(_rangePath, that._rangePath)
+        && Objects.equals(_lowerBound, that._lowerBound) && Objects.equals(_upperBound, that._upperBound)
+        && Objects.equals(_orderPath, that._orderPath);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(_rangePath, _lowerBound, _upperBound, _orderPath, _descending, _limit);
+  }
+
+  @Override
+  public String toString() {
+    return "QueryBounds{range=" + _rangePath + " [" + _lowerBound + ", " + _upperBound + "), order=" + _orderPath
+        + (_descending ? " DESC" : " ASC") + ", limit=" + _limit + "}";
+  }
+
+  public static class Builder {
+    private String _rangePath = null;
+    private Long _lowerBound = null;
+    private Long _upperBound = null;
+    private String _orderPath = null;
+    private boolean _descending = false;
+    private int _limit = 0;
+
+    /**
+     * @param lowerBound the least value (inclusive), or {@code null} for no lower bound. Cannot be negative.
+     * @param upperBound the value to end before (exclusive), or {@code null} for no upper bound. Cannot be negative.
+     */
+    public Builder range(String path, Long lowerBound, Long upperBound) {
+      checkNotNull(path, "Range path cannot be null");
+      checkArgument(lowerBound == null || lowerBound >= 0, "Lower bound should be >= 0");
+      checkArgument(upperBound == null || upperBound >= 0, "Upper bound should be >= 0");
+      checkArgument(lowerBound == null || upperBound == null || lowerBound <= upperBound,
+          "Lower bound should be <= upper bound");
+      _rangePath = path;
+      _lowerBound = lowerBound;
+      _upperBound = upperBound;
+      return this;
+    }
+
+    public Builder order(String path, boolean descending) {
+      _orderPath = checkNotNull(path, "Order path cannot be null");
+      _descending = descending;
+      return this;
+    }
+
+    public Builder limit(int limit) {
+      checkArgument(limit >= 0, "Limit should be >= 0");
+      _limit = limit;
+      return this;
+    }
+
+    public QueryBounds build() {
+      return new QueryBounds(_rangePath, _lowerBound, _upperBound, _orderPath, _descending, _limit);
+    }
+  }
+}
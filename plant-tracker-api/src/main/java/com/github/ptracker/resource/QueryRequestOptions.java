@@ -1,4 +1,19 @@
 package com.github.ptracker.resource;
 
 public interface QueryRequestOptions extends GetRequestOptions {
+
+  /**
+   * @return the token of the page to resume the query from, or {@code null} to start from the beginning.
+   */
+  String getContinuationToken();
+
+  /**
+   * @return the maximum number of values per page, or 0 to leave it to the resource.
+   */
+  int getPageSize();
+
+  /**
+   * @return the range, order and limit of the matches, on top of what the template selects.
+   */
+  QueryBounds getBounds();
 }
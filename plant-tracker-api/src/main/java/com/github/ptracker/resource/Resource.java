@@ -1,6 +1,7 @@
 package com.github.ptracker.resource;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 
 public interface Resource<KEY_TYPE, VALUE_TYPE> {
@@ -9,9 +10,29 @@ public interface Resource<KEY_TYPE, VALUE_TYPE> {
 
   List<ResourceResponse<VALUE_TYPE>> query(VALUE_TYPE template, QueryRequestOptions options);
 
+  /**
+   * Like {@link #query(Object, QueryRequestOptions)} but the pages of results are only fetched as they are iterated.
+   */
+  Iterable<ResourcePage<VALUE_TYPE>> queryPages(VALUE_TYPE template, QueryRequestOptions options);
+
   ResourceResponse<Void> create(VALUE_TYPE payload, CreateRequestOptions options);
 
   ResourceResponse<Void> update(VALUE_TYPE payload, UpdateRequestOptions options);
 
   ResourceResponse<Void> delete(KEY_TYPE key, DeleteRequestOptions options);
+
+  /**
+   * @return one response per key, in the order of the keys.
+   */
+  default List<ResourceResponse<VALUE_TYPE>> batchGet(List<KEY_TYPE> keys, GetRequestOptions options) {
+    return keys.stream().map(key -> get(key, options)).collect(Collectors.toList());
+  }
+
+  /**
+   * @return the matches of each template, in the order of the templates.
+   */
+  default List<List<ResourceResponse<VALUE_TYPE>>> batchQuery(List<VALUE_TYPE> templates,
+      QueryRequestOptions options) {
+    return templates.stream().map(template -> query(template, options)).collect(Collectors.toList());
+  }
 }
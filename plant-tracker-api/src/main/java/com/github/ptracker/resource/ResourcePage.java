@@ -0,0 +1,14 @@
+package com.github.ptracker.resource;
+
+import java.util.List;
+
+
+public interface ResourcePage<VALUE_TYPE> {
+
+  List<ResourceResponse<VALUE_TYPE>> getResponses();
+
+  /**
+   * @return the token to resume the query from the next page, or {@code null} if this is the last page.
+   */
+  String getContinuationToken();
+}
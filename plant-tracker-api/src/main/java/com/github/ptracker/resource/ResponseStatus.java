@@ -12,6 +12,12 @@ public enum ResponseStatus {
 
   NOT_FOUND(Status.NOT_FOUND),
 
+  // the item still has the etag of the request, so it was not returned again
+  NOT_MODIFIED(Status.OK.withDescription("Not modified")),
+
+  // the item no longer has the etag that the write was conditioned on, or no longer exists
+  PRECONDITION_FAILED(Status.ABORTED),
+
   INTERNAL_ERROR(Status.INTERNAL);
 
   private static Map<Status, ResponseStatus> STATUS_TO_RESPONSE_STATUS = null;
@@ -1,5 +1,11 @@
 package com.github.ptracker.resource;
 
+
+/**
+ * An update whose metadata has an etag only replaces the item if the item still has that etag (and exists), and
+ * responds with {@link ResponseStatus#PRECONDITION_FAILED} otherwise. This is how read-modify-write cycles detect that
+ * another write got in between.
+ */
 public interface UpdateRequestOptions extends ExistingItemRequestOptions {
 
   boolean shouldUpsert();
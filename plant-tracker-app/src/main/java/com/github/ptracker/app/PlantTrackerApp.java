@@ -273,7 +273,7 @@ public class PlantTrackerApp {
 //        return new CustomTypeValue.GraphQLString(Long.toString(aLong));
 //      }
 //    };
-    return ApolloClient.builder().serverUrl(graphQLServerUrl).build();
+    return ApolloClient.builder().serverUrl(graphQLServerUrl).enableAutoPersistedQueries(true).build();
   }
 
   private static PlantTrackerAppInitializationParams getInitParams(String[] args) throws ParseException {
@@ -1,16 +1,14 @@
 package com.github.ptracker.interchange;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.protobuf.Message;
-import com.google.protobuf.util.JsonFormat;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 
 public class ProtoBufJsonInterchange<M extends Message, B extends Message.Builder>
     implements DataInterchange<ObjectNode, M> {
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final ProtoBufJsonTreeCodec CODEC = new ProtoBufJsonTreeCodec();
 
   private final Supplier<B> _builderSupplier;
   private final Function<B, M> _builderToTypeConverter;
@@ -28,8 +26,7 @@ public class ProtoBufJsonInterchange<M extends Message, B extends Message.Builde
   public M convertForward(ObjectNode json) {
     B builder = _builderSupplier.get();
     try {
-      // TODO: explore going directly from JsonNode to M
-      JsonFormat.parser().ignoringUnknownFields().merge(OBJECT_MAPPER.writeValueAsString(json), builder);
+      CODEC.merge(json, builder);
       return _builderToTypeConverter.apply(builder);
     } catch (Exception e) {
       throw new IllegalStateException(e);
@@ -38,9 +35,7 @@ public class ProtoBufJsonInterchange<M extends Message, B extends Message.Builde
 
   public ObjectNode convertBackward(M message) {
     try {
-      // TODO: explore going directly from M to JsonNode
-      return OBJECT_MAPPER.readValue(JsonFormat.printer().omittingInsignificantWhitespace().print(message),
-          ObjectNode.class);
+      return CODEC.print(message);
     } catch (Exception e) {
       throw new IllegalStateException(e);
     }
@@ -0,0 +1,338 @@
+package com.github.ptracker.interchange;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.BaseEncoding;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Converts between protobuf messages and Jackson trees by walking the message descriptors directly. The trees produced
+ * and accepted are the same as what {@link JsonFormat} prints and parses (lowerCamelCase names, 64 bit integers as
+ * strings, default values omitted, unknown fields ignored) but no intermediate JSON text is created.
+ */
+public class ProtoBufJsonTreeCodec {
+  private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+  // well known types have special JSON representations that are left to JsonFormat
+  private static final String WELL_KNOWN_TYPES_PACKAGE = "google.protobuf";
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final BigInteger MAX_UINT64 = new BigInteger("FFFFFFFFFFFFFFFF", 16);
+
+  private final Map<Descriptor, Map<String, FieldDescriptor>> _fieldsByJsonName = new ConcurrentHashMap<>();
+
+  public ObjectNode print(MessageOrBuilder message) {
+    checkNotNull(message, "Message cannot be null");
+    ObjectNode node = NODE_FACTORY.objectNode();
+    for (Map.Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+      FieldDescriptor field = entry.getKey();
+      Object value = entry.getValue();
+      if (field.isMapField()) {
+        List<?> entries = (List<?>) value;
+        if (!entries.isEmpty()) {
+          node.set(field.getJsonName(), printMap(field, entries));
+        }
+      } else if (field.isRepeated()) {
+        List<?> values = (List<?>) value;
+        if (!values.isEmpty()) {
+          ArrayNode array = node.putArray(field.getJsonName());
+          values.forEach(element -> array.add(printValue(field, element)));
+        }
+      } else {
+        node.set(field.getJsonName(), printValue(field, value));
+      }
+    }
+    return node;
+  }
+
+  public void merge(ObjectNode node, Message.Builder builder) {
+    checkNotNull(node, "ObjectNode cannot be null");
+    checkNotNull(builder, "Builder cannot be null");
+    Map<String, FieldDescriptor> fields = getFieldsByJsonName(builder.getDescriptorForType());
+    Iterator<Map.Entry<String, JsonNode>> iterator = node.fields();
+    while (iterator.hasNext()) {
+      Map.Entry<String, JsonNode> entry = iterator.next();
+      FieldDescriptor field = fields.get(entry.getKey());
+      JsonNode value = entry.getValue();
+      // unknown fields (like the ones Cosmos adds) are ignored and nulls stand for default values
+      if (field == null || value.isNull()) {
+        continue;
+      }
+      if (field.isMapField()) {
+        mergeMap(field, value, builder);
+      } else if (field.isRepeated()) {
+        checkArgument(value.isArray(), "Expected an array for %s but got %s", field.getFullName(), value);
+        for (JsonNode element : value) {
+          builder.addRepeatedField(field, parseValue(field, element, builder));
+        }
+      } else {
+        builder.setField(field, parseValue(field, value, builder));
+      }
+    }
+  }
+
+  private ObjectNode printMap(FieldDescriptor field, List<?> entries) {
+    FieldDescriptor keyField = field.getMessageType().findFieldByName("key");
+    FieldDescriptor valueField = field.getMessageType().findFieldByName("value");
+    ObjectNode mapNode = NODE_FACTORY.objectNode();
+    for (Object entry : entries) {
+      Message entryMessage = (Message) entry;
+      JsonNode key = printValue(keyField, entryMessage.getField(keyField));
+      mapNode.set(key.asText(), printValue(valueField, entryMessage.getField(valueField)));
+    }
+    return mapNode;
+  }
+
+  private JsonNode printValue(FieldDescriptor field, Object value) {
+    switch (field.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        return NODE_FACTORY.numberNode((Integer) value);
+      case UINT32:
+      case FIXED32:
+        return printUnsignedInt((Integer) value);
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        return NODE_FACTORY.textNode(value.toString());
+      case UINT64:
+      case FIXED64:
+        return NODE_FACTORY.textNode(Long.toUnsignedString((Long) value));
+      case FLOAT:
+        return printFloatingPoint(Double.parseDouble(value.toString()));
+      case DOUBLE:
+        return printFloatingPoint((Double) value);
+      case BOOL:
+        return NODE_FACTORY.booleanNode((Boolean) value);
+      case STRING:
+        return NODE_FACTORY.textNode((String) value);
+      case BYTES:
+        return NODE_FACTORY.textNode(BaseEncoding.base64().encode(((ByteString) value).toByteArray()));
+      case ENUM:
+        EnumValueDescriptor enumValue = (EnumValueDescriptor) value;
+        // values unknown to this descriptor are printed as numbers, like JsonFormat does
+        return enumValue.getIndex() == -1 ? NODE_FACTORY.numberNode(enumValue.getNumber())
+            : NODE_FACTORY.textNode(enumValue.getName());
+      case MESSAGE:
+      case GROUP:
+        return isWellKnownType(field.getMessageType()) ? printWellKnownType((Message) value) : print((Message) value);
+      default:
+        throw new IllegalArgumentException("Cannot handle field " + field.getFullName() + " of type " + field.getType());
+    }
+  }
+
+  private JsonNode printUnsignedInt(int value) {
+    return value >= 0 ? NODE_FACTORY.numberNode(value) : NODE_FACTORY.numberNode(Integer.toUnsignedLong(value));
+  }
+
+  private JsonNode printFloatingPoint(double value) {
+    if (Double.isNaN(value)) {
+      return NODE_FACTORY.textNode("NaN");
+    } else if (Double.isInfinite(value)) {
+      return NODE_FACTORY.textNode(value > 0 ? "Infinity" : "-Infinity");
+    }
+    return NODE_FACTORY.numberNode(value);
+  }
+
+  private void mergeMap(FieldDescriptor field, JsonNode value, Message.Builder builder) {
+    checkArgument(value.isObject(), "Expected an object for %s but got %s", field.getFullName(), value);
+    FieldDescriptor keyField = field.getMessageType().findFieldByName("key");
+    FieldDescriptor valueField = field.getMessageType().findFieldByName("value");
+    Iterator<Map.Entry<String, JsonNode>> iterator = value.fields();
+    while (iterator.hasNext()) {
+      Map.Entry<String, JsonNode> mapEntry = iterator.next();
+      checkArgument(!mapEntry.getValue().isNull(), "Map value cannot be null for %s", field.getFullName());
+      Message.Builder entryBuilder = builder.newBuilderForField(field);
+      entryBuilder.setField(keyField, parseMapKey(keyField, mapEntry.getKey()));
+      entryBuilder.setField(valueField, parseValue(valueField, mapEntry.getValue(), entryBuilder));
+      builder.addRepeatedField(field, entryBuilder.build());
+    }
+  }
+
+  private Object parseMapKey(FieldDescriptor keyField, String key) {
+    if (keyField.getType() == FieldDescriptor.Type.BOOL) {
+      checkArgument("true".equals(key) || "false".equals(key), "Invalid bool map key %s", key);
+      return Boolean.parseBoolean(key);
+    }
+    return parseValue(keyField, NODE_FACTORY.textNode(key), null);
+  }
+
+  private Object parseValue(FieldDescriptor field, JsonNode value, Message.Builder parentBuilder) {
+    switch (field.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        return (int) parseIntegral(field, value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+      case UINT32:
+      case FIXED32:
+        return (int) parseIntegral(field, value, 0, 0xFFFFFFFFL);
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        return parseIntegral(field, value, Long.MIN_VALUE, Long.MAX_VALUE);
+      case UINT64:
+      case FIXED64:
+        return parseUnsignedLong(field, value);
+      case FLOAT:
+        double doubleValue = parseFloatingPoint(field, value);
+        checkArgument(Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)
+                || Math.abs(doubleValue) <= Float.MAX_VALUE, "Out of range float value %s for %s", value,
+            field.getFullName());
+        return (float) doubleValue;
+      case DOUBLE:
+        return parseFloatingPoint(field, value);
+      case BOOL:
+        if (value.isBoolean()) {
+          return value.booleanValue();
+        }
+        checkArgument(value.isTextual() && ("true".equals(value.textValue()) || "false".equals(value.textValue())),
+            "Expected a bool for %s but got %s", field.getFullName(), value);
+        return Boolean.parseBoolean(value.textValue());
+      case STRING:
+        checkArgument(value.isTextual(), "Expected a string for %s but got %s", field.getFullName(), value);
+        return value.textValue();
+      case BYTES:
+        checkArgument(value.isTextual(), "Expected a base64 string for %s but got %s", field.getFullName(), value);
+        return parseBytes(value.textValue());
+      case ENUM:
+        return parseEnum(field, value);
+      case MESSAGE:
+      case GROUP:
+        Message.Builder subBuilder = parentBuilder.newBuilderForField(field);
+        if (isWellKnownType(field.getMessageType())) {
+          mergeWellKnownType(value, subBuilder);
+        } else {
+          checkArgument(value.isObject(), "Expected an object for %s but got %s", field.getFullName(), value);
+          merge((ObjectNode) value, subBuilder);
+        }
+        return subBuilder.build();
+      default:
+        throw new IllegalArgumentException("Cannot handle field " + field.getFullName() + " of type " + field.getType());
+    }
+  }
+
+  private long parseIntegral(FieldDescriptor field, JsonNode value, long min, long max) {
+    BigDecimal number = toBigDecimal(field, value);
+    try {
+      long longValue = number.longValueExact();
+      checkArgument(longValue >= min && longValue <= max, "Out of range value %s for %s", value, field.getFullName());
+      return longValue;
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Not an integer value " + value + " for " + field.getFullName(), e);
+    }
+  }
+
+  private long parseUnsignedLong(FieldDescriptor field, JsonNode value) {
+    BigDecimal number = toBigDecimal(field, value);
+    try {
+      BigInteger bigInteger = number.toBigIntegerExact();
+      checkArgument(bigInteger.signum() >= 0 && bigInteger.compareTo(MAX_UINT64) <= 0, "Out of range value %s for %s",
+          value, field.getFullName());
+      return bigInteger.longValue();
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Not an integer value " + value + " for " + field.getFullName(), e);
+    }
+  }
+
+  private BigDecimal toBigDecimal(FieldDescriptor field, JsonNode value) {
+    if (value.isNumber()) {
+      return value.decimalValue();
+    }
+    checkArgument(value.isTextual(), "Expected a number for %s but got %s", field.getFullName(), value);
+    try {
+      return new BigDecimal(value.textValue());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number " + value + " for " + field.getFullName(), e);
+    }
+  }
+
+  private double parseFloatingPoint(FieldDescriptor field, JsonNode value) {
+    if (value.isNumber()) {
+      return value.doubleValue();
+    }
+    checkArgument(value.isTextual(), "Expected a number for %s but got %s", field.getFullName(), value);
+    switch (value.textValue()) {
+      case "NaN":
+        return Double.NaN;
+      case "Infinity":
+        return Double.POSITIVE_INFINITY;
+      case "-Infinity":
+        return Double.NEGATIVE_INFINITY;
+      default:
+        return toBigDecimal(field, value).doubleValue();
+    }
+  }
+
+  private ByteString parseBytes(String value) {
+    try {
+      return ByteString.copyFrom(BaseEncoding.base64().decode(value));
+    } catch (IllegalArgumentException e) {
+      return ByteString.copyFrom(BaseEncoding.base64Url().decode(value));
+    }
+  }
+
+  private EnumValueDescriptor parseEnum(FieldDescriptor field, JsonNode value) {
+    EnumDescriptor enumType = field.getEnumType();
+    EnumValueDescriptor enumValue = null;
+    if (value.isTextual()) {
+      enumValue = enumType.findValueByName(value.textValue());
+    } else if (value.isIntegralNumber()) {
+      enumValue = enumType.findValueByNumberCreatingIfUnknown(value.intValue());
+    }
+    checkArgument(enumValue != null, "Invalid enum value %s for %s", value, field.getFullName());
+    return enumValue;
+  }
+
+  private Map<String, FieldDescriptor> getFieldsByJsonName(Descriptor descriptor) {
+    return _fieldsByJsonName.computeIfAbsent(descriptor, ignored -> {
+      Map<String, FieldDescriptor> fields = new HashMap<>();
+      for (FieldDescriptor field : descriptor.getFields()) {
+        // the parser in JsonFormat accepts both the original and the json name
+        fields.put(field.getName(), field);
+        fields.put(field.getJsonName(), field);
+      }
+      return Collections.unmodifiableMap(fields);
+    });
+  }
+
+  private static boolean isWellKnownType(Descriptor descriptor) {
+    return WELL_KNOWN_TYPES_PACKAGE.equals(descriptor.getFile().getPackage());
+  }
+
+  private static JsonNode printWellKnownType(Message message) {
+    try {
+      return OBJECT_MAPPER.readTree(JsonFormat.printer().omittingInsignificantWhitespace().print(message));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void mergeWellKnownType(JsonNode value, Message.Builder builder) {
+    try {
+      JsonFormat.parser().ignoringUnknownFields().merge(OBJECT_MAPPER.writeValueAsString(value), builder);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.github.ptracker.resource;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Groups the creates that arrive close together and writes each group with {@link AsyncResource#batchCreate}. A create
+ * that arrives while nothing is being written is written straight away. Otherwise it joins a group, which is written
+ * once it is full, once the writes in flight are done, or once its first create has waited for the max delay,
+ * whichever comes first. Every caller gets the result of its own create. Creates beyond the max pending ones are
+ * rejected with {@link Status#RESOURCE_EXHAUSTED} instead of being queued.
+ */
+public class BulkWriter<KEY_TYPE, VALUE_TYPE> {
+  private static final ScheduledExecutorService DEFAULT_FLUSH_EXECUTOR = newDefaultFlushExecutor();
+
+  private final AsyncResource<KEY_TYPE, VALUE_TYPE> _resource;
+  private final CreateRequestOptions _options;
+  private final int _maxBatchSize;
+  private final long _maxDelayNanos;
+  private final int _maxPendingCreates;
+  private final Semaphore _pendingCreatePermits;
+  private final ScheduledExecutorService _flushExecutor;
+
+  // guarded by this
+  private List<PendingCreate<VALUE_TYPE>> _batch = new ArrayList<>();
+  private ScheduledFuture<?> _scheduledFlush = null;
+  private int _writesInFlight = 0;
+
+  private BulkWriter(AsyncResource<KEY_TYPE, VALUE_TYPE> resource, CreateRequestOptions options, int maxBatchSize,
+      Duration maxDelay, int maxPendingCreates, ScheduledExecutorService flushExecutor) {
+    _resource = resource;
+    _options = options;
+    _maxBatchSize = maxBatchSize;
+    _maxDelayNanos = maxDelay.toNanos();
+    _maxPendingCreates = maxPendingCreates;
+    _pendingCreatePermits = new Semaphore(maxPendingCreates);
+    _flushExecutor = flushExecutor;
+  }
+
+  public CompletableFuture<ResourceResponse<Void>> create(VALUE_TYPE payload) {
+    checkNotNull(payload, "Create payload cannot be null");
+    CompletableFuture<ResourceResponse<Void>> future = new CompletableFuture<>();
+    if (!_pendingCreatePermits.tryAcquire()) {
+      future.completeExceptionally(Status.RESOURCE_EXHAUSTED.withDescription("Too many pending creates")
+          .asRuntimeException());
+      return future;
+    }
+    future.whenComplete((response, throwable) -> _pendingCreatePermits.release());
+    List<PendingCreate<VALUE_TYPE>> batch = null;
+    synchronized (this) {
+      _batch.add(new PendingCreate<>(payload, future));
+      // there is no write for the create to be grouped behind while nothing is being written
+      if (_batch.size() >= _maxBatchSize || _writesInFlight == 0) {
+        batch = takeBatch();
+      } else if (_batch.size() == 1) {
+        _scheduledFlush = _flushExecutor.schedule(this::flush, _maxDelayNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+    if (batch != null) {
+      write(batch);
+    }
+    return future;
+  }
+
+  /**
+   * @return the number of creates that were accepted and have not completed yet.
+   */
+  public int getPendingCount() {
+    return _maxPendingCreates - _pendingCreatePermits.availablePermits();
+  }
+
+  private void flush() {
+    List<PendingCreate<VALUE_TYPE>> batch;
+    synchronized (this) {
+      batch = takeBatch();
+    }
+    if (!batch.isEmpty()) {
+      write(batch);
+    }
+  }
+
+  /**
+   * @return the creates of the batch, which are counted as in flight from here on unless there are none.
+   */
+  private List<PendingCreate<VALUE_TYPE>> takeBatch() {
+    if (_scheduledFlush != null) {
+      _scheduledFlush.cancel(false);
+      _scheduledFlush = null;
+    }
+    List<PendingCreate<VALUE_TYPE>> batch = _batch;
+    _batch = new ArrayList<>();
+    if (!batch.isEmpty()) {
+      _writesInFlight++;
+    }
+    return batch;
+  }
+
+  /**
+   * Writes the batch that waited for the writes in flight, once the last of them is done.
+   */
+  private void onWriteComplete() {
+    List<PendingCreate<VALUE_TYPE>> batch = null;
+    synchronized (this) {
+      _writesInFlight--;
+      if (_writesInFlight == 0 && !_batch.isEmpty()) {
+        batch = takeBatch();
+      }
+    }
+    if (batch != null) {
+      write(batch);
+    }
+  }
+
+  private void write(List<PendingCreate<VALUE_TYPE>> batch) {
+    List<CompletableFuture<ResourceResponse<Void>>> results;
+    try {
+      results = _resource.batchCreate(batch.stream().map(create -> create._payload).collect(Collectors.toList()),
+          _options);
+    } catch (RuntimeException e) {
+      batch.forEach(create -> create._future.completeExceptionally(e));
+      onWriteComplete();
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      CompletableFuture<ResourceResponse<Void>> future = batch.get(i)._future;
+      results.get(i).whenComplete((response, throwable) -> {
+        if (throwable != null) {
+          future.completeExceptionally(throwable);
+        } else {
+          future.complete(response);
+        }
+      });
+    }
+    CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+        .whenComplete((ignored, throwable) -> onWriteComplete());
+  }
+
+  private static ScheduledExecutorService newDefaultFlushExecutor() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("bulk-writer-flush-%d").setDaemon(true).build());
+    // the flushes of batches that filled up first are cancelled, and should not pile up until they are due
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  private static class PendingCreate<VALUE_TYPE> {
+    private final VALUE_TYPE _payload;
+    private final CompletableFuture<ResourceResponse<Void>> _future;
+
+    PendingCreate(VALUE_TYPE payload, CompletableFuture<ResourceResponse<Void>> future) {
+      _payload = payload;
+      _future = future;
+    }
+  }
+
+  public static class Builder<KEY_TYPE, VALUE_TYPE> {
+    private final AsyncResource<KEY_TYPE, VALUE_TYPE> _resource;
+    private CreateRequestOptions _options = new CreateRequestOptionsImpl();
+    private int _maxBatchSize = 100;
+    private Duration _maxDelay = Duration.ofMillis(5);
+    private int _maxPendingCreates = 5_000;
+    private ScheduledExecutorService _flushExecutor = DEFAULT_FLUSH_EXECUTOR;
+
+    public Builder(AsyncResource<KEY_TYPE, VALUE_TYPE> resource) {
+      _resource = checkNotNull(resource, "Resource cannot be null");
+    }
+
+    public Builder<KEY_TYPE, VALUE_TYPE> options(CreateRequestOptions options) {
+      _options = checkNotNull(options, "Options cannot be null");
+      return this;
+    }
+
+    public Builder<KEY_TYPE, VALUE_TYPE> maxBatchSize(int maxBatchSize) {
+      checkArgument(maxBatchSize > 0, "Max batch size should be > 0");
+      _maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * @param maxDelay how long a create can wait for others to join its batch.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> maxDelay(Duration maxDelay) {
+      checkArgument(maxDelay != null && !maxDelay.isNegative(), "Max delay should be >= 0");
+      _maxDelay = maxDelay;
+      return this;
+    }
+
+    /**
+     * @param maxPendingCreates how many creates can be waiting or in flight before new ones are rejected.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> maxPendingCreates(int maxPendingCreates) {
+      checkArgument(maxPendingCreates > 0, "Max pending creates should be > 0");
+      _maxPendingCreates = maxPendingCreates;
+      return this;
+    }
+
+    /**
+     * @param flushExecutor writes the batches whose first create has waited for the max delay. Defaults to a daemon
+     *                      thread that every writer shares, which only starts the writes.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> flushExecutor(ScheduledExecutorService flushExecutor) {
+      _flushExecutor = checkNotNull(flushExecutor, "Flush executor cannot be null");
+      return this;
+    }
+
+    public BulkWriter<KEY_TYPE, VALUE_TYPE> build() {
+      checkArgument(_maxBatchSize <= _maxPendingCreates, "Max batch size should be <= max pending creates");
+      return new BulkWriter<>(_resource, _options, _maxBatchSize, _maxDelay, _maxPendingCreates, _flushExecutor);
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package com.github.ptracker.resource;
+
+import com.github.ptracker.common.storage.StorageMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Caches the values that are read by key from another resource. A cached value is served as is while it is younger
+ * than the TTL. After that it is revalidated with its etag, so an unchanged value is not transferred again. Writes
+ * through this resource invalidate the value they touch, and keep the gets that are in flight from caching what they
+ * read. Writes that bypass it are seen once the TTL runs out, or straight away by callers that read with the session
+ * token of the write.
+ */
+public class CachingResource<KEY_TYPE, VALUE_TYPE> implements AsyncResource<KEY_TYPE, VALUE_TYPE> {
+  private final AsyncResource<KEY_TYPE, VALUE_TYPE> _resource;
+  private final Function<VALUE_TYPE, KEY_TYPE> _keyExtractor;
+  private final long _ttlNanos;
+  private final Cache<KEY_TYPE, CachedResponse<VALUE_TYPE>> _cache;
+  // counts invalidations, so that gets that started before one do not cache the (possibly) stale values they read
+  private final AtomicLong _invalidations = new AtomicLong();
+
+  private final LongAdder _hitCount = new LongAdder();
+  private final LongAdder _missCount = new LongAdder();
+  private final LongAdder _revalidationCount = new LongAdder();
+  private final LongAdder _notModifiedCount = new LongAdder();
+
+  private CachingResource(AsyncResource<KEY_TYPE, VALUE_TYPE> resource, Function<VALUE_TYPE, KEY_TYPE> keyExtractor,
+      ToIntFunction<VALUE_TYPE> weigher, long maxWeight, Duration ttl) {
+    _resource = resource;
+    _keyExtractor = keyExtractor;
+    _ttlNanos = ttl.toNanos();
+    _cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxWeight)
+        .<KEY_TYPE, CachedResponse<VALUE_TYPE>>weigher(
+            (key, cachedResponse) -> weigher.applyAsInt(cachedResponse._response.getPayload()))
+        .recordStats()
+        .build();
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<VALUE_TYPE>> get(KEY_TYPE key, GetRequestOptions options) {
+    checkNotNull(key, "key cannot be null");
+    if (hasMetadata(options)) {
+      // the caller is revalidating a version of its own, or has to see writes that a cached value may predate
+      return _resource.get(key, options);
+    }
+    long invalidations = _invalidations.get();
+    CachedResponse<VALUE_TYPE> cachedResponse = _cache.getIfPresent(key);
+    if (cachedResponse == null) {
+      _missCount.increment();
+      if (isProjected(options)) {
+        // a whole value can stand in for a projected one but not the other way around, so it is not cached
+        return _resource.get(key, options);
+      }
+      return _resource.get(key, options).thenApply(response -> cache(key, response, invalidations));
+    }
+    if (cachedResponse.isFresh()) {
+      _hitCount.increment();
+      return CompletableFuture.completedFuture(cachedResponse._response);
+    }
+    _revalidationCount.increment();
+    GetRequestOptions revalidationOptions =
+        new GetRequestOptionsImpl.Builder().metadata(cachedResponse._response.getStorageMetadata())
+            .partitionKey(options == null ? null : options.getPartitionKey())
+            .build();
+    return _resource.get(key, revalidationOptions).thenApply(response -> {
+      if (ResponseStatus.NOT_MODIFIED.equals(response.getStatus())) {
+        _notModifiedCount.increment();
+        cachedResponse.validated();
+        return cachedResponse._response;
+      }
+      return cache(key, response, invalidations);
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> batchGet(List<KEY_TYPE> keys,
+      GetRequestOptions options) {
+    checkNotNull(keys, "keys cannot be null");
+    if (hasMetadata(options)) {
+      return _resource.batchGet(keys, options);
+    }
+    List<ResourceResponse<VALUE_TYPE>> responses = new ArrayList<>(Collections.nCopies(keys.size(), null));
+    List<KEY_TYPE> missingKeys = new ArrayList<>();
+    List<Integer> missingIndexes = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i++) {
+      CachedResponse<VALUE_TYPE> cachedResponse = _cache.getIfPresent(keys.get(i));
+      if (cachedResponse != null && cachedResponse.isFresh()) {
+        _hitCount.increment();
+        responses.set(i, cachedResponse._response);
+      } else {
+        // stale values are fetched with the rest rather than revalidated one by one
+        _missCount.increment();
+        missingKeys.add(keys.get(i));
+        missingIndexes.add(i);
+      }
+    }
+    if (missingKeys.isEmpty()) {
+      return CompletableFuture.completedFuture(responses);
+    }
+    boolean projected = isProjected(options);
+    long invalidations = _invalidations.get();
+    return _resource.batchGet(missingKeys, options).thenApply(fetchedResponses -> {
+      for (int i = 0; i < missingKeys.size(); i++) {
+        ResourceResponse<VALUE_TYPE> fetchedResponse = fetchedResponses.get(i);
+        responses.set(missingIndexes.get(i),
+            projected ? fetchedResponse : cache(missingKeys.get(i), fetchedResponse, invalidations));
+      }
+      return responses;
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> query(VALUE_TYPE template,
+      QueryRequestOptions options) {
+    return _resource.query(template, options);
+  }
+
+  @Override
+  public CompletableFuture<ResourcePage<VALUE_TYPE>> queryPage(VALUE_TYPE template, QueryRequestOptions options) {
+    return _resource.queryPage(template, options);
+  }
+
+  @Override
+  public CompletableFuture<List<List<ResourceResponse<VALUE_TYPE>>>> batchQuery(List<VALUE_TYPE> templates,
+      QueryRequestOptions options) {
+    return _resource.batchQuery(templates, options);
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> create(VALUE_TYPE payload, CreateRequestOptions options) {
+    KEY_TYPE key = _keyExtractor.apply(checkNotNull(payload, "Create payload cannot be null"));
+    return _resource.create(payload, options).whenComplete((response, throwable) -> invalidate(key));
+  }
+
+  @Override
+  public List<CompletableFuture<ResourceResponse<Void>>> batchCreate(List<VALUE_TYPE> payloads,
+      CreateRequestOptions options) {
+    checkNotNull(payloads, "Create payloads cannot be null");
+    List<CompletableFuture<ResourceResponse<Void>>> futures = _resource.batchCreate(payloads, options);
+    List<CompletableFuture<ResourceResponse<Void>>> invalidatingFutures = new ArrayList<>(futures.size());
+    for (int i = 0; i < payloads.size(); i++) {
+      KEY_TYPE key = _keyExtractor.apply(payloads.get(i));
+      invalidatingFutures.add(futures.get(i).whenComplete((response, throwable) -> invalidate(key)));
+    }
+    return invalidatingFutures;
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> update(VALUE_TYPE payload, UpdateRequestOptions options) {
+    KEY_TYPE key = _keyExtractor.apply(checkNotNull(payload, "Update payload cannot be null"));
+    return _resource.update(payload, options).whenComplete((response, throwable) -> invalidate(key));
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> delete(KEY_TYPE key, DeleteRequestOptions options) {
+    checkNotNull(key, "key cannot be null");
+    return _resource.delete(key, options).whenComplete((response, throwable) -> invalidate(key));
+  }
+
+  /**
+   * @return the number of gets served from the cache without going to the underlying resource.
+   */
+  public long getHitCount() {
+    return _hitCount.sum();
+  }
+
+  /**
+   * @return the number of gets of values that were not cached (or were stale, in a batch).
+   */
+  public long getMissCount() {
+    return _missCount.sum();
+  }
+
+  /**
+   * @return the number of gets of stale values that were revalidated with their etag.
+   */
+  public long getRevalidationCount() {
+    return _revalidationCount.sum();
+  }
+
+  /**
+   * @return the number of revalidations that found the value unchanged.
+   */
+  public long getNotModifiedCount() {
+    return _notModifiedCount.sum();
+  }
+
+  public long getEvictionCount() {
+    return _cache.stats().evictionCount();
+  }
+
+  private static boolean hasMetadata(GetRequestOptions options) {
+    StorageMetadata metadata = options == null ? null : options.getMetadata();
+    return metadata != null && (!metadata.getEtag().isEmpty() || !metadata.getSessionToken().isEmpty());
+  }
+
+  private static boolean isProjected(GetRequestOptions options) {
+    return options != null && !options.getFieldMask().isEmpty();
+  }
+
+  private void invalidate(KEY_TYPE key) {
+    _invalidations.incrementAndGet();
+    _cache.invalidate(key);
+  }
+
+  /**
+   * @param invalidations the number of invalidations when the get of {@code response} started.
+   */
+  private ResourceResponse<VALUE_TYPE> cache(KEY_TYPE key, ResourceResponse<VALUE_TYPE> response,
+      long invalidations) {
+    if (ResponseStatus.OK.equals(response.getStatus()) && response.getPayload() != null) {
+      if (_invalidations.get() == invalidations) {
+        _cache.put(key, new CachedResponse<>(response, _ttlNanos));
+        // an invalidation between the check and the put may have missed the value
+        if (_invalidations.get() != invalidations) {
+          _cache.invalidate(key);
+        }
+      }
+    } else if (ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+      _cache.invalidate(key);
+    }
+    return response;
+  }
+
+  private static class CachedResponse<VALUE_TYPE> {
+    private final ResourceResponse<VALUE_TYPE> _response;
+    private final long _ttlNanos;
+    private volatile long _validatedAtNanos = System.nanoTime();
+
+    CachedResponse(ResourceResponse<VALUE_TYPE> response, long ttlNanos) {
+      _response = response;
+      _ttlNanos = ttlNanos;
+    }
+
+    boolean isFresh() {
+      return System.nanoTime() - _validatedAtNanos < _ttlNanos;
+    }
+
+    void validated() {
+      _validatedAtNanos = System.nanoTime();
+    }
+  }
+
+  public static class Builder<KEY_TYPE, VALUE_TYPE> {
+    private final AsyncResource<KEY_TYPE, VALUE_TYPE> _resource;
+    private final Function<VALUE_TYPE, KEY_TYPE> _keyExtractor;
+    private ToIntFunction<VALUE_TYPE> _weigher = value -> 1;
+    private long _maxWeight = 10_000;
+    private Duration _ttl = Duration.ofMinutes(1);
+
+    public Builder(AsyncResource<KEY_TYPE, VALUE_TYPE> resource, Function<VALUE_TYPE, KEY_TYPE> keyExtractor) {
+      _resource = checkNotNull(resource, "Resource cannot be null");
+      _keyExtractor = checkNotNull(keyExtractor, "Key extractor cannot be null");
+    }
+
+    /**
+     * @param weigher the weight of a value (e.g. its size in bytes), which the values in the cache cannot exceed in
+     *                total.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> weigher(ToIntFunction<VALUE_TYPE> weigher, long maxWeight) {
+      checkArgument(maxWeight > 0, "Max weight should be > 0");
+      _weigher = checkNotNull(weigher, "Weigher cannot be null");
+      _maxWeight = maxWeight;
+      return this;
+    }
+
+    /**
+     * @param ttl how long a value is served without revalidating it.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> ttl(Duration ttl) {
+      checkArgument(ttl != null && !ttl.isNegative(), "TTL should be >= 0");
+      _ttl = ttl;
+      return this;
+    }
+
+    public CachingResource<KEY_TYPE, VALUE_TYPE> build() {
+      return new CachingResource<>(_resource, _keyExtractor, _weigher, _maxWeight, _ttl);
+    }
+  }
+}
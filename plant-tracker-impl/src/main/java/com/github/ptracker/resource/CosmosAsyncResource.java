@@ -0,0 +1,422 @@
+package com.github.ptracker.resource;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.PartitionKey;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.common.storage.StorageMetadata;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.storage.cosmos.CosmosDBAsyncContainerPointOperations;
+import com.github.ptracker.storage.cosmos.CosmosDBAsyncContainerQuery;
+import com.github.ptracker.storage.cosmos.CosmosDBAsyncPointOperations;
+import com.github.ptracker.storage.cosmos.CosmosDBAsyncQuery;
+import com.github.ptracker.storage.cosmos.CosmosDBMetadataHandler;
+import com.github.ptracker.storage.cosmos.CosmosDBRequestObserver;
+import com.github.ptracker.storage.query.QueryPlanner;
+import com.google.common.collect.Iterables;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * A resource backed by a Cosmos DB container, built on the reactive {@link CosmosAsyncContainer} so that no thread
+ * waits on the storage. Failures that the caller can act on are turned into the gRPC statuses that the other resources
+ * fail with (see {@link #toStatus(int)}), and the others are left as they are for the resources that retry them.
+ */
+public class CosmosAsyncResource<KEY_TYPE, VALUE_TYPE> implements AsyncResource<KEY_TYPE, VALUE_TYPE> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CosmosAsyncResource.class);
+
+  private static final CosmosQueryRequestOptions DEFAULT_QUERY_REQUEST_OPTIONS = new CosmosQueryRequestOptions();
+  private static final CosmosQueryRequestOptions QUERY_METRICS_REQUEST_OPTIONS =
+      new CosmosQueryRequestOptions().setQueryMetricsEnabled(true);
+
+  private static final int NOT_MODIFIED_STATUS_CODE = 304;
+  private static final int CREATE_SUCCESS_STATUS_CODE = 201;
+  private static final int UPSERT_SUCCESS_STATUS_CODE = 200;
+  private static final int REPLACE_SUCCESS_STATUS_CODE = 200;
+  private static final int DELETE_SUCCESS_STATUS_CODE = 204;
+  private static final int DELETE_NOT_FOUND_STATUS_CODE = 404;
+  private static final int BAD_REQUEST_STATUS_CODE = 400;
+  private static final int NOT_FOUND_STATUS_CODE = 404;
+  private static final int CONFLICT_STATUS_CODE = 409;
+  private static final int PRECONDITION_FAILED_STATUS_CODE = 412;
+  private static final int MAX_CONCURRENT_BATCH_CREATES = 32;
+
+  private final DataInterchange<ObjectNode, VALUE_TYPE> _dataInterchange;
+  private final Function<KEY_TYPE, VALUE_TYPE> _valueWithIdOnlyCreator;
+  private final Function<VALUE_TYPE, String> _partitionKeyExtractor;
+  private final Consumer<VALUE_TYPE> _valueVerifier;
+  private final CosmosDBAsyncQuery _cosmosDBQuery;
+  private final CosmosDBAsyncPointOperations _pointOperations;
+  private final CosmosDBRequestObserver _requestObserver;
+
+  private final CosmosDBMetadataHandler _metadataHandler = new CosmosDBMetadataHandler();
+  private final ResourceResponse<VALUE_TYPE> _noMatch =
+      new ResourceResponseImpl.Builder<VALUE_TYPE>().status(ResponseStatus.NOT_FOUND).build();
+  private final ResourceResponse<VALUE_TYPE> _notModified =
+      new ResourceResponseImpl.Builder<VALUE_TYPE>().status(ResponseStatus.NOT_MODIFIED).build();
+  private final ResourceResponse<Void> _preconditionFailed =
+      new ResourceResponseImpl.Builder<Void>().status(ResponseStatus.PRECONDITION_FAILED).build();
+
+  public CosmosAsyncResource(CosmosAsyncContainer container, DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange,
+      Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator, Function<VALUE_TYPE, String> partitionKeyExtractor,
+      Consumer<VALUE_TYPE> valueVerifier) {
+    this(container, dataInterchange, valueWithIdOnlyCreator, partitionKeyExtractor, valueVerifier,
+        Collections.emptyList());
+  }
+
+  /**
+   * @param indexedPaths the paths of the fields that templates filter on, most selective first.
+   */
+  public CosmosAsyncResource(CosmosAsyncContainer container, DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange,
+      Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator, Function<VALUE_TYPE, String> partitionKeyExtractor,
+      Consumer<VALUE_TYPE> valueVerifier, List<String> indexedPaths) {
+    this(container, dataInterchange, valueWithIdOnlyCreator, partitionKeyExtractor, valueVerifier, indexedPaths,
+        CosmosDBRequestObserver.NO_OP);
+  }
+
+  /**
+   * @param indexedPaths the paths of the fields that templates filter on, most selective first.
+   * @param requestObserver told about every request sent to the container.
+   */
+  public CosmosAsyncResource(CosmosAsyncContainer container, DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange,
+      Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator, Function<VALUE_TYPE, String> partitionKeyExtractor,
+      Consumer<VALUE_TYPE> valueVerifier, List<String> indexedPaths, CosmosDBRequestObserver requestObserver) {
+    this(new CosmosDBAsyncContainerQuery(container, new QueryPlanner(indexedPaths), requestObserver),
+        new CosmosDBAsyncContainerPointOperations(container, requestObserver), dataInterchange,
+        valueWithIdOnlyCreator, partitionKeyExtractor, valueVerifier, requestObserver);
+  }
+
+  public CosmosAsyncResource(CosmosDBAsyncQuery cosmosDBQuery, CosmosDBAsyncPointOperations pointOperations,
+      DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange, Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator,
+      Function<VALUE_TYPE, String> partitionKeyExtractor, Consumer<VALUE_TYPE> valueVerifier) {
+    this(cosmosDBQuery, pointOperations, dataInterchange, valueWithIdOnlyCreator, partitionKeyExtractor,
+        valueVerifier, CosmosDBRequestObserver.NO_OP);
+  }
+
+  /**
+   * @param requestObserver asked which queries collect metrics. It should be the one that {@code cosmosDBQuery} and
+   *                        {@code pointOperations} tell about their requests.
+   */
+  public CosmosAsyncResource(CosmosDBAsyncQuery cosmosDBQuery, CosmosDBAsyncPointOperations pointOperations,
+      DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange, Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator,
+      Function<VALUE_TYPE, String> partitionKeyExtractor, Consumer<VALUE_TYPE> valueVerifier,
+      CosmosDBRequestObserver requestObserver) {
+    _cosmosDBQuery = checkNotNull(cosmosDBQuery, "CosmosDBAsyncQuery cannot be null");
+    _pointOperations = checkNotNull(pointOperations, "CosmosDBAsyncPointOperations cannot be null");
+    _dataInterchange = checkNotNull(dataInterchange, "DataInterchange cannot be null");
+    _valueWithIdOnlyCreator = checkNotNull(valueWithIdOnlyCreator, "valueWithIdOnlyCreator cannot be null");
+    _partitionKeyExtractor = checkNotNull(partitionKeyExtractor, "partitionKeyExtractor cannot be null");
+    _valueVerifier = checkNotNull(valueVerifier, "valueVerifier cannot be null");
+    _requestObserver = checkNotNull(requestObserver, "CosmosDBRequestObserver cannot be null");
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<VALUE_TYPE>> get(KEY_TYPE key, GetRequestOptions options) {
+    checkNotNull(key, "key cannot be null");
+    LOGGER.debug("Getting {}", key);
+    PartitionKey partitionKey = getPartitionKey(key, options == null ? null : options.getPartitionKey());
+    if (partitionKey == null) {
+      // the partition is neither known to the caller nor derivable from the key, so fall back to a (cross partition)
+      // query
+      return query(_valueWithIdOnlyCreator.apply(key),
+          new QueryRequestOptionsImpl.Builder().getRequestOptions(options).build()).thenApply(
+              results -> results.isEmpty() ? _noMatch : Iterables.getOnlyElement(results));
+    }
+    String etag = options == null || options.getMetadata() == null ? "" : options.getMetadata().getEtag();
+    String sessionToken = getSessionToken(options);
+    if (!etag.isEmpty()) {
+      // the caller already has a version of the item, so only return the item if it changed since
+      return withStatus(_pointOperations.readIfNoneMatch(String.valueOf(key), partitionKey, etag, sessionToken))
+          .thenApply(readResponse -> {
+            if (readResponse == null) {
+              return _noMatch;
+            }
+            return readResponse.getStatusCode() == NOT_MODIFIED_STATUS_CODE ? _notModified
+                : toResourceResponse(readResponse.getItem());
+          });
+    }
+    return withStatus(_pointOperations.read(String.valueOf(key), partitionKey, sessionToken))
+        .thenApply(item -> item == null ? _noMatch : toResourceResponse(item));
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> query(VALUE_TYPE template,
+      QueryRequestOptions options) {
+    checkArgument(template != null, "template cannot be null");
+    LOGGER.debug("Getting values that match the template {}", template);
+    ObjectNode node = _dataInterchange.convertBackward(template);
+    List<String> fieldMask = getFieldMask(options);
+    return withStatus(_cosmosDBQuery.getResults(node, fieldMask, getBounds(options), getQueryRequestOptions(options)))
+        .thenApply(items -> items.stream()
+            .map(item -> toResourceResponse(item, fieldMask))
+            .collect(Collectors.toList()));
+  }
+
+  @Override
+  public CompletableFuture<ResourcePage<VALUE_TYPE>> queryPage(VALUE_TYPE template, QueryRequestOptions options) {
+    checkArgument(template != null, "template cannot be null");
+    checkNotNull(options, "options cannot be null");
+    LOGGER.debug("Getting a page of values that match the template {}", template);
+    ObjectNode node = _dataInterchange.convertBackward(template);
+    List<String> fieldMask = getFieldMask(options);
+    return withStatus(_cosmosDBQuery.getResultPage(node, fieldMask, options.getBounds(),
+        getQueryRequestOptions(options), options.getContinuationToken(), options.getPageSize()))
+        .thenApply(page -> toResourcePage(page, fieldMask));
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> batchGet(List<KEY_TYPE> keys,
+      GetRequestOptions options) {
+    checkNotNull(keys, "keys cannot be null");
+    LOGGER.debug("Getting {}", keys);
+    List<VALUE_TYPE> templates = keys.stream().map(_valueWithIdOnlyCreator).collect(Collectors.toList());
+    return batchQuery(templates, new QueryRequestOptionsImpl.Builder().getRequestOptions(options).build()).thenApply(
+        batchResults -> batchResults.stream()
+            .map(results -> results.isEmpty() ? _noMatch : Iterables.getOnlyElement(results))
+            .collect(Collectors.toList()));
+  }
+
+  @Override
+  public CompletableFuture<List<List<ResourceResponse<VALUE_TYPE>>>> batchQuery(List<VALUE_TYPE> templates,
+      QueryRequestOptions options) {
+    checkNotNull(templates, "templates cannot be null");
+    QueryBounds bounds = getBounds(options);
+    if (bounds.getLimit() > 0) {
+      // a limit applies to each template on its own, which one query for all of them cannot do
+      return AsyncResource.super.batchQuery(templates, options);
+    }
+    LOGGER.debug("Getting values that match the templates {}", templates);
+    List<ObjectNode> nodes = templates.stream().map(_dataInterchange::convertBackward).collect(Collectors.toList());
+    List<String> fieldMask = getFieldMask(options);
+    return withStatus(_cosmosDBQuery.getBatchResults(nodes, fieldMask, bounds, getQueryRequestOptions(options)))
+        .thenApply(batchResults -> batchResults.stream()
+            .map(items -> items.stream()
+                .map(item -> toResourceResponse(item, fieldMask))
+                .collect(Collectors.toList()))
+            .collect(Collectors.toList()));
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> create(VALUE_TYPE payload, CreateRequestOptions options) {
+    checkNotNull(payload, "Create payload cannot be null");
+    _valueVerifier.accept(payload);
+    LOGGER.debug("Creating {}", payload);
+    ObjectNode item = _dataInterchange.convertBackward(payload);
+    return withStatus(_pointOperations.create(item))
+        .thenApply(createResponse -> toWriteResponse(createResponse, CREATE_SUCCESS_STATUS_CODE));
+  }
+
+  @Override
+  public List<CompletableFuture<ResourceResponse<Void>>> batchCreate(List<VALUE_TYPE> payloads,
+      CreateRequestOptions options) {
+    checkNotNull(payloads, "Create payloads cannot be null");
+    LOGGER.debug("Creating {} items", payloads.size());
+    List<CompletableFuture<ResourceResponse<Void>>> futures = new ArrayList<>(payloads.size());
+    payloads.forEach(ignored -> futures.add(new CompletableFuture<>()));
+    // this version of the SDK has no bulk API, so the creates share one subscription that bounds the ones in flight
+    Flux.range(0, payloads.size())
+        .flatMap(index -> createItem(payloads.get(index))
+            .doOnNext(response -> futures.get(index).complete(response))
+            .onErrorResume(throwable -> {
+              futures.get(index).completeExceptionally(toStatusException(throwable));
+              return Mono.empty();
+            }), MAX_CONCURRENT_BATCH_CREATES)
+        .subscribe();
+    return futures;
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> update(VALUE_TYPE payload, UpdateRequestOptions options) {
+    String etag = _metadataHandler.getEtag(options.getMetadata());
+    if (etag == null && !options.shouldUpsert()) {
+      // only an upsert, or a replace of the version that the caller read, can be done without reading first
+      CompletableFuture<ResourceResponse<Void>> future = new CompletableFuture<>();
+      future.completeExceptionally(
+          Status.UNIMPLEMENTED.withDescription("Updates need an etag or an upsert").asRuntimeException());
+      return future;
+    }
+    checkNotNull(payload, "Update payload cannot be null");
+    _valueVerifier.accept(payload);
+    LOGGER.debug("Updating {}", payload);
+    ObjectNode item = _dataInterchange.convertBackward(payload);
+    if (etag != null) {
+      PartitionKey partitionKey = getPartitionKey(payload);
+      checkArgument(partitionKey != null, "Could not determine the partition of %s", payload);
+      return withStatus(
+          _pointOperations.replaceIfMatch(item.get(QueryPlanner.ID_PATH).textValue(), partitionKey, item, etag))
+          .thenApply(replaceResponse -> replaceResponse == null ? _preconditionFailed
+              : toWriteResponse(replaceResponse, REPLACE_SUCCESS_STATUS_CODE));
+    }
+    return withStatus(_pointOperations.upsert(item))
+        .thenApply(updateResponse -> toWriteResponse(updateResponse, UPSERT_SUCCESS_STATUS_CODE));
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> delete(KEY_TYPE key, DeleteRequestOptions options) {
+    checkNotNull(key, "key cannot be null");
+    LOGGER.debug("Deleting {}", key);
+    PartitionKey partitionKey = getPartitionKey(key, options == null ? null : options.getPartitionKey());
+    if (partitionKey != null) {
+      return delete(key, partitionKey);
+    }
+    // the partition is neither known to the caller nor derivable from the key, so look the item up to find it
+    return get(key, new GetRequestOptionsImpl.Builder().build()).thenCompose(getResponse -> {
+      if (!ResponseStatus.OK.equals(getResponse.getStatus())) {
+        return CompletableFuture.completedFuture(
+            new ResourceResponseImpl.Builder<Void>().status(getResponse.getStatus()).build());
+      }
+      PartitionKey itemPartitionKey = getPartitionKey(getResponse.getPayload());
+      checkState(itemPartitionKey != null, "Could not determine the partition of %s", key);
+      return delete(key, itemPartitionKey);
+    });
+  }
+
+  private Mono<ResourceResponse<Void>> createItem(VALUE_TYPE payload) {
+    return Mono.fromCallable(() -> {
+      checkNotNull(payload, "Create payload cannot be null");
+      _valueVerifier.accept(payload);
+      return _dataInterchange.convertBackward(payload);
+    })
+        .flatMap(item -> Mono.fromFuture(_pointOperations.create(item)))
+        .map(createResponse -> toWriteResponse(createResponse, CREATE_SUCCESS_STATUS_CODE));
+  }
+
+  private CosmosQueryRequestOptions getQueryRequestOptions(QueryRequestOptions options) {
+    boolean collectQueryMetrics = _requestObserver.shouldCollectQueryMetrics();
+    String sessionToken = getSessionToken(options);
+    if (sessionToken == null) {
+      return collectQueryMetrics ? QUERY_METRICS_REQUEST_OPTIONS : DEFAULT_QUERY_REQUEST_OPTIONS;
+    }
+    return new CosmosQueryRequestOptions().setQueryMetricsEnabled(collectQueryMetrics).setSessionToken(sessionToken);
+  }
+
+  private String getSessionToken(GetRequestOptions options) {
+    return options == null ? null : _metadataHandler.getSessionToken(options.getMetadata());
+  }
+
+  private CompletableFuture<ResourceResponse<Void>> delete(KEY_TYPE key, PartitionKey partitionKey) {
+    return withStatus(_pointOperations.delete(String.valueOf(key), partitionKey)).thenApply(statusCode -> {
+      ResponseStatus responseStatus = ResponseStatus.INTERNAL_ERROR;
+      if (statusCode == DELETE_SUCCESS_STATUS_CODE) {
+        responseStatus = ResponseStatus.OK;
+      } else if (statusCode == DELETE_NOT_FOUND_STATUS_CODE) {
+        responseStatus = ResponseStatus.NOT_FOUND;
+      }
+      return new ResourceResponseImpl.Builder<Void>().status(responseStatus).build();
+    });
+  }
+
+  private ResourceResponse<Void> toWriteResponse(CosmosItemResponse<ObjectNode> writeResponse, int successStatusCode) {
+    ResponseStatus responseStatus =
+        writeResponse.getStatusCode() == successStatusCode ? ResponseStatus.OK : ResponseStatus.INTERNAL_ERROR;
+    StorageMetadata metadata =
+        ResponseStatus.OK.equals(responseStatus) ? _metadataHandler.getStorageMetadata(writeResponse) : null;
+    return new ResourceResponseImpl.Builder<Void>().status(responseStatus).metadata(metadata).build();
+  }
+
+  private ResourceResponse<VALUE_TYPE> toResourceResponse(ObjectNode item) {
+    return toResourceResponse(item, Collections.emptyList());
+  }
+
+  private ResourceResponse<VALUE_TYPE> toResourceResponse(ObjectNode item, List<String> fieldMask) {
+    VALUE_TYPE value = _dataInterchange.convertForward(item);
+    if (fieldMask.isEmpty()) {
+      // projected values lack the fields that were masked out, so only whole values can be verified
+      _valueVerifier.accept(value);
+    }
+    return new ResourceResponseImpl.Builder<VALUE_TYPE>().payload(value)
+        .metadata(_metadataHandler.getStorageMetadata(item))
+        .build();
+  }
+
+  private ResourcePage<VALUE_TYPE> toResourcePage(FeedResponse<ObjectNode> page, List<String> fieldMask) {
+    ResourcePageImpl.Builder<VALUE_TYPE> builder = new ResourcePageImpl.Builder<>();
+    if (page == null) {
+      // there are no more pages past the last one
+      return builder.build();
+    }
+    return builder.responses(page.getResults()
+        .stream()
+        .map(item -> toResourceResponse(item, fieldMask))
+        .collect(Collectors.toList()))
+        .continuationToken(page.getContinuationToken())
+        .build();
+  }
+
+  /**
+   * @return the gRPC status of a failure of the storage that the caller can act on, or {@code null} for the others,
+   * like throttling, which are retried as they are.
+   */
+  static Status toStatus(int statusCode) {
+    switch (statusCode) {
+      case BAD_REQUEST_STATUS_CODE:
+        return Status.INVALID_ARGUMENT;
+      case NOT_FOUND_STATUS_CODE:
+        return Status.NOT_FOUND;
+      case CONFLICT_STATUS_CODE:
+        return Status.ALREADY_EXISTS;
+      case PRECONDITION_FAILED_STATUS_CODE:
+        return Status.ABORTED;
+      default:
+        return null;
+    }
+  }
+
+  private static <T> CompletableFuture<T> withStatus(CompletableFuture<T> future) {
+    return future.exceptionally(throwable -> {
+      Throwable exception = toStatusException(throwable);
+      throw exception instanceof CompletionException ? (CompletionException) exception
+          : new CompletionException(exception);
+    });
+  }
+
+  private static Throwable toStatusException(Throwable throwable) {
+    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause()
+        : throwable;
+    if (!(cause instanceof CosmosException)) {
+      return throwable;
+    }
+    int statusCode = ((CosmosException) cause).getStatusCode();
+    Status status = toStatus(statusCode);
+    return status == null ? throwable
+        : status.withDescription("Storage failed the request with " + statusCode).withCause(cause).asRuntimeException();
+  }
+
+  private static List<String> getFieldMask(GetRequestOptions options) {
+    return options == null ? Collections.emptyList() : options.getFieldMask();
+  }
+
+  private static QueryBounds getBounds(QueryRequestOptions options) {
+    return options == null ? QueryBounds.NONE : options.getBounds();
+  }
+
+  /**
+   * @param knownPartitionKey the partition key that the caller passed, or {@code null} if it did not pass one.
+   */
+  private PartitionKey getPartitionKey(KEY_TYPE key, String knownPartitionKey) {
+    return knownPartitionKey == null ? getPartitionKey(_valueWithIdOnlyCreator.apply(key))
+        : new PartitionKey(knownPartitionKey);
+  }
+
+  private PartitionKey getPartitionKey(VALUE_TYPE value) {
+    String partitionKeyValue = _partitionKeyExtractor.apply(value);
+    return partitionKeyValue == null || partitionKeyValue.isEmpty() ? null : new PartitionKey(partitionKeyValue);
+  }
+}
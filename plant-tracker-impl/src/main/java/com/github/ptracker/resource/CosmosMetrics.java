@@ -0,0 +1,371 @@
+package com.github.ptracker.resource;
+
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.github.ptracker.storage.cosmos.CosmosDBRequestObserver;
+import com.github.ptracker.util.Histogram;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * The request units, server times, latencies and failures of the requests sent to Cosmos DB, by container and
+ * operation, and the request units that each query shape costs. A sample of the queries also collect query metrics,
+ * which show how many documents a shape reads for every document it returns. Operations that take longer than a
+ * threshold are logged along with their diagnostics.
+ */
+public class CosmosMetrics {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CosmosMetrics.class);
+
+  private static final String REQUEST_CHARGE_HEADER = "x-ms-request-charge";
+  private static final String SERVER_DURATION_HEADER = "x-ms-request-duration-ms";
+  private static final String QUERY_METRICS_HEADER = "x-ms-documentdb-query-metrics";
+  private static final String RETRIEVED_DOCUMENT_COUNT_METRIC = "retrievedDocumentCount";
+  private static final String OUTPUT_DOCUMENT_COUNT_METRIC = "outputDocumentCount";
+  private static final String TOTAL_EXECUTION_TIME_METRIC = "totalExecutionTimeInMs";
+  private static final String QUERY_METRICS_SEPARATOR = ";";
+  private static final String QUERY_METRIC_VALUE_SEPARATOR = "=";
+  private static final String OTHER_QUERY_SHAPES = "<other>";
+
+  private static final int NOT_FOUND_STATUS_CODE = 404;
+  private static final int THROTTLED_STATUS_CODE = 429;
+  // histograms hold longs, so request charges are recorded in hundredths of a request unit
+  private static final double REQUEST_CHARGE_SCALE = 100;
+  private static final double MICROS_PER_MILLI = TimeUnit.MILLISECONDS.toMicros(1);
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final double _queryMetricsSampleRate;
+  private final long _slowOperationThresholdNanos;
+  private final int _maxQueryShapes;
+  private final Map<String, Map<String, OperationMetrics>> _operationMetrics = new ConcurrentHashMap<>();
+  private final Map<String, QueryShapeMetrics> _queryShapeMetrics = new ConcurrentHashMap<>();
+
+  private CosmosMetrics(double queryMetricsSampleRate, Duration slowOperationThreshold, int maxQueryShapes) {
+    _queryMetricsSampleRate = queryMetricsSampleRate;
+    _slowOperationThresholdNanos = slowOperationThreshold.toNanos();
+    _maxQueryShapes = maxQueryShapes;
+  }
+
+  /**
+   * @return an observer that records the requests sent to the container {@code containerId}.
+   */
+  public CosmosDBRequestObserver getRequestObserver(String containerId) {
+    checkNotNull(containerId, "Container ID cannot be null");
+    return new ContainerRequestObserver(containerId);
+  }
+
+  /**
+   * @return a summary of the operations by {@code container.operation} and of the query shapes, most expensive first.
+   * Latencies and server times are in milliseconds.
+   */
+  public Map<String, Object> getSnapshot() {
+    Map<String, Object> operations = new TreeMap<>();
+    _operationMetrics.forEach((containerId, metricsByOperation) -> metricsByOperation.forEach(
+        (operation, metrics) -> operations.put(containerId + "." + operation, metrics.summarize())));
+    List<QueryShapeMetrics> queryShapeMetrics = new ArrayList<>(_queryShapeMetrics.values());
+    queryShapeMetrics.sort(Comparator.comparingDouble((QueryShapeMetrics metrics) -> metrics._requestCharge.sum())
+        .reversed());
+    List<Object> queryShapes = new ArrayList<>(queryShapeMetrics.size());
+    queryShapeMetrics.forEach(metrics -> queryShapes.add(metrics.summarize()));
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("operations", operations);
+    snapshot.put("queryShapes", queryShapes);
+    return snapshot;
+  }
+
+  private OperationMetrics getOperationMetrics(String containerId, String operation) {
+    return _operationMetrics.computeIfAbsent(containerId, id -> new ConcurrentHashMap<>())
+        .computeIfAbsent(operation, name -> new OperationMetrics());
+  }
+
+  private QueryShapeMetrics getQueryShapeMetrics(String queryText) {
+    QueryShapeMetrics metrics = _queryShapeMetrics.get(queryText);
+    if (metrics != null) {
+      return metrics;
+    }
+    // shapes are only as many as the templates that are used, but a bound keeps an unexpected source of them in check
+    String shape = _queryShapeMetrics.size() < _maxQueryShapes ? queryText : OTHER_QUERY_SHAPES;
+    return _queryShapeMetrics.computeIfAbsent(shape, QueryShapeMetrics::new);
+  }
+
+  private static Map<String, Object> summarize(Histogram histogram, double scale) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("mean", histogram.getMean() / scale);
+    summary.put("p50", histogram.getValueAtPercentile(50) / scale);
+    summary.put("p90", histogram.getValueAtPercentile(90) / scale);
+    summary.put("p99", histogram.getValueAtPercentile(99) / scale);
+    summary.put("max", histogram.getMax() / scale);
+    return summary;
+  }
+
+  private static double getDoubleHeader(Map<String, String> headers, String name) {
+    String value = headers == null ? null : headers.get(name);
+    if (value == null || value.isEmpty()) {
+      return 0;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private class ContainerRequestObserver implements CosmosDBRequestObserver {
+    private final String _containerId;
+
+    ContainerRequestObserver(String containerId) {
+      _containerId = containerId;
+    }
+
+    @Override
+    public boolean shouldCollectQueryMetrics() {
+      return _queryMetricsSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < _queryMetricsSampleRate;
+    }
+
+    @Override
+    public void onItemResponse(String operation, CosmosItemResponse<?> response, long latencyNanos) {
+      double serverMillis = getDoubleHeader(response.getResponseHeaders(), SERVER_DURATION_HEADER);
+      getOperationMetrics(_containerId, operation).record(response.getRequestCharge(), serverMillis, latencyNanos);
+      if (latencyNanos >= _slowOperationThresholdNanos) {
+        LOGGER.warn("Slow {} on {} took {} ms and {} RU. Diagnostics: {}", operation, _containerId,
+            latencyNanos / NANOS_PER_MILLI, response.getRequestCharge(), response.getDiagnostics());
+      }
+    }
+
+    @Override
+    public void onQueryResponse(String operation, SqlQuerySpec querySpec, List<? extends FeedResponse<?>> pages,
+        long latencyNanos) {
+      double requestCharge = 0;
+      double serverMillis = 0;
+      QueryMetrics queryMetrics = null;
+      for (FeedResponse<?> page : pages) {
+        requestCharge += page.getRequestCharge();
+        serverMillis += getDoubleHeader(page.getResponseHeaders(), SERVER_DURATION_HEADER);
+        String pageQueryMetrics = page.getResponseHeaders() == null ? null
+            : page.getResponseHeaders().get(QUERY_METRICS_HEADER);
+        if (pageQueryMetrics != null) {
+          queryMetrics = queryMetrics == null ? new QueryMetrics() : queryMetrics;
+          queryMetrics.add(pageQueryMetrics);
+        }
+      }
+      getOperationMetrics(_containerId, operation).recordQuery(requestCharge, serverMillis, latencyNanos,
+          pages.size());
+      getQueryShapeMetrics(querySpec.getQueryText()).record(requestCharge, pages.size(), queryMetrics);
+      if (latencyNanos >= _slowOperationThresholdNanos) {
+        LOGGER.warn("Slow {} on {} took {} ms, {} pages and {} RU for {}. Diagnostics of the last page: {}",
+            operation, _containerId, latencyNanos / NANOS_PER_MILLI, pages.size(), requestCharge,
+            querySpec.getQueryText(), pages.isEmpty() ? null : pages.get(pages.size() - 1).getCosmosDiagnostics());
+      }
+    }
+
+    @Override
+    public void onFailure(String operation, SqlQuerySpec querySpec, Throwable throwable, long latencyNanos) {
+      OperationMetrics metrics = getOperationMetrics(_containerId, operation);
+      if (!(throwable instanceof CosmosException)) {
+        metrics.recordFailure(0, latencyNanos);
+        return;
+      }
+      CosmosException cosmosException = (CosmosException) throwable;
+      double requestCharge = getDoubleHeader(cosmosException.getResponseHeaders(), REQUEST_CHARGE_HEADER);
+      if (cosmosException.getStatusCode() == NOT_FOUND_STATUS_CODE) {
+        // a missing item is an answer rather than a failure
+        metrics._notFoundCount.increment();
+        metrics.record(requestCharge, getDoubleHeader(cosmosException.getResponseHeaders(), SERVER_DURATION_HEADER),
+            latencyNanos);
+        return;
+      }
+      if (cosmosException.getStatusCode() == THROTTLED_STATUS_CODE) {
+        // counted per attempt, as they are retried by the caller
+        metrics._throttledCount.increment();
+      }
+      metrics.recordFailure(requestCharge, latencyNanos);
+      if (querySpec != null) {
+        getQueryShapeMetrics(querySpec.getQueryText())._failureCount.increment();
+      }
+      LOGGER.warn("{} on {} failed with status {} after {} ms{}. Diagnostics: {}", operation, _containerId,
+          cosmosException.getStatusCode(), latencyNanos / NANOS_PER_MILLI,
+          querySpec == null ? "" : " for " + querySpec.getQueryText(), cosmosException.getDiagnostics());
+    }
+  }
+
+  private static class OperationMetrics {
+    private final LongAdder _failureCount = new LongAdder();
+    private final LongAdder _throttledCount = new LongAdder();
+    private final LongAdder _notFoundCount = new LongAdder();
+    private final DoubleAdder _totalRequestCharge = new DoubleAdder();
+    private final Histogram _requestCharge = new Histogram();
+    private final Histogram _serverTimeMicros = new Histogram();
+    private final Histogram _latencyNanos = new Histogram();
+    private final Histogram _pageCount = new Histogram();
+
+    void record(double requestCharge, double serverMillis, long latencyNanos) {
+      _totalRequestCharge.add(requestCharge);
+      _requestCharge.record(Math.round(requestCharge * REQUEST_CHARGE_SCALE));
+      if (serverMillis > 0) {
+        _serverTimeMicros.record(Math.round(serverMillis * MICROS_PER_MILLI));
+      }
+      _latencyNanos.record(latencyNanos);
+    }
+
+    void recordQuery(double requestCharge, double serverMillis, long latencyNanos, int pageCount) {
+      record(requestCharge, serverMillis, latencyNanos);
+      _pageCount.record(pageCount);
+    }
+
+    void recordFailure(double requestCharge, long latencyNanos) {
+      _failureCount.increment();
+      _totalRequestCharge.add(requestCharge);
+      _latencyNanos.record(latencyNanos);
+    }
+
+    Map<String, Object> summarize() {
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("count", _latencyNanos.getCount());
+      summary.put("failureCount", _failureCount.sum());
+      summary.put("throttledCount", _throttledCount.sum());
+      summary.put("notFoundCount", _notFoundCount.sum());
+      summary.put("totalRequestUnits", _totalRequestCharge.sum());
+      summary.put("requestUnits", CosmosMetrics.summarize(_requestCharge, REQUEST_CHARGE_SCALE));
+      summary.put("serverTimeMs", CosmosMetrics.summarize(_serverTimeMicros, MICROS_PER_MILLI));
+      summary.put("latencyMs", CosmosMetrics.summarize(_latencyNanos, NANOS_PER_MILLI));
+      if (_pageCount.getCount() > 0) {
+        summary.put("pageCount", CosmosMetrics.summarize(_pageCount, 1));
+      }
+      return summary;
+    }
+  }
+
+  private static class QueryShapeMetrics {
+    private final String _queryText;
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _failureCount = new LongAdder();
+    private final LongAdder _pageCount = new LongAdder();
+    private final DoubleAdder _requestCharge = new DoubleAdder();
+    private final LongAdder _sampledCount = new LongAdder();
+    private final LongAdder _retrievedDocumentCount = new LongAdder();
+    private final LongAdder _outputDocumentCount = new LongAdder();
+    private final DoubleAdder _executionMillis = new DoubleAdder();
+
+    QueryShapeMetrics(String queryText) {
+      _queryText = queryText;
+    }
+
+    void record(double requestCharge, int pageCount, QueryMetrics queryMetrics) {
+      _count.increment();
+      _pageCount.add(pageCount);
+      _requestCharge.add(requestCharge);
+      if (queryMetrics != null) {
+        _sampledCount.increment();
+        _retrievedDocumentCount.add(queryMetrics._retrievedDocumentCount);
+        _outputDocumentCount.add(queryMetrics._outputDocumentCount);
+        _executionMillis.add(queryMetrics._executionMillis);
+      }
+    }
+
+    Map<String, Object> summarize() {
+      long count = _count.sum();
+      long sampledCount = _sampledCount.sum();
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("query", _queryText);
+      summary.put("count", count);
+      summary.put("failureCount", _failureCount.sum());
+      summary.put("totalRequestUnits", _requestCharge.sum());
+      summary.put("meanRequestUnits", count == 0 ? 0 : _requestCharge.sum() / count);
+      summary.put("meanPageCount", count == 0 ? 0 : (double) _pageCount.sum() / count);
+      summary.put("sampledCount", sampledCount);
+      if (sampledCount > 0) {
+        // far more documents retrieved than output means the filters are not served by the index
+        summary.put("meanRetrievedDocumentCount", (double) _retrievedDocumentCount.sum() / sampledCount);
+        summary.put("meanOutputDocumentCount", (double) _outputDocumentCount.sum() / sampledCount);
+        summary.put("meanExecutionTimeMs", _executionMillis.sum() / sampledCount);
+      }
+      return summary;
+    }
+  }
+
+  /**
+   * The query metrics of the pages of a query, which the service returns as {@code name=value;name=value...}.
+   */
+  private static class QueryMetrics {
+    private long _retrievedDocumentCount = 0;
+    private long _outputDocumentCount = 0;
+    private double _executionMillis = 0;
+
+    void add(String queryMetrics) {
+      for (String metric : queryMetrics.split(QUERY_METRICS_SEPARATOR)) {
+        int separatorIndex = metric.indexOf(QUERY_METRIC_VALUE_SEPARATOR);
+        if (separatorIndex < 0) {
+          continue;
+        }
+        String name = metric.substring(0, separatorIndex).trim();
+        String value = metric.substring(separatorIndex + 1).trim();
+        try {
+          if (RETRIEVED_DOCUMENT_COUNT_METRIC.equals(name)) {
+            _retrievedDocumentCount += Long.parseLong(value);
+          } else if (OUTPUT_DOCUMENT_COUNT_METRIC.equals(name)) {
+            _outputDocumentCount += Long.parseLong(value);
+          } else if (TOTAL_EXECUTION_TIME_METRIC.equals(name)) {
+            _executionMillis += Double.parseDouble(value);
+          }
+        } catch (NumberFormatException e) {
+          LOGGER.debug("Ignoring query metric {} with unexpected value {}", name, value);
+        }
+      }
+    }
+  }
+
+  public static class Builder {
+    private double _queryMetricsSampleRate = 0.01;
+    private Duration _slowOperationThreshold = Duration.ofSeconds(1);
+    private int _maxQueryShapes = 1_000;
+
+    /**
+     * @param queryMetricsSampleRate the fraction of queries (between 0 and 1) that collect query metrics.
+     */
+    public Builder queryMetricsSampleRate(double queryMetricsSampleRate) {
+      checkArgument(queryMetricsSampleRate >= 0 && queryMetricsSampleRate <= 1,
+          "Query metrics sample rate should be between 0 and 1");
+      _queryMetricsSampleRate = queryMetricsSampleRate;
+      return this;
+    }
+
+    /**
+     * @param slowOperationThreshold operations that take at least this long are logged.
+     */
+    public Builder slowOperationThreshold(Duration slowOperationThreshold) {
+      checkArgument(slowOperationThreshold != null && !slowOperationThreshold.isNegative(),
+          "Slow operation threshold should be >= 0");
+      _slowOperationThreshold = slowOperationThreshold;
+      return this;
+    }
+
+    /**
+     * @param maxQueryShapes how many query shapes are tracked apart. Any others are tracked together.
+     */
+    public Builder maxQueryShapes(int maxQueryShapes) {
+      checkArgument(maxQueryShapes > 0, "Max query shapes should be > 0");
+      _maxQueryShapes = maxQueryShapes;
+      return this;
+    }
+
+    public CosmosMetrics build() {
+      return new CosmosMetrics(_queryMetricsSampleRate, _slowOperationThreshold, _maxQueryShapes);
+    }
+  }
+}
@@ -4,9 +4,11 @@ import com.github.ptracker.common.storage.StorageMetadata;
 
 public class DeleteRequestOptionsImpl implements DeleteRequestOptions {
   private final StorageMetadata _metadata;
+  private final String _partitionKey;
 
-  private DeleteRequestOptionsImpl(StorageMetadata metadata) {
+  private DeleteRequestOptionsImpl(StorageMetadata metadata, String partitionKey) {
     _metadata = metadata;
+    _partitionKey = partitionKey;
   }
 
   @Override
@@ -14,16 +16,27 @@ public class DeleteRequestOptionsImpl implements DeleteRequestOptions {
     return _metadata;
   }
 
+  @Override
+  public String getPartitionKey() {
+    return _partitionKey;
+  }
+
   public static class Builder {
     private StorageMetadata _metadata = null;
+    private String _partitionKey = null;
 
     public Builder metadata(StorageMetadata metadata) {
       _metadata = metadata;
       return this;
     }
 
+    public Builder partitionKey(String partitionKey) {
+      _partitionKey = partitionKey == null || partitionKey.isEmpty() ? null : partitionKey;
+      return this;
+    }
+
     public DeleteRequestOptions build() {
-      return new DeleteRequestOptionsImpl(_metadata);
+      return new DeleteRequestOptionsImpl(_metadata, _partitionKey);
     }
   }
 }
@@ -1,14 +1,22 @@
 package com.github.ptracker.resource;
 
 import com.github.ptracker.common.storage.StorageMetadata;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.*;
 
 
 public class GetRequestOptionsImpl implements GetRequestOptions {
 
   private final StorageMetadata _metadata;
+  private final List<String> _fieldMask;
+  private final String _partitionKey;
 
-  private GetRequestOptionsImpl(StorageMetadata metadata) {
+  private GetRequestOptionsImpl(StorageMetadata metadata, List<String> fieldMask, String partitionKey) {
     _metadata = metadata;
+    _fieldMask = fieldMask;
+    _partitionKey = partitionKey;
   }
 
   @Override
@@ -16,16 +24,38 @@ public class GetRequestOptionsImpl implements GetRequestOptions {
     return _metadata;
   }
 
+  @Override
+  public List<String> getFieldMask() {
+    return _fieldMask;
+  }
+
+  @Override
+  public String getPartitionKey() {
+    return _partitionKey;
+  }
+
   public static class Builder {
     private StorageMetadata _metadata = null;
+    private List<String> _fieldMask = ImmutableList.of();
+    private String _partitionKey = null;
 
     public Builder metadata(StorageMetadata metadata) {
       _metadata = metadata;
       return this;
     }
 
+    public Builder fieldMask(List<String> fieldMask) {
+      _fieldMask = ImmutableList.copyOf(checkNotNull(fieldMask, "Field mask cannot be null"));
+      return this;
+    }
+
+    public Builder partitionKey(String partitionKey) {
+      _partitionKey = partitionKey == null || partitionKey.isEmpty() ? null : partitionKey;
+      return this;
+    }
+
     public GetRequestOptionsImpl build() {
-      return new GetRequestOptionsImpl(_metadata);
+      return new GetRequestOptionsImpl(_metadata, _fieldMask, _partitionKey);
     }
   }
 }
@@ -45,6 +45,13 @@ public class GrpcResource<KEY_TYPE, VALUE_TYPE> implements Resource<KEY_TYPE, VA
         .collect(Collectors.toList());
   }
 
+  @Override
+  public Iterable<ResourcePage<VALUE_TYPE>> queryPages(VALUE_TYPE template, QueryRequestOptions options) {
+    // the client already streams the pages and hands back all the values
+    return Collections.singletonList(
+        new ResourcePageImpl.Builder<VALUE_TYPE>().responses(query(template, options)).build());
+  }
+
   @Override
   public ResourceResponse<Void> create(VALUE_TYPE payload, CreateRequestOptions options) {
     checkNotNull(payload, "Create payload cannot be null");
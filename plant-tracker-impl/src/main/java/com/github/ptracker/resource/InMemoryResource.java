@@ -0,0 +1,333 @@
+package com.github.ptracker.resource;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.common.storage.StorageMetadata;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.storage.query.FieldFilter;
+import com.github.ptracker.storage.query.QueryPlan;
+import com.github.ptracker.storage.query.QueryPlanner;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Keeps values in memory instead of a database, for local runs and benchmarks. Values are stored by the {@code id}
+ * field of their JSON form and templates are planned against that form by the same {@link QueryPlanner} as
+ * {@link CosmosAsyncResource}. Every indexed path has a hash index from value to ids. A template whose most selective
+ * filter is on an indexed path only looks at the values that match that filter. Other templates scan all the values.
+ *
+ * Pages are in the order of the ids and the continuation token is the last id of the page, so values that are written
+ * while paging are neither returned twice nor make the query skip values. Queries with an order or a limit (see
+ * {@link QueryBounds}) sort all their matches instead, and their pages continue from an offset into them.
+ */
+public class InMemoryResource<KEY_TYPE, VALUE_TYPE> implements AsyncResource<KEY_TYPE, VALUE_TYPE> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryResource.class);
+
+  private static final int DEFAULT_PAGE_SIZE = 100;
+
+  private final DataInterchange<ObjectNode, VALUE_TYPE> _dataInterchange;
+  private final Function<KEY_TYPE, VALUE_TYPE> _valueWithIdOnlyCreator;
+  private final Consumer<VALUE_TYPE> _valueVerifier;
+  private final QueryPlanner _queryPlanner;
+  private final Map<String, StoredValue<VALUE_TYPE>> _values = new ConcurrentHashMap<>();
+  private final Map<String, Map<Object, NavigableSet<String>>> _indexes = new HashMap<>();
+  private final AtomicLong _version = new AtomicLong();
+
+  private final ResourceResponse<VALUE_TYPE> _noMatch =
+      new ResourceResponseImpl.Builder<VALUE_TYPE>().status(ResponseStatus.NOT_FOUND).build();
+  private final ResourceResponse<VALUE_TYPE> _notModified =
+      new ResourceResponseImpl.Builder<VALUE_TYPE>().status(ResponseStatus.NOT_MODIFIED).build();
+
+  /**
+   * @param indexedPaths the paths (e.g. {@code metadata.gardenerId}) of the fields to index, most selective first.
+   */
+  public InMemoryResource(DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange,
+      Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator, Consumer<VALUE_TYPE> valueVerifier,
+      List<String> indexedPaths) {
+    _dataInterchange = checkNotNull(dataInterchange, "DataInterchange cannot be null");
+    _valueWithIdOnlyCreator = checkNotNull(valueWithIdOnlyCreator, "valueWithIdOnlyCreator cannot be null");
+    _valueVerifier = checkNotNull(valueVerifier, "valueVerifier cannot be null");
+    _queryPlanner = new QueryPlanner(checkNotNull(indexedPaths, "Indexed paths cannot be null"));
+    // the set of indexes never changes, so it is only the indexes themselves that need to be concurrent
+    indexedPaths.forEach(path -> _indexes.put(path, new ConcurrentHashMap<>()));
+    // the values are already looked up by id
+    _indexes.remove(QueryPlanner.ID_PATH);
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<VALUE_TYPE>> get(KEY_TYPE key, GetRequestOptions options) {
+    checkNotNull(key, "key cannot be null");
+    LOGGER.debug("Getting {}", key);
+    StoredValue<VALUE_TYPE> storedValue = _values.get(getId(_valueWithIdOnlyCreator.apply(key)));
+    if (storedValue == null) {
+      return CompletableFuture.completedFuture(_noMatch);
+    }
+    String etag = options == null || options.getMetadata() == null ? "" : options.getMetadata().getEtag();
+    if (storedValue._metadata.getEtag().equals(etag)) {
+      return CompletableFuture.completedFuture(_notModified);
+    }
+    return CompletableFuture.completedFuture(storedValue.toResourceResponse());
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> query(VALUE_TYPE template,
+      QueryRequestOptions options) {
+    checkArgument(template != null, "template cannot be null");
+    LOGGER.debug("Getting values that match the template {}", template);
+    QueryPlan queryPlan = plan(template, options == null ? QueryBounds.NONE : options.getBounds());
+    return CompletableFuture.completedFuture(toResourceResponses(getBoundedMatches(queryPlan)));
+  }
+
+  @Override
+  public CompletableFuture<ResourcePage<VALUE_TYPE>> queryPage(VALUE_TYPE template, QueryRequestOptions options) {
+    checkArgument(template != null, "template cannot be null");
+    checkNotNull(options, "options cannot be null");
+    LOGGER.debug("Getting a page of values that match the template {}", template);
+    int pageSize = options.getPageSize() > 0 ? options.getPageSize() : DEFAULT_PAGE_SIZE;
+    QueryPlan queryPlan = plan(template, options.getBounds());
+    ResourcePageImpl.Builder<VALUE_TYPE> builder = new ResourcePageImpl.Builder<>();
+    if (queryPlan.getOrderPath() != null || queryPlan.getLimit() > 0) {
+      List<StoredValue<VALUE_TYPE>> matches = getBoundedMatches(queryPlan);
+      // a position in the order is not an id, so these pages continue from an offset into the matches
+      int start = Math.min(getOffset(options.getContinuationToken()), matches.size());
+      int end = start + Math.min(pageSize, matches.size() - start);
+      if (end < matches.size()) {
+        builder.continuationToken(Integer.toString(end));
+      }
+      return CompletableFuture.completedFuture(
+          builder.responses(toResourceResponses(matches.subList(start, end))).build());
+    }
+    // fetch one more than the page to know whether there is a next page
+    List<StoredValue<VALUE_TYPE>> matches = getMatches(queryPlan, options.getContinuationToken(), pageSize + 1);
+    if (matches.size() > pageSize) {
+      matches = matches.subList(0, pageSize);
+      builder.continuationToken(matches.get(pageSize - 1)._id);
+    }
+    return CompletableFuture.completedFuture(builder.responses(toResourceResponses(matches)).build());
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> create(VALUE_TYPE payload, CreateRequestOptions options) {
+    checkNotNull(payload, "Create payload cannot be null");
+    _valueVerifier.accept(payload);
+    LOGGER.debug("Creating {}", payload);
+    StoredValue<VALUE_TYPE> storedValue = newStoredValue(payload);
+    String id = storedValue._id;
+    if (_values.computeIfAbsent(id, ignored -> index(storedValue, null)) != storedValue) {
+      CompletableFuture<ResourceResponse<Void>> future = new CompletableFuture<>();
+      future.completeExceptionally(Status.ALREADY_EXISTS.withDescription(id + " already exists").asRuntimeException());
+      return future;
+    }
+    return CompletableFuture.completedFuture(toWriteResponse(storedValue));
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> update(VALUE_TYPE payload, UpdateRequestOptions options) {
+    String etag = options.getMetadata() == null ? "" : options.getMetadata().getEtag();
+    if (etag.isEmpty() && !options.shouldUpsert()) {
+      CompletableFuture<ResourceResponse<Void>> future = new CompletableFuture<>();
+      future.completeExceptionally(
+          Status.UNIMPLEMENTED.withDescription("Updates need an etag or an upsert").asRuntimeException());
+      return future;
+    }
+    checkNotNull(payload, "Update payload cannot be null");
+    _valueVerifier.accept(payload);
+    LOGGER.debug("Updating {}", payload);
+    StoredValue<VALUE_TYPE> storedValue = newStoredValue(payload);
+    if (etag.isEmpty()) {
+      _values.compute(storedValue._id, (id, previousValue) -> index(storedValue, previousValue));
+      return CompletableFuture.completedFuture(toWriteResponse(storedValue));
+    }
+    AtomicBoolean replaced = new AtomicBoolean();
+    _values.computeIfPresent(storedValue._id, (id, previousValue) -> {
+      if (!previousValue._metadata.getEtag().equals(etag)) {
+        return previousValue;
+      }
+      replaced.set(true);
+      return index(storedValue, previousValue);
+    });
+    return CompletableFuture.completedFuture(replaced.get() ? toWriteResponse(storedValue)
+        : new ResourceResponseImpl.Builder<Void>().status(ResponseStatus.PRECONDITION_FAILED).build());
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> delete(KEY_TYPE key, DeleteRequestOptions options) {
+    checkNotNull(key, "key cannot be null");
+    LOGGER.debug("Deleting {}", key);
+    AtomicBoolean deleted = new AtomicBoolean();
+    _values.computeIfPresent(getId(_valueWithIdOnlyCreator.apply(key)), (id, previousValue) -> {
+      deleted.set(true);
+      return index(null, previousValue);
+    });
+    ResponseStatus responseStatus = deleted.get() ? ResponseStatus.OK : ResponseStatus.NOT_FOUND;
+    return CompletableFuture.completedFuture(new ResourceResponseImpl.Builder<Void>().status(responseStatus).build());
+  }
+
+  private QueryPlan plan(VALUE_TYPE template, QueryBounds bounds) {
+    return _queryPlanner.plan(_dataInterchange.convertBackward(template), bounds);
+  }
+
+  /**
+   * @return the matches of {@code queryPlan}, in its order (or the order of the ids if it has none) and up to its
+   * limit.
+   */
+  private List<StoredValue<VALUE_TYPE>> getBoundedMatches(QueryPlan queryPlan) {
+    Comparator<ObjectNode> itemOrder = queryPlan.getItemOrder();
+    int limit = queryPlan.getLimit() > 0 ? queryPlan.getLimit() : Integer.MAX_VALUE;
+    if (itemOrder == null) {
+      return getMatches(queryPlan, null, limit);
+    }
+    List<StoredValue<VALUE_TYPE>> matches = getMatches(queryPlan, null, Integer.MAX_VALUE);
+    // stable, so matches that are tied in the order stay in the order of their ids
+    matches.sort(Comparator.comparing(storedValue -> storedValue._item, itemOrder));
+    return matches.size() > limit ? matches.subList(0, limit) : matches;
+  }
+
+  /**
+   * @return up to {@code limit} matches of {@code queryPlan} (which is for a single template) whose ids come after
+   * {@code afterId}, in the order of the ids.
+   */
+  private List<StoredValue<VALUE_TYPE>> getMatches(QueryPlan queryPlan, String afterId, int limit) {
+    List<FieldFilter> filters = queryPlan.getConjunctions().get(0);
+    NavigableSet<String> candidateIds = getCandidateIds(filters.isEmpty() ? null : filters.get(0));
+    if (afterId != null) {
+      candidateIds = candidateIds.tailSet(afterId, false);
+    }
+    List<StoredValue<VALUE_TYPE>> matches = new ArrayList<>();
+    Iterator<String> ids = candidateIds.iterator();
+    while (ids.hasNext() && matches.size() < limit) {
+      StoredValue<VALUE_TYPE> storedValue = _values.get(ids.next());
+      // the value can change after its id was found, so every filter is checked against what is stored now
+      if (storedValue != null && QueryPlan.matches(filters, storedValue._item)
+          && queryPlan.matchesRange(storedValue._item)) {
+        matches.add(storedValue);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @return the ids of the values that a query for {@code template} looks at: those in the index entry of its most
+   * selective filter, or all of them if that filter is not on an indexed path.
+   */
+  NavigableSet<String> getCandidateIds(VALUE_TYPE template) {
+    List<FieldFilter> filters = plan(template, QueryBounds.NONE).getConjunctions().get(0);
+    return getCandidateIds(filters.isEmpty() ? null : filters.get(0));
+  }
+
+  /**
+   * @return the ids of the values that can match {@code filter}, in their order. All of them if {@code filter} is not
+   * on an indexed path.
+   */
+  private NavigableSet<String> getCandidateIds(FieldFilter filter) {
+    if (filter != null && QueryPlanner.ID_PATH.equals(filter.getPath())) {
+      NavigableSet<String> ids = new TreeSet<>();
+      filter.getValues().stream().map(String::valueOf).filter(_values::containsKey).forEach(ids::add);
+      return ids;
+    }
+    Map<Object, NavigableSet<String>> index = filter == null ? null : _indexes.get(filter.getPath());
+    if (index == null) {
+      return new TreeSet<>(_values.keySet());
+    }
+    if (filter.getValues().size() == 1) {
+      return index.getOrDefault(filter.getValues().iterator().next(), Collections.emptyNavigableSet());
+    }
+    NavigableSet<String> ids = new TreeSet<>();
+    filter.getValues().forEach(value -> ids.addAll(index.getOrDefault(value, Collections.emptyNavigableSet())));
+    return ids;
+  }
+
+  /**
+   * Moves the id of a value from the index entries of its previous version to those of its new version. Runs while
+   * the id is locked in {@link #_values}, so writes of the same id cannot interleave.
+   * @return {@code newValue}, to be stored.
+   */
+  private StoredValue<VALUE_TYPE> index(StoredValue<VALUE_TYPE> newValue, StoredValue<VALUE_TYPE> previousValue) {
+    _indexes.forEach((path, index) -> {
+      Object value = newValue == null ? null : QueryPlanner.getFieldValue(newValue._item, path);
+      Object previous = previousValue == null ? null : QueryPlanner.getFieldValue(previousValue._item, path);
+      if (value != null) {
+        index.computeIfAbsent(value, ignored -> new ConcurrentSkipListSet<>()).add(newValue._id);
+      }
+      if (previous != null && !previous.equals(value)) {
+        index.get(previous).remove(previousValue._id);
+      }
+    });
+    return newValue;
+  }
+
+  private StoredValue<VALUE_TYPE> newStoredValue(VALUE_TYPE value) {
+    ObjectNode item = _dataInterchange.convertBackward(value);
+    StorageMetadata metadata = StorageMetadata.newBuilder().setEtag(Long.toString(_version.incrementAndGet())).build();
+    return new StoredValue<>(value, item, getId(item), metadata);
+  }
+
+  private ResourceResponse<Void> toWriteResponse(StoredValue<VALUE_TYPE> storedValue) {
+    return new ResourceResponseImpl.Builder<Void>().status(ResponseStatus.OK).metadata(storedValue._metadata).build();
+  }
+
+  private List<ResourceResponse<VALUE_TYPE>> toResourceResponses(List<StoredValue<VALUE_TYPE>> storedValues) {
+    return storedValues.stream().map(StoredValue::toResourceResponse).collect(Collectors.toList());
+  }
+
+  private static int getOffset(String continuationToken) {
+    if (continuationToken == null) {
+      return 0;
+    }
+    try {
+      int offset = Integer.parseInt(continuationToken);
+      checkArgument(offset >= 0, "Invalid continuation token %s", continuationToken);
+      return offset;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid continuation token " + continuationToken, e);
+    }
+  }
+
+  private String getId(VALUE_TYPE value) {
+    return getId(_dataInterchange.convertBackward(value));
+  }
+
+  private static String getId(ObjectNode item) {
+    Object id = QueryPlanner.getFieldValue(item, QueryPlanner.ID_PATH);
+    checkArgument(id instanceof String, "Value should have an id");
+    return (String) id;
+  }
+
+  private static class StoredValue<VALUE_TYPE> {
+    private final VALUE_TYPE _value;
+    private final ObjectNode _item;
+    private final String _id;
+    private final StorageMetadata _metadata;
+
+    StoredValue(VALUE_TYPE value, ObjectNode item, String id, StorageMetadata metadata) {
+      _value = value;
+      _item = item;
+      _id = id;
+      _metadata = metadata;
+    }
+
+    ResourceResponse<VALUE_TYPE> toResourceResponse() {
+      return new ResourceResponseImpl.Builder<VALUE_TYPE>().payload(_value).metadata(_metadata).build();
+    }
+  }
+}
@@ -1,13 +1,24 @@
 package com.github.ptracker.resource;
 
 import com.github.ptracker.common.storage.StorageMetadata;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.*;
 
 
 public class QueryRequestOptionsImpl implements QueryRequestOptions {
   private final GetRequestOptions _getRequestOptions;
+  private final String _continuationToken;
+  private final int _pageSize;
+  private final QueryBounds _bounds;
 
-  private QueryRequestOptionsImpl(GetRequestOptions getRequestOptions) {
+  private QueryRequestOptionsImpl(GetRequestOptions getRequestOptions, String continuationToken, int pageSize,
+      QueryBounds bounds) {
     _getRequestOptions = getRequestOptions;
+    _continuationToken = continuationToken;
+    _pageSize = pageSize;
+    _bounds = bounds;
   }
 
   @Override
@@ -15,16 +26,60 @@ public class QueryRequestOptionsImpl implements QueryRequestOptions {
     return _getRequestOptions == null ? null : _getRequestOptions.getMetadata();
   }
 
+  @Override
+  public String getPartitionKey() {
+    return _getRequestOptions == null ? null : _getRequestOptions.getPartitionKey();
+  }
+
+  @Override
+  public List<String> getFieldMask() {
+    return _getRequestOptions == null ? Collections.emptyList() : _getRequestOptions.getFieldMask();
+  }
+
+  @Override
+  public String getContinuationToken() {
+    return _continuationToken;
+  }
+
+  @Override
+  public int getPageSize() {
+    return _pageSize;
+  }
+
+  @Override
+  public QueryBounds getBounds() {
+    return _bounds;
+  }
+
   public static class Builder {
     private GetRequestOptions _getRequestOptions = null;
+    private String _continuationToken = null;
+    private int _pageSize = 0;
+    private QueryBounds _bounds = QueryBounds.NONE;
 
     public Builder getRequestOptions(GetRequestOptions getRequestOptions) {
       _getRequestOptions = getRequestOptions;
       return this;
     }
 
+    public Builder continuationToken(String continuationToken) {
+      _continuationToken = continuationToken == null || continuationToken.isEmpty() ? null : continuationToken;
+      return this;
+    }
+
+    public Builder pageSize(int pageSize) {
+      checkArgument(pageSize >= 0, "Page size should be >= 0");
+      _pageSize = pageSize;
+      return this;
+    }
+
+    public Builder bounds(QueryBounds bounds) {
+      _bounds = checkNotNull(bounds, "Bounds cannot be null");
+      return this;
+    }
+
     public QueryRequestOptionsImpl build() {
-      return new QueryRequestOptionsImpl(_getRequestOptions);
+      return new QueryRequestOptionsImpl(_getRequestOptions, _continuationToken, _pageSize, _bounds);
     }
   }
 }
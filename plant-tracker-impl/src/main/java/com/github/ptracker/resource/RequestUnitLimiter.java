@@ -0,0 +1,273 @@
+package com.github.ptracker.resource;
+
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.github.ptracker.storage.cosmos.CosmosDBRequestObserver;
+import com.google.common.base.Ticker;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * A token bucket of the request units (RU) that one container can spend per second. Callers reserve what a request is
+ * expected to cost before sending it, and wait if the bucket does not have it yet, so that a burst is spread out
+ * instead of being throttled by the service. What requests actually cost is taken from their responses, as the
+ * limiter observes them.
+ * <p>
+ * The rate adapts to what the container can take. When the service throttles a request, the rate drops below what was
+ * being spent and nothing is let through until the service's retry-after has passed. While callers are kept waiting
+ * and nothing is throttled, the rate creeps back up.
+ */
+public class RequestUnitLimiter implements CosmosDBRequestObserver {
+  private static final int THROTTLED_STATUS_CODE = 429;
+  private static final String REQUEST_CHARGE_HEADER = "x-ms-request-charge";
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  // the weight of the latest charge in the estimate of what an operation costs
+  private static final double CHARGE_ESTIMATE_WEIGHT = 0.2;
+  private static final double INITIAL_CHARGE_ESTIMATE = 1;
+
+  private final double _minRate;
+  private final double _maxRate;
+  private final double _burstSeconds;
+  private final double _decreaseFactor;
+  private final double _increaseFactor;
+  private final long _adjustmentIntervalNanos;
+  private final Ticker _ticker;
+  private final Map<String, Double> _chargeEstimates = new ConcurrentHashMap<>();
+
+  // guarded by this
+  private double _rate;
+  private double _tokens;
+  private long _refilledAtNanos;
+  private long _adjustedAtNanos;
+  private long _decreasedAtNanos;
+  private boolean _waitedSinceAdjustment = false;
+  private boolean _throttledSinceAdjustment = false;
+  private double _spentSinceAdjustment = 0;
+  private long _throttleCount = 0;
+
+  private RequestUnitLimiter(double initialRate, double minRate, double maxRate, Duration burst, double decreaseFactor,
+      double increaseFactor, Duration adjustmentInterval, Ticker ticker) {
+    _minRate = minRate;
+    _maxRate = maxRate;
+    _burstSeconds = burst.toNanos() / NANOS_PER_SECOND;
+    _decreaseFactor = decreaseFactor;
+    _increaseFactor = increaseFactor;
+    _adjustmentIntervalNanos = adjustmentInterval.toNanos();
+    _ticker = ticker;
+    _rate = initialRate;
+    _refilledAtNanos = ticker.read();
+    _adjustedAtNanos = _refilledAtNanos;
+    _tokens = getCapacity();
+    _decreasedAtNanos = _refilledAtNanos - _adjustmentIntervalNanos;
+  }
+
+  /**
+   * @return the request units that {@code operation} is expected to cost, from what it cost recently.
+   */
+  public double getChargeEstimate(String operation) {
+    return _chargeEstimates.getOrDefault(operation, INITIAL_CHARGE_ESTIMATE);
+  }
+
+  /**
+   * Takes {@code units} from the bucket, which may leave it owing units. A reservation that is not going to be used
+   * should be given back with {@link #release(double)}.
+   * @return how long to wait before sending the request, in nanoseconds.
+   */
+  public synchronized long reserve(double units) {
+    checkArgument(units >= 0, "Units should be >= 0");
+    long nowNanos = _ticker.read();
+    refill(nowNanos);
+    _tokens -= units;
+    if (_tokens >= 0) {
+      return 0;
+    }
+    _waitedSinceAdjustment = true;
+    return (long) (-_tokens / _rate * NANOS_PER_SECOND);
+  }
+
+  /**
+   * Gives back units that were reserved, e.g. because the request was not sent, or because it completed and its actual
+   * charge has been spent in their place.
+   */
+  public synchronized void release(double units) {
+    checkArgument(units >= 0, "Units should be >= 0");
+    refill(_ticker.read());
+    _tokens = Math.min(getCapacity(), _tokens + units);
+  }
+
+  /**
+   * @return the request units per second that are let through at the moment.
+   */
+  public synchronized double getRate() {
+    return _rate;
+  }
+
+  /**
+   * @return the number of requests that the service throttled.
+   */
+  public synchronized long getThrottleCount() {
+    return _throttleCount;
+  }
+
+  @Override
+  public void onItemResponse(String operation, CosmosItemResponse<?> response, long latencyNanos) {
+    spend(operation, response.getRequestCharge());
+  }
+
+  @Override
+  public void onQueryResponse(String operation, SqlQuerySpec querySpec, List<? extends FeedResponse<?>> pages,
+      long latencyNanos) {
+    double requestCharge = 0;
+    for (FeedResponse<?> page : pages) {
+      requestCharge += page.getRequestCharge();
+    }
+    spend(operation, requestCharge);
+  }
+
+  @Override
+  public void onFailure(String operation, SqlQuerySpec querySpec, Throwable throwable, long latencyNanos) {
+    if (!(throwable instanceof CosmosException)) {
+      return;
+    }
+    CosmosException cosmosException = (CosmosException) throwable;
+    Map<String, String> headers = cosmosException.getResponseHeaders();
+    String requestCharge = headers == null ? null : headers.get(REQUEST_CHARGE_HEADER);
+    if (requestCharge != null && !requestCharge.isEmpty()) {
+      try {
+        charge(Double.parseDouble(requestCharge));
+      } catch (NumberFormatException e) {
+        // the charge is only a hint
+      }
+    }
+    if (cosmosException.getStatusCode() == THROTTLED_STATUS_CODE) {
+      throttled(cosmosException.getRetryAfterDuration());
+    }
+  }
+
+  private void spend(String operation, double requestCharge) {
+    _chargeEstimates.merge(operation, requestCharge,
+        (estimate, charge) -> estimate + CHARGE_ESTIMATE_WEIGHT * (charge - estimate));
+    charge(requestCharge);
+  }
+
+  private synchronized void charge(double requestCharge) {
+    refill(_ticker.read());
+    _tokens -= requestCharge;
+    _spentSinceAdjustment += requestCharge;
+  }
+
+  private synchronized void throttled(Duration retryAfter) {
+    long nowNanos = _ticker.read();
+    refill(nowNanos);
+    _throttleCount++;
+    // requests in flight are throttled together, so the rate is only cut once for them
+    if (nowNanos - _decreasedAtNanos >= _adjustmentIntervalNanos) {
+      // what was spent is closer to what the container takes than the rate, unless little was asked of it
+      double spentRate = _spentSinceAdjustment / (Math.max(1, nowNanos - _adjustedAtNanos) / NANOS_PER_SECOND);
+      adjust(Math.min(_rate, Math.max(spentRate, _rate * _decreaseFactor)) * _decreaseFactor, nowNanos);
+      _decreasedAtNanos = nowNanos;
+    }
+    _throttledSinceAdjustment = true;
+    double retryAfterSeconds = retryAfter == null ? 0 : retryAfter.toNanos() / NANOS_PER_SECOND;
+    _tokens = Math.min(_tokens, -retryAfterSeconds * _rate);
+  }
+
+  private void refill(long nowNanos) {
+    _tokens = Math.min(getCapacity(), _tokens + (nowNanos - _refilledAtNanos) / NANOS_PER_SECOND * _rate);
+    _refilledAtNanos = nowNanos;
+    if (nowNanos - _adjustedAtNanos >= _adjustmentIntervalNanos) {
+      adjust(_waitedSinceAdjustment && !_throttledSinceAdjustment ? _rate * _increaseFactor : _rate, nowNanos);
+    }
+  }
+
+  private void adjust(double rate, long nowNanos) {
+    _rate = Math.max(_minRate, Math.min(_maxRate, rate));
+    _adjustedAtNanos = nowNanos;
+    _waitedSinceAdjustment = false;
+    _throttledSinceAdjustment = false;
+    _spentSinceAdjustment = 0;
+  }
+
+  private double getCapacity() {
+    return _rate * _burstSeconds;
+  }
+
+  public static class Builder {
+    private double _initialRate = 400;
+    private double _minRate = 10;
+    private double _maxRate = Double.MAX_VALUE;
+    private Duration _burst = Duration.ofSeconds(1);
+    private double _decreaseFactor = 0.7;
+    private double _increaseFactor = 1.1;
+    private Duration _adjustmentInterval = Duration.ofSeconds(1);
+    private Ticker _ticker = Ticker.systemTicker();
+
+    /**
+     * @param initialRate the request units per second to start with, e.g. the throughput provisioned for the
+     *                    container. Defaults to 400, the least that can be provisioned.
+     */
+    public Builder initialRate(double initialRate) {
+      checkArgument(initialRate > 0, "Initial rate should be > 0");
+      _initialRate = initialRate;
+      return this;
+    }
+
+    /**
+     * @param minRate the rate does not drop below this, however much the service throttles.
+     * @param maxRate the rate does not grow above this, however long callers wait.
+     */
+    public Builder rateBounds(double minRate, double maxRate) {
+      checkArgument(minRate > 0, "Min rate should be > 0");
+      checkArgument(maxRate >= minRate, "Max rate should be >= min rate");
+      _minRate = minRate;
+      _maxRate = maxRate;
+      return this;
+    }
+
+    /**
+     * @param burst how many seconds' worth of request units can be spent at once after a quiet period.
+     */
+    public Builder burst(Duration burst) {
+      checkArgument(burst != null && !burst.isNegative() && !burst.isZero(), "Burst should be > 0");
+      _burst = burst;
+      return this;
+    }
+
+    /**
+     * @param decreaseFactor what the rate is multiplied by when the service throttles.
+     * @param increaseFactor what the rate is multiplied by every interval in which callers waited and nothing was
+     *                       throttled.
+     */
+    public Builder adjustment(double decreaseFactor, double increaseFactor, Duration interval) {
+      checkArgument(decreaseFactor > 0 && decreaseFactor < 1, "Decrease factor should be between 0 and 1");
+      checkArgument(increaseFactor > 1, "Increase factor should be > 1");
+      checkArgument(interval != null && !interval.isNegative() && !interval.isZero(), "Interval should be > 0");
+      _decreaseFactor = decreaseFactor;
+      _increaseFactor = increaseFactor;
+      _adjustmentInterval = interval;
+      return this;
+    }
+
+    /**
+     * @param ticker the source of the time that the bucket refills and the rate adjusts with, e.g. a fake in tests.
+     */
+    public Builder ticker(Ticker ticker) {
+      _ticker = checkNotNull(ticker, "Ticker cannot be null");
+      return this;
+    }
+
+    public RequestUnitLimiter build() {
+      checkArgument(_initialRate >= _minRate && _initialRate <= _maxRate, "Initial rate should be within the bounds");
+      return new RequestUnitLimiter(_initialRate, _minRate, _maxRate, _burst, _decreaseFactor, _increaseFactor,
+          _adjustmentInterval, _ticker);
+    }
+  }
+}
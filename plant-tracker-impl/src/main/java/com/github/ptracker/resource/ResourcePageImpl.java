@@ -0,0 +1,46 @@
+package com.github.ptracker.resource;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.*;
+
+
+public class ResourcePageImpl<T> implements ResourcePage<T> {
+  private final List<ResourceResponse<T>> _responses;
+  private final String _continuationToken;
+
+  private ResourcePageImpl(List<ResourceResponse<T>> responses, String continuationToken) {
+    _responses = responses;
+    _continuationToken = continuationToken;
+  }
+
+  @Override
+  public List<ResourceResponse<T>> getResponses() {
+    return _responses;
+  }
+
+  @Override
+  public String getContinuationToken() {
+    return _continuationToken;
+  }
+
+  public static class Builder<T> {
+    private List<ResourceResponse<T>> _responses = Collections.emptyList();
+    private String _continuationToken = null;
+
+    public Builder<T> responses(List<ResourceResponse<T>> responses) {
+      _responses = checkNotNull(responses, "Responses cannot be null");
+      return this;
+    }
+
+    public Builder<T> continuationToken(String continuationToken) {
+      _continuationToken = continuationToken;
+      return this;
+    }
+
+    public ResourcePageImpl<T> build() {
+      return new ResourcePageImpl<>(_responses, _continuationToken);
+    }
+  }
+}
@@ -0,0 +1,401 @@
+package com.github.ptracker.resource;
+
+import com.azure.cosmos.CosmosException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.BATCH_QUERY_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.CREATE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.DELETE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.QUERY_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.QUERY_PAGE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.READ_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.REPLACE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.UPSERT_OPERATION;
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Schedules the calls to a resource backed by a Cosmos DB container within the request units that a
+ * {@link RequestUnitLimiter} lets through, which should be observing the requests of the resource. A call waits until
+ * its expected charge is available, unless that would take longer than the max queue delay, in which case it is
+ * rejected with {@link Status#RESOURCE_EXHAUSTED} straight away rather than adding to the latency of everything
+ * behind it.
+ * <p>
+ * Throttled calls are retried once the retry-after of the service has passed, and reads are also retried on transient
+ * failures, with jittered exponential backoff. Retries are paid for out of a budget that every call adds a fraction
+ * of a retry to, so that a struggling container sees a bounded amount of extra load. A call that cannot be retried
+ * any more fails with {@link Status#RESOURCE_EXHAUSTED} if it was throttled, or {@link Status#UNAVAILABLE}.
+ */
+public class ThrottlingResource<KEY_TYPE, VALUE_TYPE> implements AsyncResource<KEY_TYPE, VALUE_TYPE> {
+  private static final ScheduledExecutorService DEFAULT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("throttling-resource-scheduler-%d").setDaemon(true).build());
+
+  private static final int THROTTLED_STATUS_CODE = 429;
+  // 449 (retry with) is the service asking for a retry because of a conflict it resolved itself
+  private static final int RETRY_WITH_STATUS_CODE = 449;
+  private static final Set<Integer> TRANSIENT_STATUS_CODES = ImmutableSet.of(408, 410, 503);
+
+  private final AsyncResource<KEY_TYPE, VALUE_TYPE> _resource;
+  private final RequestUnitLimiter _limiter;
+  private final long _maxQueueDelayNanos;
+  private final int _maxRetries;
+  private final long _baseBackoffNanos;
+  private final long _maxBackoffNanos;
+  private final RetryBudget _retryBudget;
+  private final ScheduledExecutorService _scheduler;
+
+  private final LongAdder _shedCount = new LongAdder();
+  private final LongAdder _retryCount = new LongAdder();
+  private final LongAdder _retryBudgetExhaustedCount = new LongAdder();
+
+  private ThrottlingResource(AsyncResource<KEY_TYPE, VALUE_TYPE> resource, RequestUnitLimiter limiter,
+      Duration maxQueueDelay, int maxRetries, Duration baseBackoff, Duration maxBackoff, double retryBudgetRatio,
+      int retryBudgetSize, ScheduledExecutorService scheduler) {
+    _resource = resource;
+    _limiter = limiter;
+    _maxQueueDelayNanos = maxQueueDelay.toNanos();
+    _maxRetries = maxRetries;
+    _baseBackoffNanos = baseBackoff.toNanos();
+    _maxBackoffNanos = maxBackoff.toNanos();
+    _retryBudget = new RetryBudget(retryBudgetRatio, retryBudgetSize);
+    _scheduler = scheduler;
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<VALUE_TYPE>> get(KEY_TYPE key, GetRequestOptions options) {
+    return schedule(READ_OPERATION, true, () -> _resource.get(key, options));
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> batchGet(List<KEY_TYPE> keys,
+      GetRequestOptions options) {
+    return schedule(BATCH_QUERY_OPERATION, true, () -> _resource.batchGet(keys, options));
+  }
+
+  @Override
+  public CompletableFuture<List<ResourceResponse<VALUE_TYPE>>> query(VALUE_TYPE template,
+      QueryRequestOptions options) {
+    return schedule(QUERY_OPERATION, true, () -> _resource.query(template, options));
+  }
+
+  @Override
+  public CompletableFuture<ResourcePage<VALUE_TYPE>> queryPage(VALUE_TYPE template, QueryRequestOptions options) {
+    return schedule(QUERY_PAGE_OPERATION, true, () -> _resource.queryPage(template, options));
+  }
+
+  @Override
+  public CompletableFuture<List<List<ResourceResponse<VALUE_TYPE>>>> batchQuery(List<VALUE_TYPE> templates,
+      QueryRequestOptions options) {
+    return schedule(BATCH_QUERY_OPERATION, true, () -> _resource.batchQuery(templates, options));
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> create(VALUE_TYPE payload, CreateRequestOptions options) {
+    // a create that timed out may have happened, and retrying it would then fail as a conflict
+    return schedule(CREATE_OPERATION, false, () -> _resource.create(payload, options));
+  }
+
+  @Override
+  public List<CompletableFuture<ResourceResponse<Void>>> batchCreate(List<VALUE_TYPE> payloads,
+      CreateRequestOptions options) {
+    checkNotNull(payloads, "Create payloads cannot be null");
+    List<ScheduledCall<ResourceResponse<Void>>> calls = new ArrayList<>(payloads.size());
+    List<CompletableFuture<ResourceResponse<Void>>> futures = new ArrayList<>(payloads.size());
+    for (VALUE_TYPE payload : payloads) {
+      ScheduledCall<ResourceResponse<Void>> call =
+          new ScheduledCall<>(CREATE_OPERATION, false, () -> _resource.create(payload, options));
+      calls.add(call);
+      futures.add(call._future);
+    }
+    if (payloads.isEmpty()) {
+      return futures;
+    }
+    // the batch is admitted as a whole, and sent as a whole so that the resource can still batch it
+    double estimate = _limiter.getChargeEstimate(CREATE_OPERATION) * payloads.size();
+    long delayNanos = admit(estimate);
+    if (delayNanos < 0) {
+      calls.forEach(call -> call._future.completeExceptionally(getShedException()));
+      return futures;
+    }
+    _scheduler.schedule(() -> {
+      List<CompletableFuture<ResourceResponse<Void>>> results;
+      try {
+        results = _resource.batchCreate(payloads, options);
+      } catch (RuntimeException e) {
+        _limiter.release(estimate);
+        calls.forEach(call -> call._future.completeExceptionally(e));
+        return;
+      }
+      CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+          .whenComplete((ignored, throwable) -> _limiter.release(estimate));
+      for (int i = 0; i < calls.size(); i++) {
+        // items that fail are retried on their own
+        results.get(i).whenComplete(calls.get(i)::onAttemptComplete);
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+    return futures;
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> update(VALUE_TYPE payload, UpdateRequestOptions options) {
+    // updates are upserts or replaces, which can be repeated
+    boolean isReplace = options.getMetadata() != null && !options.getMetadata().getEtag().isEmpty();
+    return schedule(isReplace ? REPLACE_OPERATION : UPSERT_OPERATION, true, () -> _resource.update(payload, options));
+  }
+
+  @Override
+  public CompletableFuture<ResourceResponse<Void>> delete(KEY_TYPE key, DeleteRequestOptions options) {
+    // repeating a delete that happened would report the key as not found
+    return schedule(DELETE_OPERATION, false, () -> _resource.delete(key, options));
+  }
+
+  /**
+   * @return the number of calls that were rejected because they would have waited too long for request units.
+   */
+  public long getShedCount() {
+    return _shedCount.sum();
+  }
+
+  public long getRetryCount() {
+    return _retryCount.sum();
+  }
+
+  /**
+   * @return the number of calls that failed without a retry they were eligible for, because the budget was spent.
+   */
+  public long getRetryBudgetExhaustedCount() {
+    return _retryBudgetExhaustedCount.sum();
+  }
+
+  private <T> CompletableFuture<T> schedule(String operation, boolean idempotent, Supplier<CompletableFuture<T>> call) {
+    ScheduledCall<T> scheduledCall = new ScheduledCall<>(operation, idempotent, call);
+    double estimate = _limiter.getChargeEstimate(operation);
+    long delayNanos = admit(estimate);
+    if (delayNanos < 0) {
+      scheduledCall._future.completeExceptionally(getShedException());
+    } else {
+      scheduledCall.attempt(estimate, delayNanos);
+    }
+    return scheduledCall._future;
+  }
+
+  /**
+   * @return how long to wait for {@code estimate} request units, or -1 if the call should be shed.
+   */
+  private long admit(double estimate) {
+    _retryBudget.deposit();
+    long delayNanos = _limiter.reserve(estimate);
+    if (delayNanos > _maxQueueDelayNanos) {
+      _limiter.release(estimate);
+      _shedCount.increment();
+      return -1;
+    }
+    return delayNanos;
+  }
+
+  private static RuntimeException getShedException() {
+    return Status.RESOURCE_EXHAUSTED.withDescription("Storage is at capacity, try again later").asRuntimeException();
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    while (throwable instanceof CompletionException && throwable.getCause() != null) {
+      throwable = throwable.getCause();
+    }
+    return throwable;
+  }
+
+  private class ScheduledCall<T> {
+    private final String _operation;
+    private final boolean _idempotent;
+    private final Supplier<CompletableFuture<T>> _call;
+    private final CompletableFuture<T> _future = new CompletableFuture<>();
+    private int _retries = 0;
+
+    ScheduledCall(String operation, boolean idempotent, Supplier<CompletableFuture<T>> call) {
+      _operation = operation;
+      _idempotent = idempotent;
+      _call = call;
+    }
+
+    /**
+     * Makes the call once {@code delayNanos} have passed, with {@code estimate} request units reserved for it.
+     */
+    void attempt(double estimate, long delayNanos) {
+      if (delayNanos > 0) {
+        _scheduler.schedule(() -> attempt(estimate, 0), delayNanos, TimeUnit.NANOSECONDS);
+        return;
+      }
+      CompletableFuture<T> result;
+      try {
+        result = _call.get();
+      } catch (RuntimeException e) {
+        _limiter.release(estimate);
+        _future.completeExceptionally(e);
+        return;
+      }
+      result.whenComplete((value, throwable) -> {
+        // the actual charge has been spent by the limiter as it observed the request
+        _limiter.release(estimate);
+        onAttemptComplete(value, throwable);
+      });
+    }
+
+    void onAttemptComplete(T value, Throwable throwable) {
+      if (throwable == null) {
+        _future.complete(value);
+        return;
+      }
+      Throwable cause = unwrap(throwable);
+      if (!(cause instanceof CosmosException)) {
+        _future.completeExceptionally(cause);
+        return;
+      }
+      CosmosException cosmosException = (CosmosException) cause;
+      int statusCode = cosmosException.getStatusCode();
+      boolean throttled = statusCode == THROTTLED_STATUS_CODE || statusCode == RETRY_WITH_STATUS_CODE;
+      if (!throttled && !(_idempotent && TRANSIENT_STATUS_CODES.contains(statusCode))) {
+        _future.completeExceptionally(cause);
+        return;
+      }
+      if (_retries >= _maxRetries || !_retryBudget.withdraw()) {
+        if (_retries < _maxRetries) {
+          _retryBudgetExhaustedCount.increment();
+        }
+        Status status = throttled ? Status.RESOURCE_EXHAUSTED : Status.UNAVAILABLE;
+        _future.completeExceptionally(status.withDescription("Storage failed the request with " + statusCode
+            + " after " + _retries + " retries").withCause(cause).asRuntimeException());
+        return;
+      }
+      _retryCount.increment();
+      long backoffNanos = Math.min(_maxBackoffNanos, _baseBackoffNanos << Math.min(_retries, 20));
+      // full jitter keeps the calls that failed together from coming back together
+      long retryDelayNanos = ThreadLocalRandom.current().nextLong(backoffNanos + 1);
+      if (cosmosException.getRetryAfterDuration() != null) {
+        retryDelayNanos += cosmosException.getRetryAfterDuration().toNanos();
+      }
+      _retries++;
+      // a retry has been admitted already, so it waits for request units however long that takes
+      double estimate = _limiter.getChargeEstimate(_operation);
+      attempt(estimate, Math.max(retryDelayNanos, _limiter.reserve(estimate)));
+    }
+  }
+
+  /**
+   * Retries, counted in thousandths, that every call adds a fraction of one to, up to the size of the budget. It starts
+   * full, so that the first calls to a quiet container can be retried too.
+   */
+  private static class RetryBudget {
+    private static final long TOKEN = 1000;
+
+    private final long _deposit;
+    private final long _maxTokens;
+    private final AtomicLong _tokens;
+
+    RetryBudget(double ratio, int size) {
+      _deposit = (long) (ratio * TOKEN);
+      _maxTokens = size * TOKEN;
+      _tokens = new AtomicLong(_maxTokens);
+    }
+
+    void deposit() {
+      _tokens.updateAndGet(tokens -> Math.min(_maxTokens, tokens + _deposit));
+    }
+
+    boolean withdraw() {
+      long tokens = _tokens.get();
+      while (tokens >= TOKEN) {
+        if (_tokens.compareAndSet(tokens, tokens - TOKEN)) {
+          return true;
+        }
+        tokens = _tokens.get();
+      }
+      return false;
+    }
+  }
+
+  public static class Builder<KEY_TYPE, VALUE_TYPE> {
+    private final AsyncResource<KEY_TYPE, VALUE_TYPE> _resource;
+    private final RequestUnitLimiter _limiter;
+    private Duration _maxQueueDelay = Duration.ofMillis(500);
+    private int _maxRetries = 5;
+    private Duration _baseBackoff = Duration.ofMillis(20);
+    private Duration _maxBackoff = Duration.ofSeconds(2);
+    private double _retryBudgetRatio = 0.1;
+    private int _retryBudgetSize = 100;
+    private ScheduledExecutorService _scheduler = DEFAULT_SCHEDULER;
+
+    /**
+     * @param limiter the limiter of the container that backs {@code resource}, which should be observing its
+     *                requests.
+     */
+    public Builder(AsyncResource<KEY_TYPE, VALUE_TYPE> resource, RequestUnitLimiter limiter) {
+      _resource = checkNotNull(resource, "Resource cannot be null");
+      _limiter = checkNotNull(limiter, "RequestUnitLimiter cannot be null");
+    }
+
+    /**
+     * @param maxQueueDelay calls that would wait longer than this for request units are rejected.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> maxQueueDelay(Duration maxQueueDelay) {
+      checkArgument(maxQueueDelay != null && !maxQueueDelay.isNegative(), "Max queue delay should be >= 0");
+      _maxQueueDelay = maxQueueDelay;
+      return this;
+    }
+
+    /**
+     * @param baseBackoff the most that the first retry waits on top of any retry-after, which doubles with every
+     *                    retry up to {@code maxBackoff}.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> retries(int maxRetries, Duration baseBackoff, Duration maxBackoff) {
+      checkArgument(maxRetries >= 0, "Max retries should be >= 0");
+      checkArgument(baseBackoff != null && !baseBackoff.isNegative(), "Base backoff should be >= 0");
+      checkArgument(maxBackoff != null && maxBackoff.compareTo(baseBackoff) >= 0,
+          "Max backoff should be >= base backoff");
+      _maxRetries = maxRetries;
+      _baseBackoff = baseBackoff;
+      _maxBackoff = maxBackoff;
+      return this;
+    }
+
+    /**
+     * @param ratio the retries that every call adds to the budget, e.g. 0.1 for one retry per ten calls.
+     * @param size the most retries that the budget holds.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> retryBudget(double ratio, int size) {
+      checkArgument(ratio >= 0, "Retry budget ratio should be >= 0");
+      checkArgument(size >= 0, "Retry budget size should be >= 0");
+      _retryBudgetRatio = ratio;
+      _retryBudgetSize = size;
+      return this;
+    }
+
+    /**
+     * @param scheduler runs the calls that have to wait, and their retries. Defaults to one daemon thread that all the
+     *                  throttling resources share, which only starts the calls.
+     */
+    public Builder<KEY_TYPE, VALUE_TYPE> scheduler(ScheduledExecutorService scheduler) {
+      _scheduler = checkNotNull(scheduler, "Scheduler cannot be null");
+      return this;
+    }
+
+    public ThrottlingResource<KEY_TYPE, VALUE_TYPE> build() {
+      return new ThrottlingResource<>(_resource, _limiter, _maxQueueDelay, _maxRetries, _baseBackoff, _maxBackoff,
+          _retryBudgetRatio, _retryBudgetSize, _scheduler);
+    }
+  }
+}
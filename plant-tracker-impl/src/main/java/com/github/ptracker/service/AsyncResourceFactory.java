@@ -0,0 +1,25 @@
+package com.github.ptracker.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.resource.AsyncResource;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Creates the resources that the gRPC services store their entities in, so a service does not depend on the backend.
+ */
+public interface AsyncResourceFactory {
+
+  /**
+   * @param partitionKeyExtractor the partition of a value, if the backend is partitioned.
+   * @param indexedPaths the paths of the fields that templates filter on, most selective first. Queries are planned
+   *                     with them and backends that need to be told what to index index them.
+   */
+  <KEY_TYPE, VALUE_TYPE> AsyncResource<KEY_TYPE, VALUE_TYPE> create(String dbName, String containerName,
+      DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange, Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator,
+      Function<VALUE_TYPE, String> partitionKeyExtractor, Consumer<VALUE_TYPE> valueVerifier,
+      List<String> indexedPaths);
+}
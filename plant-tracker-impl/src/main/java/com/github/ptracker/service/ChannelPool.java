@@ -0,0 +1,40 @@
+package com.github.ptracker.service;
+
+import com.google.common.collect.ImmutableList;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Spreads calls over several channels to the same target, round robin. A single channel multiplexes all its calls on
+ * one connection, which can become the bottleneck when many clients share it. The channels are not owned by the pool.
+ */
+public class ChannelPool extends Channel {
+  private final List<ManagedChannel> _channels;
+  private final AtomicInteger _nextChannelIndex = new AtomicInteger();
+
+  public ChannelPool(List<ManagedChannel> channels) {
+    checkNotNull(channels, "Channels cannot be null");
+    checkArgument(!channels.isEmpty(), "Channels cannot be empty");
+    _channels = ImmutableList.copyOf(channels);
+  }
+
+  @Override
+  public <REQUEST_TYPE, RESPONSE_TYPE> ClientCall<REQUEST_TYPE, RESPONSE_TYPE> newCall(
+      MethodDescriptor<REQUEST_TYPE, RESPONSE_TYPE> methodDescriptor, CallOptions callOptions) {
+    int index = Math.floorMod(_nextChannelIndex.getAndIncrement(), _channels.size());
+    return _channels.get(index).newCall(methodDescriptor, callOptions);
+  }
+
+  @Override
+  public String authority() {
+    return _channels.get(0).authority();
+  }
+}
@@ -0,0 +1,73 @@
+package com.github.ptracker.service;
+
+import com.azure.cosmos.CosmosAsyncClient;
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CosmosAsyncResource;
+import com.github.ptracker.resource.CosmosMetrics;
+import com.github.ptracker.resource.RequestUnitLimiter;
+import com.github.ptracker.resource.ThrottlingResource;
+import com.github.ptracker.storage.cosmos.CosmosDBRequestObserver;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Creates resources that are scheduled within the request units of their containers (see {@link ThrottlingResource}),
+ * so the client should not retry throttled requests on its own.
+ */
+public class CosmosAsyncResourceFactory implements AsyncResourceFactory {
+  private static final double DEFAULT_REQUEST_UNITS_PER_SECOND = 400;
+  private static final Duration DEFAULT_MAX_QUEUE_DELAY = Duration.ofMillis(500);
+
+  private final CosmosAsyncClient _cosmosClient;
+  private final CosmosMetrics _metrics;
+  private final double _requestUnitsPerSecond;
+  private final Duration _maxQueueDelay;
+
+  public CosmosAsyncResourceFactory(CosmosAsyncClient cosmosClient) {
+    this(cosmosClient, new CosmosMetrics.Builder().build());
+  }
+
+  /**
+   * @param metrics records the requests of every resource that is created.
+   */
+  public CosmosAsyncResourceFactory(CosmosAsyncClient cosmosClient, CosmosMetrics metrics) {
+    this(cosmosClient, metrics, DEFAULT_REQUEST_UNITS_PER_SECOND, DEFAULT_MAX_QUEUE_DELAY);
+  }
+
+  /**
+   * @param requestUnitsPerSecond the throughput that each container is assumed to have at first, which adapts to what
+   *                              the container turns out to take.
+   * @param maxQueueDelay calls that would wait longer than this for request units are rejected.
+   */
+  public CosmosAsyncResourceFactory(CosmosAsyncClient cosmosClient, CosmosMetrics metrics,
+      double requestUnitsPerSecond, Duration maxQueueDelay) {
+    checkArgument(requestUnitsPerSecond > 0, "Request units per second should be > 0");
+    _cosmosClient = checkNotNull(cosmosClient, "CosmosAsyncClient cannot be null");
+    _metrics = checkNotNull(metrics, "CosmosMetrics cannot be null");
+    _requestUnitsPerSecond = requestUnitsPerSecond;
+    _maxQueueDelay = checkNotNull(maxQueueDelay, "Max queue delay cannot be null");
+  }
+
+  @Override
+  public <KEY_TYPE, VALUE_TYPE> AsyncResource<KEY_TYPE, VALUE_TYPE> create(String dbName, String containerName,
+      DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange, Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator,
+      Function<VALUE_TYPE, String> partitionKeyExtractor, Consumer<VALUE_TYPE> valueVerifier,
+      List<String> indexedPaths) {
+    // Cosmos indexes every path by default, so the indexed paths only order the filters of queries
+    CosmosAsyncContainer container = _cosmosClient.getDatabase(dbName).getContainer(containerName);
+    RequestUnitLimiter limiter = new RequestUnitLimiter.Builder().initialRate(_requestUnitsPerSecond).build();
+    CosmosDBRequestObserver requestObserver =
+        CosmosDBRequestObserver.allOf(_metrics.getRequestObserver(containerName), limiter);
+    AsyncResource<KEY_TYPE, VALUE_TYPE> resource = new CosmosAsyncResource<>(container, dataInterchange,
+        valueWithIdOnlyCreator, partitionKeyExtractor, valueVerifier, indexedPaths, requestObserver);
+    return new ThrottlingResource.Builder<>(resource, limiter).maxQueueDelay(_maxQueueDelay).build();
+  }
+}
@@ -0,0 +1,51 @@
+package com.github.ptracker.service;
+
+import com.github.ptracker.resource.QueryBounds;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Turns the {@link EventRange} of event queries into the {@link QueryBounds} that resources are asked for. Events are
+ * bounded and ordered by the timestamp of their metadata.
+ */
+public final class EventRanges {
+  // the JSON path of EventMetadata.timestamp in the events, which is how they are stored
+  public static final String TIMESTAMP_PATH = "metadata.timestamp";
+
+  private EventRanges() {
+  }
+
+  /**
+   * @return {@code true} if the bounds of {@code range} are not negative and do not cross, and its order is known.
+   */
+  public static boolean isValid(EventRange range) {
+    checkNotNull(range, "EventRange cannot be null");
+    return range.getSince() >= 0 && range.getUntil() >= 0 && range.getLimit() >= 0
+        && (range.getUntil() == 0 || range.getSince() <= range.getUntil())
+        && !EventRange.Order.UNRECOGNIZED.equals(range.getOrder());
+  }
+
+  public static QueryBounds toQueryBounds(EventRange range) {
+    return toQueryBounds(range, TIMESTAMP_PATH);
+  }
+
+  /**
+   * @param path the JSON path of the int64 field that {@code range} is on, for entities that are not events.
+   */
+  public static QueryBounds toQueryBounds(EventRange range, String path) {
+    checkArgument(isValid(range), "Invalid event range %s", range);
+    checkNotNull(path, "Path cannot be null");
+    QueryBounds.Builder builder = new QueryBounds.Builder().limit(range.getLimit());
+    if (range.getSince() > 0 || range.getUntil() > 0) {
+      builder.range(path, range.getSince() > 0 ? range.getSince() : null,
+          range.getUntil() > 0 ? range.getUntil() : null);
+    }
+    if (EventRange.Order.OLDEST_FIRST.equals(range.getOrder())) {
+      builder.order(path, false);
+    } else if (EventRange.Order.NEWEST_FIRST.equals(range.getOrder())) {
+      builder.order(path, true);
+    }
+    return builder.build();
+  }
+}
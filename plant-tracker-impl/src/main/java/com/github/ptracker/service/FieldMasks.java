@@ -0,0 +1,87 @@
+package com.github.ptracker.service;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Turns the field masks of requests into the top level fields that resources are asked for, and trims the entities
+ * that are returned down to those fields. Only top level fields are projected (a path into a nested message keeps the
+ * whole message) and paths that the entity does not have are ignored. Paths can use either the proto or the JSON name
+ * of a field, and fields are handed to resources by their JSON name, which is how they are stored.
+ */
+public final class FieldMasks {
+  private static final String ID_FIELD_NAME = "id";
+  private static final String PATH_SEPARATOR = ".";
+
+  private FieldMasks() {
+  }
+
+  /**
+   * @return the JSON names of the top level fields of {@code descriptor} selected by {@code fieldMask} (always
+   * including the id), or an empty list if it selects none of them, which stands for all fields.
+   */
+  public static List<String> getTopLevelFields(FieldMask fieldMask, Descriptor descriptor) {
+    checkNotNull(fieldMask, "Field mask cannot be null");
+    checkNotNull(descriptor, "Descriptor cannot be null");
+    Set<String> fields = new LinkedHashSet<>();
+    for (String path : fieldMask.getPathsList()) {
+      int separatorIndex = path.indexOf(PATH_SEPARATOR);
+      FieldDescriptor field = findField(descriptor, separatorIndex < 0 ? path : path.substring(0, separatorIndex));
+      if (field != null) {
+        fields.add(field.getJsonName());
+      }
+    }
+    if (fields.isEmpty()) {
+      return Collections.emptyList();
+    }
+    if (descriptor.findFieldByName(ID_FIELD_NAME) != null) {
+      fields.add(ID_FIELD_NAME);
+    }
+    return new ArrayList<>(fields);
+  }
+
+  /**
+   * @param fields top level fields as returned by {@link #getTopLevelFields(FieldMask, Descriptor)}.
+   * @return {@code message} with only {@code fields} set, or {@code message} itself if {@code fields} is empty.
+   */
+  @SuppressWarnings("unchecked")
+  public static <MESSAGE_TYPE extends Message> MESSAGE_TYPE trim(List<String> fields, MESSAGE_TYPE message) {
+    checkNotNull(fields, "Fields cannot be null");
+    if (fields.isEmpty() || message == null) {
+      return message;
+    }
+    Descriptor descriptor = message.getDescriptorForType();
+    Message.Builder builder = message.newBuilderForType();
+    for (String field : fields) {
+      FieldDescriptor fieldDescriptor = findField(descriptor, field);
+      if (fieldDescriptor.isRepeated() ? message.getRepeatedFieldCount(fieldDescriptor) > 0
+          : message.hasField(fieldDescriptor)) {
+        builder.setField(fieldDescriptor, message.getField(fieldDescriptor));
+      }
+    }
+    return (MESSAGE_TYPE) builder.build();
+  }
+
+  private static FieldDescriptor findField(Descriptor descriptor, String name) {
+    FieldDescriptor field = descriptor.findFieldByName(name);
+    if (field != null) {
+      return field;
+    }
+    for (FieldDescriptor candidate : descriptor.getFields()) {
+      if (candidate.getJsonName().equals(name)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+}
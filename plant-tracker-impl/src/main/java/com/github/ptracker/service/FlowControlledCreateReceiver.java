@@ -0,0 +1,130 @@
+package com.github.ptracker.service;
+
+import com.github.ptracker.resource.ResourceResponse;
+import com.github.ptracker.resource.ResponseStatus;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Receives a stream of create requests from a client, reading the next request only when one of the creates in flight
+ * completes. A client that sends faster than its creates complete is therefore held back by the transport, instead of
+ * its requests piling up on the server. The call is completed with the number of creates once the client is done and
+ * they all succeeded, or fails on the first create that fails (the ones before it stay created).
+ */
+public class FlowControlledCreateReceiver<REQUEST_TYPE, RESPONSE_TYPE> implements StreamObserver<REQUEST_TYPE> {
+  private final Function<REQUEST_TYPE, CompletableFuture<ResourceResponse<Void>>> _creator;
+  private final IntFunction<RESPONSE_TYPE> _responseCreator;
+  private final ServerCallStreamObserver<RESPONSE_TYPE> _responseObserver;
+
+  private int _inFlightCount = 0;
+  private int _createdCount = 0;
+  private boolean _clientDone = false;
+  private boolean _done = false;
+
+  private FlowControlledCreateReceiver(Function<REQUEST_TYPE, CompletableFuture<ResourceResponse<Void>>> creator,
+      IntFunction<RESPONSE_TYPE> responseCreator, ServerCallStreamObserver<RESPONSE_TYPE> responseObserver) {
+    _creator = creator;
+    _responseCreator = responseCreator;
+    _responseObserver = responseObserver;
+  }
+
+  /**
+   * Must be called from the service method handling the call, which should return the receiver.
+   *
+   * @param creator starts the create of a request. It can reject the request by throwing a
+   *                {@link StatusRuntimeException}.
+   * @param responseCreator creates the response from the number of creates.
+   * @param maxInFlightCount the most creates of the call that can be in flight at once.
+   */
+  public static <REQUEST_TYPE, RESPONSE_TYPE> StreamObserver<REQUEST_TYPE> receive(
+      Function<REQUEST_TYPE, CompletableFuture<ResourceResponse<Void>>> creator,
+      IntFunction<RESPONSE_TYPE> responseCreator, int maxInFlightCount,
+      StreamObserver<RESPONSE_TYPE> responseObserver) {
+    checkNotNull(creator, "Creator cannot be null");
+    checkNotNull(responseCreator, "Response creator cannot be null");
+    checkArgument(maxInFlightCount > 0, "Max in flight count should be > 0");
+    checkArgument(responseObserver instanceof ServerCallStreamObserver, "Can only receive requests of server calls");
+    ServerCallStreamObserver<RESPONSE_TYPE> serverCallStreamObserver =
+        (ServerCallStreamObserver<RESPONSE_TYPE>) responseObserver;
+    FlowControlledCreateReceiver<REQUEST_TYPE, RESPONSE_TYPE> receiver =
+        new FlowControlledCreateReceiver<>(creator, responseCreator, serverCallStreamObserver);
+    serverCallStreamObserver.disableAutoInboundFlowControl();
+    serverCallStreamObserver.setOnCancelHandler(receiver::cancel);
+    serverCallStreamObserver.request(maxInFlightCount);
+    return receiver;
+  }
+
+  @Override
+  public synchronized void onNext(REQUEST_TYPE request) {
+    if (_done) {
+      return;
+    }
+    CompletableFuture<ResourceResponse<Void>> future;
+    try {
+      future = _creator.apply(request);
+    } catch (RuntimeException e) {
+      fail(e);
+      return;
+    }
+    _inFlightCount++;
+    future.whenComplete(this::onCreated);
+  }
+
+  @Override
+  public synchronized void onError(Throwable throwable) {
+    // the client cancelled the call, so there is nobody to respond to
+    _done = true;
+  }
+
+  @Override
+  public synchronized void onCompleted() {
+    _clientDone = true;
+    completeIfDone();
+  }
+
+  private synchronized void onCreated(ResourceResponse<Void> response, Throwable throwable) {
+    _inFlightCount--;
+    if (_done) {
+      return;
+    }
+    if (throwable != null) {
+      fail(throwable);
+    } else if (!ResponseStatus.OK.equals(response.getStatus())) {
+      fail(new StatusRuntimeException(response.getStatus().getGrpcStatus()));
+    } else {
+      _createdCount++;
+      if (_clientDone) {
+        completeIfDone();
+      } else {
+        _responseObserver.request(1);
+      }
+    }
+  }
+
+  private void completeIfDone() {
+    if (!_done && _clientDone && _inFlightCount == 0) {
+      _done = true;
+      _responseObserver.onNext(_responseCreator.apply(_createdCount));
+      _responseObserver.onCompleted();
+    }
+  }
+
+  private void fail(Throwable throwable) {
+    _done = true;
+    StatusRuntimeException statusException = StreamObserverCallbacks.toStatusException(throwable);
+    _responseObserver.onError(statusException.getStatus()
+        .augmentDescription(_createdCount + " created before the failure")
+        .asRuntimeException());
+  }
+
+  private synchronized void cancel() {
+    _done = true;
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.ptracker.service;
+
+import com.github.ptracker.resource.ResourcePage;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Streams pages to a client, fetching the next page only when the call can accept more messages. Pages are therefore
+ * only fetched as fast as the client consumes them, and no thread waits while a page is being fetched.
+ */
+public class FlowControlledPageStreamer<VALUE_TYPE, RESPONSE_TYPE> implements Runnable {
+  private final Function<String, CompletableFuture<ResourcePage<VALUE_TYPE>>> _pageFetcher;
+  private final Function<ResourcePage<VALUE_TYPE>, RESPONSE_TYPE> _responseCreator;
+  private final ServerCallStreamObserver<RESPONSE_TYPE> _responseObserver;
+
+  private String _continuationToken;
+  private boolean _fetching = false;
+  private boolean _streaming = false;
+  private boolean _done = false;
+
+  private FlowControlledPageStreamer(String continuationToken,
+      Function<String, CompletableFuture<ResourcePage<VALUE_TYPE>>> pageFetcher,
+      Function<ResourcePage<VALUE_TYPE>, RESPONSE_TYPE> responseCreator,
+      ServerCallStreamObserver<RESPONSE_TYPE> responseObserver) {
+    _continuationToken = continuationToken;
+    _pageFetcher = pageFetcher;
+    _responseCreator = responseCreator;
+    _responseObserver = responseObserver;
+  }
+
+  /**
+   * Starts streaming pages to {@code responseObserver}, beginning at {@code continuationToken} (or the first page if
+   * it is {@code null}) and ending after the page without a continuation token. Must be called from the service method
+   * handling the call, which can return right after.
+   *
+   * @param pageFetcher fetches the page at the given continuation token.
+   */
+  public static <VALUE_TYPE, RESPONSE_TYPE> void stream(String continuationToken,
+      Function<String, CompletableFuture<ResourcePage<VALUE_TYPE>>> pageFetcher,
+      Function<ResourcePage<VALUE_TYPE>, RESPONSE_TYPE> responseCreator,
+      StreamObserver<RESPONSE_TYPE> responseObserver) {
+    checkNotNull(pageFetcher, "Page fetcher cannot be null");
+    checkNotNull(responseCreator, "Response creator cannot be null");
+    checkArgument(responseObserver instanceof ServerCallStreamObserver, "Can only stream responses of server calls");
+    ServerCallStreamObserver<RESPONSE_TYPE> serverCallStreamObserver =
+        (ServerCallStreamObserver<RESPONSE_TYPE>) responseObserver;
+    FlowControlledPageStreamer<VALUE_TYPE, RESPONSE_TYPE> streamer =
+        new FlowControlledPageStreamer<>(continuationToken, pageFetcher, responseCreator, serverCallStreamObserver);
+    serverCallStreamObserver.setOnCancelHandler(streamer::cancel);
+    // gRPC runs the handler once the service method returns (if the call is ready) and every time it becomes ready
+    serverCallStreamObserver.setOnReadyHandler(streamer);
+  }
+
+  @Override
+  public synchronized void run() {
+    if (_streaming) {
+      // a page that was already fetched completed inside the loop below, which will carry on
+      return;
+    }
+    _streaming = true;
+    try {
+      while (!_done && !_fetching && _responseObserver.isReady()) {
+        _fetching = true;
+        _pageFetcher.apply(_continuationToken).whenComplete(this::onPage);
+      }
+    } catch (RuntimeException e) {
+      fail(e);
+    } finally {
+      _streaming = false;
+    }
+  }
+
+  private synchronized void onPage(ResourcePage<VALUE_TYPE> page, Throwable throwable) {
+    _fetching = false;
+    if (_done) {
+      return;
+    }
+    if (throwable != null) {
+      fail(throwable);
+      return;
+    }
+    try {
+      _responseObserver.onNext(_responseCreator.apply(page));
+    } catch (RuntimeException e) {
+      fail(e);
+      return;
+    }
+    _continuationToken = page.getContinuationToken();
+    if (_continuationToken == null) {
+      _done = true;
+      _responseObserver.onCompleted();
+    } else {
+      run();
+    }
+  }
+
+  private void fail(Throwable throwable) {
+    _done = true;
+    _responseObserver.onError(StreamObserverCallbacks.toStatusException(throwable));
+  }
+
+  private synchronized void cancel() {
+    _done = true;
+  }
+}
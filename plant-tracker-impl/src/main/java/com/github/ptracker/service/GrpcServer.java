@@ -1,8 +1,11 @@
 package com.github.ptracker.service;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,15 +13,23 @@ import org.slf4j.LoggerFactory;
 import static com.google.common.base.Preconditions.*;
 
 
+/**
+ * Services complete their calls from the callbacks of the (asynchronous) resources, so calls only hold a thread while
+ * they are being handled and a small fixed pool of threads is enough to run them. Each call is handled in the
+ * {@link StorageSession} that it was made in.
+ */
 public class GrpcServer implements StartStopService {
   private static final Logger LOGGER = LoggerFactory.getLogger(GrpcServer.class);
 
   private final String _description;
+  private final ExecutorService _executor;
   private final Server _server;
 
   protected GrpcServer(String description, ServerBuilder<?> serverBuilder) {
     _description = checkNotNull(description, "Description cannot be null");
-    _server = serverBuilder.build();
+    _executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder().setNameFormat(description + "-%d").setDaemon(true).build());
+    _server = serverBuilder.executor(_executor).intercept(StorageSession.serverInterceptor()).build();
   }
 
   @Override
@@ -46,6 +57,7 @@ public class GrpcServer implements StartStopService {
       try {
         LOGGER.info("Stopping {}", _description);
         _server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+        _executor.shutdown();
         LOGGER.info("Stopped {}", _description);
       } catch (InterruptedException e) {
         throw new IllegalStateException(e);
@@ -58,6 +70,7 @@ public class GrpcServer implements StartStopService {
     if (_server != null) {
       _server.shutdownNow();
     }
+    _executor.shutdownNow();
   }
 
   @Override
@@ -0,0 +1,32 @@
+package com.github.ptracker.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.InMemoryResource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Keeps every entity in memory, in an {@link InMemoryResource} that indexes the queried paths. Nothing survives a
+ * restart. Like the containers of a database, there is one resource per container name, which every service that
+ * asks for the container shares (e.g. the event services and the service that reads the aggregates they maintain).
+ */
+public class InMemoryResourceFactory implements AsyncResourceFactory {
+  private final Map<String, AsyncResource<?, ?>> _resources = new ConcurrentHashMap<>();
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <KEY_TYPE, VALUE_TYPE> AsyncResource<KEY_TYPE, VALUE_TYPE> create(String dbName, String containerName,
+      DataInterchange<ObjectNode, VALUE_TYPE> dataInterchange, Function<KEY_TYPE, VALUE_TYPE> valueWithIdOnlyCreator,
+      Function<VALUE_TYPE, String> partitionKeyExtractor, Consumer<VALUE_TYPE> valueVerifier,
+      List<String> indexedPaths) {
+    // the callers of a container are expected to agree on its types, as they would for a database
+    return (AsyncResource<KEY_TYPE, VALUE_TYPE>) _resources.computeIfAbsent(dbName + "/" + containerName,
+        ignored -> new InMemoryResource<>(dataInterchange, valueWithIdOnlyCreator, valueVerifier, indexedPaths));
+  }
+}
@@ -0,0 +1,160 @@
+package com.github.ptracker.service;
+
+import com.github.ptracker.common.storage.StorageMetadata;
+import com.github.ptracker.storage.cosmos.CosmosDBSessionTokens;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+
+/**
+ * The storage session of a request, so that its reads see the writes made before them in the session, whichever
+ * service instance or replica they end up at, without asking the storage for strong consistency. The session token
+ * travels between clients and services in the {@link #SESSION_TOKEN_HEADER} of calls (requests send the token they
+ * have, responses return it in their trailers once their writes have advanced it), and within a process in the gRPC
+ * {@link Context}, which follows the callbacks of the calls that are made in it.
+ */
+public class StorageSession {
+  public static final Metadata.Key<String> SESSION_TOKEN_HEADER =
+      Metadata.Key.of("x-ptracker-session-token", Metadata.ASCII_STRING_MARSHALLER);
+
+  private static final Context.Key<StorageSession> CONTEXT_KEY = Context.key("storage-session");
+
+  private final AtomicReference<String> _sessionToken;
+
+  /**
+   * @param sessionToken the token to start from, or {@code null} for a new session.
+   */
+  public StorageSession(String sessionToken) {
+    _sessionToken = new AtomicReference<>(sessionToken == null || sessionToken.isEmpty() ? null : sessionToken);
+  }
+
+  /**
+   * @return the session of the current context, or a new one (which nothing else sees) if there is none.
+   */
+  public static StorageSession current() {
+    StorageSession session = CONTEXT_KEY.get();
+    return session == null ? new StorageSession(null) : session;
+  }
+
+  /**
+   * @return what {@code supplier} returns, having made this the current session while it ran.
+   */
+  public <T> T call(Supplier<T> supplier) {
+    Context previous = Context.current().withValue(CONTEXT_KEY, this).attach();
+    try {
+      return supplier.get();
+    } finally {
+      Context.current().detach(previous);
+    }
+  }
+
+  /**
+   * @return the latest session token, or {@code null} if nothing has been written in the session.
+   */
+  public String getSessionToken() {
+    return _sessionToken.get();
+  }
+
+  /**
+   * @return the metadata that reads are given to see the writes of the session, or {@code null} if there were none.
+   */
+  public StorageMetadata getMetadata() {
+    String sessionToken = _sessionToken.get();
+    return sessionToken == null ? null : StorageMetadata.newBuilder().setSessionToken(sessionToken).build();
+  }
+
+  /**
+   * Advances the session to include {@code sessionToken}, e.g. the token of a write.
+   */
+  public void update(String sessionToken) {
+    if (sessionToken != null && !sessionToken.isEmpty()) {
+      _sessionToken.accumulateAndGet(sessionToken, CosmosDBSessionTokens::merge);
+    }
+  }
+
+  /**
+   * Advances the session to include the session token of {@code metadata}, if it has one.
+   */
+  public void update(StorageMetadata metadata) {
+    if (metadata != null) {
+      update(metadata.getSessionToken());
+    }
+  }
+
+  /**
+   * @return an interceptor that makes the session of each call (from its header) the current one while it is handled,
+   * and returns the session in the trailers of the call.
+   */
+  public static ServerInterceptor serverInterceptor() {
+    return new ServerInterceptor() {
+      @Override
+      public <REQUEST_TYPE, RESPONSE_TYPE> ServerCall.Listener<REQUEST_TYPE> interceptCall(
+          ServerCall<REQUEST_TYPE, RESPONSE_TYPE> call, Metadata headers,
+          ServerCallHandler<REQUEST_TYPE, RESPONSE_TYPE> next) {
+        StorageSession session = new StorageSession(headers.get(SESSION_TOKEN_HEADER));
+        ServerCall<REQUEST_TYPE, RESPONSE_TYPE> sessionCall = new SimpleForwardingServerCall<REQUEST_TYPE,
+            RESPONSE_TYPE>(call) {
+          @Override
+          public void close(Status status, Metadata trailers) {
+            session.putSessionToken(trailers);
+            super.close(status, trailers);
+          }
+        };
+        return Contexts.interceptCall(Context.current().withValue(CONTEXT_KEY, session), sessionCall, headers, next);
+      }
+    };
+  }
+
+  /**
+   * @return an interceptor that sends the current session with each call, and advances it with the session that the
+   * call returns.
+   */
+  public static ClientInterceptor clientInterceptor() {
+    return new ClientInterceptor() {
+      @Override
+      public <REQUEST_TYPE, RESPONSE_TYPE> ClientCall<REQUEST_TYPE, RESPONSE_TYPE> interceptCall(
+          MethodDescriptor<REQUEST_TYPE, RESPONSE_TYPE> method, CallOptions callOptions, Channel next) {
+        StorageSession session = CONTEXT_KEY.get();
+        ClientCall<REQUEST_TYPE, RESPONSE_TYPE> call = next.newCall(method, callOptions);
+        if (session == null) {
+          return call;
+        }
+        return new SimpleForwardingClientCall<REQUEST_TYPE, RESPONSE_TYPE>(call) {
+          @Override
+          public void start(Listener<RESPONSE_TYPE> responseListener, Metadata headers) {
+            session.putSessionToken(headers);
+            super.start(new SimpleForwardingClientCallListener<RESPONSE_TYPE>(responseListener) {
+              @Override
+              public void onClose(Status status, Metadata trailers) {
+                session.update(trailers.get(SESSION_TOKEN_HEADER));
+                super.onClose(status, trailers);
+              }
+            }, headers);
+          }
+        };
+      }
+    };
+  }
+
+  private void putSessionToken(Metadata metadata) {
+    String sessionToken = _sessionToken.get();
+    if (sessionToken != null) {
+      metadata.put(SESSION_TOKEN_HEADER, sessionToken);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.github.ptracker.service;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Completes unary calls from the callbacks of asynchronous operations, so that no thread waits for the operation.
+ */
+public final class StreamObserverCallbacks {
+
+  private StreamObserverCallbacks() {
+  }
+
+  /**
+   * @return a callback for {@link java.util.concurrent.CompletableFuture#whenComplete(BiConsumer)} that sends the
+   * response created from the result and completes the call. The response creator can fail the call by throwing a
+   * {@link StatusRuntimeException}.
+   */
+  public static <RESULT_TYPE, RESPONSE_TYPE> BiConsumer<RESULT_TYPE, Throwable> completing(
+      StreamObserver<RESPONSE_TYPE> responseObserver, Function<RESULT_TYPE, RESPONSE_TYPE> responseCreator) {
+    checkNotNull(responseObserver, "Response observer cannot be null");
+    checkNotNull(responseCreator, "Response creator cannot be null");
+    return (result, throwable) -> {
+      if (throwable != null) {
+        responseObserver.onError(toStatusException(throwable));
+        return;
+      }
+      RESPONSE_TYPE response;
+      try {
+        response = responseCreator.apply(result);
+      } catch (RuntimeException e) {
+        responseObserver.onError(toStatusException(e));
+        return;
+      }
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    };
+  }
+
+  static StatusRuntimeException toStatusException(Throwable throwable) {
+    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause()
+        : throwable;
+    return Status.fromThrowable(cause).asRuntimeException();
+  }
+}
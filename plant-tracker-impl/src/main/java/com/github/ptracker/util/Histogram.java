@@ -0,0 +1,84 @@
+package com.github.ptracker.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * A histogram of non-negative values with a fixed, preallocated set of buckets, so recording a value neither allocates
+ * nor locks. Buckets are log-linear (each power of two is split in {@value #SUB_BUCKET_COUNT} buckets), which bounds
+ * the relative error of the reported percentiles to about 6% across the whole range of longs.
+ */
+public class Histogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder _count = new LongAdder();
+  private final LongAdder _sum = new LongAdder();
+  private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+  public void record(long value) {
+    checkArgument(value >= 0, "Value should be >= 0");
+    _counts.incrementAndGet(getBucketIndex(value));
+    _count.increment();
+    _sum.add(value);
+    _max.accumulate(value);
+  }
+
+  public long getCount() {
+    return _count.sum();
+  }
+
+  public long getMax() {
+    return _max.get();
+  }
+
+  public double getMean() {
+    long count = _count.sum();
+    return count == 0 ? 0 : (double) _sum.sum() / count;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   * @return the lower bound of the bucket that holds the value at {@code percentile}, or 0 if nothing was recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    checkArgument(percentile >= 0 && percentile <= 100, "Percentile should be between 0 and 100");
+    long count = _count.sum();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += _counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getBucketLowerBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  private static int getBucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  private static long getBucketLowerBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKET_COUNT;
+    return (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+}
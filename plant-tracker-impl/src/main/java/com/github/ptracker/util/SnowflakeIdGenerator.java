@@ -0,0 +1,100 @@
+package com.github.ptracker.util;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Generates positive ids that are made of the milliseconds since an epoch (41 bits, which lasts 69 years), the id of
+ * the node that generated them (10 bits) and a sequence within the millisecond (12 bits). The ids of a node increase,
+ * and the ids of all nodes sort by the time that they were generated, to within the clock skew between the nodes.
+ * <p>
+ * Ids are generated without locks: the last millisecond and sequence are one atomic value, which a generator
+ * advances with compare-and-set. A node that runs out of sequence within a millisecond, or whose clock goes back,
+ * carries on from the last millisecond that it used rather than waiting for the clock.
+ */
+public class SnowflakeIdGenerator implements IdGenerator<Long> {
+  public static final int NODE_ID_BITS = 10;
+  public static final int MAX_NODE_ID = (1 << NODE_ID_BITS) - 1;
+
+  private static final int SEQUENCE_BITS = 12;
+  private static final int TIMESTAMP_BITS = Long.SIZE - 1 - NODE_ID_BITS - SEQUENCE_BITS;
+  private static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+  private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+  private final Clock _clock;
+  private final long _epochMs;
+  private final long _nodeIdBits;
+  // the millisecond (since the epoch) and the sequence of the last id, as (millisecond << SEQUENCE_BITS) | sequence
+  private final AtomicLong _lastState = new AtomicLong();
+
+  private SnowflakeIdGenerator(Clock clock, long epochMs, int nodeId) {
+    _clock = clock;
+    _epochMs = epochMs;
+    _nodeIdBits = (long) nodeId << SEQUENCE_BITS;
+  }
+
+  @Override
+  public Long getNextId() {
+    long state;
+    long nextState;
+    do {
+      state = _lastState.get();
+      long elapsedMs = _clock.millis() - _epochMs;
+      checkState(elapsedMs >= 0, "The clock is before the epoch");
+      long elapsedState = elapsedMs << SEQUENCE_BITS;
+      // a full sequence overflows into the next millisecond, which is as good as waiting for it
+      nextState = elapsedState > state ? elapsedState : state + 1;
+      checkState((nextState >>> SEQUENCE_BITS) <= MAX_TIMESTAMP, "Ran out of timestamps since the epoch");
+    } while (!_lastState.compareAndSet(state, nextState));
+    long timestamp = nextState >>> SEQUENCE_BITS;
+    return (timestamp << (NODE_ID_BITS + SEQUENCE_BITS)) | _nodeIdBits | (nextState & SEQUENCE_MASK);
+  }
+
+  /**
+   * @return a node id that is only unlikely to be that of another generator, for local runs and tests.
+   */
+  public static int getRandomNodeId() {
+    return ThreadLocalRandom.current().nextInt(MAX_NODE_ID + 1);
+  }
+
+  public static class Builder {
+    // 2020-01-01T00:00:00Z
+    private Instant _epoch = Instant.ofEpochMilli(1577836800000L);
+    private Clock _clock = Clock.systemUTC();
+    private final int _nodeId;
+
+    /**
+     * @param nodeId unique among the generators whose ids should not collide, which only the deployment can ensure.
+     */
+    public Builder(int nodeId) {
+      checkArgument(nodeId >= 0 && nodeId <= MAX_NODE_ID, "Node id should be between 0 and %s", MAX_NODE_ID);
+      _nodeId = nodeId;
+    }
+
+    /**
+     * @param epoch the time that timestamps are counted from. Generators whose ids are compared should share it.
+     */
+    public Builder epoch(Instant epoch) {
+      _epoch = checkNotNull(epoch, "Epoch cannot be null");
+      return this;
+    }
+
+    /**
+     * @param clock the source of the time that ids are generated at, e.g. a fake in tests.
+     */
+    public Builder clock(Clock clock) {
+      _clock = checkNotNull(clock, "Clock cannot be null");
+      return this;
+    }
+
+    public SnowflakeIdGenerator build() {
+      checkArgument(!_epoch.isAfter(_clock.instant()), "Epoch should not be in the future");
+      return new SnowflakeIdGenerator(_clock, _epoch.toEpochMilli(), _nodeId);
+    }
+  }
+}
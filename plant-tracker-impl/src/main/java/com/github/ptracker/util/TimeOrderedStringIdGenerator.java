@@ -0,0 +1,31 @@
+package com.github.ptracker.util;
+
+import com.google.common.base.Strings;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Prefixes the ids of a {@link SnowflakeIdGenerator} (or any generator of positive ids that increase with time) in a
+ * fixed width base 36, so that the string ids sort lexicographically in the order of the numbers, i.e. by time.
+ */
+public class TimeOrderedStringIdGenerator implements IdGenerator<String> {
+  private static final int RADIX = 36;
+  // Long.MAX_VALUE in base 36
+  private static final int WIDTH = Long.toString(Long.MAX_VALUE, RADIX).length();
+
+  private final String _prefix;
+  private final IdGenerator<Long> _longIdGenerator;
+
+  public TimeOrderedStringIdGenerator(String prefix, IdGenerator<Long> longIdGenerator) {
+    _prefix = prefix == null ? "" : prefix;
+    _longIdGenerator = checkNotNull(longIdGenerator, "Long IdGenerator cannot be null");
+  }
+
+  @Override
+  public String getNextId() {
+    long id = _longIdGenerator.getNextId();
+    checkState(id >= 0, "Ids should be >= 0 to sort as strings");
+    return _prefix + Strings.padStart(Long.toString(id, RADIX), WIDTH, '0');
+  }
+}
@@ -0,0 +1,189 @@
+package com.github.ptracker.interchange;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.common.EventMetadata;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.FertilizationEvent;
+import com.github.ptracker.entity.Garden;
+import com.github.ptracker.entity.GardenPlant;
+import com.github.ptracker.entity.Gardener;
+import com.github.ptracker.entity.NoteEvent;
+import com.github.ptracker.entity.Plant;
+import com.github.ptracker.entity.Space;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.WateringEventQueryRequest;
+import com.github.ptracker.service.WateringEventQueryResponse;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Checks that the codec prints and parses the same trees as {@link JsonFormat}, which is what the stored items were
+ * written with before the codec.
+ */
+public class ProtoBufJsonTreeCodecTest {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final EventMetadata METADATA =
+      EventMetadata.newBuilder().setGardenerId("gardener-1").setTimestamp(1600000000123L).setComment("ok").build();
+
+  private final ProtoBufJsonTreeCodec _codec = new ProtoBufJsonTreeCodec();
+
+  @Test
+  public void defaultEntitiesArePrintedAsEmptyObjects() throws IOException {
+    List<Message> defaults = Arrays.asList(CareAggregate.getDefaultInstance(), FertilizationEvent.getDefaultInstance(),
+        Garden.getDefaultInstance(), GardenPlant.getDefaultInstance(), Gardener.getDefaultInstance(),
+        NoteEvent.getDefaultInstance(), Plant.getDefaultInstance(), Space.getDefaultInstance(),
+        WateringEvent.getDefaultInstance(), EventMetadata.getDefaultInstance());
+    for (Message message : defaults) {
+      assertEquals(0, _codec.print(message).size());
+      assertRoundTrip(message);
+    }
+  }
+
+  @Test
+  public void entitiesRoundTripLikeJsonFormat() throws IOException {
+    assertRoundTrip(Garden.newBuilder().setId("garden-1").setName("Back yard").setSpaceId("space-1").build());
+    assertRoundTrip(
+        GardenPlant.newBuilder().setId("gp-1").setName("Fern").setGardenId("garden-1").setPlantId("plant-1").build());
+    assertRoundTrip(Gardener.newBuilder().setId("gardener-1").setFirstName("Ada").setLastName("Lovelace").build());
+    assertRoundTrip(Plant.newBuilder().setId("plant-1").setName("Boston fern").build());
+    assertRoundTrip(Space.newBuilder().setId("space-1").setName("Home").build());
+    assertRoundTrip(WateringEvent.newBuilder()
+        .setId("watering-1")
+        .setQuantityMl(250)
+        .setMetadata(METADATA)
+        .setGardenPlantId("gp-1")
+        .build());
+    assertRoundTrip(FertilizationEvent.newBuilder()
+        .setId("fertilization-1")
+        .setQuantityMg(-5)
+        .setMetadata(METADATA)
+        .setGardenPlantId("gp-1")
+        .build());
+    assertRoundTrip(NoteEvent.newBuilder()
+        .setId("note-1")
+        .setDescription("\u00dc\u00f1\u00ed\u00e7\u00f8d\u00e9 \"quoted\"\n and \u2603")
+        .setMetadata(METADATA)
+        .setGardenPlantId("gp-1")
+        .build());
+    assertRoundTrip(CareAggregate.newBuilder()
+        .setId("gp-1:WEEK:1600000000000")
+        .setGardenPlantId("gp-1")
+        .setGranularity(CareAggregate.Granularity.WEEK)
+        .setBucketStart(1600000000000L)
+        .setTotalQuantityMl(Long.MAX_VALUE)
+        .setWateringCount(Integer.MAX_VALUE)
+        .setLastWateringTimestamp(Long.MIN_VALUE)
+        .setTotalQuantityMg(-1L)
+        .setFertilizationCount(Integer.MIN_VALUE)
+        .setLastFertilizationTimestamp(1L)
+        .build());
+  }
+
+  @Test
+  public void int64IsPrintedAsString() throws IOException {
+    ObjectNode node = _codec.print(METADATA);
+
+    assertTrue(node.get("timestamp").isTextual());
+    assertEquals("1600000000123", node.get("timestamp").textValue());
+    // JsonFormat parses numbers as well as strings
+    ObjectNode numeric = node.deepCopy();
+    numeric.put("timestamp", 1600000000123L);
+    EventMetadata.Builder builder = EventMetadata.newBuilder();
+    _codec.merge(numeric, builder);
+    assertEquals(METADATA, builder.build());
+  }
+
+  @Test
+  public void enumsAreNamedUnlessUnknown() throws IOException {
+    CareAggregate known = CareAggregate.newBuilder().setGranularity(CareAggregate.Granularity.MONTH).build();
+    assertEquals("MONTH", _codec.print(known).get("granularity").textValue());
+    assertRoundTrip(known);
+
+    // a value written by a newer version of the enum is kept as a number
+    CareAggregate unknown = CareAggregate.newBuilder().setGranularityValue(42).build();
+    assertEquals(42, _codec.print(unknown).get("granularity").intValue());
+    assertRoundTrip(unknown);
+
+    CareAggregate.Builder builder = CareAggregate.newBuilder();
+    _codec.merge((ObjectNode) OBJECT_MAPPER.readTree("{\"granularity\":2}"), builder);
+    assertEquals(CareAggregate.Granularity.WEEK, builder.getGranularity());
+  }
+
+  @Test
+  public void wellKnownTypesAndNestedMessagesRoundTripLikeJsonFormat() throws IOException {
+    WateringEventQueryRequest request = WateringEventQueryRequest.newBuilder()
+        .setTemplate(WateringEvent.newBuilder().setGardenPlantId("gp-1"))
+        .setContinuationToken("token")
+        .setLimit(10)
+        .setFieldMask(FieldMask.newBuilder().addPaths("quantity_ml").addPaths("garden_plant_id"))
+        .setRange(EventRange.newBuilder().setSince(1L).setUntil(Long.MAX_VALUE).setOrder(EventRange.Order.NEWEST_FIRST))
+        .build();
+
+    assertEquals("quantityMl,gardenPlantId", _codec.print(request).get("fieldMask").textValue());
+    assertRoundTrip(request);
+    // an empty (but set) field mask is printed by JsonFormat as an empty string
+    assertRoundTrip(request.toBuilder().setFieldMask(FieldMask.getDefaultInstance()).build());
+    assertRoundTrip(WateringEventQueryResponse.newBuilder()
+        .addWateringEvent(WateringEvent.newBuilder().setId("watering-1").setMetadata(METADATA))
+        .addWateringEvent(WateringEvent.getDefaultInstance())
+        .addWateringEvent(WateringEvent.newBuilder().setId("watering-2").setQuantityMl(1))
+        .build());
+  }
+
+  @Test
+  public void systemPropertiesAndNullsAreIgnored() throws IOException {
+    WateringEvent event = WateringEvent.newBuilder().setId("watering-1").setQuantityMl(250).build();
+    ObjectNode item = _codec.print(event);
+    // like the ones that Cosmos adds to stored items
+    item.put("_etag", "\"0000\"");
+    item.put("_ts", 1600000000);
+    item.putObject("_attachments");
+    item.putNull("gardenPlantId");
+
+    WateringEvent.Builder builder = WateringEvent.newBuilder();
+    _codec.merge(item, builder);
+    assertEquals(event, builder.build());
+    assertEquals(event, parseWithJsonFormat(item, WateringEvent.newBuilder()));
+  }
+
+  @Test
+  public void originalFieldNamesAreAccepted() throws IOException {
+    WateringEvent.Builder builder = WateringEvent.newBuilder();
+    _codec.merge((ObjectNode) OBJECT_MAPPER.readTree("{\"garden_plant_id\":\"gp-1\",\"quantity_ml\":\"7\"}"), builder);
+
+    assertEquals(WateringEvent.newBuilder().setGardenPlantId("gp-1").setQuantityMl(7).build(), builder.build());
+  }
+
+  /**
+   * Checks that the codec prints {@code message} like JsonFormat does, and that both the codec and JsonFormat parse
+   * what the codec printed back into {@code message}.
+   */
+  private void assertRoundTrip(Message message) throws IOException {
+    ObjectNode expected = (ObjectNode) OBJECT_MAPPER.readTree(JsonFormat.printer().print(message));
+    ObjectNode printed = _codec.print(message);
+    assertEquals(expected, printed);
+    // the field order matters to whoever compares the stored text
+    assertEquals(OBJECT_MAPPER.writeValueAsString(expected), OBJECT_MAPPER.writeValueAsString(printed));
+
+    Message.Builder builder = message.newBuilderForType();
+    _codec.merge(printed, builder);
+    assertEquals(message, builder.build());
+    assertEquals(message, parseWithJsonFormat(printed, message.newBuilderForType()));
+  }
+
+  private static Message parseWithJsonFormat(ObjectNode node, Message.Builder builder) throws IOException {
+    JsonFormat.parser().ignoringUnknownFields().merge(OBJECT_MAPPER.writeValueAsString(node), builder);
+    return builder.build();
+  }
+}
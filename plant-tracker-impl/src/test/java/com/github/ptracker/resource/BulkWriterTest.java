@@ -0,0 +1,235 @@
+package com.github.ptracker.resource;
+
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class BulkWriterTest {
+  private static final Duration MAX_DELAY = Duration.ofMillis(5);
+
+  private ManualExecutor _flushExecutor;
+  private BatchRecordingResource _resource;
+
+  @Before
+  public void setUp() {
+    _flushExecutor = new ManualExecutor();
+    _resource = new BatchRecordingResource();
+  }
+
+  @After
+  public void tearDown() {
+    _flushExecutor.shutdownNow();
+  }
+
+  @Test
+  public void createIsWrittenStraightAwayWhileNothingIsInFlight() {
+    BulkWriter<String, String> writer = newWriter().build();
+
+    CompletableFuture<ResourceResponse<Void>> future = writer.create("a");
+    assertEquals(Arrays.asList(Arrays.asList("a")), _resource._batches);
+    assertEquals(0, _flushExecutor._flushes.size());
+
+    _resource.completeBatch(0);
+    assertEquals(ResponseStatus.OK, future.join().getStatus());
+    writer.create("b");
+    assertEquals(2, _resource._batches.size());
+  }
+
+  @Test
+  public void createsWaitForTheWriteInFlight() {
+    BulkWriter<String, String> writer = newWriter().build();
+    writer.create("a");
+    CompletableFuture<ResourceResponse<Void>> b = writer.create("b");
+    writer.create("c");
+    assertEquals(1, _resource._batches.size());
+    assertEquals(Arrays.asList(MAX_DELAY.toNanos()), _flushExecutor._delaysNanos);
+
+    // they are written together as soon as it is done, without waiting for the max delay
+    _resource.completeBatch(0);
+    assertEquals(Arrays.asList("b", "c"), _resource._batches.get(1));
+    assertTrue(_flushExecutor._flushes.get(0).isCancelled());
+    assertFalse(b.isDone());
+    _resource.completeBatch(1);
+    assertEquals(ResponseStatus.OK, b.join().getStatus());
+  }
+
+  @Test
+  public void fullBatchIsWrittenWithoutWaiting() {
+    BulkWriter<String, String> writer = newWriter().maxBatchSize(3).build();
+    for (String payload : Arrays.asList("a", "b", "c", "d", "e")) {
+      writer.create(payload);
+    }
+
+    assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c", "d")), _resource._batches);
+    assertEquals(5, writer.getPendingCount());
+  }
+
+  @Test
+  public void batchIsWrittenOnceItsFirstCreateWaitedForTheMaxDelay() {
+    BulkWriter<String, String> writer = newWriter().build();
+    writer.create("a");
+    writer.create("b");
+
+    _flushExecutor.runFlushes();
+    assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), _resource._batches);
+    // another flush is only scheduled for the next batch
+    writer.create("c");
+    assertEquals(2, _flushExecutor._delaysNanos.size());
+  }
+
+  @Test
+  public void createsBeyondTheMaxPendingAreRejected() {
+    BulkWriter<String, String> writer = newWriter().maxBatchSize(2).maxPendingCreates(4).build();
+    List<CompletableFuture<ResourceResponse<Void>>> futures = new ArrayList<>();
+    for (String payload : Arrays.asList("a", "b", "c", "d")) {
+      futures.add(writer.create(payload));
+    }
+    assertEquals(4, writer.getPendingCount());
+
+    try {
+      writer.create("e").join();
+      fail("Create should have been rejected");
+    } catch (CompletionException e) {
+      assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(e).getCode());
+    }
+    assertEquals(4, writer.getPendingCount());
+
+    // the last batch is written as the ones before it are done
+    for (int i = 0; i < _resource._batches.size(); i++) {
+      _resource.completeBatch(i);
+    }
+    futures.forEach(CompletableFuture::join);
+    assertEquals(0, writer.getPendingCount());
+    writer.create("e");
+    assertEquals(1, writer.getPendingCount());
+  }
+
+  @Test
+  public void batchThatCannotBeWrittenFailsEveryCreate() {
+    BulkWriter<String, String> writer = newWriter().build();
+    _resource._failure = new IllegalStateException("Injected failure");
+
+    CompletableFuture<ResourceResponse<Void>> future = writer.create("a");
+    try {
+      future.join();
+      fail("Create should have failed");
+    } catch (CompletionException e) {
+      assertSame(_resource._failure, e.getCause());
+    }
+    assertEquals(0, writer.getPendingCount());
+
+    // nothing is left in flight for the next create to wait for
+    _resource._failure = null;
+    writer.create("b");
+    assertEquals(Arrays.asList(Arrays.asList("b")), _resource._batches);
+  }
+
+  private BulkWriter.Builder<String, String> newWriter() {
+    return new BulkWriter.Builder<>(_resource).maxDelay(MAX_DELAY).flushExecutor(_flushExecutor);
+  }
+
+  /**
+   * Runs the flushes that are scheduled only when asked to, as if their delay had passed.
+   */
+  private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+    private final List<Long> _delaysNanos = new ArrayList<>();
+    private final List<ScheduledFuture<?>> _flushes = new ArrayList<>();
+    private final List<Runnable> _commands = new ArrayList<>();
+
+    ManualExecutor() {
+      super(1);
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      _delaysNanos.add(unit.toNanos(delay));
+      _commands.add(command);
+      // never runs by itself, but can be cancelled
+      ScheduledFuture<?> flush = super.schedule(() -> { }, 1, TimeUnit.DAYS);
+      _flushes.add(flush);
+      return flush;
+    }
+
+    void runFlushes() {
+      List<Runnable> commands = new ArrayList<>();
+      synchronized (this) {
+        for (int i = 0; i < _commands.size(); i++) {
+          if (_flushes.get(i).cancel(false)) {
+            commands.add(_commands.get(i));
+          }
+        }
+      }
+      commands.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * Records the batches that are created, which are only done once the test completes them.
+   */
+  private static class BatchRecordingResource implements AsyncResource<String, String> {
+    private final List<List<String>> _batches = new ArrayList<>();
+    private final List<List<CompletableFuture<ResourceResponse<Void>>>> _results = new ArrayList<>();
+    private RuntimeException _failure = null;
+
+    @Override
+    public List<CompletableFuture<ResourceResponse<Void>>> batchCreate(List<String> payloads,
+        CreateRequestOptions options) {
+      if (_failure != null) {
+        throw _failure;
+      }
+      List<CompletableFuture<ResourceResponse<Void>>> results = new ArrayList<>();
+      payloads.forEach(payload -> results.add(new CompletableFuture<>()));
+      _batches.add(new ArrayList<>(payloads));
+      _results.add(results);
+      return results;
+    }
+
+    void completeBatch(int index) {
+      _results.get(index).forEach(result ->
+          result.complete(new ResourceResponseImpl.Builder<Void>().status(ResponseStatus.OK).build()));
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<String>> get(String key, GetRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<List<ResourceResponse<String>>> query(String template, QueryRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourcePage<String>> queryPage(String template, QueryRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> create(String payload, CreateRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> update(String payload, UpdateRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> delete(String key, DeleteRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
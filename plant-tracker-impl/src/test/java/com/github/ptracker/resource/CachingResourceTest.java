@@ -0,0 +1,142 @@
+package com.github.ptracker.resource;
+
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.interchange.ProtoBufJsonInterchange;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class CachingResourceTest {
+  private static final String ID = "event-1";
+
+  private final WateringEvent _original =
+      WateringEvent.newBuilder().setId(ID).setGardenPlantId("plant-1").setQuantityMl(250).build();
+  private final WateringEvent _updated = _original.toBuilder().setQuantityMl(500).build();
+
+  private GatedResource _storage;
+  private CachingResource<String, WateringEvent> _resource;
+
+  @Before
+  public void setUp() {
+    _storage = new GatedResource(new InMemoryResource<>(new ProtoBufJsonInterchange<>(WateringEvent::newBuilder),
+        key -> WateringEvent.newBuilder().setId(key).build(), value -> { }, Collections.emptyList()));
+    _resource = new CachingResource.Builder<>(_storage, WateringEvent::getId).build();
+    _resource.create(_original, new CreateRequestOptionsImpl()).join();
+  }
+
+  @Test
+  public void getIsCached() {
+    assertEquals(_original, get());
+    assertEquals(_original, get());
+
+    assertEquals(1, _storage._gets);
+    assertEquals(1, _resource.getHitCount());
+    assertEquals(1, _resource.getMissCount());
+  }
+
+  @Test
+  public void writeInvalidatesCachedValue() {
+    assertEquals(_original, get());
+    update();
+
+    assertEquals(_updated, get());
+    assertEquals(2, _storage._gets);
+  }
+
+  @Test
+  public void getInFlightDuringWriteIsNotCached() {
+    // the get reads the original value, and is only answered once the update is done
+    _storage._gate = new CompletableFuture<>();
+    CompletableFuture<ResourceResponse<WateringEvent>> inFlight =
+        _resource.get(ID, new GetRequestOptionsImpl.Builder().build());
+    update();
+    _storage._gate.complete(null);
+    assertEquals(_original, inFlight.join().getPayload());
+
+    assertEquals(_updated, get());
+    assertEquals(2, _storage._gets);
+  }
+
+  @Test
+  public void batchGetInFlightDuringWriteIsNotCached() {
+    _storage._gate = new CompletableFuture<>();
+    CompletableFuture<ResourceResponse<WateringEvent>> inFlight =
+        _resource.batchGet(Collections.singletonList(ID), new GetRequestOptionsImpl.Builder().build())
+            .thenApply(responses -> responses.get(0));
+    update();
+    _storage._gate.complete(null);
+    assertEquals(_original, inFlight.join().getPayload());
+
+    assertEquals(_updated, get());
+  }
+
+  private WateringEvent get() {
+    return _resource.get(ID, new GetRequestOptionsImpl.Builder().build()).join().getPayload();
+  }
+
+  private void update() {
+    ResourceResponse<Void> response =
+        _resource.update(_updated, new UpdateRequestOptionsImpl.Builder().shouldUpsert(true).build()).join();
+    assertEquals(ResponseStatus.OK, response.getStatus());
+  }
+
+  /**
+   * Reads from a resource straight away, but only answers once the gate opens.
+   */
+  private static class GatedResource implements AsyncResource<String, WateringEvent> {
+    private final AsyncResource<String, WateringEvent> _resource;
+    private volatile CompletableFuture<Void> _gate = CompletableFuture.completedFuture(null);
+    private int _gets = 0;
+
+    GatedResource(AsyncResource<String, WateringEvent> resource) {
+      _resource = resource;
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<WateringEvent>> get(String key, GetRequestOptions options) {
+      _gets++;
+      CompletableFuture<ResourceResponse<WateringEvent>> response = _resource.get(key, options);
+      return _gate.thenCompose(ignored -> response);
+    }
+
+    @Override
+    public CompletableFuture<List<ResourceResponse<WateringEvent>>> batchGet(List<String> keys,
+        GetRequestOptions options) {
+      _gets++;
+      CompletableFuture<List<ResourceResponse<WateringEvent>>> responses = _resource.batchGet(keys, options);
+      return _gate.thenCompose(ignored -> responses);
+    }
+
+    @Override
+    public CompletableFuture<List<ResourceResponse<WateringEvent>>> query(WateringEvent template,
+        QueryRequestOptions options) {
+      return _resource.query(template, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourcePage<WateringEvent>> queryPage(WateringEvent template,
+        QueryRequestOptions options) {
+      return _resource.queryPage(template, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> create(WateringEvent payload, CreateRequestOptions options) {
+      return _resource.create(payload, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> update(WateringEvent payload, UpdateRequestOptions options) {
+      return _resource.update(payload, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> delete(String key, DeleteRequestOptions options) {
+      return _resource.delete(key, options);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package com.github.ptracker.resource;
+
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.interchange.ProtoBufJsonInterchange;
+import com.github.ptracker.storage.cosmos.CosmosDBAsyncPointOperations;
+import com.github.ptracker.storage.cosmos.CosmosDBAsyncQuery;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class CosmosAsyncResourceTest {
+  private static final String ID = "event-1";
+  private static final String GARDEN_PLANT_ID = "plant-1";
+
+  private final ProtoBufJsonInterchange<WateringEvent, WateringEvent.Builder> _interchange =
+      new ProtoBufJsonInterchange<>(WateringEvent::newBuilder);
+  private final WateringEvent _event =
+      WateringEvent.newBuilder().setId(ID).setGardenPlantId(GARDEN_PLANT_ID).setQuantityMl(250).build();
+
+  private RecordingPointOperations _pointOperations;
+  private RecordingQuery _query;
+  private CosmosAsyncResource<String, WateringEvent> _resource;
+
+  @Before
+  public void setUp() {
+    ObjectNode item = _interchange.convertBackward(_event);
+    item.put("_etag", "etag-1");
+    _pointOperations = new RecordingPointOperations(item);
+    _query = new RecordingQuery(item);
+    // like the events, the partition of an item cannot be derived from its id
+    _resource = new CosmosAsyncResource<>(_query, _pointOperations, _interchange,
+        key -> WateringEvent.newBuilder().setId(key).build(), WateringEvent::getGardenPlantId, value -> { });
+  }
+
+  @Test
+  public void getWithPartitionKeyIsPointRead() {
+    ResourceResponse<WateringEvent> response =
+        _resource.get(ID, new GetRequestOptionsImpl.Builder().partitionKey(GARDEN_PLANT_ID).build()).join();
+
+    assertEquals(ResponseStatus.OK, response.getStatus());
+    assertEquals(_event, response.getPayload());
+    assertEquals(1, _pointOperations._reads.size());
+    assertEquals(new PartitionKey(GARDEN_PLANT_ID), _pointOperations._reads.get(0));
+    assertEquals(0, _query._queries);
+  }
+
+  @Test
+  public void getWithoutPartitionKeyIsQuery() {
+    ResourceResponse<WateringEvent> response = _resource.get(ID, new GetRequestOptionsImpl.Builder().build()).join();
+
+    assertEquals(ResponseStatus.OK, response.getStatus());
+    assertEquals(_event, response.getPayload());
+    assertTrue(_pointOperations._reads.isEmpty());
+    assertEquals(1, _query._queries);
+  }
+
+  @Test
+  public void deleteWithPartitionKeyIsPointDelete() {
+    ResourceResponse<Void> response =
+        _resource.delete(ID, new DeleteRequestOptionsImpl.Builder().partitionKey(GARDEN_PLANT_ID).build()).join();
+
+    assertEquals(ResponseStatus.OK, response.getStatus());
+    assertEquals(1, _pointOperations._deletes.size());
+    assertEquals(new PartitionKey(GARDEN_PLANT_ID), _pointOperations._deletes.get(0));
+    assertTrue(_pointOperations._reads.isEmpty());
+    assertEquals(0, _query._queries);
+  }
+
+  @Test
+  public void deleteWithoutPartitionKeyLooksItemUp() {
+    ResourceResponse<Void> response = _resource.delete(ID, new DeleteRequestOptionsImpl.Builder().build()).join();
+
+    assertEquals(ResponseStatus.OK, response.getStatus());
+    assertEquals(1, _query._queries);
+    assertEquals(1, _pointOperations._deletes.size());
+    assertEquals(new PartitionKey(GARDEN_PLANT_ID), _pointOperations._deletes.get(0));
+  }
+
+  @Test
+  public void createOfExistingIdFailsLikeInMemoryResource() {
+    _pointOperations._failureStatusCode = 409;
+    Throwable failure = getFailure(_resource.create(_event, new CreateRequestOptionsImpl()));
+    assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(failure).getCode());
+    assertTrue(failure.getCause() instanceof CosmosException);
+
+    InMemoryResource<String, WateringEvent> inMemoryResource = new InMemoryResource<>(_interchange,
+        key -> WateringEvent.newBuilder().setId(key).build(), value -> { }, Collections.emptyList());
+    inMemoryResource.create(_event, new CreateRequestOptionsImpl()).join();
+    Throwable inMemoryFailure = getFailure(inMemoryResource.create(_event, new CreateRequestOptionsImpl()));
+    assertEquals(Status.fromThrowable(failure).getCode(), Status.fromThrowable(inMemoryFailure).getCode());
+  }
+
+  @Test
+  public void failuresCallersCanActOnHaveTheirStatus() {
+    assertEquals(Status.Code.INVALID_ARGUMENT, getCreateFailureCode(400));
+    assertEquals(Status.Code.NOT_FOUND, getCreateFailureCode(404));
+    assertEquals(Status.Code.ABORTED, getCreateFailureCode(412));
+  }
+
+  @Test
+  public void failuresThatAreRetriedAreLeftAsTheyAre() {
+    for (int statusCode : new int[]{408, 410, 429, 503}) {
+      _pointOperations._failureStatusCode = statusCode;
+      Throwable failure = getFailure(_resource.create(_event, new CreateRequestOptionsImpl()));
+      assertTrue(failure instanceof CosmosException);
+      assertEquals(statusCode, ((CosmosException) failure).getStatusCode());
+    }
+  }
+
+  @Test
+  public void failedCreatesOfBatchHaveTheirStatus() {
+    _pointOperations._failureStatusCode = 409;
+    List<CompletableFuture<ResourceResponse<Void>>> futures =
+        _resource.batchCreate(Collections.singletonList(_event), new CreateRequestOptionsImpl());
+
+    assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(getFailure(futures.get(0))).getCode());
+  }
+
+  private Status.Code getCreateFailureCode(int statusCode) {
+    _pointOperations._failureStatusCode = statusCode;
+    return Status.fromThrowable(getFailure(_resource.create(_event, new CreateRequestOptionsImpl()))).getCode();
+  }
+
+  private static Throwable getFailure(CompletableFuture<?> future) {
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      return e.getCause();
+    }
+    throw new AssertionError("Call should have failed");
+  }
+
+  private static class RecordingPointOperations implements CosmosDBAsyncPointOperations {
+    private final ObjectNode _item;
+    private final List<PartitionKey> _reads = new ArrayList<>();
+    private final List<PartitionKey> _deletes = new ArrayList<>();
+    private int _failureStatusCode = 0;
+
+    RecordingPointOperations(ObjectNode item) {
+      _item = item;
+    }
+
+    @Override
+    public CompletableFuture<ObjectNode> read(String id, PartitionKey partitionKey, String sessionToken) {
+      _reads.add(partitionKey);
+      return CompletableFuture.completedFuture(id.equals(ID) ? _item.deepCopy() : null);
+    }
+
+    @Override
+    public CompletableFuture<CosmosItemResponse<ObjectNode>> readIfNoneMatch(String id, PartitionKey partitionKey,
+        String etag, String sessionToken) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<CosmosItemResponse<ObjectNode>> create(ObjectNode item) {
+      CompletableFuture<CosmosItemResponse<ObjectNode>> future = new CompletableFuture<>();
+      future.completeExceptionally(
+          new CosmosException(_failureStatusCode, "Injected failure", Collections.emptyMap(), null) { });
+      return future;
+    }
+
+    @Override
+    public CompletableFuture<CosmosItemResponse<ObjectNode>> upsert(ObjectNode item) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<CosmosItemResponse<ObjectNode>> replaceIfMatch(String id, PartitionKey partitionKey,
+        ObjectNode item, String etag) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(String id, PartitionKey partitionKey) {
+      _deletes.add(partitionKey);
+      return CompletableFuture.completedFuture(id.equals(ID) ? 204 : 404);
+    }
+  }
+
+  private static class RecordingQuery implements CosmosDBAsyncQuery {
+    private final ObjectNode _item;
+    private int _queries = 0;
+
+    RecordingQuery(ObjectNode item) {
+      _item = item;
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectNode>> getResults(ObjectNode objectNode, List<String> projectedFields,
+        QueryBounds bounds, CosmosQueryRequestOptions options) {
+      _queries++;
+      List<ObjectNode> results = new ArrayList<>();
+      if (objectNode.get("id").textValue().equals(ID)) {
+        results.add(_item.deepCopy());
+      }
+      return CompletableFuture.completedFuture(results);
+    }
+
+    @Override
+    public CompletableFuture<FeedResponse<ObjectNode>> getResultPage(ObjectNode objectNode,
+        List<String> projectedFields, QueryBounds bounds, CosmosQueryRequestOptions options, String continuationToken,
+        int pageSize) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SqlQuerySpec getQuerySpec(ObjectNode objectNode) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<List<List<ObjectNode>>> getBatchResults(List<ObjectNode> templates,
+        List<String> projectedFields, QueryBounds bounds, CosmosQueryRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package com.github.ptracker.resource;
+
+import com.github.ptracker.common.EventMetadata;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.interchange.ProtoBufJsonInterchange;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class InMemoryResourceTest {
+  private static final String TIMESTAMP_PATH = "metadata.timestamp";
+  private static final UpdateRequestOptions UPSERT = new UpdateRequestOptionsImpl.Builder().shouldUpsert(true).build();
+
+  private final InMemoryResource<String, WateringEvent> _resource =
+      new InMemoryResource<>(new ProtoBufJsonInterchange<>(WateringEvent::newBuilder),
+          key -> WateringEvent.newBuilder().setId(key).build(), value -> { },
+          Arrays.asList("gardenPlantId", "metadata.gardenerId"));
+
+  @Before
+  public void setUp() {
+    // e00 to e11, across three garden plants and two gardeners, with the later ids at the earlier timestamps
+    for (int i = 0; i < 12; i++) {
+      create(getEvent(String.format("e%02d", i), "plant-" + i % 3, "gardener-" + i % 2, 1_600_000_000_000L - i));
+    }
+  }
+
+  @Test
+  public void templateOnAnIndexedPathOnlyLooksAtItsIndexEntry() {
+    WateringEvent template = WateringEvent.newBuilder().setGardenPlantId("plant-1").build();
+
+    assertEquals(Arrays.asList("e01", "e04", "e07", "e10"), new ArrayList<>(_resource.getCandidateIds(template)));
+    assertEquals(Arrays.asList("e01", "e04", "e07", "e10"), queryIds(template));
+  }
+
+  @Test
+  public void nestedPathsAreIndexedToo() {
+    WateringEvent template = WateringEvent.newBuilder()
+        .setMetadata(EventMetadata.newBuilder().setGardenerId("gardener-1"))
+        .build();
+
+    assertEquals(6, _resource.getCandidateIds(template).size());
+    assertEquals(Arrays.asList("e01", "e03", "e05", "e07", "e09", "e11"), queryIds(template));
+  }
+
+  @Test
+  public void otherFiltersAreCheckedOnTheCandidatesOfTheMostSelectiveOne() {
+    WateringEvent template = WateringEvent.newBuilder()
+        .setGardenPlantId("plant-1")
+        .setMetadata(EventMetadata.newBuilder().setGardenerId("gardener-1"))
+        .build();
+
+    // the garden plant is declared more selective than the gardener
+    assertEquals(4, _resource.getCandidateIds(template).size());
+    assertEquals(Arrays.asList("e01", "e07"), queryIds(template));
+  }
+
+  @Test
+  public void templateOnlyOnFieldsThatAreNotIndexedScansAllValues() {
+    update(getEvent("e05", "plant-2", "gardener-1", 0L).toBuilder().setQuantityMl(250).build());
+    WateringEvent template = WateringEvent.newBuilder().setQuantityMl(250).build();
+
+    assertEquals(12, _resource.getCandidateIds(template).size());
+    assertEquals(Collections.singletonList("e05"), queryIds(template));
+  }
+
+  @Test
+  public void templateOnTheIdOnlyLooksAtThatValue() {
+    WateringEvent template = WateringEvent.newBuilder().setId("e03").setGardenPlantId("plant-0").build();
+
+    assertEquals(Collections.singletonList("e03"), new ArrayList<>(_resource.getCandidateIds(template)));
+    assertEquals(Collections.singletonList("e03"), queryIds(template));
+    assertTrue(_resource.getCandidateIds(WateringEvent.newBuilder().setId("missing").build()).isEmpty());
+  }
+
+  @Test
+  public void indexFollowsUpdatesAndDeletes() {
+    update(getEvent("e01", "plant-0", "gardener-1", 0L));
+    _resource.delete("e04", null).join();
+
+    assertEquals(Arrays.asList("e07", "e10"), queryIds(WateringEvent.newBuilder().setGardenPlantId("plant-1").build()));
+    assertEquals(Arrays.asList("e00", "e01", "e03", "e06", "e09"),
+        queryIds(WateringEvent.newBuilder().setGardenPlantId("plant-0").build()));
+  }
+
+  @Test
+  public void createOfAnExistingIdFails() {
+    try {
+      create(getEvent("e01", "plant-2", "gardener-0", 0L));
+      fail("Create of an existing id should fail");
+    } catch (CompletionException e) {
+      assertEquals(Status.Code.ALREADY_EXISTS, Status.fromThrowable(e.getCause()).getCode());
+    }
+    assertEquals("plant-1", _resource.get("e01", null).join().getPayload().getGardenPlantId());
+  }
+
+  @Test
+  public void updatesAreConditionalOnTheEtag() {
+    ResourceResponse<WateringEvent> response = _resource.get("e01", null).join();
+    UpdateRequestOptions ifMatch =
+        new UpdateRequestOptionsImpl.Builder().metadata(response.getStorageMetadata()).build();
+
+    assertEquals(ResponseStatus.NOT_MODIFIED, _resource.get("e01",
+        new GetRequestOptionsImpl.Builder().metadata(response.getStorageMetadata()).build()).join().getStatus());
+    assertEquals(ResponseStatus.OK, _resource.update(response.getPayload(), ifMatch).join().getStatus());
+    assertEquals(ResponseStatus.PRECONDITION_FAILED,
+        _resource.update(response.getPayload(), ifMatch).join().getStatus());
+  }
+
+  @Test
+  public void pagesAreInTheOrderOfTheIds() {
+    List<List<String>> pages = queryPages(WateringEvent.newBuilder().setGardenPlantId("plant-1").build(), null, 3);
+
+    assertEquals(Arrays.asList(Arrays.asList("e01", "e04", "e07"), Collections.singletonList("e10")), pages);
+  }
+
+  @Test
+  public void valuesWrittenWhilePagingAreNeitherRepeatedNorSkipped() {
+    WateringEvent template = WateringEvent.newBuilder().setGardenPlantId("plant-1").build();
+    QueryRequestOptions options = new QueryRequestOptionsImpl.Builder().pageSize(2).build();
+    ResourcePage<WateringEvent> page = _resource.queryPage(template, options).join();
+    assertEquals(Arrays.asList("e01", "e04"), getIds(page.getResponses()));
+
+    // before the continuation token, and so not returned
+    create(getEvent("e02a", "plant-1", "gardener-0", 0L));
+    // updates of values that were returned are not returned again
+    update(getEvent("e04", "plant-1", "gardener-1", 0L));
+    // after it, and so returned unless they stop matching
+    create(getEvent("e08a", "plant-1", "gardener-0", 0L));
+    _resource.delete("e07", null).join();
+    update(getEvent("e11", "plant-1", "gardener-1", 0L));
+    update(getEvent("e10", "plant-2", "gardener-0", 0L));
+
+    List<String> ids = new ArrayList<>();
+    String continuationToken = page.getContinuationToken();
+    while (continuationToken != null) {
+      page = _resource.queryPage(template,
+          new QueryRequestOptionsImpl.Builder().pageSize(2).continuationToken(continuationToken).build()).join();
+      ids.addAll(getIds(page.getResponses()));
+      continuationToken = page.getContinuationToken();
+    }
+    assertEquals(Arrays.asList("e08a", "e11"), ids);
+  }
+
+  @Test
+  public void orderedPagesContinueFromAnOffsetIntoTheMatches() {
+    QueryBounds bounds = new QueryBounds.Builder().order(TIMESTAMP_PATH, false).limit(5).build();
+
+    List<List<String>> pages = queryPages(WateringEvent.newBuilder().build(), bounds, 2);
+
+    // the later ids have the earlier timestamps
+    assertEquals(Arrays.asList(Arrays.asList("e11", "e10"), Arrays.asList("e09", "e08"),
+        Collections.singletonList("e07")), pages);
+  }
+
+  @Test
+  public void orderedPagesOfATemplateWithinARange() {
+    QueryBounds bounds = new QueryBounds.Builder().range(TIMESTAMP_PATH, 1_599_999_999_993L, 1_600_000_000_000L)
+        .order(TIMESTAMP_PATH, true)
+        .build();
+
+    List<List<String>> pages = queryPages(WateringEvent.newBuilder().setGardenPlantId("plant-1").build(), bounds, 1);
+
+    assertEquals(Arrays.asList(Collections.singletonList("e01"), Collections.singletonList("e04"),
+        Collections.singletonList("e07")), pages);
+  }
+
+  @Test
+  public void limitAppliesToEachTemplateOfABatch() {
+    QueryRequestOptions options = new QueryRequestOptionsImpl.Builder()
+        .bounds(new QueryBounds.Builder().order(TIMESTAMP_PATH, true).limit(1).build())
+        .build();
+
+    List<List<ResourceResponse<WateringEvent>>> responses =
+        _resource.batchQuery(Arrays.asList(WateringEvent.newBuilder().setGardenPlantId("plant-1").build(),
+            WateringEvent.newBuilder().setGardenPlantId("plant-2").build()), options).join();
+
+    assertEquals(Collections.singletonList("e01"), getIds(responses.get(0)));
+    assertEquals(Collections.singletonList("e02"), getIds(responses.get(1)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void orderedPagesRejectTokensThatAreNotOffsets() {
+    _resource.queryPage(WateringEvent.newBuilder().build(), new QueryRequestOptionsImpl.Builder()
+        .bounds(new QueryBounds.Builder().order(TIMESTAMP_PATH, false).build())
+        .continuationToken("e01")
+        .build());
+  }
+
+  @Test
+  public void concurrentUpsertsKeepTheIndexesConsistent() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 8; thread++) {
+      int offset = thread;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 1000; i++) {
+          update(getEvent("e" + i % 40, "plant-" + (i + offset) % 4, "gardener", 0L));
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+    int total = 0;
+    for (int i = 0; i < 4; i++) {
+      WateringEvent template = WateringEvent.newBuilder().setGardenPlantId("plant-" + i).build();
+      assertEquals(_resource.getCandidateIds(template).size(), queryIds(template).size());
+      total += queryIds(template).size();
+    }
+    // the 40 upserted values (two of which overwrote values of the setup) and the other 10 values of the setup
+    assertEquals(50, total);
+  }
+
+  private List<List<String>> queryPages(WateringEvent template, QueryBounds bounds, int pageSize) {
+    List<List<String>> pages = new ArrayList<>();
+    String continuationToken = null;
+    do {
+      QueryRequestOptions options = new QueryRequestOptionsImpl.Builder()
+          .bounds(bounds == null ? QueryBounds.NONE : bounds)
+          .pageSize(pageSize)
+          .continuationToken(continuationToken)
+          .build();
+      ResourcePage<WateringEvent> page = _resource.queryPage(template, options).join();
+      pages.add(getIds(page.getResponses()));
+      continuationToken = page.getContinuationToken();
+    } while (continuationToken != null);
+    return pages;
+  }
+
+  private List<String> queryIds(WateringEvent template) {
+    return getIds(_resource.query(template, null).join());
+  }
+
+  private void create(WateringEvent event) {
+    _resource.create(event, null).join();
+  }
+
+  private void update(WateringEvent event) {
+    _resource.update(event, UPSERT).join();
+  }
+
+  private static List<String> getIds(List<ResourceResponse<WateringEvent>> responses) {
+    return responses.stream().map(response -> response.getPayload().getId()).collect(Collectors.toList());
+  }
+
+  private static WateringEvent getEvent(String id, String gardenPlantId, String gardenerId, long timestamp) {
+    return WateringEvent.newBuilder()
+        .setId(id)
+        .setGardenPlantId(gardenPlantId)
+        .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId).setTimestamp(timestamp))
+        .build();
+  }
+}
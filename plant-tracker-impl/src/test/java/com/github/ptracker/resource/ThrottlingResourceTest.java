@@ -0,0 +1,261 @@
+package com.github.ptracker.resource;
+
+import com.azure.cosmos.CosmosException;
+import com.google.common.base.Ticker;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.READ_OPERATION;
+import static org.junit.Assert.*;
+
+
+public class ThrottlingResourceTest {
+  private static final int THROTTLED = 429;
+  private static final long RETRY_AFTER_MILLIS = 100;
+
+  private FakeTicker _ticker;
+  private ManualScheduler _scheduler;
+  private RequestUnitLimiter _limiter;
+  private ThrottlingContainer _container;
+
+  @Before
+  public void setUp() {
+    _ticker = new FakeTicker();
+    _scheduler = new ManualScheduler(_ticker);
+    _limiter = new RequestUnitLimiter.Builder().initialRate(1000).ticker(_ticker).build();
+    _container = new ThrottlingContainer(_limiter);
+  }
+
+  @After
+  public void tearDown() {
+    _scheduler.shutdownNow();
+  }
+
+  @Test
+  public void throttledCallIsRetriedOnceRetryAfterHasPassed() {
+    ThrottlingResource<String, String> resource = newResource().build();
+    _container.fail(THROTTLED);
+
+    assertEquals("key", resource.get("key", null).join().getPayload());
+    assertEquals(2, _container._calls);
+    assertEquals(1, resource.getRetryCount());
+    assertEquals(1, _limiter.getThrottleCount());
+    assertTrue(_limiter.getRate() < 1000);
+    // the retry waited for the retry-after of the service, on top of no backoff
+    assertEquals(1, _scheduler._delaysNanos.size());
+    assertTrue(_scheduler._delaysNanos.get(0) >= TimeUnit.MILLISECONDS.toNanos(RETRY_AFTER_MILLIS));
+  }
+
+  @Test
+  public void throttledCallFailsWithResourceExhaustedWhenRetriesRunOut() {
+    ThrottlingResource<String, String> resource =
+        newResource().retries(2, Duration.ZERO, Duration.ZERO).build();
+    _container.fail(THROTTLED, THROTTLED, THROTTLED);
+
+    Throwable failure = getFailure(resource.get("key", null));
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(failure).getCode());
+    assertTrue(failure.getCause() instanceof CosmosException);
+    assertEquals(3, _container._calls);
+    assertEquals(0, resource.getRetryBudgetExhaustedCount());
+  }
+
+  @Test
+  public void throttledCallFailsWithResourceExhaustedWhenBudgetIsSpent() {
+    ThrottlingResource<String, String> resource = newResource().retryBudget(0, 0).build();
+    _container.fail(THROTTLED);
+
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, getStatusCode(resource.get("key", null)));
+    assertEquals(1, _container._calls);
+    assertEquals(0, resource.getRetryCount());
+    assertEquals(1, resource.getRetryBudgetExhaustedCount());
+  }
+
+  @Test
+  public void callIsShedWhenItWouldWaitLongerThanMaxQueueDelay() {
+    ThrottlingResource<String, String> resource =
+        newResource().maxQueueDelay(Duration.ofMillis(RETRY_AFTER_MILLIS / 2)).retryBudget(0, 0).build();
+    _container.fail(THROTTLED);
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, getStatusCode(resource.get("key", null)));
+
+    // nothing is let through until the retry-after has passed
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, getStatusCode(resource.get("key", null)));
+    assertEquals(1, _container._calls);
+    assertEquals(1, resource.getShedCount());
+
+    _ticker.advance(TimeUnit.MILLISECONDS.toNanos(RETRY_AFTER_MILLIS * 2));
+    assertEquals("key", resource.get("key", null).join().getPayload());
+    assertEquals(2, _container._calls);
+  }
+
+  @Test
+  public void transientFailuresAreRetriedForIdempotentCallsOnly() {
+    ThrottlingResource<String, String> resource = newResource().build();
+    for (int statusCode : Arrays.asList(408, 410, 503)) {
+      _container._calls = 0;
+      _container.fail(statusCode);
+      assertEquals("key", resource.get("key", null).join().getPayload());
+      assertEquals(2, _container._calls);
+
+      _container._calls = 0;
+      _container.fail(statusCode);
+      assertEquals(statusCode, getCosmosStatusCode(resource.create("key", null)));
+      assertEquals(1, _container._calls);
+
+      _container._calls = 0;
+      _container.fail(statusCode);
+      assertEquals(statusCode, getCosmosStatusCode(resource.delete("key", null)));
+      assertEquals(1, _container._calls);
+    }
+  }
+
+  @Test
+  public void throttledNonIdempotentCallIsRetried() {
+    ThrottlingResource<String, String> resource = newResource().build();
+    _container.fail(THROTTLED);
+
+    assertEquals(ResponseStatus.OK, resource.create("key", null).join().getStatus());
+    assertEquals(2, _container._calls);
+  }
+
+  private ThrottlingResource.Builder<String, String> newResource() {
+    // no backoff, so that retries only wait for the retry-after
+    return new ThrottlingResource.Builder<>(_container, _limiter).retries(5, Duration.ZERO, Duration.ZERO)
+        .scheduler(_scheduler);
+  }
+
+  private static Throwable getFailure(CompletableFuture<?> future) {
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      return e.getCause();
+    }
+    throw new AssertionError("Call should have failed");
+  }
+
+  private static Status.Code getStatusCode(CompletableFuture<?> future) {
+    Throwable failure = getFailure(future);
+    assertTrue(failure instanceof StatusRuntimeException);
+    return Status.fromThrowable(failure).getCode();
+  }
+
+  private static int getCosmosStatusCode(CompletableFuture<?> future) {
+    Throwable failure = getFailure(future);
+    assertTrue(failure instanceof CosmosException);
+    return ((CosmosException) failure).getStatusCode();
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long _nanos = 0;
+
+    @Override
+    public long read() {
+      return _nanos;
+    }
+
+    void advance(long nanos) {
+      _nanos += nanos;
+    }
+  }
+
+  /**
+   * Runs what is scheduled straight away, as if the delay had passed.
+   */
+  private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+    private final FakeTicker _ticker;
+    private final List<Long> _delaysNanos = new ArrayList<>();
+
+    ManualScheduler(FakeTicker ticker) {
+      super(1);
+      _ticker = ticker;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      _delaysNanos.add(unit.toNanos(delay));
+      _ticker.advance(unit.toNanos(delay));
+      command.run();
+      return super.schedule(() -> { }, 0, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Fails the next calls with the given status codes, and reports them to the limiter like a Cosmos DB container.
+   */
+  private static class ThrottlingContainer implements AsyncResource<String, String> {
+    private final RequestUnitLimiter _limiter;
+    private final Deque<Integer> _failures = new ArrayDeque<>();
+    private int _calls = 0;
+
+    ThrottlingContainer(RequestUnitLimiter limiter) {
+      _limiter = limiter;
+    }
+
+    void fail(Integer... statusCodes) {
+      _failures.addAll(Arrays.asList(statusCodes));
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<String>> get(String key, GetRequestOptions options) {
+      return respond(new ResourceResponseImpl.Builder<String>().status(ResponseStatus.OK).payload(key).build());
+    }
+
+    @Override
+    public CompletableFuture<List<ResourceResponse<String>>> query(String template, QueryRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourcePage<String>> queryPage(String template, QueryRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> create(String payload, CreateRequestOptions options) {
+      return respond(new ResourceResponseImpl.Builder<Void>().status(ResponseStatus.OK).build());
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> update(String payload, UpdateRequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> delete(String key, DeleteRequestOptions options) {
+      return respond(new ResourceResponseImpl.Builder<Void>().status(ResponseStatus.OK).build());
+    }
+
+    private <T> CompletableFuture<T> respond(T value) {
+      _calls++;
+      Integer statusCode = _failures.poll();
+      if (statusCode == null) {
+        return CompletableFuture.completedFuture(value);
+      }
+      Map<String, String> headers = new HashMap<>();
+      headers.put("x-ms-request-charge", "1");
+      if (statusCode == THROTTLED) {
+        headers.put("x-ms-retry-after-ms", String.valueOf(RETRY_AFTER_MILLIS));
+      }
+      CosmosException exception = new CosmosException(statusCode, "Injected failure", headers, null) { };
+      _limiter.onFailure(READ_OPERATION, null, exception, 0);
+      CompletableFuture<T> future = new CompletableFuture<>();
+      future.completeExceptionally(exception);
+      return future;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.github.ptracker.service;
+
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.common.EventMetadata;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.interchange.ProtoBufJsonInterchange;
+import com.github.ptracker.resource.InMemoryResource;
+import com.github.ptracker.resource.QueryBounds;
+import com.github.ptracker.resource.QueryRequestOptionsImpl;
+import com.github.ptracker.storage.cosmos.CosmosDBQueryBuilder;
+import com.github.ptracker.storage.query.QueryPlanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Runs the same ranges against an {@link InMemoryResource} and checks the query that Cosmos DB would be sent for them.
+ */
+public class EventRangesTest {
+  private static final List<String> INDEXED_PATHS = Arrays.asList("gardenPlantId", "metadata.gardenerId");
+  private static final String TEMPLATE_FILTER = "c.gardenPlantId = @p0";
+  private static final String LOWER_BOUND_FILTER = "(LENGTH(c.metadata.timestamp) > @p1 "
+      + "OR (LENGTH(c.metadata.timestamp) = @p1 AND c.metadata.timestamp >= @p2))";
+
+  private final DataInterchange<ObjectNode, WateringEvent> _interchange =
+      new ProtoBufJsonInterchange<>(WateringEvent::newBuilder);
+  private final InMemoryResource<String, WateringEvent> _resource = new InMemoryResource<>(_interchange,
+      key -> WateringEvent.newBuilder().setId(key).build(), value -> { }, INDEXED_PATHS);
+  private final CosmosDBQueryBuilder _queryBuilder = new CosmosDBQueryBuilder("c", new QueryPlanner(INDEXED_PATHS));
+  private final WateringEvent _template = WateringEvent.newBuilder().setGardenPlantId("plant-1").build();
+
+  @Before
+  public void setUp() {
+    // timestamps with different numbers of digits, which are stored as decimal strings
+    create("e1", "plant-1", 999L);
+    create("e2", "plant-1", 1000L);
+    create("e3", "plant-1", 99_999_999_999L);
+    create("e4", "plant-1", 1_600_000_000_000L);
+    create("e5", "plant-1", 1_600_000_001_000L);
+    create("e6", "plant-1", 10_000_000_000_000L);
+    create("e7", "plant-2", 1_600_000_000_000L);
+  }
+
+  @Test
+  public void sinceIsInclusiveAcrossDigitCounts() {
+    EventRange range = EventRange.newBuilder().setSince(1000L).build();
+
+    assertEquals(Arrays.asList("e2", "e3", "e4", "e5", "e6"), queryIds(range));
+    assertQuery(range, "SELECT * FROM c WHERE " + TEMPLATE_FILTER + " AND " + LOWER_BOUND_FILTER, "plant-1", 4, "1000");
+  }
+
+  @Test
+  public void untilIsExclusiveAcrossDigitCounts() {
+    EventRange range = EventRange.newBuilder().setUntil(1_600_000_000_000L).build();
+
+    assertEquals(Arrays.asList("e1", "e2", "e3"), queryIds(range));
+    assertQuery(range, "SELECT * FROM c WHERE " + TEMPLATE_FILTER + " AND (LENGTH(c.metadata.timestamp) < @p1 "
+        + "OR (LENGTH(c.metadata.timestamp) = @p1 AND c.metadata.timestamp < @p2))", "plant-1", 13, "1600000000000");
+  }
+
+  @Test
+  public void sinceAndUntilAcrossDigitCounts() {
+    EventRange range = EventRange.newBuilder().setSince(1000L).setUntil(1_600_000_001_000L).build();
+
+    assertEquals(Arrays.asList("e2", "e3", "e4"), queryIds(range));
+    assertQuery(range, "SELECT * FROM c WHERE " + TEMPLATE_FILTER + " AND " + LOWER_BOUND_FILTER
+            + " AND (LENGTH(c.metadata.timestamp) < @p3 OR (LENGTH(c.metadata.timestamp) = @p3 "
+            + "AND c.metadata.timestamp < @p4))", "plant-1", 4, "1000", 13, "1600000001000");
+  }
+
+  @Test
+  public void newestFirstWithALimit() {
+    EventRange range = EventRange.newBuilder()
+        .setSince(1_000_000_000_000L)
+        .setOrder(EventRange.Order.NEWEST_FIRST)
+        .setLimit(2)
+        .build();
+
+    assertEquals(Arrays.asList("e5", "e4"), queryIds(range));
+    assertQuery(range, "SELECT * FROM c WHERE " + TEMPLATE_FILTER + " AND " + LOWER_BOUND_FILTER
+        + " ORDER BY c.metadata.timestamp DESC OFFSET 0 LIMIT @p3", "plant-1", 13, "1000000000000", 2);
+  }
+
+  @Test
+  public void oldestFirstIsTheOrderOfTheStoredStrings() {
+    EventRange range = EventRange.newBuilder().setOrder(EventRange.Order.OLDEST_FIRST).setLimit(10).build();
+
+    // both resources order the decimal strings lexicographically, which is only numerical for equal digit counts
+    assertEquals(Arrays.asList("e2", "e6", "e4", "e5", "e1", "e3"), queryIds(range));
+    assertQuery(range,
+        "SELECT * FROM c WHERE " + TEMPLATE_FILTER + " ORDER BY c.metadata.timestamp ASC OFFSET 0 LIMIT @p1",
+        "plant-1", 10);
+  }
+
+  @Test
+  public void defaultRangeHasNoBounds() {
+    assertEquals(QueryBounds.NONE, EventRanges.toQueryBounds(EventRange.getDefaultInstance()));
+    assertQuery(EventRange.getDefaultInstance(), "SELECT * FROM c WHERE " + TEMPLATE_FILTER, "plant-1");
+  }
+
+  @Test
+  public void rangesThatCrossOrAreNegativeAreInvalid() {
+    assertTrue(EventRanges.isValid(EventRange.newBuilder().setSince(5).setUntil(5).build()));
+    assertFalse(EventRanges.isValid(EventRange.newBuilder().setSince(5).setUntil(3).build()));
+    assertFalse(EventRanges.isValid(EventRange.newBuilder().setSince(-1).build()));
+    assertFalse(EventRanges.isValid(EventRange.newBuilder().setLimit(-1).build()));
+  }
+
+  private void create(String id, String gardenPlantId, long timestamp) {
+    _resource.create(WateringEvent.newBuilder()
+        .setId(id)
+        .setGardenPlantId(gardenPlantId)
+        .setMetadata(EventMetadata.newBuilder().setTimestamp(timestamp))
+        .build(), null).join();
+  }
+
+  private List<String> queryIds(EventRange range) {
+    List<String> ids = _resource.query(_template,
+        new QueryRequestOptionsImpl.Builder().bounds(EventRanges.toQueryBounds(range)).build())
+        .join()
+        .stream()
+        .map(response -> response.getPayload().getId())
+        .collect(Collectors.toList());
+    // without an order, the resource picks one
+    return range.getOrder() == EventRange.Order.UNORDERED ? ids.stream().sorted().collect(Collectors.toList()) : ids;
+  }
+
+  private void assertQuery(EventRange range, String expectedQueryText, Object... expectedParameterValues) {
+    SqlQuerySpec querySpec = _queryBuilder.getQuerySpec(_interchange.convertBackward(_template),
+        Collections.emptyList(), EventRanges.toQueryBounds(range));
+    assertEquals(expectedQueryText, querySpec.getQueryText());
+    List<Object> parameterValues = querySpec.getParameters()
+        .stream()
+        .map(parameter -> parameter.getValue(Object.class))
+        .collect(Collectors.toList());
+    assertEquals(Arrays.asList(expectedParameterValues), parameterValues);
+  }
+}
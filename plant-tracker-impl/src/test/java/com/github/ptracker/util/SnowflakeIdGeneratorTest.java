@@ -0,0 +1,153 @@
+package com.github.ptracker.util;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class SnowflakeIdGeneratorTest {
+  private static final Instant EPOCH = Instant.ofEpochMilli(1_000L);
+  private static final int NODE_ID = 7;
+  private static final int SEQUENCE_BITS = 12;
+  private static final int SEQUENCE_SIZE = 1 << SEQUENCE_BITS;
+
+  private final FakeClock _clock = new FakeClock(1_005L);
+  private final SnowflakeIdGenerator _idGenerator =
+      new SnowflakeIdGenerator.Builder(NODE_ID).epoch(EPOCH).clock(_clock).build();
+
+  @Test
+  public void idIsTheTimeTheNodeAndASequence() {
+    assertId(5, 0, _idGenerator.getNextId());
+    assertId(5, 1, _idGenerator.getNextId());
+
+    _clock.set(1_006L);
+    assertId(6, 0, _idGenerator.getNextId());
+  }
+
+  @Test
+  public void fullSequenceOverflowsIntoTheNextMillisecond() {
+    for (int i = 0; i < SEQUENCE_SIZE - 1; i++) {
+      _idGenerator.getNextId();
+    }
+    assertId(5, SEQUENCE_SIZE - 1, _idGenerator.getNextId());
+    assertId(6, 0, _idGenerator.getNextId());
+
+    // the clock catching up to the millisecond that was borrowed carries on from its sequence
+    _clock.set(1_006L);
+    assertId(6, 1, _idGenerator.getNextId());
+    _clock.set(1_007L);
+    assertId(7, 0, _idGenerator.getNextId());
+  }
+
+  @Test
+  public void clockGoingBackCarriesOnFromTheLastMillisecond() {
+    _clock.set(1_010L);
+    long id = _idGenerator.getNextId();
+    assertId(10, 0, id);
+
+    _clock.set(1_003L);
+    long nextId = _idGenerator.getNextId();
+    assertId(10, 1, nextId);
+    assertTrue(nextId > id);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void clockBeforeTheEpochFails() {
+    _clock.set(EPOCH.toEpochMilli() - 1);
+    _idGenerator.getNextId();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void epochCannotBeInTheFuture() {
+    new SnowflakeIdGenerator.Builder(NODE_ID).epoch(Instant.ofEpochMilli(1_006L)).clock(_clock).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nodeIdHasTenBits() {
+    new SnowflakeIdGenerator.Builder(SnowflakeIdGenerator.MAX_NODE_ID + 1);
+  }
+
+  @Test
+  public void concurrentIdsAreUniqueAndIncreaseOnEachThread() throws Exception {
+    int threads = 8;
+    int idsPerThread = 5_000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<List<Long>>> futures = new ArrayList<>();
+    for (int thread = 0; thread < threads; thread++) {
+      futures.add(executor.submit(() -> {
+        List<Long> ids = new ArrayList<>(idsPerThread);
+        for (int i = 0; i < idsPerThread; i++) {
+          ids.add(_idGenerator.getNextId());
+        }
+        return ids;
+      }));
+    }
+    Set<Long> ids = new HashSet<>();
+    for (Future<List<Long>> future : futures) {
+      List<Long> threadIds = future.get();
+      for (int i = 1; i < threadIds.size(); i++) {
+        assertTrue(threadIds.get(i) > threadIds.get(i - 1));
+      }
+      ids.addAll(threadIds);
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+    assertEquals(threads * idsPerThread, ids.size());
+    // the clock stood still, so the ids took every sequence from its millisecond on, overflowing into the next ones
+    long lastId = ids.stream().mapToLong(Long::longValue).max().getAsLong();
+    int lastState = threads * idsPerThread - 1;
+    assertId(5 + lastState / SEQUENCE_SIZE, lastState % SEQUENCE_SIZE, lastId);
+  }
+
+  private static void assertId(long expectedElapsedMs, int expectedSequence, long id) {
+    assertEquals(expectedElapsedMs, id >>> (SnowflakeIdGenerator.NODE_ID_BITS + SEQUENCE_BITS));
+    assertEquals(NODE_ID, (id >>> SEQUENCE_BITS) & SnowflakeIdGenerator.MAX_NODE_ID);
+    assertEquals(expectedSequence, id & (SEQUENCE_SIZE - 1));
+  }
+
+  private static class FakeClock extends Clock {
+    private final AtomicLong _millis;
+
+    FakeClock(long millis) {
+      _millis = new AtomicLong(millis);
+    }
+
+    void set(long millis) {
+      _millis.set(millis);
+    }
+
+    @Override
+    public long millis() {
+      return _millis.get();
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.github.ptracker.util;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class TimeOrderedStringIdGeneratorTest {
+  // Long.MAX_VALUE in base 36
+  private static final int WIDTH = 13;
+
+  @Test
+  public void idsHaveAFixedWidthAndSortInTheOrderOfTheNumbers() {
+    List<Long> longIds = ImmutableList.of(0L, 35L, 36L, 1_295L, 1_296L, 1L << 40, Long.MAX_VALUE);
+    Iterator<Long> longIdIterator = longIds.iterator();
+    TimeOrderedStringIdGenerator idGenerator = new TimeOrderedStringIdGenerator("we-", longIdIterator::next);
+
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < longIds.size(); i++) {
+      ids.add(idGenerator.getNextId());
+    }
+
+    assertEquals("we-0000000000000", ids.get(0));
+    assertEquals("we-000000000000z", ids.get(1));
+    assertEquals("we-0000000000010", ids.get(2));
+    assertEquals("we-1y2p0ij32e8e7", ids.get(ids.size() - 1));
+    ids.forEach(id -> assertEquals(3 + WIDTH, id.length()));
+    List<String> sortedIds = new ArrayList<>(ids);
+    sortedIds.sort(null);
+    assertEquals(ids, sortedIds);
+  }
+
+  @Test
+  public void idsOfASnowflakeGeneratorSortByTime() {
+    Instant now = Instant.parse("2026-01-01T00:00:00Z");
+    SnowflakeIdGenerator snowflakeIdGenerator =
+        new SnowflakeIdGenerator.Builder(1).clock(Clock.fixed(now, ZoneOffset.UTC)).build();
+    TimeOrderedStringIdGenerator idGenerator = new TimeOrderedStringIdGenerator(null, snowflakeIdGenerator);
+
+    // more than a millisecond's worth of sequence, so the ids cross into the next millisecond
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      ids.add(idGenerator.getNextId());
+    }
+
+    ids.forEach(id -> assertEquals(WIDTH, id.length()));
+    List<String> sortedIds = new ArrayList<>(ids);
+    sortedIds.sort(null);
+    assertEquals(ids, sortedIds);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void negativeIdsAreRejected() {
+    new TimeOrderedStringIdGenerator("we-", () -> -1L).getNextId();
+  }
+}
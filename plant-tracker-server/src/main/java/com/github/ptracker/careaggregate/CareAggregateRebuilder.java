@@ -0,0 +1,185 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.FertilizationEvent;
+import com.github.ptracker.entity.GardenPlant;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.fertilizationevent.FertilizationEventServer;
+import com.github.ptracker.gardenplant.GardenPlantServer;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptionsImpl;
+import com.github.ptracker.resource.ResourcePage;
+import com.github.ptracker.resource.ResponseStatus;
+import com.github.ptracker.resource.UpdateRequestOptions;
+import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.AsyncResourceFactory;
+import com.github.ptracker.wateringevent.WateringEventServer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Recomputes the care aggregates of every garden plant from all of their events, e.g. to backfill them for events
+ * that were written before the aggregates were kept, or to repair them. The aggregates of a garden plant are summed
+ * up from its events and written out before the next garden plant is read, along with the applied events that they
+ * count, and the aggregates and applied events that no event falls into any more are deleted. Events of garden plants
+ * that do not exist are left out. Events that are written or deleted while it runs may be counted wrong, so it should
+ * run while the event services do not take writes.
+ *
+ * It is a batch job, so it blocks until it is done.
+ */
+public class CareAggregateRebuilder {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CareAggregateRebuilder.class);
+
+  private static final int PAGE_SIZE = 1000;
+  private static final int MAX_IN_FLIGHT_WRITES = 64;
+  private static final UpdateRequestOptions UPSERT_OPTIONS =
+      new UpdateRequestOptionsImpl.Builder().shouldUpsert(true).build();
+
+  private final AsyncResource<String, CareAggregate> _aggregateResource;
+  private final AsyncResource<String, AppliedCareEvent> _appliedEventResource;
+  private final AsyncResource<String, GardenPlant> _gardenPlantResource;
+  private final AsyncResource<String, WateringEvent> _wateringEventResource;
+  private final AsyncResource<String, FertilizationEvent> _fertilizationEventResource;
+  private final List<CompletableFuture<?>> _writes = new ArrayList<>();
+
+  public CareAggregateRebuilder(AsyncResourceFactory resourceFactory) {
+    this(CareAggregateServer.getResource(resourceFactory), CareAggregateServer.getAppliedEventResource(resourceFactory),
+        GardenPlantServer.getResource(resourceFactory), WateringEventServer.getResource(resourceFactory),
+        FertilizationEventServer.getResource(resourceFactory));
+  }
+
+  public CareAggregateRebuilder(AsyncResource<String, CareAggregate> aggregateResource,
+      AsyncResource<String, AppliedCareEvent> appliedEventResource,
+      AsyncResource<String, GardenPlant> gardenPlantResource,
+      AsyncResource<String, WateringEvent> wateringEventResource,
+      AsyncResource<String, FertilizationEvent> fertilizationEventResource) {
+    _aggregateResource = checkNotNull(aggregateResource, "CareAggregate Resource cannot be null");
+    _appliedEventResource = checkNotNull(appliedEventResource, "AppliedCareEvent Resource cannot be null");
+    _gardenPlantResource = checkNotNull(gardenPlantResource, "GardenPlant Resource cannot be null");
+    _wateringEventResource = checkNotNull(wateringEventResource, "WateringEvent Resource cannot be null");
+    _fertilizationEventResource =
+        checkNotNull(fertilizationEventResource, "FertilizationEvent Resource cannot be null");
+  }
+
+  /**
+   * @return the number of aggregates that were written.
+   */
+  public int rebuild() {
+    AtomicInteger count = new AtomicInteger();
+    forEach(_gardenPlantResource, GardenPlant.getDefaultInstance(),
+        gardenPlant -> count.addAndGet(rebuild(gardenPlant.getId())));
+    awaitWrites(0);
+    return count.get();
+  }
+
+  /**
+   * @return the number of aggregates of the garden plant that were written.
+   */
+  private int rebuild(String gardenPlantId) {
+    Map<String, CareAggregate.Builder> aggregates = new HashMap<>();
+    Set<String> appliedEventIds = new HashSet<>();
+    add(aggregates, appliedEventIds, CareEventKind.WATERING, _wateringEventResource, gardenPlantId);
+    add(aggregates, appliedEventIds, CareEventKind.FERTILIZATION, _fertilizationEventResource, gardenPlantId);
+    for (CareAggregate.Builder aggregate : aggregates.values()) {
+      upsert(_aggregateResource, aggregate.build(), CareAggregate::getId);
+    }
+    deleteAllBut(_aggregateResource, CareAggregate.newBuilder().setGardenPlantId(gardenPlantId).build(),
+        CareAggregate::getId, aggregates.keySet());
+    deleteAllBut(_appliedEventResource, AppliedCareEvent.newBuilder().setGardenPlantId(gardenPlantId).build(),
+        AppliedCareEvent::getId, appliedEventIds);
+    LOGGER.debug("Rebuilt {} care aggregates of {}", aggregates.size(), gardenPlantId);
+    return aggregates.size();
+  }
+
+  /**
+   * Adds up the events of the garden plant in its aggregates, and writes the applied events that count them.
+   */
+  private <EVENT_TYPE> void add(Map<String, CareAggregate.Builder> aggregates, Set<String> appliedEventIds,
+      CareEventKind<EVENT_TYPE> eventKind, AsyncResource<String, EVENT_TYPE> eventResource, String gardenPlantId) {
+    forEach(eventResource, eventKind.getTemplate(gardenPlantId), event -> {
+      AppliedCareEvent.Count count = CareAggregates.getCount(eventKind, event);
+      AppliedCareEvent appliedEvent = CareAggregates.newAppliedEvent(eventKind, event).toBuilder()
+          .setCounted(count)
+          .build();
+      upsert(_appliedEventResource, appliedEvent, AppliedCareEvent::getId);
+      appliedEventIds.add(appliedEvent.getId());
+      for (CareAggregate.Granularity granularity : CareAggregates.GRANULARITIES) {
+        String id = CareAggregates.getId(gardenPlantId, granularity,
+            CareAggregates.getBucketStart(count.getTimestamp(), granularity));
+        CareAggregate.Builder aggregate = aggregates.computeIfAbsent(id,
+            ignored -> CareAggregates.newBucket(gardenPlantId, granularity, count.getTimestamp()));
+        CareAggregates.add(eventKind, aggregate, count);
+      }
+    });
+  }
+
+  private <VALUE_TYPE> void upsert(AsyncResource<String, VALUE_TYPE> resource, VALUE_TYPE value,
+      Function<VALUE_TYPE, String> idExtractor) {
+    _writes.add(resource.update(value, UPSERT_OPTIONS).thenAccept(updateResponse ->
+        checkState(ResponseStatus.OK.equals(updateResponse.getStatus()), "Could not write %s: %s",
+            idExtractor.apply(value), updateResponse.getStatus())));
+    awaitWrites(MAX_IN_FLIGHT_WRITES);
+  }
+
+  /**
+   * Deletes the values that match {@code template}, other than the ones with {@code ids}.
+   */
+  private <VALUE_TYPE> void deleteAllBut(AsyncResource<String, VALUE_TYPE> resource, VALUE_TYPE template,
+      Function<VALUE_TYPE, String> idExtractor, Set<String> ids) {
+    List<String> staleIds = new ArrayList<>();
+    forEach(resource, template, value -> {
+      if (!ids.contains(idExtractor.apply(value))) {
+        staleIds.add(idExtractor.apply(value));
+      }
+    });
+    for (String id : staleIds) {
+      // a value that is already gone is as good as deleted
+      _writes.add(resource.delete(id, new DeleteRequestOptionsImpl.Builder().build()));
+      awaitWrites(MAX_IN_FLIGHT_WRITES);
+    }
+  }
+
+  /**
+   * Hands {@code consumer} every value that matches {@code template}, one page at a time.
+   */
+  private static <VALUE_TYPE> void forEach(AsyncResource<String, VALUE_TYPE> resource, VALUE_TYPE template,
+      Consumer<VALUE_TYPE> consumer) {
+    String continuationToken = null;
+    do {
+      ResourcePage<VALUE_TYPE> page = resource.queryPage(template,
+          new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken).pageSize(PAGE_SIZE).build())
+          .join();
+      page.getResponses().forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          consumer.accept(response.getPayload());
+        }
+      });
+      continuationToken = page.getContinuationToken();
+    } while (continuationToken != null);
+  }
+
+  /**
+   * Waits for the writes (and fails if any of them did) once there are more than {@code maxInFlight} of them.
+   */
+  private void awaitWrites(int maxInFlight) {
+    if (_writes.size() > maxInFlight) {
+      CompletableFuture.allOf(_writes.toArray(new CompletableFuture<?>[0])).join();
+      _writes.clear();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.github.ptracker.careaggregate;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.interchange.DataInterchange;
+import com.github.ptracker.interchange.ProtoBufJsonInterchange;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.service.AsyncResourceFactory;
+import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
+import io.grpc.ServerBuilder;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.github.ptracker.ModelVerifierUtils.*;
+
+
+public class CareAggregateServer extends GrpcServer {
+  private static final String SERVICE_DESCRIPTION = "CareAggregatesService";
+
+  private static final String COSMOS_DB_NAME = "PlantsTracker";
+  private static final String COSMOS_CONTAINER_NAME = "careAggregates";
+  // the fields that templates filter on, most selective first
+  private static final List<String> INDEXED_PATHS = ImmutableList.of("gardenPlantId", "granularity");
+  private static final String APPLIED_EVENTS_COSMOS_CONTAINER_NAME = "appliedCareEvents";
+  private static final List<String> APPLIED_EVENTS_INDEXED_PATHS = ImmutableList.of("gardenPlantId", "kind");
+
+  public CareAggregateServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new CareAggregateService(getResource(resourceFactory));
+  }
+
+  /**
+   * @return the resource of the aggregates, which the event services keep up to date.
+   */
+  public static AsyncResource<String, CareAggregate> getResource(AsyncResourceFactory resourceFactory) {
+    DataInterchange<ObjectNode, CareAggregate> dataInterchange =
+        new ProtoBufJsonInterchange<>(CareAggregate::newBuilder);
+    Function<String, CareAggregate> valueWithIdOnlyCreator = CareAggregates::getValueWithIdOnly;
+    Function<CareAggregate, String> partitionKeyExtractor = CareAggregate::getGardenPlantId;
+    return resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+        partitionKeyExtractor, CareAggregateServer::verifyCareAggregate, INDEXED_PATHS);
+  }
+
+  /**
+   * @return the resource of the events as the aggregates count them, which is partitioned by garden plant like the
+   * aggregates.
+   */
+  public static AsyncResource<String, AppliedCareEvent> getAppliedEventResource(AsyncResourceFactory resourceFactory) {
+    DataInterchange<ObjectNode, AppliedCareEvent> dataInterchange =
+        new ProtoBufJsonInterchange<>(AppliedCareEvent::newBuilder);
+    Function<String, AppliedCareEvent> valueWithIdOnlyCreator = CareAggregates::getAppliedEventWithIdOnly;
+    Function<AppliedCareEvent, String> partitionKeyExtractor = AppliedCareEvent::getGardenPlantId;
+    return resourceFactory.create(COSMOS_DB_NAME, APPLIED_EVENTS_COSMOS_CONTAINER_NAME, dataInterchange,
+        valueWithIdOnlyCreator, partitionKeyExtractor, CareAggregateServer::verifyAppliedCareEvent,
+        APPLIED_EVENTS_INDEXED_PATHS);
+  }
+
+  private static void verifyCareAggregate(CareAggregate careAggregate) {
+    verifyStringFieldNotNullOrEmpty(careAggregate.getId(), CareAggregate.class.getName(), "id");
+    verifyStringFieldNotNullOrEmpty(careAggregate.getGardenPlantId(), CareAggregate.class.getName(), "gardenPlantId");
+    if (!CareAggregates.GRANULARITIES.contains(careAggregate.getGranularity())) {
+      throw new IllegalArgumentException(CareAggregate.class.getName() + " does not have a granularity");
+    }
+    verifyLongNotNegative(careAggregate.getBucketStart(), CareAggregate.class.getName(), "bucketStart");
+    verifyLongNotNegative(careAggregate.getTotalQuantityMl(), CareAggregate.class.getName(), "totalQuantityMl");
+    verifyIntNotNegative(careAggregate.getWateringCount(), CareAggregate.class.getName(), "wateringCount");
+    verifyLongNotNegative(careAggregate.getTotalQuantityMg(), CareAggregate.class.getName(), "totalQuantityMg");
+    verifyIntNotNegative(careAggregate.getFertilizationCount(), CareAggregate.class.getName(), "fertilizationCount");
+  }
+
+  private static void verifyAppliedCareEvent(AppliedCareEvent appliedCareEvent) {
+    verifyStringFieldNotNullOrEmpty(appliedCareEvent.getId(), AppliedCareEvent.class.getName(), "id");
+    verifyStringFieldNotNullOrEmpty(appliedCareEvent.getGardenPlantId(), AppliedCareEvent.class.getName(),
+        "gardenPlantId");
+    if (AppliedCareEvent.Kind.KIND_UNSPECIFIED.equals(appliedCareEvent.getKind())) {
+      throw new IllegalArgumentException(AppliedCareEvent.class.getName() + " does not have a kind");
+    }
+    verifyLongNotNegative(appliedCareEvent.getVersion(), AppliedCareEvent.class.getName(), "version");
+  }
+}
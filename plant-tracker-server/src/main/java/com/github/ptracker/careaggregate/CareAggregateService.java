@@ -0,0 +1,103 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
+import com.github.ptracker.resource.QueryRequestOptionsImpl;
+import com.github.ptracker.resource.ResourceResponse;
+import com.github.ptracker.resource.ResponseStatus;
+import com.github.ptracker.service.CareAggregateBatchQueryRequest;
+import com.github.ptracker.service.CareAggregateBatchQueryResponse;
+import com.github.ptracker.service.CareAggregateGrpc.CareAggregateImplBase;
+import com.github.ptracker.service.CareAggregateQueryRequest;
+import com.github.ptracker.service.CareAggregateQueryResponse;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.EventRanges;
+import com.github.ptracker.service.StorageSession;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
+import static com.google.common.base.Preconditions.*;
+
+
+public class CareAggregateService extends CareAggregateImplBase {
+  private final AsyncResource<String, CareAggregate> _careAggregateResource;
+
+  public CareAggregateService(AsyncResource<String, CareAggregate> careAggregateResource) {
+    _careAggregateResource = checkNotNull(careAggregateResource, "CareAggregate Resource cannot be null");
+  }
+
+  @Override
+  public void query(CareAggregateQueryRequest request, StreamObserver<CareAggregateQueryResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
+    if (request.getGardenPlantId().isEmpty()) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant ID is missing")));
+    } else if (!CareAggregates.GRANULARITIES.contains(request.getGranularity())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Granularity is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      _careAggregateResource.query(getTemplate(request.getGardenPlantId(), request.getGranularity()),
+          getQueryRequestOptions(request.getRange(), session))
+          .whenComplete(completing(responseObserver, CareAggregateService::toQueryResponse));
+    }
+  }
+
+  @Override
+  public void batchQuery(CareAggregateBatchQueryRequest request,
+      StreamObserver<CareAggregateBatchQueryResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
+    if (request.getGardenPlantIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant ID is missing")));
+    } else if (!CareAggregates.GRANULARITIES.contains(request.getGranularity())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Granularity is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      List<CareAggregate> templates = request.getGardenPlantIdList()
+          .stream()
+          .map(gardenPlantId -> getTemplate(gardenPlantId, request.getGranularity()))
+          .collect(Collectors.toList());
+      _careAggregateResource.batchQuery(templates, getQueryRequestOptions(request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> {
+            CareAggregateBatchQueryResponse.Builder responseBuilder = CareAggregateBatchQueryResponse.newBuilder();
+            responses.forEach(templateResponses -> responseBuilder.addResponse(toQueryResponse(templateResponses)));
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  private static CareAggregate getTemplate(String gardenPlantId, CareAggregate.Granularity granularity) {
+    return CareAggregate.newBuilder().setGardenPlantId(gardenPlantId).setGranularity(granularity).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(EventRange range, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(
+        new GetRequestOptionsImpl.Builder().fieldMask(CareAggregates.TOTALS_FIELD_MASK)
+            .metadata(session.getMetadata())
+            .build())
+        .bounds(EventRanges.toQueryBounds(range, CareAggregates.BUCKET_START_PATH))
+        .build();
+  }
+
+  private static CareAggregateQueryResponse toQueryResponse(List<ResourceResponse<CareAggregate>> responses) {
+    CareAggregateQueryResponse.Builder responseBuilder = CareAggregateQueryResponse.newBuilder();
+    responses.forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addCareAggregate(response.getPayload());
+      }
+    });
+    return responseBuilder.build();
+  }
+}
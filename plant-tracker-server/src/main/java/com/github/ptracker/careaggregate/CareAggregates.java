@@ -0,0 +1,237 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.AppliedCareEvent.Count;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.CareAggregate.Granularity;
+import com.github.ptracker.entity.CareAggregateOrBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * The buckets of care aggregates: one per garden plant, granularity and day, week (from Monday) or month, all in UTC.
+ */
+public final class CareAggregates {
+  public static final List<Granularity> GRANULARITIES =
+      ImmutableList.of(Granularity.DAY, Granularity.WEEK, Granularity.MONTH);
+  // the JSON path of CareAggregate.bucketStart, which is how aggregates are stored
+  public static final String BUCKET_START_PATH = "bucketStart";
+  // the JSON names of the fields of the totals, which is all but the change that they were last changed by
+  public static final List<String> TOTALS_FIELD_MASK = CareAggregate.getDescriptor()
+      .getFields()
+      .stream()
+      .filter(field -> field.getNumber() != CareAggregate.LAST_CHANGE_ID_FIELD_NUMBER
+          && field.getNumber() != CareAggregate.LAST_CHANGE_VERSION_FIELD_NUMBER)
+      .map(FieldDescriptor::getJsonName)
+      .collect(ImmutableList.toImmutableList());
+  // the JSON path of AppliedCareEvent.counted.timestamp, which is how applied events are stored
+  public static final String COUNTED_TIMESTAMP_PATH = "counted.timestamp";
+
+  private static final String ID_SEPARATOR = ":";
+
+  private CareAggregates() {
+  }
+
+  /**
+   * @return the start of the bucket that {@code timestamp} is in, in milliseconds since the epoch.
+   */
+  public static long getBucketStart(long timestamp, Granularity granularity) {
+    ZonedDateTime day = Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+    switch (granularity) {
+      case DAY:
+        return day.toInstant().toEpochMilli();
+      case WEEK:
+        return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toInstant().toEpochMilli();
+      case MONTH:
+        return day.withDayOfMonth(1).toInstant().toEpochMilli();
+      default:
+        throw new IllegalArgumentException("Unknown granularity " + granularity);
+    }
+  }
+
+  /**
+   * @return the start of the bucket after the one that starts at {@code bucketStart}.
+   */
+  public static long getBucketEnd(long bucketStart, Granularity granularity) {
+    ZonedDateTime start = Instant.ofEpochMilli(bucketStart).atZone(ZoneOffset.UTC);
+    switch (granularity) {
+      case DAY:
+        return start.plusDays(1).toInstant().toEpochMilli();
+      case WEEK:
+        return start.plusWeeks(1).toInstant().toEpochMilli();
+      case MONTH:
+        return start.plusMonths(1).toInstant().toEpochMilli();
+      default:
+        throw new IllegalArgumentException("Unknown granularity " + granularity);
+    }
+  }
+
+  public static String getId(String gardenPlantId, Granularity granularity, long bucketStart) {
+    return gardenPlantId + ID_SEPARATOR + granularity.name() + ID_SEPARATOR + bucketStart;
+  }
+
+  /**
+   * @return an empty aggregate of the bucket that {@code timestamp} is in.
+   */
+  public static CareAggregate.Builder newBucket(String gardenPlantId, Granularity granularity, long timestamp) {
+    checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+    long bucketStart = getBucketStart(timestamp, granularity);
+    return CareAggregate.newBuilder()
+        .setId(getId(gardenPlantId, granularity, bucketStart))
+        .setGardenPlantId(gardenPlantId)
+        .setGranularity(granularity)
+        .setBucketStart(bucketStart);
+  }
+
+  /**
+   * @return the count of {@code event} in the aggregates.
+   */
+  public static <EVENT_TYPE> Count getCount(CareEventKind<EVENT_TYPE> eventKind, EVENT_TYPE event) {
+    return Count.newBuilder()
+        .setQuantity(eventKind.getQuantity(event))
+        .setTimestamp(eventKind.getTimestamp(event))
+        .build();
+  }
+
+  /**
+   * Adds {@code count} to the totals of {@code aggregate}, whose bucket it is expected to fall into.
+   */
+  public static void add(CareEventKind<?> eventKind, CareAggregate.Builder aggregate, Count count) {
+    eventKind.set(aggregate, eventKind.getTotalQuantity(aggregate) + count.getQuantity(),
+        eventKind.getCount(aggregate) + 1, Math.max(eventKind.getLastTimestamp(aggregate), count.getTimestamp()));
+  }
+
+  /**
+   * Applies the latest change of {@code appliedEvent} to the totals of {@code aggregate}: takes out the event as it was
+   * counted before and adds it as it is counted now, as far as either falls into the bucket.
+   * @return whether the last timestamp of the aggregate was of the event that was taken out, and is to be looked up
+   * again among the events that are left, which the totals cannot tell.
+   */
+  public static boolean apply(CareEventKind<?> eventKind, CareAggregate.Builder aggregate,
+      AppliedCareEvent appliedEvent) {
+    long totalQuantity = eventKind.getTotalQuantity(aggregate);
+    int count = eventKind.getCount(aggregate);
+    long lastTimestamp = eventKind.getLastTimestamp(aggregate);
+    boolean lastTakenOut = false;
+    if (appliedEvent.hasPreviouslyCounted() && isIn(aggregate, appliedEvent.getPreviouslyCounted())) {
+      Count previous = appliedEvent.getPreviouslyCounted();
+      // an aggregate that is off (e.g. since a change of it was lost) is not taken below nothing
+      totalQuantity = Math.max(0, totalQuantity - previous.getQuantity());
+      count = Math.max(0, count - 1);
+      lastTakenOut = previous.getTimestamp() >= lastTimestamp;
+      if (count == 0) {
+        lastTakenOut = false;
+        lastTimestamp = 0;
+      }
+    }
+    if (appliedEvent.hasCounted() && isIn(aggregate, appliedEvent.getCounted())) {
+      Count current = appliedEvent.getCounted();
+      totalQuantity += current.getQuantity();
+      count++;
+      if (lastTakenOut && current.getTimestamp() >= lastTimestamp) {
+        lastTakenOut = false;
+      }
+      lastTimestamp = Math.max(lastTimestamp, current.getTimestamp());
+    }
+    eventKind.set(aggregate, totalQuantity, count, lastTimestamp);
+    return lastTakenOut;
+  }
+
+  /**
+   * @return whether {@code count} falls into the bucket of {@code aggregate}.
+   */
+  public static boolean isIn(CareAggregateOrBuilder aggregate, Count count) {
+    return getBucketStart(count.getTimestamp(), aggregate.getGranularity()) == aggregate.getBucketStart();
+  }
+
+  /**
+   * @return the buckets that the latest change of {@code appliedEvent} changes, at every granularity, as they are
+   * before they count any event.
+   */
+  public static List<CareAggregate> getBuckets(AppliedCareEvent appliedEvent) {
+    List<Count> counts = new ArrayList<>();
+    if (appliedEvent.hasPreviouslyCounted()) {
+      counts.add(appliedEvent.getPreviouslyCounted());
+    }
+    if (appliedEvent.hasCounted()) {
+      counts.add(appliedEvent.getCounted());
+    }
+    Map<String, CareAggregate> buckets = new LinkedHashMap<>();
+    for (Count count : counts) {
+      for (Granularity granularity : GRANULARITIES) {
+        CareAggregate bucket = newBucket(appliedEvent.getGardenPlantId(), granularity, count.getTimestamp()).build();
+        buckets.putIfAbsent(bucket.getId(), bucket);
+      }
+    }
+    return new ArrayList<>(buckets.values());
+  }
+
+  /**
+   * @return the id of the applied event of the event with {@code eventId}. Garden plant ids and event ids can both
+   * have separators of their own, so the length of the garden plant id tells them apart.
+   */
+  public static String getAppliedEventId(String gardenPlantId, AppliedCareEvent.Kind kind, String eventId) {
+    checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+    checkNotNull(eventId, "Event ID cannot be null");
+    return kind.name() + ID_SEPARATOR + gardenPlantId.length() + ID_SEPARATOR + gardenPlantId + ID_SEPARATOR + eventId;
+  }
+
+  /**
+   * @return an applied event of {@code event} that does not count it yet.
+   */
+  public static <EVENT_TYPE> AppliedCareEvent newAppliedEvent(CareEventKind<EVENT_TYPE> eventKind, EVENT_TYPE event) {
+    String gardenPlantId = eventKind.getGardenPlantId(event);
+    return AppliedCareEvent.newBuilder()
+        .setId(getAppliedEventId(gardenPlantId, eventKind.getKind(), eventKind.getId(event)))
+        .setGardenPlantId(gardenPlantId)
+        .setKind(eventKind.getKind())
+        .build();
+  }
+
+  /**
+   * @return an aggregate with only the id and the garden plant (which is its partition) that {@code id} is of.
+   */
+  static CareAggregate getValueWithIdOnly(String id) {
+    CareAggregate.Builder builder = CareAggregate.newBuilder().setId(id);
+    // garden plant ids can have separators of their own, so the id is split from its end
+    int bucketStartIndex = id.lastIndexOf(ID_SEPARATOR);
+    int granularityIndex = bucketStartIndex > 0 ? id.lastIndexOf(ID_SEPARATOR, bucketStartIndex - 1) : -1;
+    if (granularityIndex > 0) {
+      builder.setGardenPlantId(id.substring(0, granularityIndex));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return an applied event with only the id and the garden plant (which is its partition) that {@code id} is of.
+   */
+  static AppliedCareEvent getAppliedEventWithIdOnly(String id) {
+    AppliedCareEvent.Builder builder = AppliedCareEvent.newBuilder().setId(id);
+    int lengthIndex = id.indexOf(ID_SEPARATOR);
+    int gardenPlantIdIndex = lengthIndex >= 0 ? id.indexOf(ID_SEPARATOR, lengthIndex + 1) : -1;
+    if (gardenPlantIdIndex > 0) {
+      try {
+        int length = Integer.parseInt(id.substring(lengthIndex + 1, gardenPlantIdIndex));
+        if (length >= 0 && gardenPlantIdIndex + 1 + length <= id.length()) {
+          builder.setGardenPlantId(id.substring(gardenPlantIdIndex + 1, gardenPlantIdIndex + 1 + length));
+        }
+      } catch (NumberFormatException e) {
+        // not the id of an applied event, which is left without a garden plant
+      }
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,396 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.common.storage.StorageMetadata;
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.AppliedCareEvent.Count;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.CareAggregateOrBuilder;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CreateRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryBounds;
+import com.github.ptracker.resource.QueryRequestOptionsImpl;
+import com.github.ptracker.resource.ResourceResponse;
+import com.github.ptracker.resource.ResponseStatus;
+import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Keeps the care aggregates of garden plants up to date as their events are written and deleted, so that the care of
+ * a plant over time is read from one aggregate per bucket instead of from every event.
+ *
+ * The aggregates only hold totals. What they count of each event is kept in an {@link AppliedCareEvent} next to them
+ * (in the partition of the garden plant), which each change of the event is claimed on first, by writing it on the
+ * condition that it still has the etag that was read. The change is then applied to each bucket that it changes, on
+ * the condition that the bucket still has the etag that was read and that the applied event still has the bucket
+ * pending, and the bucket keeps it as its last change. When another change got in first, a write starts over from the
+ * read, so changes of the same bucket (from any process) are not lost, and a change that is made again (e.g. because
+ * a write was retried) changes nothing. A change that failed is retried after a backoff, and one that stopped half way
+ * is finished by the next change of its event.
+ */
+public class CareAggregator<EVENT_TYPE> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CareAggregator.class);
+  private static final ScheduledExecutorService DEFAULT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("care-aggregator-scheduler-%d").setDaemon(true).build());
+
+  private static final int MAX_ATTEMPTS = 10;
+  // the failures that a change can get past by being made again later
+  private static final Set<Status.Code> RETRIABLE_STATUS_CODES = ImmutableSet.of(Status.Code.ABORTED,
+      Status.Code.DEADLINE_EXCEEDED, Status.Code.RESOURCE_EXHAUSTED, Status.Code.UNAVAILABLE);
+  private static final GetRequestOptions GET_OPTIONS = new GetRequestOptionsImpl.Builder().build();
+
+  private final AsyncResource<String, CareAggregate> _aggregateResource;
+  private final AsyncResource<String, AppliedCareEvent> _appliedEventResource;
+  private final CareEventKind<EVENT_TYPE> _eventKind;
+  private final int _maxRetries;
+  private final long _baseBackoffNanos;
+  private final ScheduledExecutorService _scheduler;
+
+  private CareAggregator(AsyncResource<String, CareAggregate> aggregateResource,
+      AsyncResource<String, AppliedCareEvent> appliedEventResource, CareEventKind<EVENT_TYPE> eventKind,
+      int maxRetries, Duration baseBackoff, ScheduledExecutorService scheduler) {
+    _aggregateResource = aggregateResource;
+    _appliedEventResource = appliedEventResource;
+    _eventKind = eventKind;
+    _maxRetries = maxRetries;
+    _baseBackoffNanos = baseBackoff.toNanos();
+    _scheduler = scheduler;
+  }
+
+  /**
+   * @return completes once the buckets count {@code event} as it is, in place of what they counted of it before.
+   */
+  public CompletableFuture<Void> onWritten(EVENT_TYPE event) {
+    checkNotNull(event, "Event cannot be null");
+    return change(event, CareAggregates.getCount(_eventKind, event));
+  }
+
+  /**
+   * @return completes once no bucket counts {@code event}.
+   */
+  public CompletableFuture<Void> onDeleted(EVENT_TYPE event) {
+    checkNotNull(event, "Event cannot be null");
+    return change(event, null);
+  }
+
+  /**
+   * @param count the event as the buckets are to count it, or {@code null} if they are not to count it.
+   */
+  private CompletableFuture<Void> change(EVENT_TYPE event, Count count) {
+    AppliedCareEvent emptyAppliedEvent = CareAggregates.newAppliedEvent(_eventKind, event);
+    return retrying(() -> change(emptyAppliedEvent, count, 1), 0);
+  }
+
+  /**
+   * @return the result of {@code call}, which is called again with a backoff while it fails in a way that can pass, up
+   * to the max retries.
+   */
+  private CompletableFuture<Void> retrying(Supplier<CompletableFuture<Void>> call, int retries) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    call.get().whenComplete((ignored, throwable) -> {
+      if (throwable == null) {
+        result.complete(null);
+      } else if (retries >= _maxRetries || !isRetriable(throwable)) {
+        result.completeExceptionally(throwable);
+      } else {
+        LOGGER.debug("Could not change the care aggregates, retrying", throwable);
+        long backoffNanos = _baseBackoffNanos << Math.min(retries, 20);
+        _scheduler.schedule(() -> retrying(call, retries + 1).whenComplete((value, retryThrowable) -> {
+          if (retryThrowable == null) {
+            result.complete(value);
+          } else {
+            result.completeExceptionally(retryThrowable);
+          }
+        }), backoffNanos, TimeUnit.NANOSECONDS);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Claims the change on the applied event of the event, and then applies it to the buckets.
+   * @param emptyAppliedEvent the applied event, as it is before it counts the event.
+   */
+  private CompletableFuture<Void> change(AppliedCareEvent emptyAppliedEvent, Count count, int attempt) {
+    String id = emptyAppliedEvent.getId();
+    return _appliedEventResource.get(id, GET_OPTIONS).thenCompose(getResponse -> {
+      boolean found = isFound(getResponse, id);
+      AppliedCareEvent appliedEvent = found ? getResponse.getPayload() : emptyAppliedEvent;
+      if (appliedEvent.getPendingBucketIdsCount() > 0) {
+        // the previous change of the event did not get to every bucket (e.g. since its process stopped), so it is
+        // finished before the next one is claimed
+        return apply(appliedEvent).thenApply(ignored -> false);
+      }
+      Count counted = appliedEvent.hasCounted() ? appliedEvent.getCounted() : null;
+      if (Objects.equals(counted, count)) {
+        return CompletableFuture.completedFuture(true);
+      }
+      AppliedCareEvent.Builder builder = appliedEvent.toBuilder()
+          .clearCounted()
+          .clearPreviouslyCounted()
+          .setVersion(appliedEvent.getVersion() + 1);
+      if (counted != null) {
+        builder.setPreviouslyCounted(counted);
+      }
+      if (count != null) {
+        builder.setCounted(count);
+      }
+      CareAggregates.getBuckets(builder.build()).forEach(bucket -> builder.addPendingBucketIds(bucket.getId()));
+      AppliedCareEvent claimed = builder.build();
+      CompletableFuture<Boolean> claim = found
+          ? replace(_appliedEventResource, claimed, id, getResponse.getStorageMetadata().getEtag())
+          : create(_appliedEventResource, claimed, id);
+      return claim.thenCompose(isClaimed -> isClaimed ? apply(claimed).thenApply(ignored -> true)
+          : CompletableFuture.completedFuture(false));
+    }).thenCompose(changed -> {
+      if (changed) {
+        return CompletableFuture.completedFuture(null);
+      }
+      checkAttempts(attempt, id);
+      LOGGER.debug("{} changed since it was read, reading it again", id);
+      return change(emptyAppliedEvent, count, attempt + 1);
+    });
+  }
+
+  /**
+   * Applies the latest change of {@code appliedEvent} to every bucket that it is pending for, and then takes the
+   * buckets off.
+   */
+  private CompletableFuture<Void> apply(AppliedCareEvent appliedEvent) {
+    List<CompletableFuture<Void>> futures = CareAggregates.getBuckets(appliedEvent)
+        .stream()
+        .filter(bucket -> appliedEvent.getPendingBucketIdsList().contains(bucket.getId()))
+        .map(bucket -> applyToBucket(appliedEvent, bucket, 1))
+        .collect(Collectors.toList());
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenCompose(ignored -> takeOffPending(appliedEvent.getId(), appliedEvent.getVersion(),
+            appliedEvent.getPendingBucketIdsList(), 1));
+  }
+
+  /**
+   * @param emptyBucket the bucket to apply the change to, as it is before it counts any event.
+   */
+  private CompletableFuture<Void> applyToBucket(AppliedCareEvent appliedEvent, CareAggregate emptyBucket,
+      int attempt) {
+    String id = emptyBucket.getId();
+    return _aggregateResource.get(id, GET_OPTIONS).thenCompose(getResponse -> {
+      CareAggregate aggregate = isFound(getResponse, id) ? getResponse.getPayload() : null;
+      if (aggregate != null && aggregate.getLastChangeId().equals(appliedEvent.getId())
+          && aggregate.getLastChangeVersion() == appliedEvent.getVersion()) {
+        return CompletableFuture.completedFuture(true);
+      }
+      // the bucket only keeps its last change, so the applied event of that change is told that it is applied to the
+      // bucket before the bucket forgets it
+      CompletableFuture<Void> lastChangeTakenOff = aggregate == null || aggregate.getLastChangeId().isEmpty()
+          ? CompletableFuture.completedFuture(null)
+          : takeOffPending(aggregate.getLastChangeId(), aggregate.getLastChangeVersion(),
+              Collections.singletonList(id), 1);
+      return lastChangeTakenOff.thenCompose(ignored -> _appliedEventResource.get(appliedEvent.getId(), GET_OPTIONS))
+          .thenCompose(appliedEventResponse -> {
+            // a change that its applied event does not have pending for the bucket any more is applied to it already
+            if (!isFound(appliedEventResponse, appliedEvent.getId())
+                || appliedEventResponse.getPayload().getVersion() != appliedEvent.getVersion()
+                || !appliedEventResponse.getPayload().getPendingBucketIdsList().contains(id)) {
+              return CompletableFuture.completedFuture(true);
+            }
+            if (aggregate == null
+                && !(appliedEvent.hasCounted() && CareAggregates.isIn(emptyBucket, appliedEvent.getCounted()))) {
+              // there is no bucket to take the event out of
+              return CompletableFuture.completedFuture(true);
+            }
+            CareAggregate.Builder changed = (aggregate != null ? aggregate : emptyBucket).toBuilder()
+                .setLastChangeId(appliedEvent.getId())
+                .setLastChangeVersion(appliedEvent.getVersion());
+            CompletableFuture<Void> lastTimestampFound = CareAggregates.apply(_eventKind, changed, appliedEvent)
+                ? findLastTimestamp(changed).thenAccept(lastTimestamp -> _eventKind.set(changed,
+                    _eventKind.getTotalQuantity(changed), _eventKind.getCount(changed), lastTimestamp))
+                : CompletableFuture.completedFuture(null);
+            // a bucket that counts nothing any more is kept, since deletes cannot be conditioned on an etag
+            return lastTimestampFound.thenCompose(ignored -> aggregate == null
+                ? create(_aggregateResource, changed.build(), id)
+                : replace(_aggregateResource, changed.build(), id, getResponse.getStorageMetadata().getEtag()));
+          });
+    }).thenCompose(applied -> {
+      if (applied) {
+        return CompletableFuture.completedFuture(null);
+      }
+      checkAttempts(attempt, id);
+      LOGGER.debug("{} changed since it was read, reading it again", id);
+      return applyToBucket(appliedEvent, emptyBucket, attempt + 1);
+    });
+  }
+
+  /**
+   * Takes {@code bucketIds} off the buckets that the change with {@code version} of an applied event is pending for,
+   * unless the applied event moved on to a later change.
+   */
+  private CompletableFuture<Void> takeOffPending(String appliedEventId, long version, List<String> bucketIds,
+      int attempt) {
+    return _appliedEventResource.get(appliedEventId, GET_OPTIONS).thenCompose(getResponse -> {
+      if (!isFound(getResponse, appliedEventId) || getResponse.getPayload().getVersion() != version) {
+        return CompletableFuture.completedFuture(true);
+      }
+      AppliedCareEvent appliedEvent = getResponse.getPayload();
+      List<String> pendingBucketIds = appliedEvent.getPendingBucketIdsList()
+          .stream()
+          .filter(bucketId -> !bucketIds.contains(bucketId))
+          .collect(Collectors.toList());
+      if (pendingBucketIds.size() == appliedEvent.getPendingBucketIdsCount()) {
+        return CompletableFuture.completedFuture(true);
+      }
+      return replace(_appliedEventResource,
+          appliedEvent.toBuilder().clearPendingBucketIds().addAllPendingBucketIds(pendingBucketIds).build(),
+          appliedEventId, getResponse.getStorageMetadata().getEtag());
+    }).thenCompose(takenOff -> {
+      if (takenOff) {
+        return CompletableFuture.completedFuture(null);
+      }
+      checkAttempts(attempt, appliedEventId);
+      return takeOffPending(appliedEventId, version, bucketIds, attempt + 1);
+    });
+  }
+
+  /**
+   * @return the timestamp of the last event in the bucket of {@code aggregate}, among the events as they are counted,
+   * or 0 if there is none.
+   */
+  private CompletableFuture<Long> findLastTimestamp(CareAggregateOrBuilder aggregate) {
+    AppliedCareEvent template = AppliedCareEvent.newBuilder()
+        .setGardenPlantId(aggregate.getGardenPlantId())
+        .setKind(_eventKind.getKind())
+        .build();
+    QueryBounds bounds = new QueryBounds.Builder().range(CareAggregates.COUNTED_TIMESTAMP_PATH,
+        aggregate.getBucketStart(), CareAggregates.getBucketEnd(aggregate.getBucketStart(), aggregate.getGranularity()))
+        .order(CareAggregates.COUNTED_TIMESTAMP_PATH, true)
+        .limit(1)
+        .build();
+    return _appliedEventResource.query(template, new QueryRequestOptionsImpl.Builder().bounds(bounds).build())
+        .thenApply(responses -> responses.stream()
+            .filter(response -> ResponseStatus.OK.equals(response.getStatus()))
+            .mapToLong(response -> response.getPayload().getCounted().getTimestamp())
+            .max()
+            .orElse(0));
+  }
+
+  /**
+   * @return whether {@code value} was created, which it is not if another change created it first.
+   */
+  private static <VALUE_TYPE> CompletableFuture<Boolean> create(AsyncResource<String, VALUE_TYPE> resource,
+      VALUE_TYPE value, String id) {
+    return resource.create(value, new CreateRequestOptionsImpl()).handle((createResponse, throwable) -> {
+      if (throwable == null) {
+        checkOk(createResponse, id);
+        return true;
+      }
+      if (Status.fromThrowable(throwable).getCode() == Status.Code.ALREADY_EXISTS) {
+        return false;
+      }
+      throw throwable instanceof CompletionException ? (CompletionException) throwable
+          : new CompletionException(throwable);
+    });
+  }
+
+  /**
+   * @return whether {@code value} was replaced, which it is not if it changed since it had {@code etag}.
+   */
+  private static <VALUE_TYPE> CompletableFuture<Boolean> replace(AsyncResource<String, VALUE_TYPE> resource,
+      VALUE_TYPE value, String id, String etag) {
+    StorageMetadata metadata = StorageMetadata.newBuilder().setEtag(etag).build();
+    return resource.update(value, new UpdateRequestOptionsImpl.Builder().metadata(metadata).build())
+        .thenApply(updateResponse -> {
+          if (ResponseStatus.PRECONDITION_FAILED.equals(updateResponse.getStatus())) {
+            return false;
+          }
+          checkOk(updateResponse, id);
+          return true;
+        });
+  }
+
+  /**
+   * @return whether the value with {@code id} was found.
+   */
+  private static boolean isFound(ResourceResponse<?> getResponse, String id) {
+    if (ResponseStatus.NOT_FOUND.equals(getResponse.getStatus())) {
+      return false;
+    }
+    checkState(ResponseStatus.OK.equals(getResponse.getStatus()), "Could not read %s: %s", id,
+        getResponse.getStatus());
+    return true;
+  }
+
+  private static void checkAttempts(int attempt, String id) {
+    if (attempt >= MAX_ATTEMPTS) {
+      throw Status.ABORTED.withDescription("Other changes kept getting in before changing " + id)
+          .asRuntimeException();
+    }
+  }
+
+  private static boolean isRetriable(Throwable throwable) {
+    return RETRIABLE_STATUS_CODES.contains(Status.fromThrowable(throwable).getCode());
+  }
+
+  private static void checkOk(ResourceResponse<?> response, String id) {
+    checkState(ResponseStatus.OK.equals(response.getStatus()), "Could not write %s: %s", id, response.getStatus());
+  }
+
+  public static class Builder<EVENT_TYPE> {
+    private final AsyncResource<String, CareAggregate> _aggregateResource;
+    private final AsyncResource<String, AppliedCareEvent> _appliedEventResource;
+    private final CareEventKind<EVENT_TYPE> _eventKind;
+    private int _maxRetries = 3;
+    private Duration _baseBackoff = Duration.ofMillis(100);
+    private ScheduledExecutorService _scheduler = DEFAULT_SCHEDULER;
+
+    public Builder(AsyncResource<String, CareAggregate> aggregateResource,
+        AsyncResource<String, AppliedCareEvent> appliedEventResource, CareEventKind<EVENT_TYPE> eventKind) {
+      _aggregateResource = checkNotNull(aggregateResource, "CareAggregate Resource cannot be null");
+      _appliedEventResource = checkNotNull(appliedEventResource, "AppliedCareEvent Resource cannot be null");
+      _eventKind = checkNotNull(eventKind, "CareEventKind cannot be null");
+    }
+
+    /**
+     * @param baseBackoff how long the first retry of a change that failed waits, which doubles with every retry.
+     */
+    public Builder<EVENT_TYPE> retries(int maxRetries, Duration baseBackoff) {
+      checkArgument(maxRetries >= 0, "Max retries should be >= 0");
+      checkArgument(baseBackoff != null && !baseBackoff.isNegative(), "Base backoff should be >= 0");
+      _maxRetries = maxRetries;
+      _baseBackoff = baseBackoff;
+      return this;
+    }
+
+    /**
+     * @param scheduler runs the retries of changes that failed. Defaults to one daemon thread that all the aggregators
+     *                  share, which only starts the retries.
+     */
+    public Builder<EVENT_TYPE> scheduler(ScheduledExecutorService scheduler) {
+      _scheduler = checkNotNull(scheduler, "Scheduler cannot be null");
+      return this;
+    }
+
+    public CareAggregator<EVENT_TYPE> build() {
+      return new CareAggregator<>(_aggregateResource, _appliedEventResource, _eventKind, _maxRetries, _baseBackoff,
+          _scheduler);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.CareAggregateOrBuilder;
+import com.github.ptracker.entity.FertilizationEvent;
+import com.github.ptracker.entity.WateringEvent;
+
+
+/**
+ * What the care aggregates count of a kind of event: the id, garden plant, time and quantity of each event, and the
+ * fields of the aggregate that the events of the kind add up in.
+ */
+public interface CareEventKind<EVENT_TYPE> {
+
+  CareEventKind<WateringEvent> WATERING = new CareEventKind<WateringEvent>() {
+    @Override
+    public AppliedCareEvent.Kind getKind() {
+      return AppliedCareEvent.Kind.WATERING;
+    }
+
+    @Override
+    public String getId(WateringEvent event) {
+      return event.getId();
+    }
+
+    @Override
+    public String getGardenPlantId(WateringEvent event) {
+      return event.getGardenPlantId();
+    }
+
+    @Override
+    public long getTimestamp(WateringEvent event) {
+      return event.getMetadata().getTimestamp();
+    }
+
+    @Override
+    public long getQuantity(WateringEvent event) {
+      return event.getQuantityMl();
+    }
+
+    @Override
+    public WateringEvent getTemplate(String gardenPlantId) {
+      return WateringEvent.newBuilder().setGardenPlantId(gardenPlantId).build();
+    }
+
+    @Override
+    public long getTotalQuantity(CareAggregateOrBuilder aggregate) {
+      return aggregate.getTotalQuantityMl();
+    }
+
+    @Override
+    public int getCount(CareAggregateOrBuilder aggregate) {
+      return aggregate.getWateringCount();
+    }
+
+    @Override
+    public long getLastTimestamp(CareAggregateOrBuilder aggregate) {
+      return aggregate.getLastWateringTimestamp();
+    }
+
+    @Override
+    public void set(CareAggregate.Builder aggregate, long totalQuantity, int count, long lastTimestamp) {
+      aggregate.setTotalQuantityMl(totalQuantity).setWateringCount(count).setLastWateringTimestamp(lastTimestamp);
+    }
+  };
+
+  CareEventKind<FertilizationEvent> FERTILIZATION = new CareEventKind<FertilizationEvent>() {
+    @Override
+    public AppliedCareEvent.Kind getKind() {
+      return AppliedCareEvent.Kind.FERTILIZATION;
+    }
+
+    @Override
+    public String getId(FertilizationEvent event) {
+      return event.getId();
+    }
+
+    @Override
+    public String getGardenPlantId(FertilizationEvent event) {
+      return event.getGardenPlantId();
+    }
+
+    @Override
+    public long getTimestamp(FertilizationEvent event) {
+      return event.getMetadata().getTimestamp();
+    }
+
+    @Override
+    public long getQuantity(FertilizationEvent event) {
+      return event.getQuantityMg();
+    }
+
+    @Override
+    public FertilizationEvent getTemplate(String gardenPlantId) {
+      return FertilizationEvent.newBuilder().setGardenPlantId(gardenPlantId).build();
+    }
+
+    @Override
+    public long getTotalQuantity(CareAggregateOrBuilder aggregate) {
+      return aggregate.getTotalQuantityMg();
+    }
+
+    @Override
+    public int getCount(CareAggregateOrBuilder aggregate) {
+      return aggregate.getFertilizationCount();
+    }
+
+    @Override
+    public long getLastTimestamp(CareAggregateOrBuilder aggregate) {
+      return aggregate.getLastFertilizationTimestamp();
+    }
+
+    @Override
+    public void set(CareAggregate.Builder aggregate, long totalQuantity, int count, long lastTimestamp) {
+      aggregate.setTotalQuantityMg(totalQuantity)
+          .setFertilizationCount(count)
+          .setLastFertilizationTimestamp(lastTimestamp);
+    }
+  };
+
+  AppliedCareEvent.Kind getKind();
+
+  String getId(EVENT_TYPE event);
+
+  String getGardenPlantId(EVENT_TYPE event);
+
+  long getTimestamp(EVENT_TYPE event);
+
+  long getQuantity(EVENT_TYPE event);
+
+  /**
+   * @return a template that matches every event of the garden plant.
+   */
+  EVENT_TYPE getTemplate(String gardenPlantId);
+
+  long getTotalQuantity(CareAggregateOrBuilder aggregate);
+
+  int getCount(CareAggregateOrBuilder aggregate);
+
+  long getLastTimestamp(CareAggregateOrBuilder aggregate);
+
+  void set(CareAggregate.Builder aggregate, long totalQuantity, int count, long lastTimestamp);
+}
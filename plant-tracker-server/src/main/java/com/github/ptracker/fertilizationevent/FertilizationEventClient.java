@@ -15,6 +15,7 @@ import com.github.ptracker.service.FertilizationEventGrpc.FertilizationEventBloc
 import com.github.ptracker.service.FertilizationEventQueryRequest;
 import com.github.ptracker.service.FertilizationEventUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -31,14 +32,22 @@ public class FertilizationEventClient implements GrpcResource.GrpcClient<String,
 
   @Override
   public FertilizationEvent get(String key, GetRequestOptions options) {
-    FertilizationEventGetRequest request = FertilizationEventGetRequest.newBuilder().setId(key).build();
+    FertilizationEventGetRequest.Builder requestBuilder = FertilizationEventGetRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenPlantId(options.getPartitionKey());
+    }
+    FertilizationEventGetRequest request = requestBuilder.build();
     return _blockingStub.get(request).getFertilizationEvent();
   }
 
   @Override
   public List<FertilizationEvent> query(FertilizationEvent template, QueryRequestOptions options) {
     FertilizationEventQueryRequest request = FertilizationEventQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getFertilizationEventList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<FertilizationEvent> values = new ArrayList<>();
+    _blockingStub.streamQuery(request)
+        .forEachRemaining(response -> values.addAll(response.getFertilizationEventList()));
+    return values;
   }
 
   @Override
@@ -59,7 +68,11 @@ public class FertilizationEventClient implements GrpcResource.GrpcClient<String,
 
   @Override
   public void delete(String key, DeleteRequestOptions options) {
-    FertilizationEventDeleteRequest request = FertilizationEventDeleteRequest.newBuilder().setId(key).build();
+    FertilizationEventDeleteRequest.Builder requestBuilder = FertilizationEventDeleteRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenPlantId(options.getPartitionKey());
+    }
+    FertilizationEventDeleteRequest request = requestBuilder.build();
     _blockingStub.delete(request);
   }
 }
@@ -1,14 +1,19 @@
 package com.github.ptracker.fertilizationevent;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.careaggregate.CareAggregateServer;
+import com.github.ptracker.careaggregate.CareAggregator;
+import com.github.ptracker.careaggregate.CareEventKind;
 import com.github.ptracker.entity.FertilizationEvent;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,10 +24,18 @@ public class FertilizationEventServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "fertilizationEvents";
+  // the fields that templates filter on, most selective first
+  private static final List<String> INDEXED_PATHS = ImmutableList.of("gardenPlantId", "metadata.gardenerId");
 
-  public FertilizationEventServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION,
-        ServerBuilder.forPort(port).addService(new FertilizationEventService(getCosmosResource(cosmosClient))));
+  public FertilizationEventServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    AsyncResource<String, FertilizationEvent> resource = getResource(resourceFactory);
+    return new FertilizationEventService(resource,
+        new CareAggregator.Builder<>(CareAggregateServer.getResource(resourceFactory),
+            CareAggregateServer.getAppliedEventResource(resourceFactory), CareEventKind.FERTILIZATION).build());
   }
 
   private static void verifyFertilizationEvent(FertilizationEvent fertilizationEvent) {
@@ -33,14 +46,13 @@ public class FertilizationEventServer extends GrpcServer {
     // TODO quantityMg, gardenPlantId, event metadata
   }
 
-  private static Resource<String, FertilizationEvent> getCosmosResource(CosmosClient cosmosClient) {
+  public static AsyncResource<String, FertilizationEvent> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, FertilizationEvent> dataInterchange =
         new ProtoBufJsonInterchange<>(FertilizationEvent::newBuilder);
     Function<String, FertilizationEvent> valueWithIdOnlyCreator =
         key -> FertilizationEvent.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, FertilizationEvent> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, FertilizationEventServer::verifyFertilizationEvent);
-    return supplier.get();
+    Function<FertilizationEvent, String> partitionKeyExtractor = FertilizationEvent::getGardenPlantId;
+    return resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+        partitionKeyExtractor, FertilizationEventServer::verifyFertilizationEvent, INDEXED_PATHS);
   }
 }
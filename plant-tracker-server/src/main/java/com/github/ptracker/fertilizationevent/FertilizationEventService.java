@@ -1,14 +1,26 @@
 package com.github.ptracker.fertilizationevent;
 
-import com.github.ptracker.StreamObserverConverter;
+import com.github.ptracker.careaggregate.CareAggregator;
 import com.github.ptracker.entity.FertilizationEvent;
-import com.github.ptracker.resource.CreateRequestOptionsImpl;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.BulkWriter;
+import com.github.ptracker.resource.DeleteRequestOptions;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.EventRanges;
+import com.github.ptracker.service.FertilizationEventBatchGetRequest;
+import com.github.ptracker.service.FertilizationEventBatchGetResponse;
+import com.github.ptracker.service.FertilizationEventBatchQueryRequest;
+import com.github.ptracker.service.FertilizationEventBatchQueryResponse;
+import com.github.ptracker.service.FertilizationEventCreateManyResponse;
 import com.github.ptracker.service.FertilizationEventCreateRequest;
 import com.github.ptracker.service.FertilizationEventCreateResponse;
 import com.github.ptracker.service.FertilizationEventDeleteRequest;
@@ -20,123 +32,339 @@ import com.github.ptracker.service.FertilizationEventQueryRequest;
 import com.github.ptracker.service.FertilizationEventQueryResponse;
 import com.github.ptracker.service.FertilizationEventUpdateRequest;
 import com.github.ptracker.service.FertilizationEventUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledCreateReceiver;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class FertilizationEventService extends FertilizationEventImplBase {
-  private final Resource<String, FertilizationEvent> _fertilizationEventResource;
+  private static final Logger LOGGER = LoggerFactory.getLogger(FertilizationEventService.class);
 
-  public FertilizationEventService(Resource<String, FertilizationEvent> fertilizationEventResource) {
+  private static final int MAX_IN_FLIGHT_CREATES_PER_CALL = 64;
+
+  private final AsyncResource<String, FertilizationEvent> _fertilizationEventResource;
+  private final BulkWriter<String, FertilizationEvent> _fertilizationEventBulkWriter;
+  private final CareAggregator<FertilizationEvent> _careAggregator;
+
+  public FertilizationEventService(AsyncResource<String, FertilizationEvent> fertilizationEventResource,
+      CareAggregator<FertilizationEvent> careAggregator) {
     _fertilizationEventResource =
         checkNotNull(fertilizationEventResource, "FertilizationEvent Resource cannot be null");
+    _fertilizationEventBulkWriter = new BulkWriter.Builder<>(_fertilizationEventResource).build();
+    _careAggregator = checkNotNull(careAggregator, "CareAggregator cannot be null");
   }
 
   @Override
   public void get(FertilizationEventGetRequest request,
       StreamObserver<FertilizationEventGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(new StatusRuntimeException(
           Status.FAILED_PRECONDITION.augmentDescription("FertilizationEvent ID is missing")));
     } else {
-      // TODO: add metadata
-      FertilizationEventQueryRequest fertilizationEventQueryRequest = FertilizationEventQueryRequest.newBuilder()
-          .setTemplate(FertilizationEvent.newBuilder().setId(request.getId()))
-          .build();
-      query(fertilizationEventQueryRequest,
-          new StreamObserverConverter<>(responseObserver, fertilizationEventQueryResponse -> {
-            FertilizationEvent fertilizationEvent =
-                Iterables.getOnlyElement(fertilizationEventQueryResponse.getFertilizationEventList());
-            responseObserver.onNext(
-                FertilizationEventGetResponse.newBuilder().setFertilizationEvent(fertilizationEvent).build());
-            }));
+      _fertilizationEventResource.get(request.getId(),
+          getGetRequestOptions(fieldMask, request.getGardenPlantId(), session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return FertilizationEventGetResponse.newBuilder()
+                .setFertilizationEvent(FieldMasks.trim(fieldMask, getResponse.getPayload()))
+                .build();
+          }));
     }
   }
 
   @Override
   public void query(FertilizationEventQueryRequest request,
       StreamObserver<FertilizationEventQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _fertilizationEventResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<FertilizationEvent>> responses =
-          _fertilizationEventResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      FertilizationEventQueryResponse.Builder responseBuilder = FertilizationEventQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addFertilizationEvent(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _fertilizationEventResource.query(request.getTemplate(),
+          getQueryRequestOptions(fieldMask, request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            FertilizationEventQueryResponse.Builder responseBuilder = FertilizationEventQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addFertilizationEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(FertilizationEventQueryRequest request,
+      StreamObserver<FertilizationEventQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _fertilizationEventResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(FertilizationEventBatchGetRequest request,
+      StreamObserver<FertilizationEventBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(new StatusRuntimeException(
+          Status.FAILED_PRECONDITION.augmentDescription("FertilizationEvent ID is missing")));
+    } else {
+      _fertilizationEventResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            FertilizationEventBatchGetResponse.Builder responseBuilder =
+                FertilizationEventBatchGetResponse.newBuilder();
+            for (ResourceResponse<FertilizationEvent> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addFertilizationEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void batchQuery(FertilizationEventBatchQueryRequest request,
+      StreamObserver<FertilizationEventBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      _fertilizationEventResource.batchQuery(request.getTemplateList(),
+          getQueryRequestOptions(fieldMask, request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
     }
   }
 
   @Override
   public void create(FertilizationEventCreateRequest request,
       StreamObserver<FertilizationEventCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasFertilizationEvent()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("FertilizationEvent is missing")));
     } else {
-      ResourceResponse<Void> createResponse =
-          _fertilizationEventResource.create(request.getFertilizationEvent(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(FertilizationEventCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      FertilizationEvent event = request.getFertilizationEvent();
+      _fertilizationEventBulkWriter.create(event)
+          .thenCompose(createResponse -> aggregated(createResponse, () -> _careAggregator.onWritten(event)))
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return FertilizationEventCreateResponse.newBuilder().build();
+          }));
     }
   }
 
+  @Override
+  public StreamObserver<FertilizationEventCreateRequest> createMany(
+      StreamObserver<FertilizationEventCreateManyResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
+    return FlowControlledCreateReceiver.receive(request -> {
+      if (!request.hasFertilizationEvent()) {
+        throw new StatusRuntimeException(
+            Status.FAILED_PRECONDITION.augmentDescription("FertilizationEvent is missing"));
+      }
+      FertilizationEvent event = request.getFertilizationEvent();
+      return _fertilizationEventBulkWriter.create(event)
+          .thenCompose(createResponse -> aggregated(createResponse, () -> _careAggregator.onWritten(event)))
+          .thenApply(createResponse -> {
+            session.update(createResponse.getStorageMetadata());
+            return createResponse;
+          });
+    }, createdCount -> FertilizationEventCreateManyResponse.newBuilder().setCreatedCount(createdCount).build(),
+        MAX_IN_FLIGHT_CREATES_PER_CALL, responseObserver);
+  }
+
   @Override
   public void update(FertilizationEventUpdateRequest request,
       StreamObserver<FertilizationEventUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasFertilizationEvent()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("FertilizationEvent is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _fertilizationEventResource.update(request.getFertilizationEvent(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(FertilizationEventUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      FertilizationEvent event = request.getFertilizationEvent();
+      _fertilizationEventResource.update(event,
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .thenCompose(updateResponse -> aggregated(updateResponse, () -> _careAggregator.onWritten(event)))
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return FertilizationEventUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(FertilizationEventDeleteRequest request,
       StreamObserver<FertilizationEventDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(new StatusRuntimeException(
           Status.FAILED_PRECONDITION.augmentDescription("FertilizationEvent ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _fertilizationEventResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(FertilizationEventDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      // the event is read first, to take it out of the care aggregates once it is deleted
+      _fertilizationEventResource.get(request.getId(),
+          getGetRequestOptions(Collections.emptyList(), request.getGardenPlantId(), session))
+          .thenCompose(getResponse -> _fertilizationEventResource.delete(request.getId(),
+              getDeleteRequestOptions(request, getResponse)).thenCompose(deleteResponse ->
+              ResponseStatus.OK.equals(getResponse.getStatus())
+                  ? aggregated(deleteResponse, () -> _careAggregator.onDeleted(getResponse.getPayload()))
+                  : CompletableFuture.completedFuture(deleteResponse)))
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return FertilizationEventDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  /**
+   * @return {@code response}, once the care aggregates count the write that it is of. The write happened either way,
+   * so failing to update the aggregates (once the aggregator ran out of retries) is only logged, for the next rebuild
+   * of the aggregates to fix.
+   */
+  private static <T> CompletableFuture<ResourceResponse<T>> aggregated(ResourceResponse<T> response,
+      Supplier<CompletableFuture<Void>> aggregation) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      return CompletableFuture.completedFuture(response);
+    }
+    return aggregation.get().handle((ignored, throwable) -> {
+      if (throwable != null) {
+        LOGGER.warn("Could not update the care aggregates", throwable);
       }
+      return response;
+    });
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
     }
   }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, FertilizationEvent.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  /**
+   * @param partitionKey the partition of the FertilizationEvent, or empty if the caller did not say.
+   */
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, String partitionKey,
+      StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask)
+        .partitionKey(partitionKey)
+        .metadata(session.getMetadata())
+        .build();
+  }
+
+  /**
+   * @return the options of the delete, in the partition of the event that was read (or else the one that the caller
+   * said).
+   */
+  private static DeleteRequestOptions getDeleteRequestOptions(FertilizationEventDeleteRequest request,
+      ResourceResponse<FertilizationEvent> getResponse) {
+    String partitionKey = ResponseStatus.OK.equals(getResponse.getStatus())
+        ? getResponse.getPayload().getGardenPlantId() : request.getGardenPlantId();
+    return new DeleteRequestOptionsImpl.Builder().partitionKey(partitionKey).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, EventRange range,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session))
+        .bounds(EventRanges.toQueryBounds(range))
+        .build();
+  }
+
+  private static String getContinuationToken(FertilizationEventQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(FertilizationEventQueryRequest request,
+      String continuationToken, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .bounds(EventRanges.toQueryBounds(request.getRange()))
+        .build();
+  }
+
+  private FertilizationEventQueryResponse toQueryResponse(ResourcePage<FertilizationEvent> page,
+      List<String> fieldMask) {
+    FertilizationEventQueryResponse.Builder responseBuilder = FertilizationEventQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addFertilizationEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+      }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
+    }
+    return responseBuilder.build();
+  }
+
+  private FertilizationEventBatchQueryResponse toBatchQueryResponse(
+      List<List<ResourceResponse<FertilizationEvent>>> responses, List<String> fieldMask) {
+    FertilizationEventBatchQueryResponse.Builder responseBuilder = FertilizationEventBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      FertilizationEventQueryResponse.Builder templateResponseBuilder = FertilizationEventQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addFertilizationEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
+  }
 }
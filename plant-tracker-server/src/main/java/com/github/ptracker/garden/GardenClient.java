@@ -15,6 +15,7 @@ import com.github.ptracker.service.GardenGrpc.GardenBlockingStub;
 import com.github.ptracker.service.GardenQueryRequest;
 import com.github.ptracker.service.GardenUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -38,7 +39,10 @@ public class GardenClient implements GrpcResource.GrpcClient<String, Garden> {
   @Override
   public List<Garden> query(Garden template, QueryRequestOptions options) {
     GardenQueryRequest request = GardenQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getGardenList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<Garden> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getGardenList()));
+    return values;
   }
 
   @Override
@@ -1,14 +1,16 @@
 package com.github.ptracker.garden;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.ptracker.entity.Garden;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,9 +21,15 @@ public class GardenServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "gardens";
+  // the fields that templates filter on, most selective first
+  private static final List<String> INDEXED_PATHS = ImmutableList.of("spaceId");
 
-  public GardenServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(new GardenService(getCosmosResource(cosmosClient))));
+  public GardenServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new GardenService(getResource(resourceFactory));
   }
 
   private static void verifyGarden(Garden garden) {
@@ -30,12 +38,11 @@ public class GardenServer extends GrpcServer {
     verifyStringFieldNotNullOrEmpty(garden.getSpaceId(), Garden.class.getName(), "spaceId");
   }
 
-  private static Resource<String, Garden> getCosmosResource(CosmosClient cosmosClient) {
+  private static AsyncResource<String, Garden> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, Garden> dataInterchange = new ProtoBufJsonInterchange<>(Garden::newBuilder);
     Function<String, Garden> valueWithIdOnlyCreator = key -> Garden.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, Garden> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, GardenServer::verifyGarden);
-    return supplier.get();
+    Function<Garden, String> partitionKeyExtractor = Garden::getId;
+    return resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+        partitionKeyExtractor, GardenServer::verifyGarden, INDEXED_PATHS);
   }
 }
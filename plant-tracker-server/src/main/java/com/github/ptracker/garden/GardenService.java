@@ -1,14 +1,23 @@
 package com.github.ptracker.garden;
 
-import com.github.ptracker.StreamObserverConverter;
 import com.github.ptracker.entity.Garden;
+import com.github.ptracker.resource.AsyncResource;
 import com.github.ptracker.resource.CreateRequestOptionsImpl;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.GardenBatchGetRequest;
+import com.github.ptracker.service.GardenBatchGetResponse;
+import com.github.ptracker.service.GardenBatchQueryRequest;
+import com.github.ptracker.service.GardenBatchQueryResponse;
 import com.github.ptracker.service.GardenCreateRequest;
 import com.github.ptracker.service.GardenCreateResponse;
 import com.github.ptracker.service.GardenDeleteRequest;
@@ -20,113 +29,223 @@ import com.github.ptracker.service.GardenQueryRequest;
 import com.github.ptracker.service.GardenQueryResponse;
 import com.github.ptracker.service.GardenUpdateRequest;
 import com.github.ptracker.service.GardenUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.util.List;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class GardenService extends GardenImplBase {
-  private final Resource<String, Garden> _gardenResource;
+  private final AsyncResource<String, Garden> _gardenResource;
 
-  public GardenService(Resource<String, Garden> gardenResource) {
+  public GardenService(AsyncResource<String, Garden> gardenResource) {
     _gardenResource = checkNotNull(gardenResource, "Garden Resource cannot be null");
   }
 
   @Override
   public void get(GardenGetRequest request, StreamObserver<GardenGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Garden ID is missing")));
     } else {
-      // TODO: add metadata
-      GardenQueryRequest gardenQueryRequest =
-          GardenQueryRequest.newBuilder().setTemplate(Garden.newBuilder().setId(request.getId())).build();
-      query(gardenQueryRequest, new StreamObserverConverter<>(responseObserver, gardenQueryResponse -> {
-        Garden garden = Iterables.getOnlyElement(gardenQueryResponse.getGardenList());
-        responseObserver.onNext(GardenGetResponse.newBuilder().setGarden(garden).build());
-      }));
+      _gardenResource.get(request.getId(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return GardenGetResponse.newBuilder()
+                .setGarden(FieldMasks.trim(fieldMask, getResponse.getPayload()))
+                .build();
+          }));
     }
   }
 
   @Override
   public void query(GardenQueryRequest request, StreamObserver<GardenQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _gardenResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<Garden>> responses =
-          _gardenResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      GardenQueryResponse.Builder responseBuilder = GardenQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addGarden(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _gardenResource.query(request.getTemplate(), getQueryRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            GardenQueryResponse.Builder responseBuilder = GardenQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addGarden(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(GardenQueryRequest request, StreamObserver<GardenQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _gardenResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(GardenBatchGetRequest request, StreamObserver<GardenBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Garden ID is missing")));
+    } else {
+      _gardenResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            GardenBatchGetResponse.Builder responseBuilder = GardenBatchGetResponse.newBuilder();
+            for (ResourceResponse<Garden> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addGarden(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
     }
   }
 
+  @Override
+  public void batchQuery(GardenBatchQueryRequest request,
+      StreamObserver<GardenBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    _gardenResource.batchQuery(request.getTemplateList(), getQueryRequestOptions(fieldMask, session))
+        .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
+  }
+
   @Override
   public void create(GardenCreateRequest request, StreamObserver<GardenCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasGarden()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Garden is missing")));
     } else {
-      ResourceResponse<Void> createResponse =
-          _gardenResource.create(request.getGarden(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(GardenCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      _gardenResource.create(request.getGarden(), new CreateRequestOptionsImpl())
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return GardenCreateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void update(GardenUpdateRequest request, StreamObserver<GardenUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasGarden()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Garden is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _gardenResource.update(request.getGarden(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(GardenUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      _gardenResource.update(request.getGarden(),
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return GardenUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(GardenDeleteRequest request, StreamObserver<GardenDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Garden ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _gardenResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(GardenDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      _gardenResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build())
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return GardenDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+    }
+  }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, Garden.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session)).build();
+  }
+
+  private static String getContinuationToken(GardenQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(GardenQueryRequest request, String continuationToken,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .build();
+  }
+
+  private GardenQueryResponse toQueryResponse(ResourcePage<Garden> page, List<String> fieldMask) {
+    GardenQueryResponse.Builder responseBuilder = GardenQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addGarden(FieldMasks.trim(fieldMask, response.getPayload()));
       }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
     }
+    return responseBuilder.build();
+  }
+
+  private GardenBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<Garden>>> responses,
+      List<String> fieldMask) {
+    GardenBatchQueryResponse.Builder responseBuilder = GardenBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      GardenQueryResponse.Builder templateResponseBuilder = GardenQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addGarden(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
   }
 }
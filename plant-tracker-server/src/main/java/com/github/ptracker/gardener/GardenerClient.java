@@ -15,6 +15,7 @@ import com.github.ptracker.service.GardenerGrpc.GardenerBlockingStub;
 import com.github.ptracker.service.GardenerQueryRequest;
 import com.github.ptracker.service.GardenerUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -38,7 +39,10 @@ public class GardenerClient implements GrpcResource.GrpcClient<String, Gardener>
   @Override
   public List<Gardener> query(Gardener template, QueryRequestOptions options) {
     GardenerQueryRequest request = GardenerQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getGardenerList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<Gardener> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getGardenerList()));
+    return values;
   }
 
   @Override
@@ -1,14 +1,18 @@
 package com.github.ptracker.gardener;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.ptracker.entity.Gardener;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CachingResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -21,9 +25,18 @@ public class GardenerServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "gardeners";
+  // only ever read by id
+  private static final List<String> INDEXED_PATHS = ImmutableList.of();
 
-  public GardenerServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(new GardenerService(getCosmosResource(cosmosClient))));
+  private static final Duration CACHE_TTL = Duration.ofMinutes(5);
+  private static final long CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+  public GardenerServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new GardenerService(getResource(resourceFactory));
   }
 
   private static void verifyGardener(Gardener gardener) {
@@ -32,12 +45,15 @@ public class GardenerServer extends GrpcServer {
     verifyStringFieldNotNullOrEmpty(gardener.getLastName(), Gardener.class.getName(), "lastName");
   }
 
-  private static Resource<String, Gardener> getCosmosResource(CosmosClient cosmosClient) {
+  private static AsyncResource<String, Gardener> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, Gardener> dataInterchange = new ProtoBufJsonInterchange<>(Gardener::newBuilder);
     Function<String, Gardener> valueWithIdOnlyCreator = key -> Gardener.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, Gardener> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, GardenerServer::verifyGardener);
-    return supplier.get();
+    Function<Gardener, String> partitionKeyExtractor = Gardener::getId;
+    AsyncResource<String, Gardener> resource =
+        resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+            partitionKeyExtractor, GardenerServer::verifyGardener, INDEXED_PATHS);
+    return new CachingResource.Builder<>(resource, Gardener::getId).ttl(CACHE_TTL)
+        .weigher(Gardener::getSerializedSize, CACHE_MAX_BYTES)
+        .build();
   }
 }
@@ -1,20 +1,23 @@
 package com.github.ptracker.gardener;
 
-import com.github.ptracker.StreamObserverConverter;
-import com.github.ptracker.entity.Gardener;
 import com.github.ptracker.entity.Gardener;
+import com.github.ptracker.resource.AsyncResource;
 import com.github.ptracker.resource.CreateRequestOptionsImpl;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
 import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
-import com.github.ptracker.service.GardenerGetRequest;
-import com.github.ptracker.service.GardenerGetResponse;
-import com.github.ptracker.service.GardenerQueryRequest;
-import com.github.ptracker.service.GardenerQueryResponse;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.GardenerBatchGetRequest;
+import com.github.ptracker.service.GardenerBatchGetResponse;
+import com.github.ptracker.service.GardenerBatchQueryRequest;
+import com.github.ptracker.service.GardenerBatchQueryResponse;
 import com.github.ptracker.service.GardenerCreateRequest;
 import com.github.ptracker.service.GardenerCreateResponse;
 import com.github.ptracker.service.GardenerDeleteRequest;
@@ -22,115 +25,227 @@ import com.github.ptracker.service.GardenerDeleteResponse;
 import com.github.ptracker.service.GardenerGetRequest;
 import com.github.ptracker.service.GardenerGetResponse;
 import com.github.ptracker.service.GardenerGrpc.GardenerImplBase;
+import com.github.ptracker.service.GardenerQueryRequest;
+import com.github.ptracker.service.GardenerQueryResponse;
 import com.github.ptracker.service.GardenerUpdateRequest;
 import com.github.ptracker.service.GardenerUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.util.List;
-import java.util.Optional;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class GardenerService extends GardenerImplBase {
-  private final Resource<String, Gardener> _gardenerResource;
+  private final AsyncResource<String, Gardener> _gardenerResource;
 
-  public GardenerService(Resource<String, Gardener> gardenerResource) {
+  public GardenerService(AsyncResource<String, Gardener> gardenerResource) {
     _gardenerResource = checkNotNull(gardenerResource, "Gardener Resource cannot be null");
   }
 
   @Override
   public void get(GardenerGetRequest request, StreamObserver<GardenerGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Gardener ID is missing")));
     } else {
-      // TODO: add metadata
-      GardenerQueryRequest gardenerQueryRequest =
-          GardenerQueryRequest.newBuilder().setTemplate(Gardener.newBuilder().setId(request.getId())).build();
-      query(gardenerQueryRequest, new StreamObserverConverter<>(responseObserver, gardenerQueryResponse -> {
-        Gardener gardener = Iterables.getOnlyElement(gardenerQueryResponse.getGardenerList());
-        responseObserver.onNext(GardenerGetResponse.newBuilder().setGardener(gardener).build());
-        }));
+      _gardenerResource.get(request.getId(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return GardenerGetResponse.newBuilder()
+                .setGardener(FieldMasks.trim(fieldMask, getResponse.getPayload()))
+                .build();
+          }));
     }
   }
 
   @Override
   public void query(GardenerQueryRequest request, StreamObserver<GardenerQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _gardenerResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<Gardener>> responses =
-          _gardenerResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      GardenerQueryResponse.Builder responseBuilder = GardenerQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addGardener(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _gardenerResource.query(request.getTemplate(), getQueryRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            GardenerQueryResponse.Builder responseBuilder = GardenerQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addGardener(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(GardenerQueryRequest request, StreamObserver<GardenerQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _gardenerResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(GardenerBatchGetRequest request, StreamObserver<GardenerBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Gardener ID is missing")));
+    } else {
+      _gardenerResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            GardenerBatchGetResponse.Builder responseBuilder = GardenerBatchGetResponse.newBuilder();
+            for (ResourceResponse<Gardener> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addGardener(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
     }
   }
 
+  @Override
+  public void batchQuery(GardenerBatchQueryRequest request,
+      StreamObserver<GardenerBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    _gardenerResource.batchQuery(request.getTemplateList(), getQueryRequestOptions(fieldMask, session))
+        .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
+  }
+
   @Override
   public void create(GardenerCreateRequest request, StreamObserver<GardenerCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasGardener()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Gardener is missing")));
     } else {
-      ResourceResponse<Void> createResponse = _gardenerResource.create(request.getGardener(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(GardenerCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      _gardenerResource.create(request.getGardener(), new CreateRequestOptionsImpl())
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return GardenerCreateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void update(GardenerUpdateRequest request, StreamObserver<GardenerUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasGardener()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Gardener is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _gardenerResource.update(request.getGardener(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(GardenerUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      _gardenerResource.update(request.getGardener(),
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return GardenerUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(GardenerDeleteRequest request, StreamObserver<GardenerDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Gardener ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _gardenerResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(GardenerDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      _gardenerResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build())
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return GardenerDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+    }
+  }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, Gardener.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session)).build();
+  }
+
+  private static String getContinuationToken(GardenerQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(GardenerQueryRequest request, String continuationToken,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .build();
+  }
+
+  private GardenerQueryResponse toQueryResponse(ResourcePage<Gardener> page, List<String> fieldMask) {
+    GardenerQueryResponse.Builder responseBuilder = GardenerQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addGardener(FieldMasks.trim(fieldMask, response.getPayload()));
       }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
     }
+    return responseBuilder.build();
+  }
+
+  private GardenerBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<Gardener>>> responses,
+      List<String> fieldMask) {
+    GardenerBatchQueryResponse.Builder responseBuilder = GardenerBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      GardenerQueryResponse.Builder templateResponseBuilder = GardenerQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addGardener(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
   }
 }
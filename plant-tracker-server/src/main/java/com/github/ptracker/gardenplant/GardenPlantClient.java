@@ -15,6 +15,7 @@ import com.github.ptracker.service.GardenPlantGrpc.GardenPlantBlockingStub;
 import com.github.ptracker.service.GardenPlantQueryRequest;
 import com.github.ptracker.service.GardenPlantUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -31,14 +32,21 @@ public class GardenPlantClient implements GrpcResource.GrpcClient<String, Garden
 
   @Override
   public GardenPlant get(String key, GetRequestOptions options) {
-    GardenPlantGetRequest request = GardenPlantGetRequest.newBuilder().setId(key).build();
+    GardenPlantGetRequest.Builder requestBuilder = GardenPlantGetRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenId(options.getPartitionKey());
+    }
+    GardenPlantGetRequest request = requestBuilder.build();
     return _blockingStub.get(request).getGardenPlant();
   }
 
   @Override
   public List<GardenPlant> query(GardenPlant template, QueryRequestOptions options) {
     GardenPlantQueryRequest request = GardenPlantQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getGardenPlantList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<GardenPlant> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getGardenPlantList()));
+    return values;
   }
 
   @Override
@@ -56,7 +64,11 @@ public class GardenPlantClient implements GrpcResource.GrpcClient<String, Garden
 
   @Override
   public void delete(String key, DeleteRequestOptions options) {
-    GardenPlantDeleteRequest request = GardenPlantDeleteRequest.newBuilder().setId(key).build();
+    GardenPlantDeleteRequest.Builder requestBuilder = GardenPlantDeleteRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenId(options.getPartitionKey());
+    }
+    GardenPlantDeleteRequest request = requestBuilder.build();
     _blockingStub.delete(request);
   }
 }
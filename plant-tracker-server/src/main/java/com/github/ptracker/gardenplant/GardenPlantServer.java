@@ -1,14 +1,16 @@
 package com.github.ptracker.gardenplant;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.ptracker.entity.GardenPlant;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,10 +21,15 @@ public class GardenPlantServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "gardenPlants";
+  // the fields that templates filter on, most selective first
+  private static final List<String> INDEXED_PATHS = ImmutableList.of("gardenId", "plantId");
 
-  public GardenPlantServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION,
-        ServerBuilder.forPort(port).addService(new GardenPlantService(getCosmosResource(cosmosClient))));
+  public GardenPlantServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new GardenPlantService(getResource(resourceFactory));
   }
 
   private static void verifyGardenPlant(GardenPlant gardenPlant) {
@@ -32,12 +39,11 @@ public class GardenPlantServer extends GrpcServer {
     verifyStringFieldNotNullOrEmpty(gardenPlant.getPlantId(), GardenPlant.class.getName(), "plantId");
   }
 
-  private static Resource<String, GardenPlant> getCosmosResource(CosmosClient cosmosClient) {
+  public static AsyncResource<String, GardenPlant> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, GardenPlant> dataInterchange = new ProtoBufJsonInterchange<>(GardenPlant::newBuilder);
     Function<String, GardenPlant> valueWithIdOnlyCreator = key -> GardenPlant.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, GardenPlant> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, GardenPlantServer::verifyGardenPlant);
-    return supplier.get();
+    Function<GardenPlant, String> partitionKeyExtractor = GardenPlant::getGardenId;
+    return resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+        partitionKeyExtractor, GardenPlantServer::verifyGardenPlant, INDEXED_PATHS);
   }
 }
@@ -1,14 +1,23 @@
 package com.github.ptracker.gardenplant;
 
-import com.github.ptracker.StreamObserverConverter;
 import com.github.ptracker.entity.GardenPlant;
+import com.github.ptracker.resource.AsyncResource;
 import com.github.ptracker.resource.CreateRequestOptionsImpl;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.GardenPlantBatchGetRequest;
+import com.github.ptracker.service.GardenPlantBatchGetResponse;
+import com.github.ptracker.service.GardenPlantBatchQueryRequest;
+import com.github.ptracker.service.GardenPlantBatchQueryResponse;
 import com.github.ptracker.service.GardenPlantCreateRequest;
 import com.github.ptracker.service.GardenPlantCreateResponse;
 import com.github.ptracker.service.GardenPlantDeleteRequest;
@@ -20,113 +29,236 @@ import com.github.ptracker.service.GardenPlantQueryRequest;
 import com.github.ptracker.service.GardenPlantQueryResponse;
 import com.github.ptracker.service.GardenPlantUpdateRequest;
 import com.github.ptracker.service.GardenPlantUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.util.List;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class GardenPlantService extends GardenPlantImplBase {
-  private final Resource<String, GardenPlant> _gardenPlantResource;
+  private final AsyncResource<String, GardenPlant> _gardenPlantResource;
 
-  public GardenPlantService(Resource<String, GardenPlant> gardenPlantResource) {
+  public GardenPlantService(AsyncResource<String, GardenPlant> gardenPlantResource) {
     _gardenPlantResource = checkNotNull(gardenPlantResource, "GardenPlant Resource cannot be null");
   }
 
   @Override
   public void get(GardenPlantGetRequest request, StreamObserver<GardenPlantGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant ID is missing")));
     } else {
-      // TODO: add metadata
-      GardenPlantQueryRequest gardenPlantQueryRequest =
-          GardenPlantQueryRequest.newBuilder().setTemplate(GardenPlant.newBuilder().setId(request.getId())).build();
-      query(gardenPlantQueryRequest, new StreamObserverConverter<>(responseObserver, gardenPlantQueryResponse -> {
-        GardenPlant gardenPlant = Iterables.getOnlyElement(gardenPlantQueryResponse.getGardenPlantList());
-        responseObserver.onNext(GardenPlantGetResponse.newBuilder().setGardenPlant(gardenPlant).build());
-        }));
+      _gardenPlantResource.get(request.getId(), getGetRequestOptions(fieldMask, request.getGardenId(), session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return GardenPlantGetResponse.newBuilder()
+                .setGardenPlant(FieldMasks.trim(fieldMask, getResponse.getPayload()))
+                .build();
+          }));
     }
   }
 
   @Override
   public void query(GardenPlantQueryRequest request, StreamObserver<GardenPlantQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _gardenPlantResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<GardenPlant>> responses =
-          _gardenPlantResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      GardenPlantQueryResponse.Builder responseBuilder = GardenPlantQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addGardenPlant(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _gardenPlantResource.query(request.getTemplate(), getQueryRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            GardenPlantQueryResponse.Builder responseBuilder = GardenPlantQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addGardenPlant(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
     }
   }
 
+  @Override
+  public void streamQuery(GardenPlantQueryRequest request, StreamObserver<GardenPlantQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _gardenPlantResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(GardenPlantBatchGetRequest request,
+      StreamObserver<GardenPlantBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant ID is missing")));
+    } else {
+      _gardenPlantResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            GardenPlantBatchGetResponse.Builder responseBuilder = GardenPlantBatchGetResponse.newBuilder();
+            for (ResourceResponse<GardenPlant> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addGardenPlant(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void batchQuery(GardenPlantBatchQueryRequest request,
+      StreamObserver<GardenPlantBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    _gardenPlantResource.batchQuery(request.getTemplateList(), getQueryRequestOptions(fieldMask, session))
+        .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
+  }
+
   @Override
   public void create(GardenPlantCreateRequest request, StreamObserver<GardenPlantCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasGardenPlant()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant is missing")));
     } else {
-      ResourceResponse<Void> createResponse =
-          _gardenPlantResource.create(request.getGardenPlant(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(GardenPlantCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      _gardenPlantResource.create(request.getGardenPlant(), new CreateRequestOptionsImpl())
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return GardenPlantCreateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void update(GardenPlantUpdateRequest request, StreamObserver<GardenPlantUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasGardenPlant()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _gardenPlantResource.update(request.getGardenPlant(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(GardenPlantUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      _gardenPlantResource.update(request.getGardenPlant(),
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return GardenPlantUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(GardenPlantDeleteRequest request, StreamObserver<GardenPlantDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("GardenPlant ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _gardenPlantResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(GardenPlantDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      _gardenPlantResource.delete(request.getId(),
+          new DeleteRequestOptionsImpl.Builder().partitionKey(request.getGardenId()).build())
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return GardenPlantDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+    }
+  }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, GardenPlant.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  /**
+   * @param partitionKey the partition of the GardenPlant, or empty if the caller did not say.
+   */
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, String partitionKey,
+      StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask)
+        .partitionKey(partitionKey)
+        .metadata(session.getMetadata())
+        .build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session)).build();
+  }
+
+  private static String getContinuationToken(GardenPlantQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(GardenPlantQueryRequest request, String continuationToken,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .build();
+  }
+
+  private GardenPlantQueryResponse toQueryResponse(ResourcePage<GardenPlant> page, List<String> fieldMask) {
+    GardenPlantQueryResponse.Builder responseBuilder = GardenPlantQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addGardenPlant(FieldMasks.trim(fieldMask, response.getPayload()));
       }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
     }
+    return responseBuilder.build();
+  }
+
+  private GardenPlantBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<GardenPlant>>> responses,
+      List<String> fieldMask) {
+    GardenPlantBatchQueryResponse.Builder responseBuilder = GardenPlantBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      GardenPlantQueryResponse.Builder templateResponseBuilder = GardenPlantQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addGardenPlant(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
   }
 }
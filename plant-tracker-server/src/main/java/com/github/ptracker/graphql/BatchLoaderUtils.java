@@ -0,0 +1,104 @@
+package com.github.ptracker.graphql;
+
+import com.google.protobuf.FieldMask;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.dataloader.BatchLoaderEnvironment;
+
+
+/**
+ * Lines the results of batch RPCs up with the keys that were requested, which is the contract of a
+ * {@link org.dataloader.BatchLoader}.
+ */
+public class BatchLoaderUtils {
+
+  /**
+   * @return the value with each key, or {@code null} for keys that were not found.
+   */
+  public static <KEY_TYPE, VALUE_TYPE> List<VALUE_TYPE> alignByKey(List<KEY_TYPE> keys, List<VALUE_TYPE> values,
+      Function<VALUE_TYPE, KEY_TYPE> keyExtractor) {
+    Map<KEY_TYPE, VALUE_TYPE> valuesByKey = new HashMap<>(values.size());
+    values.forEach(value -> valuesByKey.put(keyExtractor.apply(value), value));
+    return keys.stream().map(valuesByKey::get).collect(Collectors.toList());
+  }
+
+  /**
+   * @return the values in each (positional) response, or {@code null} for responses that had none.
+   */
+  public static <RESPONSE_TYPE, VALUE_TYPE> List<List<VALUE_TYPE>> alignByPosition(List<RESPONSE_TYPE> responses,
+      Function<RESPONSE_TYPE, List<VALUE_TYPE>> valuesExtractor) {
+    return responses.stream().map(response -> {
+      List<VALUE_TYPE> values = valuesExtractor.apply(response);
+      return values.isEmpty() ? null : values;
+    }).collect(Collectors.toList());
+  }
+
+  /**
+   * Loads the keys of each group (e.g. the keys that were loaded with the same arguments) with a call of their own,
+   * since one call can only have one set of arguments.
+   * @param loader loads the keys of a group, in the order of the keys.
+   * @return the values of all the keys, in the order of the keys.
+   */
+  public static <KEY_TYPE, GROUP_TYPE, VALUE_TYPE> CompletableFuture<List<VALUE_TYPE>> loadByGroup(
+      List<KEY_TYPE> keys, Function<KEY_TYPE, GROUP_TYPE> grouper,
+      BiFunction<GROUP_TYPE, List<KEY_TYPE>, CompletableFuture<List<VALUE_TYPE>>> loader) {
+    Map<GROUP_TYPE, List<Integer>> indexesByGroup = new LinkedHashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      indexesByGroup.computeIfAbsent(grouper.apply(keys.get(i)), ignored -> new ArrayList<>()).add(i);
+    }
+    if (indexesByGroup.size() == 1) {
+      return loader.apply(indexesByGroup.keySet().iterator().next(), keys);
+    }
+    List<VALUE_TYPE> values = new ArrayList<>(Collections.nCopies(keys.size(), null));
+    List<CompletableFuture<Void>> futures = new ArrayList<>(indexesByGroup.size());
+    indexesByGroup.forEach((group, indexes) -> {
+      List<KEY_TYPE> groupKeys = indexes.stream().map(keys::get).collect(Collectors.toList());
+      futures.add(loader.apply(group, groupKeys).thenAccept(groupValues -> {
+        for (int i = 0; i < indexes.size(); i++) {
+          values.set(indexes.get(i), groupValues.get(i));
+        }
+      }));
+    });
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> values);
+  }
+
+  /**
+   * Loads each key with a call of its own, e.g. a paged query, which a batch call has no way to resume.
+   * @return the values of all the keys, in the order of the keys.
+   */
+  public static <KEY_TYPE, VALUE_TYPE> CompletableFuture<List<VALUE_TYPE>> loadEach(List<KEY_TYPE> keys,
+      Function<KEY_TYPE, CompletableFuture<VALUE_TYPE>> loader) {
+    List<CompletableFuture<VALUE_TYPE>> futures = keys.stream().map(loader).collect(Collectors.toList());
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+  }
+
+  /**
+   * @return the union of the field masks that the keys were loaded with, or an empty mask (all fields) if any key was
+   * loaded without one.
+   */
+  public static FieldMask mergeFieldMasks(BatchLoaderEnvironment environment) {
+    Set<String> paths = new LinkedHashSet<>();
+    for (Object keyContext : environment.getKeyContextsList()) {
+      if (!(keyContext instanceof FieldMask) || ((FieldMask) keyContext).getPathsCount() == 0) {
+        return FieldMask.getDefaultInstance();
+      }
+      paths.addAll(((FieldMask) keyContext).getPathsList());
+    }
+    return FieldMask.newBuilder().addAllPaths(paths).build();
+  }
+
+  private BatchLoaderUtils() {
+
+  }
+}
@@ -0,0 +1,32 @@
+package com.github.ptracker.graphql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Remembers the parsed and validated document of each query text, so that a query that was seen before is executed
+ * right away. Clients send the same few operations over and over, which makes parsing and validating them again
+ * wasted work.
+ */
+class CachingPreparsedDocumentProvider implements PreparsedDocumentProvider {
+  private final Cache<String, PreparsedDocumentEntry> _documentsByQuery;
+
+  CachingPreparsedDocumentProvider(long maxCachedDocuments) {
+    checkArgument(maxCachedDocuments > 0, "Max cached documents should be > 0");
+    _documentsByQuery = CacheBuilder.newBuilder().maximumSize(maxCachedDocuments).build();
+  }
+
+  @Override
+  public PreparsedDocumentEntry getDocument(ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+    return _documentsByQuery.asMap()
+        .computeIfAbsent(executionInput.getQuery(), query -> parseAndValidateFunction.apply(executionInput));
+  }
+}
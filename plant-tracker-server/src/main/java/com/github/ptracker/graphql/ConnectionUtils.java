@@ -0,0 +1,50 @@
+package com.github.ptracker.graphql;
+
+import com.github.ptracker.service.PageInfo;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Maps the arguments of (Relay style) connection fields onto paged queries, and their continuation tokens back onto
+ * cursors. A cursor is the continuation token of the storage, so a page is one read from the storage however far into
+ * the list it is. Only the endCursor of a page resumes it, so its edges have no cursors of their own.
+ */
+public class ConnectionUtils {
+  public static final int DEFAULT_PAGE_SIZE = 20;
+  public static final int MAX_PAGE_SIZE = 100;
+
+  /**
+   * Operations that ask for a page size that is not valid are rejected before they are executed (see
+   * {@link QueryCostInstrumentation}), so that a client is told what it did wrong.
+   *
+   * @param first the {@code first} argument of a connection, or 0 if it was not given.
+   */
+  public static boolean isValidPageSize(long first) {
+    return first >= 0 && first <= MAX_PAGE_SIZE;
+  }
+
+  /**
+   * @param first the {@code first} argument of a connection, or 0 if it was not given.
+   * @return the limit of the query of the page.
+   */
+  public static int getPageSize(int first) {
+    checkArgument(isValidPageSize(first), "first should be between 0 and %s", MAX_PAGE_SIZE);
+    return first == 0 ? DEFAULT_PAGE_SIZE : first;
+  }
+
+  /**
+   * @param continuationToken the continuation token of the query of the page, or empty if it was the last page.
+   */
+  public static PageInfo toPageInfo(String continuationToken) {
+    checkNotNull(continuationToken, "Continuation token cannot be null");
+    return PageInfo.newBuilder()
+        .setHasNextPage(!continuationToken.isEmpty())
+        .setEndCursor(continuationToken)
+        .build();
+  }
+
+  private ConnectionUtils() {
+
+  }
+}
@@ -16,8 +16,8 @@ class DataLoaderModule extends AbstractModule {
   }
 
   @Provides
-  DataLoaderRegistry dataLoaderRegistry() {
-    DataLoaderRegistry registry = new DataLoaderRegistry();
+  DataLoaderRegistry dataLoaderRegistry(GraphQLMetrics metrics) {
+    DataLoaderRegistry registry = new LatencyRecordingDataLoaderRegistry(metrics);
     _graphQLModuleProvider.registerDataLoaders(registry);
     return registry;
   }
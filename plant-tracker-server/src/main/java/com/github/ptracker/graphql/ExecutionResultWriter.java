@@ -0,0 +1,110 @@
+package com.github.ptracker.graphql;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Writes execution results as JSON to the response as it walks them, rather than building the specification's map of
+ * the result and a string of it first, so that a large result is not held again while it is sent. The generator
+ * encodes into buffers that Jackson recycles across requests on the same thread, and the response is gzipped if the
+ * client accepts it.
+ */
+final class ExecutionResultWriter {
+  private static final String GZIP_ENCODING = "gzip";
+  private static final int GZIP_BUFFER_SIZE = 8192;
+
+  private final ObjectMapper _objectMapper;
+
+  /**
+   * @param objectMapper writes the values that are not maps, lists or JSON scalars, e.g. the extensions of errors.
+   */
+  ExecutionResultWriter(ObjectMapper objectMapper) {
+    _objectMapper = checkNotNull(objectMapper, "ObjectMapper cannot be null");
+  }
+
+  void write(ExecutionResult executionResult, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.addHeader("Vary", "Accept-Encoding");
+    boolean gzip = acceptsGzip(req);
+    if (gzip) {
+      resp.setHeader("Content-Encoding", GZIP_ENCODING);
+    }
+    OutputStream out = gzip ? new GZIPOutputStream(resp.getOutputStream(), GZIP_BUFFER_SIZE)
+        : resp.getOutputStream();
+    try (JsonGenerator generator = _objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      write(executionResult, generator);
+    }
+  }
+
+  // the same fields as ExecutionResult.toSpecification(), in the same order
+  private void write(ExecutionResult executionResult, JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    List<GraphQLError> errors = executionResult.getErrors();
+    if (!errors.isEmpty()) {
+      generator.writeArrayFieldStart("errors");
+      for (GraphQLError error : errors) {
+        writeValue(error.toSpecification(), generator);
+      }
+      generator.writeEndArray();
+    }
+    if (executionResult.isDataPresent()) {
+      generator.writeFieldName("data");
+      writeValue(executionResult.getData(), generator);
+    }
+    if (executionResult.getExtensions() != null) {
+      generator.writeFieldName("extensions");
+      writeValue(executionResult.getExtensions(), generator);
+    }
+    generator.writeEndObject();
+  }
+
+  private void writeValue(Object value, JsonGenerator generator) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Map) {
+      generator.writeStartObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        generator.writeFieldName(String.valueOf(entry.getKey()));
+        writeValue(entry.getValue(), generator);
+      }
+      generator.writeEndObject();
+    } else if (value instanceof Iterable) {
+      generator.writeStartArray();
+      for (Object element : (Iterable<?>) value) {
+        writeValue(element, generator);
+      }
+      generator.writeEndArray();
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else if (value instanceof Integer || value instanceof Long) {
+      generator.writeNumber(((Number) value).longValue());
+    } else if (value instanceof Double) {
+      generator.writeNumber((Double) value);
+    } else {
+      // e.g. other numbers, enums and arrays, which are rare in results
+      _objectMapper.writeValue(generator, value);
+    }
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest req) {
+    String acceptEncoding = req.getHeader("Accept-Encoding");
+    return acceptEncoding != null && acceptEncoding.toLowerCase().contains(GZIP_ENCODING);
+  }
+}
@@ -0,0 +1,33 @@
+package com.github.ptracker.graphql;
+
+import com.github.ptracker.util.Histogram;
+import graphql.execution.ExecutionStepInfo;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Records how long each field takes to fetch, until its (possibly asynchronous) value is available. Unlike
+ * {@link graphql.execution.instrumentation.tracing.TracingInstrumentation} nothing is kept per request.
+ */
+class FieldLatencyInstrumentation extends SimpleInstrumentation {
+  private final GraphQLMetrics _metrics;
+
+  FieldLatencyInstrumentation(GraphQLMetrics metrics) {
+    _metrics = checkNotNull(metrics, "GraphQLMetrics cannot be null");
+  }
+
+  @Override
+  public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters) {
+    ExecutionStepInfo stepInfo = parameters.getExecutionStepInfo();
+    Histogram histogram =
+        _metrics.getFieldLatencyHistogram(stepInfo.getFieldContainer(), stepInfo.getFieldDefinition());
+    long startNanos = System.nanoTime();
+    return SimpleInstrumentationContext.whenCompleted(
+        (result, throwable) -> histogram.record(System.nanoTime() - startNanos));
+  }
+}
@@ -0,0 +1,102 @@
+package com.github.ptracker.graphql;
+
+import com.github.ptracker.util.Histogram;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLObjectType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Singleton;
+
+
+/**
+ * Latencies of the field fetches and data loader batches of all the GraphQL requests served, along with the sizes of
+ * the lists that fields return and the estimated costs of the operations. Histograms are created the first time a
+ * field or data loader is seen and are looked up by schema object afterwards, so recording does not allocate.
+ */
+@Singleton
+class GraphQLMetrics {
+  private final Map<GraphQLObjectType, Map<GraphQLFieldDefinition, Histogram>> _fieldLatencies =
+      new ConcurrentHashMap<>();
+  private final Map<String, Histogram> _dataLoaderLatencies = new ConcurrentHashMap<>();
+  private final Map<GraphQLFieldsContainer, Map<GraphQLFieldDefinition, Histogram>> _listSizes =
+      new ConcurrentHashMap<>();
+  private final Histogram _queryCosts = new Histogram();
+  private final LongAdder _rejectedQueries = new LongAdder();
+
+  Histogram getFieldLatencyHistogram(GraphQLObjectType parentType, GraphQLFieldDefinition field) {
+    return _fieldLatencies.computeIfAbsent(parentType, type -> new ConcurrentHashMap<>())
+        .computeIfAbsent(field, definition -> new Histogram());
+  }
+
+  Histogram getDataLoaderLatencyHistogram(String dataLoaderName) {
+    return _dataLoaderLatencies.computeIfAbsent(dataLoaderName, name -> new Histogram());
+  }
+
+  Histogram getListSizeHistogram(GraphQLFieldsContainer parentType, GraphQLFieldDefinition field) {
+    return _listSizes.computeIfAbsent(parentType, type -> new ConcurrentHashMap<>())
+        .computeIfAbsent(field, definition -> new Histogram());
+  }
+
+  Histogram getQueryCostHistogram() {
+    return _queryCosts;
+  }
+
+  void recordRejectedQuery() {
+    _rejectedQueries.increment();
+  }
+
+  /**
+   * @return a summary of every histogram (latencies in milliseconds), by {@code Type.field} and by data loader name,
+   * and of the operations.
+   */
+  Map<String, Object> getSnapshot() {
+    Map<String, Object> fields = new TreeMap<>();
+    _fieldLatencies.forEach((parentType, histograms) -> histograms.forEach(
+        (field, histogram) -> fields.put(parentType.getName() + "." + field.getName(), summarize(histogram))));
+    Map<String, Object> dataLoaders = new TreeMap<>();
+    _dataLoaderLatencies.forEach((name, histogram) -> dataLoaders.put(name, summarize(histogram)));
+    Map<String, Object> listSizes = new TreeMap<>();
+    _listSizes.forEach((parentType, histograms) -> histograms.forEach((field, histogram) -> listSizes.put(
+        parentType.getName() + "." + field.getName(), summarizeValues(histogram))));
+    Map<String, Object> queries = new LinkedHashMap<>();
+    queries.put("cost", summarizeValues(_queryCosts));
+    queries.put("rejected", _rejectedQueries.sum());
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("fields", fields);
+    snapshot.put("dataLoaders", dataLoaders);
+    snapshot.put("listSizes", listSizes);
+    snapshot.put("queries", queries);
+    return snapshot;
+  }
+
+  private static Map<String, Object> summarize(Histogram histogram) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("count", histogram.getCount());
+    summary.put("meanMs", toMillis(histogram.getMean()));
+    summary.put("p50Ms", toMillis(histogram.getValueAtPercentile(50)));
+    summary.put("p90Ms", toMillis(histogram.getValueAtPercentile(90)));
+    summary.put("p99Ms", toMillis(histogram.getValueAtPercentile(99)));
+    summary.put("maxMs", toMillis(histogram.getMax()));
+    return summary;
+  }
+
+  private static Map<String, Object> summarizeValues(Histogram histogram) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("count", histogram.getCount());
+    summary.put("mean", histogram.getMean());
+    summary.put("p50", histogram.getValueAtPercentile(50));
+    summary.put("p90", histogram.getValueAtPercentile(90));
+    summary.put("p99", histogram.getValueAtPercentile(99));
+    summary.put("max", histogram.getMax());
+    return summary;
+  }
+
+  private static double toMillis(double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
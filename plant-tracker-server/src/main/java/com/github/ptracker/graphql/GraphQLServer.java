@@ -1,6 +1,7 @@
 package com.github.ptracker.graphql;
 
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.resource.CosmosMetrics;
 import com.github.ptracker.service.StartStopService;
 import com.google.api.graphql.rejoiner.SchemaProviderModule;
 import com.google.inject.Guice;
@@ -13,9 +14,12 @@ import java.io.IOException;
 import java.util.EnumSet;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.resource.PathResource;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,15 +33,39 @@ public class GraphQLServer implements StartStopService {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GraphQLServer.class);
 
+  private static final int THREAD_IDLE_TIMEOUT_MS = 60000;
+
   private final Server _server;
   private final int _port;
 
   public GraphQLServer(int port, GraphQLModuleProvider moduleProvider, String staticResourcesPath) {
+    this(port, moduleProvider, staticResourcesPath, new CosmosMetrics.Builder().build());
+  }
+
+  public GraphQLServer(int port, GraphQLModuleProvider moduleProvider, String staticResourcesPath,
+      CosmosMetrics storageMetrics) {
+    this(port, moduleProvider, staticResourcesPath, storageMetrics, new GraphQLServerLimits.Builder().build());
+  }
+
+  /**
+   * @param storageMetrics the metrics of the storage this process uses, which are served on the admin endpoint.
+   * @param limits the threads, queue and request timeout of the server.
+   */
+  public GraphQLServer(int port, GraphQLModuleProvider moduleProvider, String staticResourcesPath,
+      CosmosMetrics storageMetrics, GraphQLServerLimits limits) {
     checkArgument(port > 0, "Port should be > 0");
     checkNotNull(moduleProvider, "GraphQLModuleProvider cannot be null");
+    checkNotNull(storageMetrics, "CosmosMetrics cannot be null");
+    checkNotNull(limits, "GraphQLServerLimits cannot be null");
 
     _port = port;
-    _server = new Server(port);
+    QueuedThreadPool threadPool = new QueuedThreadPool(limits.getMaxThreads(), limits.getMinThreads(),
+        THREAD_IDLE_TIMEOUT_MS, new BlockingArrayQueue<>(limits.getMaxQueuedRequests()));
+    threadPool.setName("graphql");
+    _server = new Server(threadPool);
+    ServerConnector connector = new ServerConnector(_server);
+    connector.setPort(port);
+    _server.addConnector(connector);
     ServletContextHandler context = new ServletContextHandler(_server, "/", SESSIONS);
     context.addEventListener(new GuiceServletContextListener() {
       @Override
@@ -46,6 +74,10 @@ public class GraphQLServer implements StartStopService {
                                       @Override
                                       protected void configureServlets() {
                                         serve("/graphql").with(GraphQLServlet.class);
+                                        serve("/admin/metrics").with(MetricsServlet.class);
+                                        serve("/admin/storage-metrics").with(StorageMetricsServlet.class);
+                                        bind(CosmosMetrics.class).toInstance(storageMetrics);
+                                        bind(GraphQLServerLimits.class).toInstance(limits);
                                       }
                                     }, new DataLoaderModule(moduleProvider),
             // Part of Rejoiner framework (Provides `@Schema// GraphQLSchema`)
@@ -0,0 +1,164 @@
+package com.github.ptracker.graphql;
+
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * How much the GraphQL server takes on at once. Requests are executed asynchronously, so a thread is only held while
+ * a request is read, planned or written, not while it waits for the services; the threads bound how many of those
+ * happen at once. Requests that arrive while every thread is busy wait in a queue, and are turned away when it is
+ * full.
+ *
+ * The depth and cost of each operation are limited as well, since a query can follow the cycles of the schema (e.g.
+ * watering events to their gardener to the gardener's watering events) and fan out to many service calls.
+ */
+public class GraphQLServerLimits {
+  // the threads that are kept however idle the server is
+  private static final int MIN_THREADS = 8;
+
+  private final int _maxThreads;
+  private final int _maxQueuedRequests;
+  private final Duration _requestTimeout;
+  private final int _maxQueryDepth;
+  private final long _maxQueryCost;
+  private final Map<String, Integer> _fieldWeights;
+  private final Map<String, Integer> _maxListSizes;
+
+  private GraphQLServerLimits(int maxThreads, int maxQueuedRequests, Duration requestTimeout, int maxQueryDepth,
+      long maxQueryCost, Map<String, Integer> fieldWeights, Map<String, Integer> maxListSizes) {
+    _maxThreads = maxThreads;
+    _maxQueuedRequests = maxQueuedRequests;
+    _requestTimeout = requestTimeout;
+    _maxQueryDepth = maxQueryDepth;
+    _maxQueryCost = maxQueryCost;
+    _fieldWeights = fieldWeights;
+    _maxListSizes = maxListSizes;
+  }
+
+  public int getMinThreads() {
+    return Math.min(MIN_THREADS, _maxThreads);
+  }
+
+  public int getMaxThreads() {
+    return _maxThreads;
+  }
+
+  public int getMaxQueuedRequests() {
+    return _maxQueuedRequests;
+  }
+
+  /**
+   * @return how long a request may take before it is answered with an error, whatever is still outstanding.
+   */
+  public Duration getRequestTimeout() {
+    return _requestTimeout;
+  }
+
+  /**
+   * @return how deeply the fields of an operation may be nested, e.g. 2 for {@code { getPlant { name } }}.
+   */
+  public int getMaxQueryDepth() {
+    return _maxQueryDepth;
+  }
+
+  /**
+   * @return the most that an operation may cost, as estimated by {@link QueryCostInstrumentation}.
+   */
+  public long getMaxQueryCost() {
+    return _maxQueryCost;
+  }
+
+  /**
+   * @return the weights of the fields that do not have the default weight, by {@code Type.field}.
+   */
+  public Map<String, Integer> getFieldWeights() {
+    return _fieldWeights;
+  }
+
+  /**
+   * @return the most values that list fields return, by {@code Type.field}, for the fields whose most are known.
+   */
+  public Map<String, Integer> getMaxListSizes() {
+    return _maxListSizes;
+  }
+
+  public static class Builder {
+    private int _maxThreads = 200;
+    private int _maxQueuedRequests = 1000;
+    private Duration _requestTimeout = Duration.ofSeconds(30);
+    private int _maxQueryDepth = 15;
+    private long _maxQueryCost = 100000;
+    private final Map<String, Integer> _fieldWeights = new HashMap<>();
+    private final Map<String, Integer> _maxListSizes = new HashMap<>();
+
+    /**
+     * @param maxThreads includes the threads that accept connections and select on them, which Jetty takes from the
+     *                   same pool.
+     */
+    public Builder maxThreads(int maxThreads) {
+      checkArgument(maxThreads > 0, "Max threads should be > 0");
+      _maxThreads = maxThreads;
+      return this;
+    }
+
+    public Builder maxQueuedRequests(int maxQueuedRequests) {
+      checkArgument(maxQueuedRequests > 0, "Max queued requests should be > 0");
+      _maxQueuedRequests = maxQueuedRequests;
+      return this;
+    }
+
+    public Builder requestTimeout(Duration requestTimeout) {
+      checkArgument(requestTimeout != null && !requestTimeout.isNegative() && !requestTimeout.isZero(),
+          "Request timeout should be > 0");
+      _requestTimeout = requestTimeout;
+      return this;
+    }
+
+    public Builder maxQueryDepth(int maxQueryDepth) {
+      checkArgument(maxQueryDepth > 0, "Max query depth should be > 0");
+      _maxQueryDepth = maxQueryDepth;
+      return this;
+    }
+
+    public Builder maxQueryCost(long maxQueryCost) {
+      checkArgument(maxQueryCost > 0, "Max query cost should be > 0");
+      _maxQueryCost = maxQueryCost;
+      return this;
+    }
+
+    /**
+     * @param field as {@code Type.field}.
+     * @param weight what fetching the field costs, e.g. 0 for a field that is read from its parent rather than
+     *               fetched from a service.
+     */
+    public Builder fieldWeight(String field, int weight) {
+      checkNotNull(field, "Field cannot be null");
+      checkArgument(weight >= 0, "Field weight should be >= 0");
+      _fieldWeights.put(field, weight);
+      return this;
+    }
+
+    /**
+     * @param field as {@code Type.field}, of a list.
+     * @param maxSize the most values that the field returns, e.g. the plants of a garden. It is expected to return
+     *                this many when its arguments do not limit it, however few it returned so far, and no more than
+     *                this many when they do.
+     */
+    public Builder maxListSize(String field, int maxSize) {
+      checkNotNull(field, "Field cannot be null");
+      checkArgument(maxSize >= 0, "Max list size should be >= 0");
+      _maxListSizes.put(field, maxSize);
+      return this;
+    }
+
+    public GraphQLServerLimits build() {
+      return new GraphQLServerLimits(_maxThreads, _maxQueuedRequests, _requestTimeout, _maxQueryDepth, _maxQueryCost,
+          ImmutableMap.copyOf(_fieldWeights), ImmutableMap.copyOf(_maxListSizes));
+    }
+  }
+}
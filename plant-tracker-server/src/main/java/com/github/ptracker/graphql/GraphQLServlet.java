@@ -14,30 +14,37 @@
 
 package com.github.ptracker.graphql;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ptracker.service.StorageSession;
 import com.google.api.graphql.execution.GuavaListenableFutureSupport;
 import com.google.api.graphql.rejoiner.Schema;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
 import graphql.GraphQL;
+import graphql.GraphqlErrorBuilder;
 import graphql.execution.instrumentation.ChainedInstrumentation;
-import graphql.execution.instrumentation.Instrumentation;
 import graphql.execution.instrumentation.tracing.TracingInstrumentation;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
 import graphql.schema.GraphQLSchema;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -46,29 +53,79 @@ import org.dataloader.DataLoaderRegistry;
 @Singleton
 final class GraphQLServlet extends HttpServlet {
 
-  private static final Gson GSON = new GsonBuilder().serializeNulls().create();
-  private static final TypeToken<Map<String, Object>> MAP_TYPE_TOKEN =
-      new TypeToken<Map<String, Object>>() {};
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final TypeReference<Map<String, Object>> MAP_TYPE_REFERENCE =
+      new TypeReference<Map<String, Object>>() {};
+  private static final ExecutionResultWriter RESULT_WRITER =
+      new ExecutionResultWriter(OBJECT_MAPPER);
+
+  private static final long MAX_CACHED_DOCUMENTS = 1000;
+  private static final long MAX_PERSISTED_QUERIES = 1000;
+  // Apollo tracing keeps a record of every field, so it is only done for the requests that ask for it
+  private static final String TRACING_HEADER = "X-GraphQL-Tracing";
+  // the storage session of the client, which it sends back to see its writes in later requests
+  private static final String SESSION_TOKEN_HEADER = "X-Session-Token";
 
   private static final Logger logger = Logger.getLogger(GraphQLServlet.class.getName());
   @Inject @Schema GraphQLSchema schema;
   @Inject Provider<DataLoaderRegistry> registryProvider;
+  @Inject GraphQLMetrics metrics;
+  @Inject GraphQLServerLimits limits;
+
+  // the engines are stateless across requests, so they are built once and share their document cache
+  private GraphQL graphql;
+  private GraphQL tracingGraphql;
+  private final PersistedQueries persistedQueries = new PersistedQueries(MAX_PERSISTED_QUERIES);
+
+  @Override
+  public void init() {
+    QueryCostInstrumentation queryCostInstrumentation = new QueryCostInstrumentation(metrics, limits);
+    PreparsedDocumentProvider documentProvider =
+        new CachingPreparsedDocumentProvider(MAX_CACHED_DOCUMENTS);
+    graphql =
+        GraphQL.newGraphQL(schema)
+            .instrumentation(
+                new ChainedInstrumentation(
+                    Arrays.asList(
+                        GuavaListenableFutureSupport.listenableFutureInstrumentation(),
+                        new FieldLatencyInstrumentation(metrics),
+                        queryCostInstrumentation)))
+            .preparsedDocumentProvider(documentProvider)
+            .build();
+    tracingGraphql =
+        GraphQL.newGraphQL(schema)
+            .instrumentation(
+                new ChainedInstrumentation(
+                    Arrays.asList(
+                        GuavaListenableFutureSupport.listenableFutureInstrumentation(),
+                        new FieldLatencyInstrumentation(metrics),
+                        queryCostInstrumentation,
+                        new TracingInstrumentation())))
+            .preparsedDocumentProvider(documentProvider)
+            .build();
+  }
 
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
 
     DataLoaderRegistry dataLoaderRegistry = registryProvider.get();
-    Instrumentation instrumentation =
-        new ChainedInstrumentation(
-            Arrays.asList(
-                GuavaListenableFutureSupport.listenableFutureInstrumentation(),
-                new TracingInstrumentation()));
-    GraphQL graphql = GraphQL.newGraphQL(schema).instrumentation(instrumentation).build();
 
     Map<String, Object> json = readJson(req);
-    String query = (String) json.get("query");
+    String persistedQueryHash = getPersistedQueryHash(json);
+    String query;
+    try {
+      query = persistedQueries.resolve((String) json.get("query"), persistedQueryHash);
+    } catch (IllegalArgumentException e) {
+      resp.sendError(400, e.getMessage());
+      return;
+    }
     if (query == null) {
-      resp.setStatus(400);
+      if (persistedQueryHash != null) {
+        // the client sends the query along with its hash once it learns that the hash is unknown
+        RESULT_WRITER.write(persistedQueryNotFound(), req, resp);
+      } else {
+        resp.setStatus(400);
+      }
       return;
     }
     String operationName = (String) json.get("operationName");
@@ -82,11 +139,84 @@ final class GraphQLServlet extends HttpServlet {
             .dataLoaderRegistry(dataLoaderRegistry)
             .context(dataLoaderRegistry)
             .build();
-    ExecutionResult executionResult = graphql.execute(executionInput);
-    resp.setContentType("application/json");
-    resp.setStatus(HttpServletResponse.SC_OK);
-    GSON.toJson(executionResult.toSpecification(), resp.getWriter());
-    logger.info("stats: " + dataLoaderRegistry.getStatistics());
+    boolean tracing = Boolean.parseBoolean(req.getHeader(TRACING_HEADER));
+    StorageSession session = new StorageSession(req.getHeader(SESSION_TOKEN_HEADER));
+
+    // the request thread goes back to the pool while the services are called, and whichever
+    // thread completes the execution (or times it out) writes the response
+    AsyncContext asyncContext = req.startAsync();
+    asyncContext.setTimeout(limits.getRequestTimeout().toMillis());
+    AtomicBoolean responded = new AtomicBoolean(false);
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onTimeout(AsyncEvent event) throws IOException {
+        if (responded.compareAndSet(false, true)) {
+          logger.warning(
+              "Timed out executing " + (operationName == null ? "an operation" : operationName));
+          resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Timed out");
+          asyncContext.complete();
+        }
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+    });
+    session.call(() -> (tracing ? tracingGraphql : graphql).executeAsync(executionInput))
+        .whenComplete((executionResult, throwable) -> {
+          if (!responded.compareAndSet(false, true)) {
+            return;
+          }
+          try {
+            if (throwable != null) {
+              logger.log(Level.WARNING, "Failed to execute a GraphQL request", throwable);
+              resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } else {
+              if (session.getSessionToken() != null) {
+                resp.setHeader(SESSION_TOKEN_HEADER, session.getSessionToken());
+              }
+              RESULT_WRITER.write(executionResult, req, resp);
+            }
+          } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to write a GraphQL response", e);
+          } finally {
+            asyncContext.complete();
+          }
+          if (logger.isLoggable(Level.FINE)) {
+            logger.fine("stats: " + dataLoaderRegistry.getStatistics());
+          }
+        });
+  }
+
+  private static ExecutionResult persistedQueryNotFound() {
+    return ExecutionResultImpl.newExecutionResult()
+        .addError(
+            GraphqlErrorBuilder.newError()
+                .message(PersistedQueries.NOT_FOUND_ERROR_MESSAGE)
+                .extensions(ImmutableMap.of("code", PersistedQueries.NOT_FOUND_ERROR_CODE))
+                .build())
+        .build();
+  }
+
+  private static String getPersistedQueryHash(Map<String, Object> json) {
+    Object extensions = json.get("extensions");
+    if (!(extensions instanceof Map)) {
+      return null;
+    }
+    Object persistedQuery = ((Map) extensions).get("persistedQuery");
+    if (!(persistedQuery instanceof Map)) {
+      return null;
+    }
+    Object sha256Hash = ((Map) persistedQuery).get("sha256Hash");
+    return sha256Hash instanceof String ? (String) sha256Hash : null;
   }
 
   private static Map<String, Object> getVariables(Object variables) {
@@ -106,11 +236,12 @@ final class GraphQLServlet extends HttpServlet {
     }
   }
 
-  private static Map<String, Object> jsonToMap(String json) {
+  private static Map<String, Object> jsonToMap(String json) throws IOException {
     if (Strings.isNullOrEmpty(json)) {
       return ImmutableMap.of();
     }
-    return Optional.<Map<String, Object>>ofNullable(GSON.fromJson(json, MAP_TYPE_TOKEN.getType()))
+    return Optional.<Map<String, Object>>ofNullable(
+            OBJECT_MAPPER.readValue(json, MAP_TYPE_REFERENCE))
         .orElse(ImmutableMap.of());
   }
 }
@@ -0,0 +1,33 @@
+package com.github.ptracker.graphql;
+
+import com.github.ptracker.util.Histogram;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Records how long each batch of each data loader takes, from its dispatch until its values are available.
+ */
+class LatencyRecordingDataLoaderRegistry extends DataLoaderRegistry {
+  private final GraphQLMetrics _metrics;
+
+  LatencyRecordingDataLoaderRegistry(GraphQLMetrics metrics) {
+    _metrics = checkNotNull(metrics, "GraphQLMetrics cannot be null");
+  }
+
+  @Override
+  public void dispatchAll() {
+    for (String name : getKeys()) {
+      DataLoader<?, ?> dataLoader = getDataLoader(name);
+      if (dataLoader.dispatchDepth() > 0) {
+        Histogram histogram = _metrics.getDataLoaderLatencyHistogram(name);
+        long startNanos = System.nanoTime();
+        dataLoader.dispatch().whenComplete((values, throwable) -> histogram.record(System.nanoTime() - startNanos));
+      } else {
+        dataLoader.dispatch();
+      }
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.github.ptracker.graphql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * Serves the latencies in {@link GraphQLMetrics} as JSON.
+ */
+@Singleton
+final class MetricsServlet extends HttpServlet {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  @Inject
+  private GraphQLMetrics _metrics;
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    resp.setContentType("application/json");
+    resp.setStatus(HttpServletResponse.SC_OK);
+    OBJECT_MAPPER.writeValue(resp.getOutputStream(), _metrics.getSnapshot());
+  }
+}
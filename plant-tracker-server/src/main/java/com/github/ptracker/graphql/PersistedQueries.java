@@ -0,0 +1,44 @@
+package com.github.ptracker.graphql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Automatic persisted queries, as sent by Apollo clients: a client sends the SHA-256 hash of a query instead of its
+ * text, and only sends the text as well when the server does not know the hash (yet).
+ */
+class PersistedQueries {
+  static final String NOT_FOUND_ERROR_MESSAGE = "PersistedQueryNotFound";
+  static final String NOT_FOUND_ERROR_CODE = "PERSISTED_QUERY_NOT_FOUND";
+
+  private final Cache<String, String> _queriesByHash;
+
+  PersistedQueries(long maxPersistedQueries) {
+    checkArgument(maxPersistedQueries > 0, "Max persisted queries should be > 0");
+    _queriesByHash = CacheBuilder.newBuilder().maximumSize(maxPersistedQueries).build();
+  }
+
+  /**
+   * @param query the query text, if the client sent it.
+   * @param sha256Hash the hash of the query, if the client sent it.
+   * @return the query to execute or {@code null} if the client only sent a hash that is not known.
+   * @throws IllegalArgumentException if the hash is not the hash of the query.
+   */
+  String resolve(String query, String sha256Hash) {
+    if (sha256Hash == null) {
+      return query;
+    }
+    if (query == null) {
+      return _queriesByHash.getIfPresent(sha256Hash.toLowerCase());
+    }
+    String actualHash = Hashing.sha256().hashString(query, StandardCharsets.UTF_8).toString();
+    checkArgument(actualHash.equalsIgnoreCase(sha256Hash), "Provided sha does not match query");
+    _queriesByHash.put(sha256Hash.toLowerCase(), query);
+    return query;
+  }
+}
@@ -0,0 +1,242 @@
+package com.github.ptracker.graphql;
+
+import com.github.ptracker.util.Histogram;
+import com.google.common.math.LongMath;
+import graphql.ErrorType;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.DataFetcherResult;
+import graphql.execution.ExecutionContext;
+import graphql.execution.ExecutionStepInfo;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLTypeUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Estimates what an operation costs before it is executed, and rejects it if it is nested too deeply or costs too
+ * much (see {@link GraphQLServerLimits}). The documents of operations that were seen before are not validated again,
+ * so this is done at the start of every execution rather than during validation, with the variables of the request.
+ *
+ * A field costs its weight (by default 1 for a field of objects, which is fetched from a service, and 0 for a scalar)
+ * plus what its selections cost for every value that it is expected to return. A list is expected to have as many
+ * values as the limit that the operation asks for (for the edges of a connection, on the connection, which has a
+ * default page size), since a cycle of limited lists fans out by their limits however short they were so far. A list
+ * that nothing limits is expected to have as many values as 90% of the lists that the field returned had, once enough
+ * of them are seen, and at least the default list size. Either is capped by the max list size of the field (see
+ * {@link GraphQLServerLimits}), which is expected instead of the observed sizes of a list that nothing limits.
+ * Introspection is free.
+ *
+ * Connections that ask for more than {@link ConnectionUtils#MAX_PAGE_SIZE} values are rejected with validation errors,
+ * since their variables are only known here too.
+ */
+class QueryCostInstrumentation extends SimpleInstrumentation {
+  // the least size of the lists that are not limited, before and after enough of them are seen
+  private static final int DEFAULT_LIST_SIZE = 10;
+  // the lists a field returned that are enough to estimate the size of its lists from
+  private static final long MIN_OBSERVED_LISTS = 100;
+  private static final double OBSERVED_LIST_SIZE_PERCENTILE = 90;
+  // the arguments (or fields of input arguments) that limit the values of a list
+  private static final List<String> LIMIT_ARGUMENTS = Arrays.asList("limit", "first", "last");
+  // the (Relay style) types of fields that page through a list
+  private static final String CONNECTION_TYPE_SUFFIX = "Connection";
+  // the argument (or field of an input argument) of a connection with the size of the page to return
+  private static final String PAGE_SIZE_ARGUMENT = "first";
+
+  private final GraphQLMetrics _metrics;
+  private final GraphQLServerLimits _limits;
+
+  QueryCostInstrumentation(GraphQLMetrics metrics, GraphQLServerLimits limits) {
+    _metrics = checkNotNull(metrics, "GraphQLMetrics cannot be null");
+    _limits = checkNotNull(limits, "GraphQLServerLimits cannot be null");
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters) {
+    ExecutionContext executionContext = parameters.getExecutionContext();
+    QueryTraverser traverser = QueryTraverser.newQueryTraverser()
+        .schema(executionContext.getGraphQLSchema())
+        .document(executionContext.getDocument())
+        .operationName(executionContext.getOperationDefinition().getName())
+        .variables(executionContext.getVariables())
+        .build();
+    CostVisitor visitor = new CostVisitor();
+    traverser.visitPostOrder(visitor);
+    if (!visitor._errors.isEmpty()) {
+      throw new AbortExecutionException(visitor._errors);
+    }
+    _metrics.getQueryCostHistogram().record(visitor._cost);
+    if (visitor._depth > _limits.getMaxQueryDepth()) {
+      _metrics.recordRejectedQuery();
+      throw new AbortExecutionException(
+          "Query depth " + visitor._depth + " exceeds the maximum of " + _limits.getMaxQueryDepth());
+    }
+    if (visitor._cost > _limits.getMaxQueryCost()) {
+      _metrics.recordRejectedQuery();
+      throw new AbortExecutionException(
+          "Query cost " + visitor._cost + " exceeds the maximum of " + _limits.getMaxQueryCost());
+    }
+    return super.beginExecuteOperation(parameters);
+  }
+
+  @Override
+  public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters) {
+    ExecutionStepInfo stepInfo = parameters.getExecutionStepInfo();
+    if (!isList(stepInfo.getFieldDefinition())) {
+      return super.beginFieldFetch(parameters);
+    }
+    Histogram histogram = _metrics.getListSizeHistogram(stepInfo.getFieldContainer(), stepInfo.getFieldDefinition());
+    return SimpleInstrumentationContext.whenCompleted((result, throwable) -> {
+      Object value = result instanceof DataFetcherResult ? ((DataFetcherResult<?>) result).getData() : result;
+      if (value instanceof List) {
+        histogram.record(((List<?>) value).size());
+      }
+    });
+  }
+
+  private long getWeight(QueryVisitorFieldEnvironment environment) {
+    GraphQLFieldDefinition field = environment.getFieldDefinition();
+    Integer weight = _limits.getFieldWeights().get(environment.getFieldsContainer().getName() + "." + field.getName());
+    if (weight != null) {
+      return weight;
+    }
+    return GraphQLTypeUtil.isLeaf(GraphQLTypeUtil.unwrapAll(field.getType())) ? 0 : 1;
+  }
+
+  private long getExpectedSize(QueryVisitorFieldEnvironment environment) {
+    GraphQLFieldDefinition field = environment.getFieldDefinition();
+    if (!isList(field)) {
+      return 1;
+    }
+    Integer maxSize = _limits.getMaxListSizes().get(environment.getFieldsContainer().getName() + "." + field.getName());
+    long limit = getLimit(environment.getArguments());
+    QueryVisitorFieldEnvironment parent = environment.getParentEnvironment();
+    if (limit == 0 && parent != null && isConnection(parent.getFieldDefinition())) {
+      // the edges of a connection are limited by the arguments of the connection, or else by its default page size
+      limit = getLimit(parent.getArguments());
+      limit = limit > 0 ? limit : ConnectionUtils.DEFAULT_PAGE_SIZE;
+    }
+    if (limit > 0) {
+      return maxSize != null ? Math.min(limit, maxSize) : limit;
+    }
+    if (maxSize != null) {
+      return maxSize;
+    }
+    Histogram histogram = _metrics.getListSizeHistogram(environment.getFieldsContainer(), field);
+    return histogram.getCount() >= MIN_OBSERVED_LISTS
+        ? Math.max(DEFAULT_LIST_SIZE, histogram.getValueAtPercentile(OBSERVED_LIST_SIZE_PERCENTILE))
+        : DEFAULT_LIST_SIZE;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static long getLimit(Map<String, Object> arguments) {
+    for (Object argument : arguments.values()) {
+      if (argument instanceof Map) {
+        long limit = getLimit((Map<String, Object>) argument);
+        if (limit > 0) {
+          return limit;
+        }
+      }
+    }
+    for (String name : LIMIT_ARGUMENTS) {
+      Object limit = arguments.get(name);
+      if (limit instanceof Number && ((Number) limit).longValue() > 0) {
+        return ((Number) limit).longValue();
+      }
+    }
+    return 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object getArgument(Map<String, Object> arguments, String name) {
+    if (arguments.containsKey(name)) {
+      return arguments.get(name);
+    }
+    for (Object argument : arguments.values()) {
+      if (argument instanceof Map) {
+        Object value = getArgument((Map<String, Object>) argument, name);
+        if (value != null) {
+          return value;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean isList(GraphQLFieldDefinition field) {
+    return GraphQLTypeUtil.isList(GraphQLTypeUtil.unwrapNonNull(field.getType()));
+  }
+
+  private static boolean isConnection(GraphQLFieldDefinition field) {
+    return GraphQLTypeUtil.unwrapAll(field.getType()).getName().endsWith(CONNECTION_TYPE_SUFFIX);
+  }
+
+  private static boolean isIntrospection(QueryVisitorFieldEnvironment environment) {
+    while (environment.getParentEnvironment() != null) {
+      environment = environment.getParentEnvironment();
+    }
+    return environment.getFieldDefinition().getName().startsWith("__");
+  }
+
+  private class CostVisitor extends QueryVisitorStub {
+    // what the selections of each field cost, which are visited before the field
+    private final Map<QueryVisitorFieldEnvironment, Long> _selectionCosts = new HashMap<>();
+    private final List<GraphQLError> _errors = new ArrayList<>();
+    private long _cost = 0;
+    private int _depth = 0;
+
+    @Override
+    public void visitField(QueryVisitorFieldEnvironment environment) {
+      if (environment.isTypeNameIntrospectionField() || isIntrospection(environment)) {
+        return;
+      }
+      validatePageSize(environment);
+      long selectionCost = _selectionCosts.getOrDefault(environment, 0L);
+      long cost = LongMath.saturatedAdd(getWeight(environment),
+          LongMath.saturatedMultiply(getExpectedSize(environment), selectionCost));
+      QueryVisitorFieldEnvironment parent = environment.getParentEnvironment();
+      if (parent == null) {
+        _cost = LongMath.saturatedAdd(_cost, cost);
+      } else {
+        _selectionCosts.merge(parent, cost, LongMath::saturatedAdd);
+      }
+      int depth = 1;
+      for (; parent != null; parent = parent.getParentEnvironment()) {
+        depth++;
+      }
+      _depth = Math.max(_depth, depth);
+    }
+
+    private void validatePageSize(QueryVisitorFieldEnvironment environment) {
+      if (!isConnection(environment.getFieldDefinition())) {
+        return;
+      }
+      Object first = getArgument(environment.getArguments(), PAGE_SIZE_ARGUMENT);
+      if (first instanceof Number && !ConnectionUtils.isValidPageSize(((Number) first).longValue())) {
+        _errors.add(GraphqlErrorBuilder.newError()
+            .message("%s of %s should be between 0 and %s, but was %s", PAGE_SIZE_ARGUMENT,
+                environment.getField().getName(), ConnectionUtils.MAX_PAGE_SIZE, first)
+            .location(environment.getField().getSourceLocation())
+            .errorType(ErrorType.ValidationError)
+            .build());
+      }
+    }
+  }
+}
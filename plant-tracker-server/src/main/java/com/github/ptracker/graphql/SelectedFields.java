@@ -0,0 +1,151 @@
+package com.github.ptracker.graphql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.FieldMask;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Works out which fields of an entity an operation selects, so that the entity can be fetched with a field mask
+ * instead of whole. The fields selected on a type anywhere in the operation are merged into one mask, so every fetch of
+ * the type within a request asks for the same fields, and the values that data loaders cache stay complete for that
+ * request. Fields under {@code @include} and {@code @skip} are always counted, which makes the masks independent of
+ * the variables, so they are worked out once per parsed operation.
+ */
+public final class SelectedFields {
+  private static final String INTROSPECTION_FIELD_PREFIX = "__";
+
+  private static final Cache<OperationDefinition, OperationFields> OPERATION_FIELDS =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  private SelectedFields() {
+  }
+
+  /**
+   * @param addedFieldDependencies the fields of the entity that each field added to its type (which is not a field of
+   *                               the entity itself) reads.
+   * @return the fields of the entity that the operation reads, or an empty mask if it needs the whole entity.
+   */
+  public static FieldMask getFieldMask(DataFetchingEnvironment environment, Descriptor descriptor,
+      Map<String, String> addedFieldDependencies) {
+    checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+    checkNotNull(descriptor, "Descriptor cannot be null");
+    checkNotNull(addedFieldDependencies, "Added field dependencies cannot be null");
+    OperationFields operationFields;
+    try {
+      operationFields = OPERATION_FIELDS.get(environment.getOperationDefinition(),
+          () -> new OperationFields(environment));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return operationFields.getFieldMask(descriptor, addedFieldDependencies);
+  }
+
+  /**
+   * @return the name of the GraphQL type that rejoiner generates for messages of {@code descriptor}.
+   */
+  private static String getTypeName(Descriptor descriptor) {
+    return descriptor.getFullName().replace('.', '_');
+  }
+
+  private static class OperationFields {
+    private final Map<String, Set<String>> _fieldsByType = new HashMap<>();
+    private final Map<Descriptor, FieldMask> _fieldMasks = new ConcurrentHashMap<>();
+
+    OperationFields(DataFetchingEnvironment environment) {
+      GraphQLSchema schema = environment.getGraphQLSchema();
+      OperationDefinition operation = environment.getOperationDefinition();
+      GraphQLType rootType;
+      switch (operation.getOperation()) {
+        case MUTATION:
+          rootType = schema.getMutationType();
+          break;
+        case SUBSCRIPTION:
+          rootType = schema.getSubscriptionType();
+          break;
+        default:
+          rootType = schema.getQueryType();
+      }
+      collect(schema, environment.getFragmentsByName(), rootType, operation.getSelectionSet(), new HashSet<>());
+    }
+
+    FieldMask getFieldMask(Descriptor descriptor, Map<String, String> addedFieldDependencies) {
+      return _fieldMasks.computeIfAbsent(descriptor, ignored -> {
+        Set<String> selectedFields = _fieldsByType.getOrDefault(getTypeName(descriptor), Collections.emptySet());
+        Map<String, String> fieldsByJsonName = new HashMap<>();
+        for (FieldDescriptor field : descriptor.getFields()) {
+          fieldsByJsonName.put(field.getJsonName(), field.getName());
+        }
+        Set<String> paths = new TreeSet<>();
+        for (String selectedField : selectedFields) {
+          String path = fieldsByJsonName.getOrDefault(selectedField, addedFieldDependencies.get(selectedField));
+          if (path == null) {
+            // the field reads something that is not declared, so only the whole entity is safe
+            return FieldMask.getDefaultInstance();
+          }
+          paths.add(path);
+        }
+        return FieldMask.newBuilder().addAllPaths(paths).build();
+      });
+    }
+
+    private void collect(GraphQLSchema schema, Map<String, FragmentDefinition> fragments, GraphQLType type,
+        SelectionSet selectionSet, Set<String> visitedFragments) {
+      if (!(type instanceof GraphQLFieldsContainer) || selectionSet == null) {
+        return;
+      }
+      GraphQLFieldsContainer fieldsContainer = (GraphQLFieldsContainer) type;
+      for (Selection<?> selection : selectionSet.getSelections()) {
+        if (selection instanceof Field) {
+          Field field = (Field) selection;
+          if (field.getName().startsWith(INTROSPECTION_FIELD_PREFIX)) {
+            continue;
+          }
+          _fieldsByType.computeIfAbsent(fieldsContainer.getName(), ignored -> new HashSet<>()).add(field.getName());
+          GraphQLFieldDefinition fieldDefinition = fieldsContainer.getFieldDefinition(field.getName());
+          if (fieldDefinition != null) {
+            collect(schema, fragments, GraphQLTypeUtil.unwrapAll(fieldDefinition.getType()), field.getSelectionSet(),
+                visitedFragments);
+          }
+        } else if (selection instanceof InlineFragment) {
+          InlineFragment inlineFragment = (InlineFragment) selection;
+          GraphQLType fragmentType = inlineFragment.getTypeCondition() == null ? type
+              : schema.getType(inlineFragment.getTypeCondition().getName());
+          collect(schema, fragments, fragmentType, inlineFragment.getSelectionSet(), visitedFragments);
+        } else if (selection instanceof FragmentSpread) {
+          FragmentDefinition fragment = fragments.get(((FragmentSpread) selection).getName());
+          // a fragment always applies to the same type, so spreading it again adds nothing
+          if (fragment != null && visitedFragments.add(fragment.getName())) {
+            collect(schema, fragments, schema.getType(fragment.getTypeCondition().getName()),
+                fragment.getSelectionSet(), visitedFragments);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.github.ptracker.graphql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.FieldMask;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.dataloader.BatchLoaderEnvironment;
+import org.dataloader.CacheMap;
+import org.dataloader.DataLoaderOptions;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * The values that a data loader has loaded, shared by the data loaders of all requests (which are otherwise created,
+ * and cached in, per request) until they expire or are invalidated by a mutation of this server. Values that are
+ * changed elsewhere are only seen once they expire.
+ *
+ * Requests select different fields of the same values, so a data loader with a shared cache loads whole values (see
+ * {@link #mergeFieldMasks(BatchLoaderEnvironment)}). Values that were not found are not shared.
+ */
+public class SharedDataLoaderCache<KEY_TYPE, VALUE_TYPE> {
+  private final Cache<KEY_TYPE, VALUE_TYPE> _values;
+  // counts invalidations, so that loads that started before one do not share the (possibly) stale values they get
+  private final AtomicLong _invalidations = new AtomicLong();
+
+  private SharedDataLoaderCache(Cache<KEY_TYPE, VALUE_TYPE> values) {
+    _values = values;
+  }
+
+  /**
+   * @return a cache that shares nothing, for data loaders that only cache per request.
+   */
+  public static <KEY_TYPE, VALUE_TYPE> SharedDataLoaderCache<KEY_TYPE, VALUE_TYPE> disabled() {
+    return new SharedDataLoaderCache<>(null);
+  }
+
+  public boolean isEnabled() {
+    return _values != null;
+  }
+
+  /**
+   * @return the options for the data loader of a request, which caches in this cache as well as its own.
+   */
+  public DataLoaderOptions newDataLoaderOptions() {
+    DataLoaderOptions options = DataLoaderOptions.newOptions();
+    if (isEnabled()) {
+      options.setCacheMap(new RequestCacheMap());
+    }
+    return options;
+  }
+
+  /**
+   * @return {@link BatchLoaderUtils#mergeFieldMasks(BatchLoaderEnvironment)}, or an empty mask (all fields) if this
+   * cache is enabled.
+   */
+  public FieldMask mergeFieldMasks(BatchLoaderEnvironment environment) {
+    return isEnabled() ? FieldMask.getDefaultInstance() : BatchLoaderUtils.mergeFieldMasks(environment);
+  }
+
+  public void invalidate(KEY_TYPE key) {
+    if (isEnabled()) {
+      _invalidations.incrementAndGet();
+      _values.invalidate(key);
+    }
+  }
+
+  /**
+   * Invalidates {@code key} once {@code mutation} completes, whether or not it succeeds, before whatever waits on it is
+   * told.
+   * @return {@code mutation}
+   */
+  public <RESULT_TYPE> ListenableFuture<RESULT_TYPE> invalidateOnCompletion(KEY_TYPE key,
+      ListenableFuture<RESULT_TYPE> mutation) {
+    if (isEnabled()) {
+      mutation.addListener(() -> invalidate(key), MoreExecutors.directExecutor());
+    }
+    return mutation;
+  }
+
+  private class RequestCacheMap implements CacheMap<KEY_TYPE, CompletableFuture<VALUE_TYPE>> {
+    private final Map<KEY_TYPE, CompletableFuture<VALUE_TYPE>> _futures = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean containsKey(KEY_TYPE key) {
+      if (_futures.containsKey(key)) {
+        return true;
+      }
+      // copied now, since the shared value may expire before the data loader gets it
+      VALUE_TYPE value = _values.getIfPresent(key);
+      if (value == null) {
+        return false;
+      }
+      _futures.putIfAbsent(key, CompletableFuture.completedFuture(value));
+      return true;
+    }
+
+    @Override
+    public CompletableFuture<VALUE_TYPE> get(KEY_TYPE key) {
+      return _futures.get(key);
+    }
+
+    @Override
+    public CacheMap<KEY_TYPE, CompletableFuture<VALUE_TYPE>> set(KEY_TYPE key, CompletableFuture<VALUE_TYPE> future) {
+      _futures.put(key, future);
+      long invalidations = _invalidations.get();
+      future.thenAccept(value -> {
+        if (value != null && _invalidations.get() == invalidations) {
+          _values.put(key, value);
+          // an invalidation between the check and the put may have missed the value
+          if (_invalidations.get() != invalidations) {
+            _values.invalidate(key);
+          }
+        }
+      });
+      return this;
+    }
+
+    @Override
+    public CacheMap<KEY_TYPE, CompletableFuture<VALUE_TYPE>> delete(KEY_TYPE key) {
+      _futures.remove(key);
+      _values.invalidate(key);
+      return this;
+    }
+
+    @Override
+    public CacheMap<KEY_TYPE, CompletableFuture<VALUE_TYPE>> clear() {
+      _futures.clear();
+      return this;
+    }
+  }
+
+  public static class Builder<KEY_TYPE, VALUE_TYPE> {
+    private long _maxSize = 10000;
+    private Duration _expireAfterWrite = Duration.ofMinutes(1);
+
+    public Builder<KEY_TYPE, VALUE_TYPE> maxSize(long maxSize) {
+      checkArgument(maxSize > 0, "Max size should be > 0");
+      _maxSize = maxSize;
+      return this;
+    }
+
+    public Builder<KEY_TYPE, VALUE_TYPE> expireAfterWrite(Duration expireAfterWrite) {
+      checkArgument(expireAfterWrite != null && !expireAfterWrite.isNegative() && !expireAfterWrite.isZero(),
+          "Expire after write should be > 0");
+      _expireAfterWrite = expireAfterWrite;
+      return this;
+    }
+
+    public SharedDataLoaderCache<KEY_TYPE, VALUE_TYPE> build() {
+      return new SharedDataLoaderCache<>(
+          CacheBuilder.newBuilder().maximumSize(_maxSize).expireAfterWrite(_expireAfterWrite).build());
+    }
+  }
+}
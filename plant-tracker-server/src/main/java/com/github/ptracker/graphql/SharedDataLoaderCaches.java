@@ -0,0 +1,46 @@
+package com.github.ptracker.graphql;
+
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * The {@link SharedDataLoaderCache}s of the data loaders that have one, by the names of the data loaders.
+ */
+public class SharedDataLoaderCaches {
+  private final Map<String, SharedDataLoaderCache<?, ?>> _caches;
+
+  private SharedDataLoaderCaches(Map<String, SharedDataLoaderCache<?, ?>> caches) {
+    _caches = caches;
+  }
+
+  /**
+   * @return the cache of the data loader, or a disabled cache if it does not have one.
+   */
+  @SuppressWarnings("unchecked")
+  public <KEY_TYPE, VALUE_TYPE> SharedDataLoaderCache<KEY_TYPE, VALUE_TYPE> get(String dataLoaderName) {
+    checkNotNull(dataLoaderName, "Data loader name cannot be null");
+    SharedDataLoaderCache<?, ?> cache = _caches.get(dataLoaderName);
+    return cache == null ? SharedDataLoaderCache.disabled() : (SharedDataLoaderCache<KEY_TYPE, VALUE_TYPE>) cache;
+  }
+
+  public static class Builder {
+    private final Map<String, SharedDataLoaderCache<?, ?>> _caches = new HashMap<>();
+
+    public Builder cache(String dataLoaderName, long maxSize, Duration expireAfterWrite) {
+      checkNotNull(dataLoaderName, "Data loader name cannot be null");
+      checkArgument(!_caches.containsKey(dataLoaderName), "Data loader %s already has a cache", dataLoaderName);
+      _caches.put(dataLoaderName,
+          new SharedDataLoaderCache.Builder<>().maxSize(maxSize).expireAfterWrite(expireAfterWrite).build());
+      return this;
+    }
+
+    public SharedDataLoaderCaches build() {
+      return new SharedDataLoaderCaches(ImmutableMap.copyOf(_caches));
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package com.github.ptracker.graphql.provider;
+
+import com.github.ptracker.careaggregate.CareAggregates;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.Garden;
+import com.github.ptracker.entity.GardenPlant;
+import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.CareAggregateBatchQueryRequest;
+import com.github.ptracker.service.CareAggregateGrpc;
+import com.github.ptracker.service.CareAggregateGrpc.CareAggregateBlockingStub;
+import com.github.ptracker.service.CareAggregateGrpc.CareAggregateFutureStub;
+import com.github.ptracker.service.CareAggregateQueryRequest;
+import com.github.ptracker.service.CareAggregateQueryResponse;
+import com.github.ptracker.service.CareAggregateRange;
+import com.github.ptracker.service.EventRange;
+import com.google.api.graphql.rejoiner.Query;
+import com.google.api.graphql.rejoiner.SchemaModification;
+import com.google.api.graphql.rejoiner.SchemaModule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import graphql.schema.DataFetchingEnvironment;
+import io.grpc.Channel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import net.javacrumbs.futureconverter.java8guava.FutureConverter;
+import org.dataloader.BatchLoaderWithContext;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
+import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
+import static com.google.common.base.Preconditions.*;
+
+
+public class CareAggregateModuleProvider implements GraphQLModuleProvider {
+  private final ClientModule _clientModule;
+  private final Module _schemaModule = new SchemaModuleImpl();
+
+  public CareAggregateModuleProvider(Channel channel) {
+    _clientModule = new ClientModule(channel);
+  }
+
+  @Override
+  public Optional<Module> getClientModule() {
+    return Optional.of(_clientModule);
+  }
+
+  @Override
+  public Optional<Module> getSchemaModule() {
+    return Optional.of(_schemaModule);
+  }
+
+  @Override
+  public void registerDataLoaders(DataLoaderRegistry registry) {
+    _clientModule.registerDataLoaders(registry);
+  }
+
+  /**
+   * @param range the granularity of the buckets, and their starts, order and number.
+   */
+  public static CompletableFuture<List<CareAggregate>> getCareAggregatesByGardenPlantId(
+      DataFetchingEnvironment environment, String gardenPlantId, CareAggregateRange range) {
+    return ClientModule.getCareAggregatesByGardenPlantId(environment, gardenPlantId, range);
+  }
+
+  /**
+   * Merges the buckets of all plants of the garden that start at the same time into one, whose id is of the garden and
+   * that has no garden plant id.
+   * @param range the granularity of the buckets, and their starts, order and number.
+   */
+  public static CompletableFuture<List<CareAggregate>> getCareAggregatesByGardenId(
+      DataFetchingEnvironment environment, String gardenId, CareAggregateRange range) {
+    checkNotNull(gardenId, "Garden ID cannot be null");
+    return GardenPlantModuleProvider.getGardenPlantsByGardenId(environment, gardenId).thenCompose(gardenPlants -> {
+      List<CompletableFuture<List<CareAggregate>>> futures = gardenPlants.stream()
+          .map(gardenPlant -> getCareAggregatesByGardenPlantId(environment, gardenPlant.getId(), range))
+          .collect(Collectors.toList());
+      return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> merge(gardenId,
+          range, futures.stream().map(CompletableFuture::join).collect(Collectors.toList())));
+    });
+  }
+
+  /**
+   * Each list has the first buckets of a plant in the order of {@code range}, so the first buckets of the merged list
+   * are all within them.
+   */
+  private static List<CareAggregate> merge(String gardenId, CareAggregateRange range,
+      List<List<CareAggregate>> bucketsOfPlants) {
+    Map<Long, CareAggregate.Builder> merged = new TreeMap<>();
+    for (List<CareAggregate> buckets : bucketsOfPlants) {
+      for (CareAggregate bucket : buckets) {
+        CareAggregate.Builder mergedBucket = merged.computeIfAbsent(bucket.getBucketStart(),
+            bucketStart -> CareAggregate.newBuilder()
+                .setId(CareAggregates.getId(gardenId, range.getGranularity(), bucketStart))
+                .setGranularity(range.getGranularity())
+                .setBucketStart(bucketStart));
+        mergedBucket.setTotalQuantityMl(mergedBucket.getTotalQuantityMl() + bucket.getTotalQuantityMl())
+            .setWateringCount(mergedBucket.getWateringCount() + bucket.getWateringCount())
+            .setLastWateringTimestamp(
+                Math.max(mergedBucket.getLastWateringTimestamp(), bucket.getLastWateringTimestamp()))
+            .setTotalQuantityMg(mergedBucket.getTotalQuantityMg() + bucket.getTotalQuantityMg())
+            .setFertilizationCount(mergedBucket.getFertilizationCount() + bucket.getFertilizationCount())
+            .setLastFertilizationTimestamp(
+                Math.max(mergedBucket.getLastFertilizationTimestamp(), bucket.getLastFertilizationTimestamp()));
+      }
+    }
+    List<CareAggregate> mergedBuckets = merged.values().stream().map(CareAggregate.Builder::build)
+        .collect(Collectors.toCollection(ArrayList::new));
+    if (EventRange.Order.NEWEST_FIRST.equals(range.getRange().getOrder())) {
+      mergedBuckets.sort(Comparator.comparingLong(CareAggregate::getBucketStart).reversed());
+    }
+    int limit = range.getRange().getLimit();
+    return limit > 0 && mergedBuckets.size() > limit ? mergedBuckets.subList(0, limit) : mergedBuckets;
+  }
+
+  private static class ClientModule extends AbstractModule {
+    private static final String GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME = "careAggregatesByGardenPlantId";
+
+    private final Channel _channel;
+
+    private CareAggregateFutureStub _futureStub;
+
+    ClientModule(Channel channel) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
+    }
+
+    @Override
+    protected void configure() {
+      bind(CareAggregateBlockingStub.class).toInstance(CareAggregateGrpc.newBlockingStub(_channel));
+      _futureStub = CareAggregateGrpc.newFutureStub(_channel);
+      bind(CareAggregateFutureStub.class).toInstance(_futureStub);
+    }
+
+    void registerDataLoaders(DataLoaderRegistry registry) {
+      verifyDataLoaderRegistryKeysUnassigned(registry, ImmutableList.of(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME));
+
+      // the keys are queries for the buckets of each garden plant
+      BatchLoaderWithContext<CareAggregateQueryRequest, List<CareAggregate>> byGardenPlantIdLoader =
+          (queries, environment) -> loadByGroup(queries,
+              query -> CareAggregateRange.newBuilder()
+                  .setGranularity(query.getGranularity())
+                  .setRange(query.getRange())
+                  .build(), this::batchQuery);
+      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byGardenPlantIdLoader));
+    }
+
+    static CompletableFuture<List<CareAggregate>> getCareAggregatesByGardenPlantId(
+        DataFetchingEnvironment environment, String gardenPlantId, CareAggregateRange range) {
+      checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      checkNotNull(range, "CareAggregateRange cannot be null");
+      CareAggregateQueryRequest query = CareAggregateQueryRequest.newBuilder()
+          .setGardenPlantId(gardenPlantId)
+          .setGranularity(range.getGranularity())
+          .setRange(range.getRange())
+          .build();
+      DataLoader<CareAggregateQueryRequest, List<CareAggregate>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query);
+    }
+
+    private CompletableFuture<List<List<CareAggregate>>> batchQuery(CareAggregateRange range,
+        List<CareAggregateQueryRequest> queries) {
+      CareAggregateBatchQueryRequest request = CareAggregateBatchQueryRequest.newBuilder()
+          .addAllGardenPlantId(
+              queries.stream().map(CareAggregateQueryRequest::getGardenPlantId).collect(Collectors.toList()))
+          .setGranularity(range.getGranularity())
+          .setRange(range.getRange())
+          .build();
+      return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+          response -> alignByPosition(response.getResponseList(), CareAggregateQueryResponse::getCareAggregateList),
+          MoreExecutors.directExecutor()));
+    }
+  }
+
+  private static class SchemaModuleImpl extends SchemaModule {
+
+    @Query("getCareAggregates")
+    ListenableFuture<CareAggregateQueryResponse> getCareAggregates(CareAggregateQueryRequest request,
+        DataFetchingEnvironment dataFetchingEnvironment) {
+      CareAggregateRange range = CareAggregateRange.newBuilder()
+          .setGranularity(request.getGranularity())
+          .setRange(request.getRange())
+          .build();
+      return Futures.transform(FutureConverter.toListenableFuture(
+          ClientModule.getCareAggregatesByGardenPlantId(dataFetchingEnvironment, request.getGardenPlantId(), range)),
+          careAggregates -> CareAggregateQueryResponse.newBuilder().addAllCareAggregate(careAggregates).build(),
+          MoreExecutors.directExecutor());
+    }
+
+    @SchemaModification(addField = "careAggregates", onType = GardenPlant.class)
+    ListenableFuture<List<CareAggregate>> gardenPlantToCareAggregates(GardenPlant gardenPlant,
+        CareAggregateRange range, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          getCareAggregatesByGardenPlantId(environment, gardenPlant.getId(), range));
+    }
+
+    @SchemaModification(addField = "careAggregates", onType = Garden.class)
+    ListenableFuture<List<CareAggregate>> gardenToCareAggregates(Garden garden, CareAggregateRange range,
+        DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(getCareAggregatesByGardenId(environment, garden.getId(), range));
+    }
+  }
+}
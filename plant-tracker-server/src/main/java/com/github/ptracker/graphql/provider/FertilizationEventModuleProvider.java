@@ -3,13 +3,18 @@ package com.github.ptracker.graphql.provider;
 import com.github.ptracker.common.EventMetadata;
 import com.github.ptracker.entity.FertilizationEvent;
 import com.github.ptracker.entity.GardenPlant;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.EventPageRequest;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.FertilizationEventBatchGetRequest;
+import com.github.ptracker.service.FertilizationEventBatchQueryRequest;
+import com.github.ptracker.service.FertilizationEventConnection;
 import com.github.ptracker.service.FertilizationEventCreateRequest;
 import com.github.ptracker.service.FertilizationEventDeleteRequest;
 import com.github.ptracker.service.FertilizationEventDeleteResponse;
+import com.github.ptracker.service.FertilizationEventEdge;
 import com.github.ptracker.service.FertilizationEventGetRequest;
-import com.github.ptracker.service.FertilizationEventGetResponse;
 import com.github.ptracker.service.FertilizationEventGrpc;
 import com.github.ptracker.service.FertilizationEventGrpc.FertilizationEventBlockingStub;
 import com.github.ptracker.service.FertilizationEventGrpc.FertilizationEventFutureStub;
@@ -17,39 +22,51 @@ import com.github.ptracker.service.FertilizationEventQueryRequest;
 import com.github.ptracker.service.FertilizationEventQueryResponse;
 import com.github.ptracker.service.FertilizationEventUpdateRequest;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
+import static com.github.ptracker.graphql.ConnectionUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class FertilizationEventModuleProvider implements GraphQLModuleProvider {
+  // the fields of FertilizationEvent that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.of("gardenPlant", "gardenPlantId");
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
 
-  public FertilizationEventModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public FertilizationEventModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    _clientModule = new ClientModule(channel);
+    _schemaModule = new SchemaModuleImpl(idGenerator);
   }
 
   @Override
@@ -67,122 +84,197 @@ public class FertilizationEventModuleProvider implements GraphQLModuleProvider {
     _clientModule.registerDataLoaders(registry);
   }
 
+  /**
+   * @param range the timestamps, order and number of the events to return.
+   */
   public static CompletableFuture<List<FertilizationEvent>> getFertilizationEventsByGardenPlantId(
-      DataFetchingEnvironment environment, String gardenPlantId) {
-    return ClientModule.getFertilizationEventsByGardenPlantId(environment, gardenPlantId);
+      DataFetchingEnvironment environment, String gardenPlantId, EventRange range) {
+    return ClientModule.getFertilizationEventsByGardenPlantId(environment, gardenPlantId, range);
   }
 
+  /**
+   * @param range the timestamps, order and number of the events to return.
+   */
   public static CompletableFuture<List<FertilizationEvent>> getFertilizationEventsByGardenerId(
-      DataFetchingEnvironment environment, String gardenerId) {
-    checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-    checkNotNull(gardenerId, "FertilizationEvent ID cannot be null");
-    return ClientModule.getFertilizationEventsByGardenerId(environment, gardenerId);
+      DataFetchingEnvironment environment, String gardenerId, EventRange range) {
+    return ClientModule.getFertilizationEventsByGardenerId(environment, gardenerId, range);
+  }
+
+  /**
+   * @param page the number of the events to return, the cursor to return them after and their range.
+   */
+  public static CompletableFuture<FertilizationEventConnection> getFertilizationEventPageByGardenPlantId(
+      DataFetchingEnvironment environment, String gardenPlantId, EventPageRequest page) {
+    return ClientModule.getFertilizationEventPageByGardenPlantId(environment, gardenPlantId, page);
+  }
+
+  /**
+   * @param page the number of the events to return, the cursor to return them after and their range.
+   */
+  public static CompletableFuture<FertilizationEventConnection> getFertilizationEventPageByGardenerId(
+      DataFetchingEnvironment environment, String gardenerId, EventPageRequest page) {
+    return ClientModule.getFertilizationEventPageByGardenerId(environment, gardenerId, page);
   }
 
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "fertilizationEvents";
     private static final String GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME = "fertilizationEventsByGardenPlantId";
     private static final String GET_BY_GARDENER_ID_DATA_LOADER_NAME = "fertilizationEventsByGardenerId";
+    private static final String GET_PAGE_DATA_LOADER_NAME = "fertilizationEventPages";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
 
     private FertilizationEventFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(FertilizationEventBlockingStub.class).toInstance(FertilizationEventGrpc.newBlockingStub(channel));
-      _futureStub = FertilizationEventGrpc.newFutureStub(channel);
+      bind(FertilizationEventBlockingStub.class).toInstance(FertilizationEventGrpc.newBlockingStub(_channel));
+      _futureStub = FertilizationEventGrpc.newFutureStub(_channel);
       bind(FertilizationEventFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry,
           ImmutableList.of(GET_BY_ID_DATA_LOADER_NAME, GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME,
-              GET_BY_GARDENER_ID_DATA_LOADER_NAME));
+              GET_BY_GARDENER_ID_DATA_LOADER_NAME, GET_PAGE_DATA_LOADER_NAME));
 
       // by id
-      GrpcNotFoundSwallower<String, FertilizationEventGetResponse> idToFertilizationEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.get(FertilizationEventGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, FertilizationEvent> byIdLoader = ids -> {
-        List<ListenableFuture<FertilizationEvent>> futures = ids.stream()
-            .map(id -> Futures.transform(idToFertilizationEvent.apply(id),
-                response -> response != null ? response.getFertilizationEvent() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<FertilizationEvent>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
-      };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
-
-      // by garden plant id
-      GrpcNotFoundSwallower<String, FertilizationEventQueryResponse> gardenPlantIdToEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(FertilizationEventQueryRequest.newBuilder()
-              .setTemplate(FertilizationEvent.newBuilder().setGardenPlantId(id).build())
-              .build()));
-      BatchLoader<String, List<FertilizationEvent>> byGardenPlantIdLoader = ids -> {
-        List<ListenableFuture<List<FertilizationEvent>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenPlantIdToEvent.apply(id),
-                response -> response != null ? response.getFertilizationEventList() : null,
-                MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<FertilizationEvent>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
-      };
-      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenPlantIdLoader));
-
-      // by gardener id
-      GrpcNotFoundSwallower<String, FertilizationEventQueryResponse> gardenerIdToEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(FertilizationEventQueryRequest.newBuilder()
-              .setTemplate(FertilizationEvent.newBuilder()
-                  .setMetadata(EventMetadata.newBuilder().setGardenerId(id).build())
-                  .build())
-              .build()));
-      BatchLoader<String, List<FertilizationEvent>> byGardenerIdLoader = ids -> {
-        List<ListenableFuture<List<FertilizationEvent>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenerIdToEvent.apply(id),
-                response -> response != null ? response.getFertilizationEventList() : null,
-                MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<FertilizationEvent>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, FertilizationEvent> byIdLoader = (ids, environment) -> {
+        FertilizationEventBatchGetRequest request =
+            FertilizationEventBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getFertilizationEventList(), FertilizationEvent::getId),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_GARDENER_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenerIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byIdLoader));
+
+      // by garden plant id and by gardener id, whose keys are queries for the events of each id
+      BatchLoaderWithContext<FertilizationEventQueryRequest, List<FertilizationEvent>> byTemplateLoader =
+          (queries, environment) -> loadByGroup(queries, FertilizationEventQueryRequest::getRange,
+              (range, rangeQueries) -> batchQuery(rangeQueries, range, mergeFieldMasks(environment)));
+      // separate loaders, so that each batch query filters on one field
+      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byTemplateLoader));
+      registry.register(GET_BY_GARDENER_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byTemplateLoader));
+
+      // pages of the events of a garden plant or a gardener, whose keys are the queries of the pages
+      BatchLoaderWithContext<FertilizationEventQueryRequest, FertilizationEventQueryResponse> pageLoader =
+          (queries, environment) -> loadEach(queries, query -> query(query, mergeFieldMasks(environment)));
+      registry.register(GET_PAGE_DATA_LOADER_NAME, DataLoader.newDataLoader(pageLoader));
     }
 
     static CompletableFuture<FertilizationEvent> getFertilizationEvent(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "FertilizationEvent ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, FertilizationEvent>getDataLoader(
-          GET_BY_ID_DATA_LOADER_NAME).load(id);
+          GET_BY_ID_DATA_LOADER_NAME).load(id, getFieldMask(environment));
     }
 
     static CompletableFuture<List<FertilizationEvent>> getFertilizationEventsByGardenPlantId(
-        DataFetchingEnvironment environment, String gardenPlantId) {
+        DataFetchingEnvironment environment, String gardenPlantId, EventRange range) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-      checkNotNull(gardenPlantId, "FertilizationEvent ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, List<FertilizationEvent>>getDataLoader(
-          GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME).load(gardenPlantId);
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      checkNotNull(range, "EventRange cannot be null");
+      FertilizationEventQueryRequest query = FertilizationEventQueryRequest.newBuilder()
+          .setTemplate(FertilizationEvent.newBuilder().setGardenPlantId(gardenPlantId))
+          .setRange(range)
+          .build();
+      DataLoader<FertilizationEventQueryRequest, List<FertilizationEvent>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment));
     }
 
     static CompletableFuture<List<FertilizationEvent>> getFertilizationEventsByGardenerId(
-        DataFetchingEnvironment environment, String gardenerId) {
+        DataFetchingEnvironment environment, String gardenerId, EventRange range) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-      checkNotNull(gardenerId, "FertilizationEvent ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, List<FertilizationEvent>>getDataLoader(
-          GET_BY_GARDENER_ID_DATA_LOADER_NAME).load(gardenerId);
+      checkNotNull(gardenerId, "Gardener ID cannot be null");
+      checkNotNull(range, "EventRange cannot be null");
+      FertilizationEventQueryRequest query = FertilizationEventQueryRequest.newBuilder()
+          .setTemplate(FertilizationEvent.newBuilder()
+              .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId)))
+          .setRange(range)
+          .build();
+      DataLoader<FertilizationEventQueryRequest, List<FertilizationEvent>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDENER_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment));
+    }
+
+    static CompletableFuture<FertilizationEventConnection> getFertilizationEventPageByGardenPlantId(
+        DataFetchingEnvironment environment, String gardenPlantId, EventPageRequest page) {
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      FertilizationEvent template = FertilizationEvent.newBuilder().setGardenPlantId(gardenPlantId).build();
+      return getFertilizationEventPage(environment, template, page);
+    }
+
+    static CompletableFuture<FertilizationEventConnection> getFertilizationEventPageByGardenerId(
+        DataFetchingEnvironment environment, String gardenerId, EventPageRequest page) {
+      checkNotNull(gardenerId, "Gardener ID cannot be null");
+      FertilizationEvent template = FertilizationEvent.newBuilder()
+          .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId))
+          .build();
+      return getFertilizationEventPage(environment, template, page);
+    }
+
+    private static CompletableFuture<FertilizationEventConnection> getFertilizationEventPage(
+        DataFetchingEnvironment environment, FertilizationEvent template, EventPageRequest page) {
+      checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+      checkNotNull(page, "EventPageRequest cannot be null");
+      FertilizationEventQueryRequest query = FertilizationEventQueryRequest.newBuilder()
+          .setTemplate(template)
+          .setRange(page.getRange())
+          .setLimit(getPageSize(page.getFirst()))
+          .setContinuationToken(page.getAfter())
+          .build();
+      DataLoader<FertilizationEventQueryRequest, FertilizationEventQueryResponse> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_PAGE_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment)).thenApply(ClientModule::toConnection);
+    }
+
+    private CompletableFuture<List<List<FertilizationEvent>>> batchQuery(
+        List<FertilizationEventQueryRequest> queries, EventRange range, FieldMask fieldMask) {
+      FertilizationEventBatchQueryRequest request = FertilizationEventBatchQueryRequest.newBuilder()
+          .addAllTemplate(
+              queries.stream().map(FertilizationEventQueryRequest::getTemplate).collect(Collectors.toList()))
+          .setFieldMask(fieldMask)
+          .setRange(range)
+          .build();
+      return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+          response -> alignByPosition(response.getResponseList(),
+              FertilizationEventQueryResponse::getFertilizationEventList), MoreExecutors.directExecutor()));
+    }
+
+    private CompletableFuture<FertilizationEventQueryResponse> query(FertilizationEventQueryRequest query,
+        FieldMask fieldMask) {
+      return FutureConverter.toCompletableFuture(
+          _futureStub.query(FertilizationEventQueryRequest.newBuilder(query).setFieldMask(fieldMask).build()));
+    }
+
+    private static FertilizationEventConnection toConnection(FertilizationEventQueryResponse response) {
+      FertilizationEventConnection.Builder builder = FertilizationEventConnection.newBuilder()
+          .setPageInfo(toPageInfo(response.getContinuationToken()));
+      response.getFertilizationEventList().forEach(
+          event -> builder.addEdges(FertilizationEventEdge.newBuilder().setNode(event)));
+      return builder.build();
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, FertilizationEvent.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:fertilizationevent:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+    }
 
     @Query("getFertilizationEvent")
     ListenableFuture<FertilizationEvent> getFertilizationEvent(FertilizationEventGetRequest request,
@@ -3,53 +3,70 @@ package com.github.ptracker.graphql.provider;
 import com.github.ptracker.entity.Space;
 import com.github.ptracker.entity.Garden;
 import com.github.ptracker.entity.GardenPlant;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.GardenBatchGetRequest;
+import com.github.ptracker.service.GardenBatchQueryRequest;
+import com.github.ptracker.service.GardenConnection;
 import com.github.ptracker.service.GardenCreateRequest;
 import com.github.ptracker.service.GardenDeleteRequest;
 import com.github.ptracker.service.GardenDeleteResponse;
+import com.github.ptracker.service.GardenEdge;
 import com.github.ptracker.service.GardenGetRequest;
-import com.github.ptracker.service.GardenGetResponse;
 import com.github.ptracker.service.GardenGrpc;
 import com.github.ptracker.service.GardenGrpc.GardenBlockingStub;
 import com.github.ptracker.service.GardenGrpc.GardenFutureStub;
+import com.github.ptracker.service.GardenPlantConnection;
 import com.github.ptracker.service.GardenQueryRequest;
 import com.github.ptracker.service.GardenQueryResponse;
 import com.github.ptracker.service.GardenUpdateRequest;
+import com.github.ptracker.service.PageRequest;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
+import static com.github.ptracker.graphql.ConnectionUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class GardenModuleProvider implements GraphQLModuleProvider {
+  // the fields of Garden that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.of("space", "spaceId", "gardenPlants", "id", "gardenPlantsConnection", "id");
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
 
-  public GardenModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public GardenModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    _clientModule = new ClientModule(channel);
+    _schemaModule = new SchemaModuleImpl(idGenerator);
   }
 
   @Override
@@ -76,65 +93,73 @@ public class GardenModuleProvider implements GraphQLModuleProvider {
     return ClientModule.getGardensBySpaceId(environment, spaceId);
   }
 
+  /**
+   * @param page the number of the gardens to return and the cursor to return them after.
+   */
+  public static CompletableFuture<GardenConnection> getGardenPageBySpaceId(DataFetchingEnvironment environment,
+      String spaceId, PageRequest page) {
+    return ClientModule.getGardenPageBySpaceId(environment, spaceId, page);
+  }
+
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "gardens";
     private static final String GET_BY_SPACE_ID_DATA_LOADER_NAME = "gardensBySpaceId";
+    private static final String GET_PAGE_DATA_LOADER_NAME = "gardenPages";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
 
     private GardenFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(GardenBlockingStub.class).toInstance(GardenGrpc.newBlockingStub(channel));
-      _futureStub = GardenGrpc.newFutureStub(channel);
+      bind(GardenBlockingStub.class).toInstance(GardenGrpc.newBlockingStub(_channel));
+      _futureStub = GardenGrpc.newFutureStub(_channel);
       bind(GardenFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry,
-          ImmutableList.of(GET_BY_ID_DATA_LOADER_NAME, GET_BY_SPACE_ID_DATA_LOADER_NAME));
+          ImmutableList.of(GET_BY_ID_DATA_LOADER_NAME, GET_BY_SPACE_ID_DATA_LOADER_NAME, GET_PAGE_DATA_LOADER_NAME));
       // by id
-      GrpcNotFoundSwallower<String, GardenGetResponse> idToGarden =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(GardenGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, Garden> byIdLoader = ids -> {
-        List<ListenableFuture<Garden>> futures = ids.stream()
-            .map(id -> Futures.transform(idToGarden.apply(id),
-                response -> response != null ? response.getGarden() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<Garden>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, Garden> byIdLoader = (ids, environment) -> {
+        GardenBatchGetRequest request = GardenBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getGardenList(), Garden::getId), MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byIdLoader));
 
       // by space id
-      GrpcNotFoundSwallower<String, GardenQueryResponse> spaceIdToGarden = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(
-              GardenQueryRequest.newBuilder().setTemplate(Garden.newBuilder().setSpaceId(id).build()).build()));
-      BatchLoader<String, List<Garden>> bySpaceIdLoader = ids -> {
-        List<ListenableFuture<List<Garden>>> futures = ids.stream()
-            .map(id -> Futures.transform(spaceIdToGarden.apply(id),
-                response -> response != null ? response.getGardenList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<Garden>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, List<Garden>> bySpaceIdLoader = (ids, environment) -> {
+        GardenBatchQueryRequest request = GardenBatchQueryRequest.newBuilder()
+            .addAllTemplate(ids.stream()
+                .map(id -> Garden.newBuilder().setSpaceId(id).build())
+                .collect(Collectors.toList()))
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+            response -> alignByPosition(response.getResponseList(), GardenQueryResponse::getGardenList),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_SPACE_ID_DATA_LOADER_NAME, new DataLoader<>(bySpaceIdLoader));
+      registry.register(GET_BY_SPACE_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(bySpaceIdLoader));
+
+      // pages of the gardens of a space, whose keys are the queries of the pages
+      BatchLoaderWithContext<GardenQueryRequest, GardenQueryResponse> pageLoader =
+          (queries, environment) -> loadEach(queries, query -> query(query, mergeFieldMasks(environment)));
+      registry.register(GET_PAGE_DATA_LOADER_NAME, DataLoader.newDataLoader(pageLoader));
     }
 
     static CompletableFuture<Garden> getGarden(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "Garden ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, Garden>getDataLoader(
-          GET_BY_ID_DATA_LOADER_NAME).load(id);
+          GET_BY_ID_DATA_LOADER_NAME).load(id, getFieldMask(environment));
     }
 
     static CompletableFuture<List<Garden>> getGardensBySpaceId(DataFetchingEnvironment environment,
@@ -142,13 +167,48 @@ public class GardenModuleProvider implements GraphQLModuleProvider {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(spaceId, "Space ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, List<Garden>>getDataLoader(
-          GET_BY_SPACE_ID_DATA_LOADER_NAME).load(spaceId);
+          GET_BY_SPACE_ID_DATA_LOADER_NAME).load(spaceId, getFieldMask(environment));
+    }
+
+    static CompletableFuture<GardenConnection> getGardenPageBySpaceId(DataFetchingEnvironment environment,
+        String spaceId, PageRequest page) {
+      checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+      checkNotNull(spaceId, "Space ID cannot be null");
+      checkNotNull(page, "PageRequest cannot be null");
+      GardenQueryRequest query = GardenQueryRequest.newBuilder()
+          .setTemplate(Garden.newBuilder().setSpaceId(spaceId))
+          .setLimit(getPageSize(page.getFirst()))
+          .setContinuationToken(page.getAfter())
+          .build();
+      DataLoader<GardenQueryRequest, GardenQueryResponse> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_PAGE_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment)).thenApply(ClientModule::toConnection);
+    }
+
+    private CompletableFuture<GardenQueryResponse> query(GardenQueryRequest query, FieldMask fieldMask) {
+      return FutureConverter.toCompletableFuture(
+          _futureStub.query(GardenQueryRequest.newBuilder(query).setFieldMask(fieldMask).build()));
+    }
+
+    private static GardenConnection toConnection(GardenQueryResponse response) {
+      GardenConnection.Builder builder = GardenConnection.newBuilder()
+          .setPageInfo(toPageInfo(response.getContinuationToken()));
+      response.getGardenList().forEach(garden -> builder.addEdges(GardenEdge.newBuilder().setNode(garden)));
+      return builder.build();
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, Garden.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:garden:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+    }
 
     @Query("getGarden")
     ListenableFuture<Garden> getGarden(GardenGetRequest request, DataFetchingEnvironment dataFetchingEnvironment) {
@@ -190,5 +250,12 @@ public class GardenModuleProvider implements GraphQLModuleProvider {
       return FutureConverter.toListenableFuture(
           GardenPlantModuleProvider.getGardenPlantsByGardenId(environment, garden.getId()));
     }
+
+    @SchemaModification(addField = "gardenPlantsConnection", onType = Garden.class)
+    ListenableFuture<GardenPlantConnection> gardenToGardenPlantsConnection(Garden garden, PageRequest page,
+        DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          GardenPlantModuleProvider.getGardenPlantPageByGardenId(environment, garden.getId(), page));
+    }
   }
 }
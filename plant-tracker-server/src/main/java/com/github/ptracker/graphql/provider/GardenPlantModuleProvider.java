@@ -6,53 +6,83 @@ import com.github.ptracker.entity.GardenPlant;
 import com.github.ptracker.entity.NoteEvent;
 import com.github.ptracker.entity.Plant;
 import com.github.ptracker.entity.WateringEvent;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.EventPageRequest;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.FertilizationEventConnection;
+import com.github.ptracker.service.GardenPlantBatchGetRequest;
+import com.github.ptracker.service.GardenPlantBatchQueryRequest;
+import com.github.ptracker.service.GardenPlantConnection;
 import com.github.ptracker.service.GardenPlantCreateRequest;
 import com.github.ptracker.service.GardenPlantDeleteRequest;
 import com.github.ptracker.service.GardenPlantDeleteResponse;
+import com.github.ptracker.service.GardenPlantEdge;
 import com.github.ptracker.service.GardenPlantGetRequest;
-import com.github.ptracker.service.GardenPlantGetResponse;
 import com.github.ptracker.service.GardenPlantGrpc;
 import com.github.ptracker.service.GardenPlantGrpc.GardenPlantBlockingStub;
 import com.github.ptracker.service.GardenPlantGrpc.GardenPlantFutureStub;
 import com.github.ptracker.service.GardenPlantQueryRequest;
 import com.github.ptracker.service.GardenPlantQueryResponse;
 import com.github.ptracker.service.GardenPlantUpdateRequest;
+import com.github.ptracker.service.NoteEventConnection;
+import com.github.ptracker.service.PageRequest;
+import com.github.ptracker.service.WateringEventConnection;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
+import static com.github.ptracker.graphql.ConnectionUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class GardenPlantModuleProvider implements GraphQLModuleProvider {
-  private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  // the fields of GardenPlant that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.<String, String>builder()
+          .put("garden", "gardenId")
+          .put("plant", "plantId")
+          .put("fertilizationEvents", "id")
+          .put("fertilizationEventsConnection", "id")
+          .put("wateringEvents", "id")
+          .put("wateringEventsConnection", "id")
+          .put("noteEvents", "id")
+          .put("noteEventsConnection", "id")
+          .build();
 
-  public GardenPlantModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  private final ClientModule _clientModule;
+  private final Module _schemaModule;
+
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public GardenPlantModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    _clientModule = new ClientModule(channel);
+    _schemaModule = new SchemaModuleImpl(idGenerator);
   }
 
   @Override
@@ -84,84 +114,99 @@ public class GardenPlantModuleProvider implements GraphQLModuleProvider {
     return ClientModule.getGardenPlantsByPlantId(environment, plantId);
   }
 
+  /**
+   * @param page the number of the garden plants to return and the cursor to return them after.
+   */
+  public static CompletableFuture<GardenPlantConnection> getGardenPlantPageByGardenId(
+      DataFetchingEnvironment environment, String gardenId, PageRequest page) {
+    return ClientModule.getGardenPlantPageByGardenId(environment, gardenId, page);
+  }
+
+  /**
+   * @param page the number of the garden plants to return and the cursor to return them after.
+   */
+  public static CompletableFuture<GardenPlantConnection> getGardenPlantPageByPlantId(
+      DataFetchingEnvironment environment, String plantId, PageRequest page) {
+    return ClientModule.getGardenPlantPageByPlantId(environment, plantId, page);
+  }
+
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "gardenPlants";
     private static final String GET_BY_GARDEN_ID_DATA_LOADER_NAME = "gardenPlantsByGardenId";
     private static final String GET_BY_PLANT_ID_DATA_LOADER_NAME = "gardenPlantsByPlantId";
+    private static final String GET_PAGE_DATA_LOADER_NAME = "gardenPlantPages";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
 
     private GardenPlantFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(GardenPlantBlockingStub.class).toInstance(GardenPlantGrpc.newBlockingStub(channel));
-      _futureStub = GardenPlantGrpc.newFutureStub(channel);
+      bind(GardenPlantBlockingStub.class).toInstance(GardenPlantGrpc.newBlockingStub(_channel));
+      _futureStub = GardenPlantGrpc.newFutureStub(_channel);
       bind(GardenPlantFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry,
           ImmutableList.of(GET_BY_ID_DATA_LOADER_NAME, GET_BY_GARDEN_ID_DATA_LOADER_NAME,
-              GET_BY_PLANT_ID_DATA_LOADER_NAME));
+              GET_BY_PLANT_ID_DATA_LOADER_NAME, GET_PAGE_DATA_LOADER_NAME));
 
       // by id
-      GrpcNotFoundSwallower<String, GardenPlantGetResponse> idToGardenPlant =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(GardenPlantGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, GardenPlant> byIdLoader = ids -> {
-        List<ListenableFuture<GardenPlant>> futures = ids.stream()
-            .map(id -> Futures.transform(idToGardenPlant.apply(id),
-                response -> response != null ? response.getGardenPlant() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<GardenPlant>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, GardenPlant> byIdLoader = (ids, environment) -> {
+        GardenPlantBatchGetRequest request = GardenPlantBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getGardenPlantList(), GardenPlant::getId),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byIdLoader));
 
       // by garden id
-      GrpcNotFoundSwallower<String, GardenPlantQueryResponse> gardenIdToGardenPlant = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(GardenPlantQueryRequest.newBuilder()
-              .setTemplate(GardenPlant.newBuilder().setGardenId(id).build())
-              .build()));
-      BatchLoader<String, List<GardenPlant>> byGardenIdLoader = ids -> {
-        List<ListenableFuture<List<GardenPlant>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenIdToGardenPlant.apply(id),
-                response -> response != null ? response.getGardenPlantList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<GardenPlant>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, List<GardenPlant>> byGardenIdLoader = (ids, environment) -> {
+        GardenPlantBatchQueryRequest request = GardenPlantBatchQueryRequest.newBuilder()
+            .addAllTemplate(ids.stream()
+                .map(id -> GardenPlant.newBuilder().setGardenId(id).build())
+                .collect(Collectors.toList()))
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+            response -> alignByPosition(response.getResponseList(), GardenPlantQueryResponse::getGardenPlantList),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_GARDEN_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenIdLoader));
+      registry.register(GET_BY_GARDEN_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byGardenIdLoader));
 
       // by plant id
-      GrpcNotFoundSwallower<String, GardenPlantQueryResponse> plantIdToGardenPlant = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(GardenPlantQueryRequest.newBuilder()
-              .setTemplate(GardenPlant.newBuilder().setPlantId(id).build())
-              .build()));
-      BatchLoader<String, List<GardenPlant>> byPlantIdLoader = ids -> {
-        List<ListenableFuture<List<GardenPlant>>> futures = ids.stream()
-            .map(id -> Futures.transform(plantIdToGardenPlant.apply(id),
-                response -> response != null ? response.getGardenPlantList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<GardenPlant>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, List<GardenPlant>> byPlantIdLoader = (ids, environment) -> {
+        GardenPlantBatchQueryRequest request = GardenPlantBatchQueryRequest.newBuilder()
+            .addAllTemplate(ids.stream()
+                .map(id -> GardenPlant.newBuilder().setPlantId(id).build())
+                .collect(Collectors.toList()))
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+            response -> alignByPosition(response.getResponseList(), GardenPlantQueryResponse::getGardenPlantList),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_PLANT_ID_DATA_LOADER_NAME, new DataLoader<>(byPlantIdLoader));
+      registry.register(GET_BY_PLANT_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byPlantIdLoader));
+
+      // pages of the garden plants of a garden or a plant, whose keys are the queries of the pages
+      BatchLoaderWithContext<GardenPlantQueryRequest, GardenPlantQueryResponse> pageLoader =
+          (queries, environment) -> loadEach(queries, query -> query(query, mergeFieldMasks(environment)));
+      registry.register(GET_PAGE_DATA_LOADER_NAME, DataLoader.newDataLoader(pageLoader));
     }
 
     static CompletableFuture<GardenPlant> getGardenPlant(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "Garden Plant ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, GardenPlant>getDataLoader(GET_BY_ID_DATA_LOADER_NAME)
-          .load(id);
+          .load(id, getFieldMask(environment));
     }
 
     static CompletableFuture<List<GardenPlant>> getGardenPlantsByGardenId(DataFetchingEnvironment environment,
@@ -169,7 +214,7 @@ public class GardenPlantModuleProvider implements GraphQLModuleProvider {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(gardenId, "Garden ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, List<GardenPlant>>getDataLoader(
-          GET_BY_GARDEN_ID_DATA_LOADER_NAME).load(gardenId);
+          GET_BY_GARDEN_ID_DATA_LOADER_NAME).load(gardenId, getFieldMask(environment));
     }
 
     static CompletableFuture<List<GardenPlant>> getGardenPlantsByPlantId(DataFetchingEnvironment environment,
@@ -177,13 +222,60 @@ public class GardenPlantModuleProvider implements GraphQLModuleProvider {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(plantId, "Plant ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, List<GardenPlant>>getDataLoader(
-          GET_BY_PLANT_ID_DATA_LOADER_NAME).load(plantId);
+          GET_BY_PLANT_ID_DATA_LOADER_NAME).load(plantId, getFieldMask(environment));
+    }
+
+    static CompletableFuture<GardenPlantConnection> getGardenPlantPageByGardenId(
+        DataFetchingEnvironment environment, String gardenId, PageRequest page) {
+      checkNotNull(gardenId, "Garden ID cannot be null");
+      return getGardenPlantPage(environment, GardenPlant.newBuilder().setGardenId(gardenId).build(), page);
+    }
+
+    static CompletableFuture<GardenPlantConnection> getGardenPlantPageByPlantId(
+        DataFetchingEnvironment environment, String plantId, PageRequest page) {
+      checkNotNull(plantId, "Plant ID cannot be null");
+      return getGardenPlantPage(environment, GardenPlant.newBuilder().setPlantId(plantId).build(), page);
+    }
+
+    private static CompletableFuture<GardenPlantConnection> getGardenPlantPage(DataFetchingEnvironment environment,
+        GardenPlant template, PageRequest page) {
+      checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+      checkNotNull(page, "PageRequest cannot be null");
+      GardenPlantQueryRequest query = GardenPlantQueryRequest.newBuilder()
+          .setTemplate(template)
+          .setLimit(getPageSize(page.getFirst()))
+          .setContinuationToken(page.getAfter())
+          .build();
+      DataLoader<GardenPlantQueryRequest, GardenPlantQueryResponse> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_PAGE_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment)).thenApply(ClientModule::toConnection);
+    }
+
+    private CompletableFuture<GardenPlantQueryResponse> query(GardenPlantQueryRequest query, FieldMask fieldMask) {
+      return FutureConverter.toCompletableFuture(
+          _futureStub.query(GardenPlantQueryRequest.newBuilder(query).setFieldMask(fieldMask).build()));
+    }
+
+    private static GardenPlantConnection toConnection(GardenPlantQueryResponse response) {
+      GardenPlantConnection.Builder builder = GardenPlantConnection.newBuilder()
+          .setPageInfo(toPageInfo(response.getContinuationToken()));
+      response.getGardenPlantList().forEach(
+          gardenPlant -> builder.addEdges(GardenPlantEdge.newBuilder().setNode(gardenPlant)));
+      return builder.build();
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, GardenPlant.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:gardenplant:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+    }
 
     @Query("getGardenPlant")
     ListenableFuture<GardenPlant> getGardenPlant(GardenPlantGetRequest request,
@@ -231,23 +323,46 @@ public class GardenPlantModuleProvider implements GraphQLModuleProvider {
 
     @SchemaModification(addField = "fertilizationEvents", onType = GardenPlant.class)
     ListenableFuture<List<FertilizationEvent>> gardenPlantToFertilizationEvents(GardenPlant gardenPlant,
-        DataFetchingEnvironment environment) {
+        EventRange range, DataFetchingEnvironment environment) {
       return FutureConverter.toListenableFuture(
-          FertilizationEventModuleProvider.getFertilizationEventsByGardenPlantId(environment, gardenPlant.getId()));
+          FertilizationEventModuleProvider.getFertilizationEventsByGardenPlantId(environment, gardenPlant.getId(),
+              range));
     }
 
     @SchemaModification(addField = "wateringEvents", onType = GardenPlant.class)
     ListenableFuture<List<WateringEvent>> gardenPlantToWateringEvents(GardenPlant gardenPlant,
-        DataFetchingEnvironment environment) {
+        EventRange range, DataFetchingEnvironment environment) {
       return FutureConverter.toListenableFuture(
-          WateringEventModuleProvider.getWateringEventsByGardenPlantId(environment, gardenPlant.getId()));
+          WateringEventModuleProvider.getWateringEventsByGardenPlantId(environment, gardenPlant.getId(), range));
     }
 
     @SchemaModification(addField = "noteEvents", onType = GardenPlant.class)
     ListenableFuture<List<NoteEvent>> gardenPlantToNoteEvents(GardenPlant gardenPlant,
-        DataFetchingEnvironment environment) {
+        EventRange range, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          NoteEventModuleProvider.getNoteEventsByGardenPlantId(environment, gardenPlant.getId(), range));
+    }
+
+    @SchemaModification(addField = "fertilizationEventsConnection", onType = GardenPlant.class)
+    ListenableFuture<FertilizationEventConnection> gardenPlantToFertilizationEventsConnection(GardenPlant gardenPlant,
+        EventPageRequest page, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          FertilizationEventModuleProvider.getFertilizationEventPageByGardenPlantId(environment, gardenPlant.getId(),
+              page));
+    }
+
+    @SchemaModification(addField = "wateringEventsConnection", onType = GardenPlant.class)
+    ListenableFuture<WateringEventConnection> gardenPlantToWateringEventsConnection(GardenPlant gardenPlant,
+        EventPageRequest page, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          WateringEventModuleProvider.getWateringEventPageByGardenPlantId(environment, gardenPlant.getId(), page));
+    }
+
+    @SchemaModification(addField = "noteEventsConnection", onType = GardenPlant.class)
+    ListenableFuture<NoteEventConnection> gardenPlantToNoteEventsConnection(GardenPlant gardenPlant,
+        EventPageRequest page, DataFetchingEnvironment environment) {
       return FutureConverter.toListenableFuture(
-          NoteEventModuleProvider.getNoteEventsByGardenPlantId(environment, gardenPlant.getId()));
+          NoteEventModuleProvider.getNoteEventPageByGardenPlantId(environment, gardenPlant.getId(), page));
     }
   }
 }
@@ -4,51 +4,88 @@ import com.github.ptracker.entity.FertilizationEvent;
 import com.github.ptracker.entity.Gardener;
 import com.github.ptracker.entity.NoteEvent;
 import com.github.ptracker.entity.WateringEvent;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
+import com.github.ptracker.graphql.SharedDataLoaderCache;
+import com.github.ptracker.graphql.SharedDataLoaderCaches;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.EventPageRequest;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.FertilizationEventConnection;
+import com.github.ptracker.service.GardenerBatchGetRequest;
 import com.github.ptracker.service.GardenerCreateRequest;
+import com.github.ptracker.service.GardenerCreateResponse;
 import com.github.ptracker.service.GardenerDeleteRequest;
 import com.github.ptracker.service.GardenerDeleteResponse;
 import com.github.ptracker.service.GardenerGetRequest;
-import com.github.ptracker.service.GardenerGetResponse;
 import com.github.ptracker.service.GardenerGrpc;
 import com.github.ptracker.service.GardenerGrpc.GardenerBlockingStub;
 import com.github.ptracker.service.GardenerGrpc.GardenerFutureStub;
 import com.github.ptracker.service.GardenerUpdateRequest;
+import com.github.ptracker.service.GardenerUpdateResponse;
+import com.github.ptracker.service.NoteEventConnection;
+import com.github.ptracker.service.WateringEventConnection;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class GardenerModuleProvider implements GraphQLModuleProvider {
+  // the fields of Gardener that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.<String, String>builder()
+          .put("fertilizationEvents", "id")
+          .put("fertilizationEventsConnection", "id")
+          .put("wateringEvents", "id")
+          .put("wateringEventsConnection", "id")
+          .put("gardenPlantNoteEvents", "id")
+          .put("gardenPlantNoteEventsConnection", "id")
+          .build();
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
+
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public GardenerModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    this(channel, idGenerator, new SharedDataLoaderCaches.Builder().build());
+  }
 
-  public GardenerModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   * @param sharedDataLoaderCaches has the cache that gardeners are shared across requests in, if any.
+   */
+  public GardenerModuleProvider(Channel channel, IdGenerator<Long> idGenerator,
+      SharedDataLoaderCaches sharedDataLoaderCaches) {
+    SharedDataLoaderCache<String, Gardener> sharedCache =
+        sharedDataLoaderCaches.get(ClientModule.GET_BY_ID_DATA_LOADER_NAME);
+    _clientModule = new ClientModule(channel, sharedCache);
+    _schemaModule = new SchemaModuleImpl(idGenerator, sharedCache);
   }
 
   @Override
@@ -73,51 +110,58 @@ public class GardenerModuleProvider implements GraphQLModuleProvider {
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "Gardeners";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
+    private final SharedDataLoaderCache<String, Gardener> _sharedCache;
 
     private GardenerFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel, SharedDataLoaderCache<String, Gardener> sharedCache) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
+      _sharedCache = checkNotNull(sharedCache, "SharedDataLoaderCache cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(GardenerBlockingStub.class).toInstance(GardenerGrpc.newBlockingStub(channel));
-      _futureStub = GardenerGrpc.newFutureStub(channel);
+      bind(GardenerBlockingStub.class).toInstance(GardenerGrpc.newBlockingStub(_channel));
+      _futureStub = GardenerGrpc.newFutureStub(_channel);
       bind(GardenerFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry, Collections.singletonList(GET_BY_ID_DATA_LOADER_NAME));
-      GrpcNotFoundSwallower<String, GardenerGetResponse> idToGardener =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(GardenerGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, Gardener> byIdLoader = ids -> {
-        List<ListenableFuture<Gardener>> futures = ids.stream()
-            .map(id -> Futures.transform(idToGardener.apply(id),
-                response -> response != null ? response.getGardener() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<Gardener>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, Gardener> byIdLoader = (ids, environment) -> {
+        GardenerBatchGetRequest request = GardenerBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(_sharedCache.mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getGardenerList(), Gardener::getId), MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME,
+          DataLoader.newDataLoader(byIdLoader, _sharedCache.newDataLoaderOptions()));
     }
 
     static CompletableFuture<Gardener> getGardener(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "Gardener ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, Gardener>getDataLoader(
-          GET_BY_ID_DATA_LOADER_NAME).load(id);
+          GET_BY_ID_DATA_LOADER_NAME).load(id, getFieldMask(environment));
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, Gardener.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:gardener:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+    private final SharedDataLoaderCache<String, Gardener> _sharedCache;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator, SharedDataLoaderCache<String, Gardener> sharedCache) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+      _sharedCache = checkNotNull(sharedCache, "SharedDataLoaderCache cannot be null");
+    }
 
     @Query("getGardener")
     ListenableFuture<Gardener> getGardener(GardenerGetRequest request,
@@ -135,42 +179,65 @@ public class GardenerModuleProvider implements GraphQLModuleProvider {
             .build();
       }
       GardenerCreateRequest finalRequest = request;
-      return Futures.transform(client.create(request), ignored -> finalRequest.getGardener(),
-          MoreExecutors.directExecutor());
+      ListenableFuture<GardenerCreateResponse> response =
+          _sharedCache.invalidateOnCompletion(finalRequest.getGardener().getId(), client.create(request));
+      return Futures.transform(response, ignored -> finalRequest.getGardener(), MoreExecutors.directExecutor());
     }
 
     // TODO: return needs to be "empty" or "success/failure"
     @Mutation("updateGardener")
     ListenableFuture<Gardener> updateGardener(GardenerUpdateRequest request, GardenerFutureStub client) {
-      return Futures.transform(client.update(request), ignored -> request.getGardener(),
-          MoreExecutors.directExecutor());
+      ListenableFuture<GardenerUpdateResponse> response =
+          _sharedCache.invalidateOnCompletion(request.getGardener().getId(), client.update(request));
+      return Futures.transform(response, ignored -> request.getGardener(), MoreExecutors.directExecutor());
     }
 
     // TODO: return needs to be "empty" or "success/failure"
     @Mutation("deleteGardener")
     ListenableFuture<GardenerDeleteResponse> deleteGardener(GardenerDeleteRequest request, GardenerFutureStub client) {
-      return client.delete(request);
+      return _sharedCache.invalidateOnCompletion(request.getId(), client.delete(request));
     }
 
     @SchemaModification(addField = "fertilizationEvents", onType = Gardener.class)
     ListenableFuture<List<FertilizationEvent>> gardenerToFertilizationEvents(Gardener gardener,
-        DataFetchingEnvironment environment) {
+        EventRange range, DataFetchingEnvironment environment) {
       return FutureConverter.toListenableFuture(
-          FertilizationEventModuleProvider.getFertilizationEventsByGardenerId(environment, gardener.getId()));
+          FertilizationEventModuleProvider.getFertilizationEventsByGardenerId(environment, gardener.getId(), range));
     }
 
     @SchemaModification(addField = "wateringEvents", onType = Gardener.class)
     ListenableFuture<List<WateringEvent>> gardenerToWateringEvents(Gardener gardener,
-        DataFetchingEnvironment environment) {
+        EventRange range, DataFetchingEnvironment environment) {
       return FutureConverter.toListenableFuture(
-          WateringEventModuleProvider.getWateringEventsByGardenerId(environment, gardener.getId()));
+          WateringEventModuleProvider.getWateringEventsByGardenerId(environment, gardener.getId(), range));
     }
 
     @SchemaModification(addField = "gardenPlantNoteEvents", onType = Gardener.class)
     ListenableFuture<List<NoteEvent>> gardenerToGardenPlantNoteEvents(Gardener gardener,
-        DataFetchingEnvironment environment) {
+        EventRange range, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          NoteEventModuleProvider.getNoteEventsByGardenerId(environment, gardener.getId(), range));
+    }
+
+    @SchemaModification(addField = "fertilizationEventsConnection", onType = Gardener.class)
+    ListenableFuture<FertilizationEventConnection> gardenerToFertilizationEventsConnection(Gardener gardener,
+        EventPageRequest page, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          FertilizationEventModuleProvider.getFertilizationEventPageByGardenerId(environment, gardener.getId(), page));
+    }
+
+    @SchemaModification(addField = "wateringEventsConnection", onType = Gardener.class)
+    ListenableFuture<WateringEventConnection> gardenerToWateringEventsConnection(Gardener gardener,
+        EventPageRequest page, DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          WateringEventModuleProvider.getWateringEventPageByGardenerId(environment, gardener.getId(), page));
+    }
+
+    @SchemaModification(addField = "gardenPlantNoteEventsConnection", onType = Gardener.class)
+    ListenableFuture<NoteEventConnection> gardenerToGardenPlantNoteEventsConnection(Gardener gardener,
+        EventPageRequest page, DataFetchingEnvironment environment) {
       return FutureConverter.toListenableFuture(
-          NoteEventModuleProvider.getNoteEventsByGardenerId(environment, gardener.getId()));
+          NoteEventModuleProvider.getNoteEventPageByGardenerId(environment, gardener.getId(), page));
     }
   }
 }
@@ -3,13 +3,18 @@ package com.github.ptracker.graphql.provider;
 import com.github.ptracker.common.EventMetadata;
 import com.github.ptracker.entity.GardenPlant;
 import com.github.ptracker.entity.NoteEvent;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.EventPageRequest;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.NoteEventBatchGetRequest;
+import com.github.ptracker.service.NoteEventBatchQueryRequest;
+import com.github.ptracker.service.NoteEventConnection;
 import com.github.ptracker.service.NoteEventCreateRequest;
 import com.github.ptracker.service.NoteEventDeleteRequest;
 import com.github.ptracker.service.NoteEventDeleteResponse;
+import com.github.ptracker.service.NoteEventEdge;
 import com.github.ptracker.service.NoteEventGetRequest;
-import com.github.ptracker.service.NoteEventGetResponse;
 import com.github.ptracker.service.NoteEventGrpc;
 import com.github.ptracker.service.NoteEventGrpc.NoteEventBlockingStub;
 import com.github.ptracker.service.NoteEventGrpc.NoteEventFutureStub;
@@ -17,39 +22,51 @@ import com.github.ptracker.service.NoteEventQueryRequest;
 import com.github.ptracker.service.NoteEventQueryResponse;
 import com.github.ptracker.service.NoteEventUpdateRequest;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
+import static com.github.ptracker.graphql.ConnectionUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class NoteEventModuleProvider implements GraphQLModuleProvider {
+  // the fields of NoteEvent that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.of("gardenPlant", "gardenPlantId");
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
 
-  public NoteEventModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public NoteEventModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    _clientModule = new ClientModule(channel);
+    _schemaModule = new SchemaModuleImpl(idGenerator);
   }
 
   @Override
@@ -67,119 +84,195 @@ public class NoteEventModuleProvider implements GraphQLModuleProvider {
     _clientModule.registerDataLoaders(registry);
   }
 
-  public static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenPlantId(DataFetchingEnvironment environment,
-      String gardenPlantId) {
-    return NoteEventModuleProvider.ClientModule.getNoteEventsByGardenPlantId(environment, gardenPlantId);
+  /**
+   * @param range the timestamps, order and number of the events to return.
+   */
+  public static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenPlantId(
+      DataFetchingEnvironment environment, String gardenPlantId, EventRange range) {
+    return ClientModule.getNoteEventsByGardenPlantId(environment, gardenPlantId, range);
+  }
+
+  /**
+   * @param range the timestamps, order and number of the events to return.
+   */
+  public static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenerId(
+      DataFetchingEnvironment environment, String gardenerId, EventRange range) {
+    return ClientModule.getNoteEventsByGardenerId(environment, gardenerId, range);
   }
 
-  public static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenerId(DataFetchingEnvironment environment,
-      String gardenerId) {
-    checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-    checkNotNull(gardenerId, "NoteEvent ID cannot be null");
-    return NoteEventModuleProvider.ClientModule.getNoteEventsByGardenerId(environment, gardenerId);
+  /**
+   * @param page the number of the events to return, the cursor to return them after and their range.
+   */
+  public static CompletableFuture<NoteEventConnection> getNoteEventPageByGardenPlantId(
+      DataFetchingEnvironment environment, String gardenPlantId, EventPageRequest page) {
+    return ClientModule.getNoteEventPageByGardenPlantId(environment, gardenPlantId, page);
+  }
+
+  /**
+   * @param page the number of the events to return, the cursor to return them after and their range.
+   */
+  public static CompletableFuture<NoteEventConnection> getNoteEventPageByGardenerId(
+      DataFetchingEnvironment environment, String gardenerId, EventPageRequest page) {
+    return ClientModule.getNoteEventPageByGardenerId(environment, gardenerId, page);
   }
 
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "noteEvents";
     private static final String GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME = "noteEventsByGardenPlantId";
     private static final String GET_BY_GARDENER_ID_DATA_LOADER_NAME = "noteEventsByGardenerId";
+    private static final String GET_PAGE_DATA_LOADER_NAME = "noteEventPages";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
 
     private NoteEventFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(NoteEventBlockingStub.class).toInstance(NoteEventGrpc.newBlockingStub(channel));
-      _futureStub = NoteEventGrpc.newFutureStub(channel);
+      bind(NoteEventBlockingStub.class).toInstance(NoteEventGrpc.newBlockingStub(_channel));
+      _futureStub = NoteEventGrpc.newFutureStub(_channel);
       bind(NoteEventFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry,
           ImmutableList.of(GET_BY_ID_DATA_LOADER_NAME, GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME,
-              GET_BY_GARDENER_ID_DATA_LOADER_NAME));
+              GET_BY_GARDENER_ID_DATA_LOADER_NAME, GET_PAGE_DATA_LOADER_NAME));
 
       // by id
-      GrpcNotFoundSwallower<String, NoteEventGetResponse> idToNoteEvent =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(NoteEventGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, NoteEvent> byIdLoader = ids -> {
-        List<ListenableFuture<NoteEvent>> futures = ids.stream()
-            .map(id -> Futures.transform(idToNoteEvent.apply(id),
-                response -> response != null ? response.getNoteEvent() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<NoteEvent>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
-      };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
-
-      // by garden plant id
-      GrpcNotFoundSwallower<String, NoteEventQueryResponse> gardenPlantIdToEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(NoteEventQueryRequest.newBuilder()
-              .setTemplate(NoteEvent.newBuilder().setGardenPlantId(id).build())
-              .build()));
-      BatchLoader<String, List<NoteEvent>> byGardenPlantIdLoader = ids -> {
-        List<ListenableFuture<List<NoteEvent>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenPlantIdToEvent.apply(id),
-                response -> response != null ? response.getNoteEventList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<NoteEvent>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
-      };
-      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenPlantIdLoader));
-
-      // by gardener id
-      GrpcNotFoundSwallower<String, NoteEventQueryResponse> gardenerIdToEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(NoteEventQueryRequest.newBuilder()
-              .setTemplate(
-                  NoteEvent.newBuilder().setMetadata(EventMetadata.newBuilder().setGardenerId(id).build()).build())
-              .build()));
-      BatchLoader<String, List<NoteEvent>> byGardenerIdLoader = ids -> {
-        List<ListenableFuture<List<NoteEvent>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenerIdToEvent.apply(id),
-                response -> response != null ? response.getNoteEventList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<NoteEvent>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, NoteEvent> byIdLoader = (ids, environment) -> {
+        NoteEventBatchGetRequest request = NoteEventBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getNoteEventList(), NoteEvent::getId),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_GARDENER_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenerIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byIdLoader));
+
+      // by garden plant id and by gardener id, whose keys are queries for the events of each id
+      BatchLoaderWithContext<NoteEventQueryRequest, List<NoteEvent>> byTemplateLoader =
+          (queries, environment) -> loadByGroup(queries, NoteEventQueryRequest::getRange,
+              (range, rangeQueries) -> batchQuery(rangeQueries, range, mergeFieldMasks(environment)));
+      // separate loaders, so that each batch query filters on one field
+      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byTemplateLoader));
+      registry.register(GET_BY_GARDENER_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byTemplateLoader));
+
+      // pages of the events of a garden plant or a gardener, whose keys are the queries of the pages
+      BatchLoaderWithContext<NoteEventQueryRequest, NoteEventQueryResponse> pageLoader =
+          (queries, environment) -> loadEach(queries, query -> query(query, mergeFieldMasks(environment)));
+      registry.register(GET_PAGE_DATA_LOADER_NAME, DataLoader.newDataLoader(pageLoader));
     }
 
     static CompletableFuture<NoteEvent> getNoteEvent(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "NoteEvent ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, NoteEvent>getDataLoader(
-          GET_BY_ID_DATA_LOADER_NAME).load(id);
+          GET_BY_ID_DATA_LOADER_NAME).load(id, getFieldMask(environment));
     }
 
-    static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenPlantId(DataFetchingEnvironment environment,
-        String gardenPlantId) {
+    static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenPlantId(
+        DataFetchingEnvironment environment, String gardenPlantId, EventRange range) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-      checkNotNull(gardenPlantId, "NoteEvent ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, List<NoteEvent>>getDataLoader(
-          GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME).load(gardenPlantId);
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      checkNotNull(range, "EventRange cannot be null");
+      NoteEventQueryRequest query = NoteEventQueryRequest.newBuilder()
+          .setTemplate(NoteEvent.newBuilder().setGardenPlantId(gardenPlantId))
+          .setRange(range)
+          .build();
+      DataLoader<NoteEventQueryRequest, List<NoteEvent>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment));
     }
 
-    static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenerId(DataFetchingEnvironment environment,
-        String gardenerId) {
+    static CompletableFuture<List<NoteEvent>> getNoteEventsByGardenerId(
+        DataFetchingEnvironment environment, String gardenerId, EventRange range) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-      checkNotNull(gardenerId, "NoteEvent ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, List<NoteEvent>>getDataLoader(
-          GET_BY_GARDENER_ID_DATA_LOADER_NAME).load(gardenerId);
+      checkNotNull(gardenerId, "Gardener ID cannot be null");
+      checkNotNull(range, "EventRange cannot be null");
+      NoteEventQueryRequest query = NoteEventQueryRequest.newBuilder()
+          .setTemplate(NoteEvent.newBuilder()
+              .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId)))
+          .setRange(range)
+          .build();
+      DataLoader<NoteEventQueryRequest, List<NoteEvent>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDENER_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment));
+    }
+
+    static CompletableFuture<NoteEventConnection> getNoteEventPageByGardenPlantId(
+        DataFetchingEnvironment environment, String gardenPlantId, EventPageRequest page) {
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      NoteEvent template = NoteEvent.newBuilder().setGardenPlantId(gardenPlantId).build();
+      return getNoteEventPage(environment, template, page);
+    }
+
+    static CompletableFuture<NoteEventConnection> getNoteEventPageByGardenerId(
+        DataFetchingEnvironment environment, String gardenerId, EventPageRequest page) {
+      checkNotNull(gardenerId, "Gardener ID cannot be null");
+      NoteEvent template = NoteEvent.newBuilder()
+          .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId))
+          .build();
+      return getNoteEventPage(environment, template, page);
+    }
+
+    private static CompletableFuture<NoteEventConnection> getNoteEventPage(
+        DataFetchingEnvironment environment, NoteEvent template, EventPageRequest page) {
+      checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+      checkNotNull(page, "EventPageRequest cannot be null");
+      NoteEventQueryRequest query = NoteEventQueryRequest.newBuilder()
+          .setTemplate(template)
+          .setRange(page.getRange())
+          .setLimit(getPageSize(page.getFirst()))
+          .setContinuationToken(page.getAfter())
+          .build();
+      DataLoader<NoteEventQueryRequest, NoteEventQueryResponse> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_PAGE_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment)).thenApply(ClientModule::toConnection);
+    }
+
+    private CompletableFuture<List<List<NoteEvent>>> batchQuery(
+        List<NoteEventQueryRequest> queries, EventRange range, FieldMask fieldMask) {
+      NoteEventBatchQueryRequest request = NoteEventBatchQueryRequest.newBuilder()
+          .addAllTemplate(queries.stream().map(NoteEventQueryRequest::getTemplate).collect(Collectors.toList()))
+          .setFieldMask(fieldMask)
+          .setRange(range)
+          .build();
+      return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+          response -> alignByPosition(response.getResponseList(), NoteEventQueryResponse::getNoteEventList),
+          MoreExecutors.directExecutor()));
+    }
+
+    private CompletableFuture<NoteEventQueryResponse> query(NoteEventQueryRequest query,
+        FieldMask fieldMask) {
+      return FutureConverter.toCompletableFuture(
+          _futureStub.query(NoteEventQueryRequest.newBuilder(query).setFieldMask(fieldMask).build()));
+    }
+
+    private static NoteEventConnection toConnection(NoteEventQueryResponse response) {
+      NoteEventConnection.Builder builder = NoteEventConnection.newBuilder()
+          .setPageInfo(toPageInfo(response.getContinuationToken()));
+      response.getNoteEventList().forEach(
+          event -> builder.addEdges(NoteEventEdge.newBuilder().setNode(event)));
+      return builder.build();
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, NoteEvent.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:noteevent:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+    }
 
     @Query("getNoteEvent")
     ListenableFuture<NoteEvent> getNoteEvent(NoteEventGetRequest request,
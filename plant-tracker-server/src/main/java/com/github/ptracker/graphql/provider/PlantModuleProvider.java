@@ -2,51 +2,78 @@ package com.github.ptracker.graphql.provider;
 
 import com.github.ptracker.entity.GardenPlant;
 import com.github.ptracker.entity.Plant;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
+import com.github.ptracker.graphql.SharedDataLoaderCache;
+import com.github.ptracker.graphql.SharedDataLoaderCaches;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.GardenPlantConnection;
+import com.github.ptracker.service.PageRequest;
+import com.github.ptracker.service.PlantBatchGetRequest;
 import com.github.ptracker.service.PlantCreateRequest;
+import com.github.ptracker.service.PlantCreateResponse;
 import com.github.ptracker.service.PlantDeleteRequest;
 import com.github.ptracker.service.PlantDeleteResponse;
 import com.github.ptracker.service.PlantGetRequest;
-import com.github.ptracker.service.PlantGetResponse;
 import com.github.ptracker.service.PlantGrpc;
 import com.github.ptracker.service.PlantGrpc.PlantBlockingStub;
 import com.github.ptracker.service.PlantGrpc.PlantFutureStub;
 import com.github.ptracker.service.PlantUpdateRequest;
+import com.github.ptracker.service.PlantUpdateResponse;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class PlantModuleProvider implements GraphQLModuleProvider {
+  // the fields of Plant that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.of("gardenPlants", "id", "gardenPlantsConnection", "id");
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
+
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public PlantModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    this(channel, idGenerator, new SharedDataLoaderCaches.Builder().build());
+  }
 
-  public PlantModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   * @param sharedDataLoaderCaches has the cache that plants are shared across requests in, if any.
+   */
+  public PlantModuleProvider(Channel channel, IdGenerator<Long> idGenerator,
+      SharedDataLoaderCaches sharedDataLoaderCaches) {
+    SharedDataLoaderCache<String, Plant> sharedCache =
+        sharedDataLoaderCaches.get(ClientModule.GET_BY_ID_DATA_LOADER_NAME);
+    _clientModule = new ClientModule(channel, sharedCache);
+    _schemaModule = new SchemaModuleImpl(idGenerator, sharedCache);
   }
 
   @Override
@@ -71,51 +98,58 @@ public class PlantModuleProvider implements GraphQLModuleProvider {
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "plants";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
+    private final SharedDataLoaderCache<String, Plant> _sharedCache;
 
     private PlantFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel, SharedDataLoaderCache<String, Plant> sharedCache) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
+      _sharedCache = checkNotNull(sharedCache, "SharedDataLoaderCache cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(PlantBlockingStub.class).toInstance(PlantGrpc.newBlockingStub(channel));
-      _futureStub = PlantGrpc.newFutureStub(channel);
+      bind(PlantBlockingStub.class).toInstance(PlantGrpc.newBlockingStub(_channel));
+      _futureStub = PlantGrpc.newFutureStub(_channel);
       bind(PlantFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry, Collections.singletonList(GET_BY_ID_DATA_LOADER_NAME));
-      GrpcNotFoundSwallower<String, PlantGetResponse> idToPlant =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(PlantGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, Plant> byIdLoader = ids -> {
-        List<ListenableFuture<Plant>> futures = ids.stream()
-            .map(id -> Futures.transform(idToPlant.apply(id), response -> response != null ? response.getPlant() : null,
-                MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<Plant>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, Plant> byIdLoader = (ids, environment) -> {
+        PlantBatchGetRequest request = PlantBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(_sharedCache.mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getPlantList(), Plant::getId), MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME,
+          DataLoader.newDataLoader(byIdLoader, _sharedCache.newDataLoaderOptions()));
     }
 
     static CompletableFuture<Plant> getPlant(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "Plant ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, Plant>getDataLoader(GET_BY_ID_DATA_LOADER_NAME).load(
-          id);
+      return environment.<DataLoaderRegistry>getContext().<String, Plant>getDataLoader(GET_BY_ID_DATA_LOADER_NAME)
+          .load(id, getFieldMask(environment));
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, Plant.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:plant:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+    private final SharedDataLoaderCache<String, Plant> _sharedCache;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator, SharedDataLoaderCache<String, Plant> sharedCache) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+      _sharedCache = checkNotNull(sharedCache, "SharedDataLoaderCache cannot be null");
+    }
 
     @Query("getPlant")
     ListenableFuture<Plant> getPlant(PlantGetRequest request, DataFetchingEnvironment dataFetchingEnvironment) {
@@ -131,20 +165,23 @@ public class PlantModuleProvider implements GraphQLModuleProvider {
             PlantCreateRequest.newBuilder(request).setPlant(Plant.newBuilder(request.getPlant()).setId(id)).build();
       }
       PlantCreateRequest finalRequest = request;
-      return Futures.transform(client.create(request), ignored -> finalRequest.getPlant(),
-          MoreExecutors.directExecutor());
+      ListenableFuture<PlantCreateResponse> response =
+          _sharedCache.invalidateOnCompletion(finalRequest.getPlant().getId(), client.create(request));
+      return Futures.transform(response, ignored -> finalRequest.getPlant(), MoreExecutors.directExecutor());
     }
 
     // TODO: return needs to be "empty" or "success/failure"
     @Mutation("updatePlant")
     ListenableFuture<Plant> updatePlant(PlantUpdateRequest request, PlantFutureStub client) {
-      return Futures.transform(client.update(request), ignored -> request.getPlant(), MoreExecutors.directExecutor());
+      ListenableFuture<PlantUpdateResponse> response =
+          _sharedCache.invalidateOnCompletion(request.getPlant().getId(), client.update(request));
+      return Futures.transform(response, ignored -> request.getPlant(), MoreExecutors.directExecutor());
     }
 
     // TODO: return needs to be "empty" or "success/failure"
     @Mutation("deletePlant")
     ListenableFuture<PlantDeleteResponse> deletePlant(PlantDeleteRequest request, PlantFutureStub client) {
-      return client.delete(request);
+      return _sharedCache.invalidateOnCompletion(request.getId(), client.delete(request));
     }
 
     @SchemaModification(addField = "gardenPlants", onType = Plant.class)
@@ -152,5 +189,12 @@ public class PlantModuleProvider implements GraphQLModuleProvider {
       return FutureConverter.toListenableFuture(
           GardenPlantModuleProvider.getGardenPlantsByPlantId(environment, plant.getId()));
     }
+
+    @SchemaModification(addField = "gardenPlantsConnection", onType = Plant.class)
+    ListenableFuture<GardenPlantConnection> plantToGardenPlantsConnection(Plant plant, PageRequest page,
+        DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          GardenPlantModuleProvider.getGardenPlantPageByPlantId(environment, plant.getId(), page));
+    }
   }
 }
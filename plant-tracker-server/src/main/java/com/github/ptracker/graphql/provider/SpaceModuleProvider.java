@@ -2,52 +2,78 @@ package com.github.ptracker.graphql.provider;
 
 import com.github.ptracker.entity.Space;
 import com.github.ptracker.entity.Garden;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
+import com.github.ptracker.graphql.SharedDataLoaderCache;
+import com.github.ptracker.graphql.SharedDataLoaderCaches;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.GardenConnection;
+import com.github.ptracker.service.PageRequest;
+import com.github.ptracker.service.SpaceBatchGetRequest;
 import com.github.ptracker.service.SpaceCreateRequest;
+import com.github.ptracker.service.SpaceCreateResponse;
 import com.github.ptracker.service.SpaceDeleteRequest;
 import com.github.ptracker.service.SpaceDeleteResponse;
 import com.github.ptracker.service.SpaceGetRequest;
-import com.github.ptracker.service.SpaceGetResponse;
 import com.github.ptracker.service.SpaceGrpc;
 import com.github.ptracker.service.SpaceGrpc.SpaceBlockingStub;
 import com.github.ptracker.service.SpaceGrpc.SpaceFutureStub;
 import com.github.ptracker.service.SpaceUpdateRequest;
+import com.github.ptracker.service.SpaceUpdateResponse;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomLongIdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class SpaceModuleProvider implements GraphQLModuleProvider {
+  // the fields of Space that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.of("gardens", "id", "gardensConnection", "id");
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
+
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public SpaceModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    this(channel, idGenerator, new SharedDataLoaderCaches.Builder().build());
+  }
 
-  public SpaceModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   * @param sharedDataLoaderCaches has the cache that spaces are shared across requests in, if any.
+   */
+  public SpaceModuleProvider(Channel channel, IdGenerator<Long> idGenerator,
+      SharedDataLoaderCaches sharedDataLoaderCaches) {
+    SharedDataLoaderCache<String, Space> sharedCache =
+        sharedDataLoaderCaches.get(ClientModule.GET_BY_ID_DATA_LOADER_NAME);
+    _clientModule = new ClientModule(channel, sharedCache);
+    _schemaModule = new SchemaModuleImpl(idGenerator, sharedCache);
   }
 
   @Override
@@ -72,51 +98,58 @@ public class SpaceModuleProvider implements GraphQLModuleProvider {
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "spaces";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
+    private final SharedDataLoaderCache<String, Space> _sharedCache;
 
     private SpaceFutureStub _futureStub;
 
-    public ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    public ClientModule(Channel channel, SharedDataLoaderCache<String, Space> sharedCache) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
+      _sharedCache = checkNotNull(sharedCache, "SharedDataLoaderCache cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(SpaceBlockingStub.class).toInstance(SpaceGrpc.newBlockingStub(channel));
-      _futureStub = SpaceGrpc.newFutureStub(channel);
+      bind(SpaceBlockingStub.class).toInstance(SpaceGrpc.newBlockingStub(_channel));
+      _futureStub = SpaceGrpc.newFutureStub(_channel);
       bind(SpaceFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry, Collections.singletonList(GET_BY_ID_DATA_LOADER_NAME));
-      GrpcNotFoundSwallower<String, SpaceGetResponse> idToSpace =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(SpaceGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, Space> byIdLoader = ids -> {
-        List<ListenableFuture<Space>> futures = ids.stream()
-            .map(id -> Futures.transform(idToSpace.apply(id),
-                response -> response != null ? response.getSpace() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<Space>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, Space> byIdLoader = (ids, environment) -> {
+        SpaceBatchGetRequest request = SpaceBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(_sharedCache.mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getSpaceList(), Space::getId), MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME,
+          DataLoader.newDataLoader(byIdLoader, _sharedCache.newDataLoaderOptions()));
     }
 
     static CompletableFuture<Space> getSpace(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "Space ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, Space>getDataLoader(
-          GET_BY_ID_DATA_LOADER_NAME).load(id);
+          GET_BY_ID_DATA_LOADER_NAME).load(id, getFieldMask(environment));
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, Space.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:space:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+    private final SharedDataLoaderCache<String, Space> _sharedCache;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator, SharedDataLoaderCache<String, Space> sharedCache) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+      _sharedCache = checkNotNull(sharedCache, "SharedDataLoaderCache cannot be null");
+    }
 
     @Query("getSpace")
     ListenableFuture<Space> getSpace(SpaceGetRequest request, DataFetchingEnvironment dataFetchingEnvironment) {
@@ -133,20 +166,23 @@ public class SpaceModuleProvider implements GraphQLModuleProvider {
             .build();
       }
       SpaceCreateRequest finalRequest = request;
-      return Futures.transform(client.create(request), ignored -> finalRequest.getSpace(),
-          MoreExecutors.directExecutor());
+      ListenableFuture<SpaceCreateResponse> response =
+          _sharedCache.invalidateOnCompletion(finalRequest.getSpace().getId(), client.create(request));
+      return Futures.transform(response, ignored -> finalRequest.getSpace(), MoreExecutors.directExecutor());
     }
 
     // TODO: return needs to be "empty" or "success/failure"
     @Mutation("updateSpace")
     ListenableFuture<Space> updateSpace(SpaceUpdateRequest request, SpaceFutureStub client) {
-      return Futures.transform(client.update(request), ignored -> request.getSpace(), MoreExecutors.directExecutor());
+      ListenableFuture<SpaceUpdateResponse> response =
+          _sharedCache.invalidateOnCompletion(request.getSpace().getId(), client.update(request));
+      return Futures.transform(response, ignored -> request.getSpace(), MoreExecutors.directExecutor());
     }
 
     // TODO: return needs to be "empty" or "success/failure"
     @Mutation("deleteSpace")
     ListenableFuture<SpaceDeleteResponse> deleteSpace(SpaceDeleteRequest request, SpaceFutureStub client) {
-      return client.delete(request);
+      return _sharedCache.invalidateOnCompletion(request.getId(), client.delete(request));
     }
 
     @SchemaModification(addField = "gardens", onType = Space.class)
@@ -154,5 +190,12 @@ public class SpaceModuleProvider implements GraphQLModuleProvider {
       return FutureConverter.toListenableFuture(
           GardenModuleProvider.getGardensBySpaceId(environment, space.getId()));
     }
+
+    @SchemaModification(addField = "gardensConnection", onType = Space.class)
+    ListenableFuture<GardenConnection> spaceToGardensConnection(Space space, PageRequest page,
+        DataFetchingEnvironment environment) {
+      return FutureConverter.toListenableFuture(
+          GardenModuleProvider.getGardenPageBySpaceId(environment, space.getId(), page));
+    }
   }
 }
@@ -3,13 +3,18 @@ package com.github.ptracker.graphql.provider;
 import com.github.ptracker.common.EventMetadata;
 import com.github.ptracker.entity.GardenPlant;
 import com.github.ptracker.entity.WateringEvent;
-import com.github.ptracker.graphql.GrpcNotFoundSwallower;
+import com.github.ptracker.graphql.SelectedFields;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
+import com.github.ptracker.service.EventPageRequest;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.WateringEventBatchGetRequest;
+import com.github.ptracker.service.WateringEventBatchQueryRequest;
+import com.github.ptracker.service.WateringEventConnection;
 import com.github.ptracker.service.WateringEventCreateRequest;
 import com.github.ptracker.service.WateringEventDeleteRequest;
 import com.github.ptracker.service.WateringEventDeleteResponse;
+import com.github.ptracker.service.WateringEventEdge;
 import com.github.ptracker.service.WateringEventGetRequest;
-import com.github.ptracker.service.WateringEventGetResponse;
 import com.github.ptracker.service.WateringEventGrpc;
 import com.github.ptracker.service.WateringEventGrpc.WateringEventBlockingStub;
 import com.github.ptracker.service.WateringEventGrpc.WateringEventFutureStub;
@@ -17,39 +22,51 @@ import com.github.ptracker.service.WateringEventQueryRequest;
 import com.github.ptracker.service.WateringEventQueryResponse;
 import com.github.ptracker.service.WateringEventUpdateRequest;
 import com.github.ptracker.util.IdGenerator;
-import com.github.ptracker.util.RandomStringIdGenerator;
+import com.github.ptracker.util.TimeOrderedStringIdGenerator;
 import com.google.api.graphql.rejoiner.Mutation;
 import com.google.api.graphql.rejoiner.Query;
 import com.google.api.graphql.rejoiner.SchemaModification;
 import com.google.api.graphql.rejoiner.SchemaModule;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
+import com.google.protobuf.FieldMask;
 import graphql.schema.DataFetchingEnvironment;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import net.javacrumbs.futureconverter.java8guava.FutureConverter;
-import org.dataloader.BatchLoader;
+import org.dataloader.BatchLoaderWithContext;
 import org.dataloader.DataLoader;
 import org.dataloader.DataLoaderRegistry;
 
+import static com.github.ptracker.graphql.BatchLoaderUtils.*;
+import static com.github.ptracker.graphql.ConnectionUtils.*;
 import static com.github.ptracker.graphql.GraphQLVerifierUtils.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class WateringEventModuleProvider implements GraphQLModuleProvider {
+  // the fields of WateringEvent that the fields added to its type read
+  private static final Map<String, String> ADDED_FIELD_DEPENDENCIES =
+      ImmutableMap.of("gardenPlant", "gardenPlantId");
+
   private final ClientModule _clientModule;
-  private final Module _schemaModule = new SchemaModuleImpl();
+  private final Module _schemaModule;
 
-  public WateringEventModuleProvider(String serverHost, int serverPort) {
-    _clientModule = new ClientModule(serverHost, serverPort);
+  /**
+   * @param idGenerator generates the ids of the entities that are created without one.
+   */
+  public WateringEventModuleProvider(Channel channel, IdGenerator<Long> idGenerator) {
+    _clientModule = new ClientModule(channel);
+    _schemaModule = new SchemaModuleImpl(idGenerator);
   }
 
   @Override
@@ -67,119 +84,195 @@ public class WateringEventModuleProvider implements GraphQLModuleProvider {
     _clientModule.registerDataLoaders(registry);
   }
 
+  /**
+   * @param range the timestamps, order and number of the events to return.
+   */
   public static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenPlantId(
-      DataFetchingEnvironment environment, String gardenPlantId) {
-    return WateringEventModuleProvider.ClientModule.getWateringEventsByGardenPlantId(environment, gardenPlantId);
+      DataFetchingEnvironment environment, String gardenPlantId, EventRange range) {
+    return ClientModule.getWateringEventsByGardenPlantId(environment, gardenPlantId, range);
+  }
+
+  /**
+   * @param range the timestamps, order and number of the events to return.
+   */
+  public static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenerId(
+      DataFetchingEnvironment environment, String gardenerId, EventRange range) {
+    return ClientModule.getWateringEventsByGardenerId(environment, gardenerId, range);
   }
 
-  public static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenerId(DataFetchingEnvironment environment,
-      String gardenerId) {
-    checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-    checkNotNull(gardenerId, "WateringEvent ID cannot be null");
-    return WateringEventModuleProvider.ClientModule.getWateringEventsByGardenerId(environment, gardenerId);
+  /**
+   * @param page the number of the events to return, the cursor to return them after and their range.
+   */
+  public static CompletableFuture<WateringEventConnection> getWateringEventPageByGardenPlantId(
+      DataFetchingEnvironment environment, String gardenPlantId, EventPageRequest page) {
+    return ClientModule.getWateringEventPageByGardenPlantId(environment, gardenPlantId, page);
+  }
+
+  /**
+   * @param page the number of the events to return, the cursor to return them after and their range.
+   */
+  public static CompletableFuture<WateringEventConnection> getWateringEventPageByGardenerId(
+      DataFetchingEnvironment environment, String gardenerId, EventPageRequest page) {
+    return ClientModule.getWateringEventPageByGardenerId(environment, gardenerId, page);
   }
 
   private static class ClientModule extends AbstractModule {
     private static final String GET_BY_ID_DATA_LOADER_NAME = "wateringEvents";
     private static final String GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME = "wateringEventsByGardenPlantId";
     private static final String GET_BY_GARDENER_ID_DATA_LOADER_NAME = "wateringEventsByGardenerId";
+    private static final String GET_PAGE_DATA_LOADER_NAME = "wateringEventPages";
 
-    private final String _host;
-    private final int _port;
+    private final Channel _channel;
 
     private WateringEventFutureStub _futureStub;
 
-    ClientModule(String host, int port) {
-      _host = checkNotNull(host, "Host cannot be null");
-      checkArgument(port > 0, "Port should be > 0");
-      _port = port;
+    ClientModule(Channel channel) {
+      _channel = checkNotNull(channel, "Channel cannot be null");
     }
 
     @Override
     protected void configure() {
-      ManagedChannel channel = ManagedChannelBuilder.forAddress(_host, _port).usePlaintext().build();
-      bind(WateringEventBlockingStub.class).toInstance(WateringEventGrpc.newBlockingStub(channel));
-      _futureStub = WateringEventGrpc.newFutureStub(channel);
+      bind(WateringEventBlockingStub.class).toInstance(WateringEventGrpc.newBlockingStub(_channel));
+      _futureStub = WateringEventGrpc.newFutureStub(_channel);
       bind(WateringEventFutureStub.class).toInstance(_futureStub);
     }
 
     void registerDataLoaders(DataLoaderRegistry registry) {
       verifyDataLoaderRegistryKeysUnassigned(registry,
           ImmutableList.of(GET_BY_ID_DATA_LOADER_NAME, GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME,
-              GET_BY_GARDENER_ID_DATA_LOADER_NAME));
+              GET_BY_GARDENER_ID_DATA_LOADER_NAME, GET_PAGE_DATA_LOADER_NAME));
 
       // by id
-      GrpcNotFoundSwallower<String, WateringEventGetResponse> idToWateringEvent =
-          new GrpcNotFoundSwallower<>(id -> _futureStub.get(WateringEventGetRequest.newBuilder().setId(id).build()));
-      BatchLoader<String, WateringEvent> byIdLoader = ids -> {
-        List<ListenableFuture<WateringEvent>> futures = ids.stream()
-            .map(id -> Futures.transform(idToWateringEvent.apply(id),
-                response -> response != null ? response.getWateringEvent() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<WateringEvent>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
-      };
-      registry.register(GET_BY_ID_DATA_LOADER_NAME, new DataLoader<>(byIdLoader));
-
-      // by garden plant id
-      GrpcNotFoundSwallower<String, WateringEventQueryResponse> gardenPlantIdToEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(WateringEventQueryRequest.newBuilder()
-              .setTemplate(WateringEvent.newBuilder().setGardenPlantId(id).build())
-              .build()));
-      BatchLoader<String, List<WateringEvent>> byGardenPlantIdLoader = ids -> {
-        List<ListenableFuture<List<WateringEvent>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenPlantIdToEvent.apply(id),
-                response -> response != null ? response.getWateringEventList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<WateringEvent>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
-      };
-      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenPlantIdLoader));
-
-      // by gardener id
-      GrpcNotFoundSwallower<String, WateringEventQueryResponse> gardenerIdToEvent = new GrpcNotFoundSwallower<>(
-          id -> _futureStub.query(WateringEventQueryRequest.newBuilder()
-              .setTemplate(
-                  WateringEvent.newBuilder().setMetadata(EventMetadata.newBuilder().setGardenerId(id).build()).build())
-              .build()));
-      BatchLoader<String, List<WateringEvent>> byGardenerIdLoader = ids -> {
-        List<ListenableFuture<List<WateringEvent>>> futures = ids.stream()
-            .map(id -> Futures.transform(gardenerIdToEvent.apply(id),
-                response -> response != null ? response.getWateringEventList() : null, MoreExecutors.directExecutor()))
-            .collect(Collectors.toList());
-        ListenableFuture<List<List<WateringEvent>>> listenableFuture = Futures.allAsList(futures);
-        return FutureConverter.toCompletableFuture(listenableFuture);
+      BatchLoaderWithContext<String, WateringEvent> byIdLoader = (ids, environment) -> {
+        WateringEventBatchGetRequest request = WateringEventBatchGetRequest.newBuilder()
+            .addAllId(ids)
+            .setFieldMask(mergeFieldMasks(environment))
+            .build();
+        return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchGet(request),
+            response -> alignByKey(ids, response.getWateringEventList(), WateringEvent::getId),
+            MoreExecutors.directExecutor()));
       };
-      registry.register(GET_BY_GARDENER_ID_DATA_LOADER_NAME, new DataLoader<>(byGardenerIdLoader));
+      registry.register(GET_BY_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byIdLoader));
+
+      // by garden plant id and by gardener id, whose keys are queries for the events of each id
+      BatchLoaderWithContext<WateringEventQueryRequest, List<WateringEvent>> byTemplateLoader =
+          (queries, environment) -> loadByGroup(queries, WateringEventQueryRequest::getRange,
+              (range, rangeQueries) -> batchQuery(rangeQueries, range, mergeFieldMasks(environment)));
+      // separate loaders, so that each batch query filters on one field
+      registry.register(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byTemplateLoader));
+      registry.register(GET_BY_GARDENER_ID_DATA_LOADER_NAME, DataLoader.newDataLoader(byTemplateLoader));
+
+      // pages of the events of a garden plant or a gardener, whose keys are the queries of the pages
+      BatchLoaderWithContext<WateringEventQueryRequest, WateringEventQueryResponse> pageLoader =
+          (queries, environment) -> loadEach(queries, query -> query(query, mergeFieldMasks(environment)));
+      registry.register(GET_PAGE_DATA_LOADER_NAME, DataLoader.newDataLoader(pageLoader));
     }
 
     static CompletableFuture<WateringEvent> getWateringEvent(DataFetchingEnvironment environment, String id) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
       checkNotNull(id, "WateringEvent ID cannot be null");
       return environment.<DataLoaderRegistry>getContext().<String, WateringEvent>getDataLoader(
-          GET_BY_ID_DATA_LOADER_NAME).load(id);
+          GET_BY_ID_DATA_LOADER_NAME).load(id, getFieldMask(environment));
     }
 
-    static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenPlantId(DataFetchingEnvironment environment,
-        String gardenPlantId) {
+    static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenPlantId(
+        DataFetchingEnvironment environment, String gardenPlantId, EventRange range) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-      checkNotNull(gardenPlantId, "WateringEvent ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, List<WateringEvent>>getDataLoader(
-          GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME).load(gardenPlantId);
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      checkNotNull(range, "EventRange cannot be null");
+      WateringEventQueryRequest query = WateringEventQueryRequest.newBuilder()
+          .setTemplate(WateringEvent.newBuilder().setGardenPlantId(gardenPlantId))
+          .setRange(range)
+          .build();
+      DataLoader<WateringEventQueryRequest, List<WateringEvent>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDEN_PLANT_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment));
     }
 
-    static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenerId(DataFetchingEnvironment environment,
-        String gardenerId) {
+    static CompletableFuture<List<WateringEvent>> getWateringEventsByGardenerId(
+        DataFetchingEnvironment environment, String gardenerId, EventRange range) {
       checkNotNull(environment, "DataFetchingEnvironment cannot be null");
-      checkNotNull(gardenerId, "WateringEvent ID cannot be null");
-      return environment.<DataLoaderRegistry>getContext().<String, List<WateringEvent>>getDataLoader(
-          GET_BY_GARDENER_ID_DATA_LOADER_NAME).load(gardenerId);
+      checkNotNull(gardenerId, "Gardener ID cannot be null");
+      checkNotNull(range, "EventRange cannot be null");
+      WateringEventQueryRequest query = WateringEventQueryRequest.newBuilder()
+          .setTemplate(WateringEvent.newBuilder()
+              .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId)))
+          .setRange(range)
+          .build();
+      DataLoader<WateringEventQueryRequest, List<WateringEvent>> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_BY_GARDENER_ID_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment));
+    }
+
+    static CompletableFuture<WateringEventConnection> getWateringEventPageByGardenPlantId(
+        DataFetchingEnvironment environment, String gardenPlantId, EventPageRequest page) {
+      checkNotNull(gardenPlantId, "GardenPlant ID cannot be null");
+      WateringEvent template = WateringEvent.newBuilder().setGardenPlantId(gardenPlantId).build();
+      return getWateringEventPage(environment, template, page);
+    }
+
+    static CompletableFuture<WateringEventConnection> getWateringEventPageByGardenerId(
+        DataFetchingEnvironment environment, String gardenerId, EventPageRequest page) {
+      checkNotNull(gardenerId, "Gardener ID cannot be null");
+      WateringEvent template = WateringEvent.newBuilder()
+          .setMetadata(EventMetadata.newBuilder().setGardenerId(gardenerId))
+          .build();
+      return getWateringEventPage(environment, template, page);
+    }
+
+    private static CompletableFuture<WateringEventConnection> getWateringEventPage(
+        DataFetchingEnvironment environment, WateringEvent template, EventPageRequest page) {
+      checkNotNull(environment, "DataFetchingEnvironment cannot be null");
+      checkNotNull(page, "EventPageRequest cannot be null");
+      WateringEventQueryRequest query = WateringEventQueryRequest.newBuilder()
+          .setTemplate(template)
+          .setRange(page.getRange())
+          .setLimit(getPageSize(page.getFirst()))
+          .setContinuationToken(page.getAfter())
+          .build();
+      DataLoader<WateringEventQueryRequest, WateringEventQueryResponse> dataLoader =
+          environment.<DataLoaderRegistry>getContext().getDataLoader(GET_PAGE_DATA_LOADER_NAME);
+      return dataLoader.load(query, getFieldMask(environment)).thenApply(ClientModule::toConnection);
+    }
+
+    private CompletableFuture<List<List<WateringEvent>>> batchQuery(
+        List<WateringEventQueryRequest> queries, EventRange range, FieldMask fieldMask) {
+      WateringEventBatchQueryRequest request = WateringEventBatchQueryRequest.newBuilder()
+          .addAllTemplate(queries.stream().map(WateringEventQueryRequest::getTemplate).collect(Collectors.toList()))
+          .setFieldMask(fieldMask)
+          .setRange(range)
+          .build();
+      return FutureConverter.toCompletableFuture(Futures.transform(_futureStub.batchQuery(request),
+          response -> alignByPosition(response.getResponseList(), WateringEventQueryResponse::getWateringEventList),
+          MoreExecutors.directExecutor()));
+    }
+
+    private CompletableFuture<WateringEventQueryResponse> query(WateringEventQueryRequest query,
+        FieldMask fieldMask) {
+      return FutureConverter.toCompletableFuture(
+          _futureStub.query(WateringEventQueryRequest.newBuilder(query).setFieldMask(fieldMask).build()));
+    }
+
+    private static WateringEventConnection toConnection(WateringEventQueryResponse response) {
+      WateringEventConnection.Builder builder = WateringEventConnection.newBuilder()
+          .setPageInfo(toPageInfo(response.getContinuationToken()));
+      response.getWateringEventList().forEach(
+          event -> builder.addEdges(WateringEventEdge.newBuilder().setNode(event)));
+      return builder.build();
+    }
+
+    private static FieldMask getFieldMask(DataFetchingEnvironment environment) {
+      return SelectedFields.getFieldMask(environment, WateringEvent.getDescriptor(), ADDED_FIELD_DEPENDENCIES);
     }
   }
 
   private static class SchemaModuleImpl extends SchemaModule {
     private static final String ID_PREFIX = "ptracker:wateringevent:";
-    private final IdGenerator<String> _idGenerator = new RandomStringIdGenerator(ID_PREFIX);
+    private final IdGenerator<String> _idGenerator;
+
+    SchemaModuleImpl(IdGenerator<Long> idGenerator) {
+      _idGenerator = new TimeOrderedStringIdGenerator(ID_PREFIX, idGenerator);
+    }
 
     @Query("getWateringEvent")
     ListenableFuture<WateringEvent> getWateringEvent(WateringEventGetRequest request,
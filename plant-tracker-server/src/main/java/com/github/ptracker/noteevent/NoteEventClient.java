@@ -15,6 +15,7 @@ import com.github.ptracker.service.NoteEventGrpc.NoteEventBlockingStub;
 import com.github.ptracker.service.NoteEventQueryRequest;
 import com.github.ptracker.service.NoteEventUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -31,14 +32,21 @@ public class NoteEventClient implements GrpcResource.GrpcClient<String, NoteEven
 
   @Override
   public NoteEvent get(String key, GetRequestOptions options) {
-    NoteEventGetRequest request = NoteEventGetRequest.newBuilder().setId(key).build();
+    NoteEventGetRequest.Builder requestBuilder = NoteEventGetRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenPlantId(options.getPartitionKey());
+    }
+    NoteEventGetRequest request = requestBuilder.build();
     return _blockingStub.get(request).getNoteEvent();
   }
 
   @Override
   public List<NoteEvent> query(NoteEvent template, QueryRequestOptions options) {
     NoteEventQueryRequest request = NoteEventQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getNoteEventList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<NoteEvent> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getNoteEventList()));
+    return values;
   }
 
   @Override
@@ -56,7 +64,11 @@ public class NoteEventClient implements GrpcResource.GrpcClient<String, NoteEven
 
   @Override
   public void delete(String key, DeleteRequestOptions options) {
-    NoteEventDeleteRequest request = NoteEventDeleteRequest.newBuilder().setId(key).build();
+    NoteEventDeleteRequest.Builder requestBuilder = NoteEventDeleteRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenPlantId(options.getPartitionKey());
+    }
+    NoteEventDeleteRequest request = requestBuilder.build();
     _blockingStub.delete(request);
   }
 }
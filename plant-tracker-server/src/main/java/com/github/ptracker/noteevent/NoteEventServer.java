@@ -1,14 +1,16 @@
 package com.github.ptracker.noteevent;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.ptracker.entity.NoteEvent;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,10 +21,15 @@ public class NoteEventServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "noteEvents";
+  // the fields that templates filter on, most selective first
+  private static final List<String> INDEXED_PATHS = ImmutableList.of("gardenPlantId", "metadata.gardenerId");
 
-  public NoteEventServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION,
-        ServerBuilder.forPort(port).addService(new NoteEventService(getCosmosResource(cosmosClient))));
+  public NoteEventServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new NoteEventService(getResource(resourceFactory));
   }
 
   private static void verifyNoteEvent(NoteEvent noteEvent) {
@@ -32,13 +39,12 @@ public class NoteEventServer extends GrpcServer {
     verifyEventMetadata(noteEvent.getMetadata(), NoteEvent.class.getName(), "metadata");
   }
 
-  private static Resource<String, NoteEvent> getCosmosResource(CosmosClient cosmosClient) {
+  private static AsyncResource<String, NoteEvent> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, NoteEvent> dataInterchange =
         new ProtoBufJsonInterchange<>(NoteEvent::newBuilder);
     Function<String, NoteEvent> valueWithIdOnlyCreator = key -> NoteEvent.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, NoteEvent> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, NoteEventServer::verifyNoteEvent);
-    return supplier.get();
+    Function<NoteEvent, String> partitionKeyExtractor = NoteEvent::getGardenPlantId;
+    return resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+        partitionKeyExtractor, NoteEventServer::verifyNoteEvent, INDEXED_PATHS);
   }
 }
@@ -1,14 +1,27 @@
 package com.github.ptracker.noteevent;
 
-import com.github.ptracker.StreamObserverConverter;
 import com.github.ptracker.entity.NoteEvent;
-import com.github.ptracker.resource.CreateRequestOptionsImpl;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.BulkWriter;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.EventRanges;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledCreateReceiver;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.NoteEventBatchGetRequest;
+import com.github.ptracker.service.NoteEventBatchGetResponse;
+import com.github.ptracker.service.NoteEventBatchQueryRequest;
+import com.github.ptracker.service.NoteEventBatchQueryResponse;
+import com.github.ptracker.service.NoteEventCreateManyResponse;
 import com.github.ptracker.service.NoteEventCreateRequest;
 import com.github.ptracker.service.NoteEventCreateResponse;
 import com.github.ptracker.service.NoteEventDeleteRequest;
@@ -20,113 +33,272 @@ import com.github.ptracker.service.NoteEventQueryRequest;
 import com.github.ptracker.service.NoteEventQueryResponse;
 import com.github.ptracker.service.NoteEventUpdateRequest;
 import com.github.ptracker.service.NoteEventUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.util.List;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class NoteEventService extends NoteEventImplBase {
-  private final Resource<String, NoteEvent> _noteEventResource;
+  private static final int MAX_IN_FLIGHT_CREATES_PER_CALL = 64;
 
-  public NoteEventService(Resource<String, NoteEvent> noteEventResource) {
+  private final AsyncResource<String, NoteEvent> _noteEventResource;
+  private final BulkWriter<String, NoteEvent> _noteEventBulkWriter;
+
+  public NoteEventService(AsyncResource<String, NoteEvent> noteEventResource) {
     _noteEventResource = checkNotNull(noteEventResource, "NoteEvent Resource cannot be null");
+    _noteEventBulkWriter = new BulkWriter.Builder<>(_noteEventResource).build();
   }
 
   @Override
   public void get(NoteEventGetRequest request, StreamObserver<NoteEventGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("NoteEvent ID is missing")));
     } else {
-      // TODO: add metadata
-      NoteEventQueryRequest noteEventQueryRequest =
-          NoteEventQueryRequest.newBuilder().setTemplate(NoteEvent.newBuilder().setId(request.getId())).build();
-      query(noteEventQueryRequest, new StreamObserverConverter<>(responseObserver, noteEventQueryResponse -> {
-        NoteEvent noteEvent = Iterables.getOnlyElement(noteEventQueryResponse.getNoteEventList());
-        responseObserver.onNext(NoteEventGetResponse.newBuilder().setNoteEvent(noteEvent).build());
-        }));
+      _noteEventResource.get(request.getId(), getGetRequestOptions(fieldMask, request.getGardenPlantId(), session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return NoteEventGetResponse.newBuilder()
+                .setNoteEvent(FieldMasks.trim(fieldMask, getResponse.getPayload()))
+                .build();
+          }));
     }
   }
 
   @Override
   public void query(NoteEventQueryRequest request, StreamObserver<NoteEventQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _noteEventResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<NoteEvent>> responses =
-          _noteEventResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      NoteEventQueryResponse.Builder responseBuilder = NoteEventQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addNoteEvent(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _noteEventResource.query(request.getTemplate(),
+          getQueryRequestOptions(fieldMask, request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            NoteEventQueryResponse.Builder responseBuilder = NoteEventQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addNoteEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(NoteEventQueryRequest request, StreamObserver<NoteEventQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _noteEventResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(NoteEventBatchGetRequest request, StreamObserver<NoteEventBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("NoteEvent ID is missing")));
+    } else {
+      _noteEventResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            NoteEventBatchGetResponse.Builder responseBuilder = NoteEventBatchGetResponse.newBuilder();
+            for (ResourceResponse<NoteEvent> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addNoteEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void batchQuery(NoteEventBatchQueryRequest request,
+      StreamObserver<NoteEventBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      _noteEventResource.batchQuery(request.getTemplateList(),
+          getQueryRequestOptions(fieldMask, request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
     }
   }
 
   @Override
   public void create(NoteEventCreateRequest request, StreamObserver<NoteEventCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasNoteEvent()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("NoteEvent is missing")));
     } else {
-      ResourceResponse<Void> createResponse =
-          _noteEventResource.create(request.getNoteEvent(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(NoteEventCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      _noteEventBulkWriter.create(request.getNoteEvent())
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return NoteEventCreateResponse.newBuilder().build();
+          }));
     }
   }
 
+  @Override
+  public StreamObserver<NoteEventCreateRequest> createMany(
+      StreamObserver<NoteEventCreateManyResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
+    return FlowControlledCreateReceiver.receive(request -> {
+      if (!request.hasNoteEvent()) {
+        throw new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("NoteEvent is missing"));
+      }
+      return _noteEventBulkWriter.create(request.getNoteEvent()).thenApply(createResponse -> {
+        session.update(createResponse.getStorageMetadata());
+        return createResponse;
+      });
+    }, createdCount -> NoteEventCreateManyResponse.newBuilder().setCreatedCount(createdCount).build(),
+        MAX_IN_FLIGHT_CREATES_PER_CALL, responseObserver);
+  }
+
   @Override
   public void update(NoteEventUpdateRequest request, StreamObserver<NoteEventUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasNoteEvent()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("NoteEvent is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _noteEventResource.update(request.getNoteEvent(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(NoteEventUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      _noteEventResource.update(request.getNoteEvent(),
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return NoteEventUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(NoteEventDeleteRequest request, StreamObserver<NoteEventDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("NoteEvent ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _noteEventResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(NoteEventDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      _noteEventResource.delete(request.getId(),
+          new DeleteRequestOptionsImpl.Builder().partitionKey(request.getGardenPlantId()).build())
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return NoteEventDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+    }
+  }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, NoteEvent.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  /**
+   * @param partitionKey the partition of the NoteEvent, or empty if the caller did not say.
+   */
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, String partitionKey,
+      StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask)
+        .partitionKey(partitionKey)
+        .metadata(session.getMetadata())
+        .build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, EventRange range,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session))
+        .bounds(EventRanges.toQueryBounds(range))
+        .build();
+  }
+
+  private static String getContinuationToken(NoteEventQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(NoteEventQueryRequest request, String continuationToken,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .bounds(EventRanges.toQueryBounds(request.getRange()))
+        .build();
+  }
+
+  private NoteEventQueryResponse toQueryResponse(ResourcePage<NoteEvent> page, List<String> fieldMask) {
+    NoteEventQueryResponse.Builder responseBuilder = NoteEventQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addNoteEvent(FieldMasks.trim(fieldMask, response.getPayload()));
       }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
     }
+    return responseBuilder.build();
+  }
+
+  private NoteEventBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<NoteEvent>>> responses,
+      List<String> fieldMask) {
+    NoteEventBatchQueryResponse.Builder responseBuilder = NoteEventBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      NoteEventQueryResponse.Builder templateResponseBuilder = NoteEventQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addNoteEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
   }
 }
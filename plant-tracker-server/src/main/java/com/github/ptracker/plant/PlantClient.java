@@ -15,6 +15,7 @@ import com.github.ptracker.service.PlantGrpc.PlantBlockingStub;
 import com.github.ptracker.service.PlantQueryRequest;
 import com.github.ptracker.service.PlantUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -38,7 +39,10 @@ public class PlantClient implements GrpcResource.GrpcClient<String, Plant> {
   @Override
   public List<Plant> query(Plant template, QueryRequestOptions options) {
     PlantQueryRequest request = PlantQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getPlantList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<Plant> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getPlantList()));
+    return values;
   }
 
   @Override
@@ -1,14 +1,18 @@
 package com.github.ptracker.plant;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.ptracker.entity.Plant;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CachingResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,9 +23,19 @@ public class PlantServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "plants";
+  // only ever read by id
+  private static final List<String> INDEXED_PATHS = ImmutableList.of();
 
-  public PlantServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(new PlantService(getCosmosResource(cosmosClient))));
+  // plants are read by most requests and rarely change, so serve them from memory
+  private static final Duration CACHE_TTL = Duration.ofMinutes(10);
+  private static final long CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+  public PlantServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new PlantService(getResource(resourceFactory));
   }
 
   private static void verifyPlant(Plant plant) {
@@ -29,12 +43,15 @@ public class PlantServer extends GrpcServer {
     verifyStringFieldNotNullOrEmpty(plant.getName(), Plant.class.getName(), "name");
   }
 
-  private static Resource<String, Plant> getCosmosResource(CosmosClient cosmosClient) {
+  private static AsyncResource<String, Plant> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, Plant> dataInterchange = new ProtoBufJsonInterchange<>(Plant::newBuilder);
     Function<String, Plant> valueWithIdOnlyCreator = key -> Plant.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, Plant> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, PlantServer::verifyPlant);
-    return supplier.get();
+    Function<Plant, String> partitionKeyExtractor = Plant::getId;
+    AsyncResource<String, Plant> resource =
+        resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+            partitionKeyExtractor, PlantServer::verifyPlant, INDEXED_PATHS);
+    return new CachingResource.Builder<>(resource, Plant::getId).ttl(CACHE_TTL)
+        .weigher(Plant::getSerializedSize, CACHE_MAX_BYTES)
+        .build();
   }
 }
@@ -1,20 +1,23 @@
 package com.github.ptracker.plant;
 
-import com.github.ptracker.StreamObserverConverter;
-import com.github.ptracker.entity.Plant;
 import com.github.ptracker.entity.Plant;
+import com.github.ptracker.resource.AsyncResource;
 import com.github.ptracker.resource.CreateRequestOptionsImpl;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
 import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
-import com.github.ptracker.service.PlantGetRequest;
-import com.github.ptracker.service.PlantGetResponse;
-import com.github.ptracker.service.PlantQueryRequest;
-import com.github.ptracker.service.PlantQueryResponse;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.PlantBatchGetRequest;
+import com.github.ptracker.service.PlantBatchGetResponse;
+import com.github.ptracker.service.PlantBatchQueryRequest;
+import com.github.ptracker.service.PlantBatchQueryResponse;
 import com.github.ptracker.service.PlantCreateRequest;
 import com.github.ptracker.service.PlantCreateResponse;
 import com.github.ptracker.service.PlantDeleteRequest;
@@ -22,115 +25,225 @@ import com.github.ptracker.service.PlantDeleteResponse;
 import com.github.ptracker.service.PlantGetRequest;
 import com.github.ptracker.service.PlantGetResponse;
 import com.github.ptracker.service.PlantGrpc.PlantImplBase;
+import com.github.ptracker.service.PlantQueryRequest;
+import com.github.ptracker.service.PlantQueryResponse;
 import com.github.ptracker.service.PlantUpdateRequest;
 import com.github.ptracker.service.PlantUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.util.List;
-import java.util.Optional;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class PlantService extends PlantImplBase {
-  private final Resource<String, Plant> _plantResource;
+  private final AsyncResource<String, Plant> _plantResource;
 
-  public PlantService(Resource<String, Plant> plantResource) {
+  public PlantService(AsyncResource<String, Plant> plantResource) {
     _plantResource = checkNotNull(plantResource, "Plant Resource cannot be null");
   }
 
   @Override
   public void get(PlantGetRequest request, StreamObserver<PlantGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Plant ID is missing")));
     } else {
-      // TODO: add metadata
-      PlantQueryRequest plantQueryRequest =
-          PlantQueryRequest.newBuilder().setTemplate(Plant.newBuilder().setId(request.getId())).build();
-      query(plantQueryRequest, new StreamObserverConverter<>(responseObserver, plantQueryResponse -> {
-        Plant plant = Iterables.getOnlyElement(plantQueryResponse.getPlantList());
-        responseObserver.onNext(PlantGetResponse.newBuilder().setPlant(plant).build());
-      }));
+      _plantResource.get(request.getId(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return PlantGetResponse.newBuilder().setPlant(FieldMasks.trim(fieldMask, getResponse.getPayload())).build();
+          }));
     }
   }
 
   @Override
   public void query(PlantQueryRequest request, StreamObserver<PlantQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _plantResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<Plant>> responses =
-          _plantResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      PlantQueryResponse.Builder responseBuilder = PlantQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addPlant(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _plantResource.query(request.getTemplate(), getQueryRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            PlantQueryResponse.Builder responseBuilder = PlantQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addPlant(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(PlantQueryRequest request, StreamObserver<PlantQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _plantResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(PlantBatchGetRequest request, StreamObserver<PlantBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Plant ID is missing")));
+    } else {
+      _plantResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            PlantBatchGetResponse.Builder responseBuilder = PlantBatchGetResponse.newBuilder();
+            for (ResourceResponse<Plant> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addPlant(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
     }
   }
 
+  @Override
+  public void batchQuery(PlantBatchQueryRequest request,
+      StreamObserver<PlantBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    _plantResource.batchQuery(request.getTemplateList(), getQueryRequestOptions(fieldMask, session))
+        .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
+  }
+
   @Override
   public void create(PlantCreateRequest request, StreamObserver<PlantCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasPlant()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Plant is missing")));
     } else {
-      ResourceResponse<Void> createResponse = _plantResource.create(request.getPlant(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(PlantCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      _plantResource.create(request.getPlant(), new CreateRequestOptionsImpl())
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return PlantCreateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void update(PlantUpdateRequest request, StreamObserver<PlantUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasPlant()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Plant is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _plantResource.update(request.getPlant(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(PlantUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      _plantResource.update(request.getPlant(),
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return PlantUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(PlantDeleteRequest request, StreamObserver<PlantDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Plant ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _plantResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(PlantDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      _plantResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build())
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return PlantDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+    }
+  }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, Plant.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session)).build();
+  }
+
+  private static String getContinuationToken(PlantQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(PlantQueryRequest request, String continuationToken,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .build();
+  }
+
+  private PlantQueryResponse toQueryResponse(ResourcePage<Plant> page, List<String> fieldMask) {
+    PlantQueryResponse.Builder responseBuilder = PlantQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addPlant(FieldMasks.trim(fieldMask, response.getPayload()));
       }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
     }
+    return responseBuilder.build();
+  }
+
+  private PlantBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<Plant>>> responses,
+      List<String> fieldMask) {
+    PlantBatchQueryResponse.Builder responseBuilder = PlantBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      PlantQueryResponse.Builder templateResponseBuilder = PlantQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addPlant(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
   }
 }
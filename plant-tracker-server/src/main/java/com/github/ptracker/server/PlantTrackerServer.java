@@ -1,9 +1,12 @@
 package com.github.ptracker.server;
 
 import com.azure.cosmos.ConsistencyLevel;
-import com.azure.cosmos.CosmosClient;
+import com.azure.cosmos.CosmosAsyncClient;
 import com.azure.cosmos.CosmosClientBuilder;
+import com.azure.cosmos.ThrottlingRetryOptions;
 import com.github.ptracker.space.SpaceServer;
+import com.github.ptracker.careaggregate.CareAggregateRebuilder;
+import com.github.ptracker.careaggregate.CareAggregateServer;
 import com.github.ptracker.common.storage.StorageMetadata;
 import com.github.ptracker.entity.Plant;
 import com.github.ptracker.fertilizationevent.FertilizationEventServer;
@@ -11,8 +14,11 @@ import com.github.ptracker.garden.GardenServer;
 import com.github.ptracker.gardener.GardenerServer;
 import com.github.ptracker.gardenplant.GardenPlantServer;
 import com.github.ptracker.graphql.GraphQLServer;
+import com.github.ptracker.graphql.GraphQLServerLimits;
+import com.github.ptracker.graphql.SharedDataLoaderCaches;
 import com.github.ptracker.graphql.api.GraphQLModuleProvider;
 import com.github.ptracker.graphql.provider.SpaceModuleProvider;
+import com.github.ptracker.graphql.provider.CareAggregateModuleProvider;
 import com.github.ptracker.graphql.provider.EventMetadataModuleProvider;
 import com.github.ptracker.graphql.provider.FertilizationEventModuleProvider;
 import com.github.ptracker.graphql.provider.FullGraphProvider;
@@ -25,6 +31,7 @@ import com.github.ptracker.graphql.provider.WateringEventModuleProvider;
 import com.github.ptracker.noteevent.NoteEventServer;
 import com.github.ptracker.plant.PlantClient;
 import com.github.ptracker.plant.PlantServer;
+import com.github.ptracker.resource.CosmosMetrics;
 import com.github.ptracker.resource.CreateRequestOptionsImpl;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
 import com.github.ptracker.resource.GetRequestOptionsImpl;
@@ -33,9 +40,25 @@ import com.github.ptracker.resource.Resource;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.AsyncResourceFactory;
+import com.github.ptracker.service.ChannelPool;
+import com.github.ptracker.service.CosmosAsyncResourceFactory;
+import com.github.ptracker.service.InMemoryResourceFactory;
 import com.github.ptracker.service.StartStopService;
+import com.github.ptracker.service.StorageSession;
+import com.github.ptracker.util.IdGenerator;
+import com.github.ptracker.util.SnowflakeIdGenerator;
 import com.github.ptracker.wateringevent.WateringEventServer;
+import io.grpc.BindableService;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -66,7 +89,25 @@ public class PlantTrackerServer implements StartStopService {
   private static final String OPT_COSMOS_DB_ACCOUNT_ENDPOINT = "cosmosDBAccountEndpoint";
   private static final String OPT_COSMOS_DB_ACCOUNT_KEY = "cosmosDBAccountKey";
   private static final String OPT_COSMOS_DB_PREFERRED_REGIONS = "cosmosDBPreferredRegions";
+  private static final String OPT_COSMOS_DB_QUERY_METRICS_SAMPLE_RATE = "cosmosDBQueryMetricsSampleRate";
+  private static final String OPT_COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS = "cosmosDBSlowOperationThresholdMs";
+  private static final String OPT_COSMOS_DB_REQUEST_UNITS_PER_SECOND = "cosmosDBRequestUnitsPerSecond";
+  private static final String OPT_COSMOS_DB_MAX_QUEUE_DELAY_MS = "cosmosDBMaxQueueDelayMs";
   private static final String OPT_GQL_SERVER_STATIC_RESOURCES_PATH = "graphQLServerStaticResourcesPath";
+  private static final String OPT_GQL_SERVER_ID_NODE_ID_ASSIGNMENT = "graphQLServerIdNodeIdAssignment";
+  private static final String OPT_GQL_SERVER_ID_NODE_ID = "graphQLServerIdNodeId";
+  private static final String OPT_GQL_SERVER_MAX_THREADS = "graphQLServerMaxThreads";
+  private static final String OPT_GQL_SERVER_MAX_QUEUED_REQUESTS = "graphQLServerMaxQueuedRequests";
+  private static final String OPT_GQL_SERVER_REQUEST_TIMEOUT_MS = "graphQLServerRequestTimeoutMs";
+  private static final String OPT_GQL_SERVER_SHARED_DATA_LOADER_CACHES = "graphQLServerSharedDataLoaderCaches";
+  private static final String OPT_GQL_SERVER_MAX_QUERY_DEPTH = "graphQLServerMaxQueryDepth";
+  private static final String OPT_GQL_SERVER_MAX_QUERY_COST = "graphQLServerMaxQueryCost";
+  private static final String OPT_GRPC_SERVICES_DEPLOYMENT = "grpcServicesDeployment";
+  private static final String OPT_GRPC_SERVICES_HOST = "grpcServicesHost";
+  private static final String OPT_GRPC_SERVICES_PORT = "grpcServicesPort";
+  private static final String OPT_GRPC_CHANNEL_POOL_SIZE = "grpcChannelPoolSize";
+  private static final String OPT_STORAGE_BACKEND = "storageBackend";
+  private static final String OPT_REBUILD_CARE_AGGREGATES = "rebuildCareAggregates";
 
   // ports
   private static final int GRAPHQL_SERVER_PORT = 8080;
@@ -78,22 +119,46 @@ public class PlantTrackerServer implements StartStopService {
   private static final int NOTE_EVENT_SERVICE_PORT = 30005;
   private static final int PLANT_SERVICE_PORT = 30006;
   private static final int WATERING_EVENT_SERVICE_PORT = 30007;
+  private static final int CARE_AGGREGATE_SERVICE_PORT = 30008;
 
   // cosmos testing
   private static final boolean COSMOS_TESTING = false;
 
   // other
   private static final String DEFAULT_GRAPHQL_SERVER_STATIC_RESOURCES_PATH = "src/main/resources";
+  private static final String DEFAULT_GRAPHQL_SERVER_SHARED_DATA_LOADER_CACHES =
+      "plants:10000:60000,spaces:10000:60000,Gardeners:10000:60000";
+  private static final String DEFAULT_GRPC_CHANNEL_POOL_SIZE = "4";
+  private static final String DEFAULT_COSMOS_DB_QUERY_METRICS_SAMPLE_RATE = "0.01";
+  private static final String DEFAULT_COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS = "1000";
+  private static final String DEFAULT_COSMOS_DB_REQUEST_UNITS_PER_SECOND = "400";
+  private static final String DEFAULT_COSMOS_DB_MAX_QUEUE_DELAY_MS = "500";
+  private static final String SHARED_SERVICES_DESCRIPTION = "PlantTrackerServices";
+  private static final String IN_PROCESS_SHARED_SERVICES_DESCRIPTION = "InProcessPlantTrackerServices";
 
   private final CosmosDBConfiguration _cosmosDBConfiguration;
   private final GraphQLServerConfiguration _graphQLServerConfiguration;
+  private final GrpcServicesConfiguration _grpcServicesConfiguration;
+  private final StorageConfiguration _storageConfiguration;
   private final List<StartStopService> _services = new ArrayList<>();
-  private CosmosClient _cosmosClient = null;
+  private final List<ManagedChannel> _channels = new ArrayList<>();
+  // the channel every GraphQL module provider shares, unless each service is on its own server
+  private Channel _sharedChannel = null;
+  private CosmosAsyncClient _cosmosClient = null;
+  private AsyncResourceFactory _resourceFactory = null;
+  private CosmosMetrics _storageMetrics = new CosmosMetrics.Builder().build();
 
   @Override
   public void start() throws IOException {
     LOGGER.info("Starting all services for PlantTracker");
-    createCosmosClient();
+    if (!GrpcServicesConfiguration.Deployment.REMOTE_SERVER.equals(_grpcServicesConfiguration.getDeployment())) {
+      createResourceFactory();
+      if (_storageConfiguration.getRebuildCareAggregates()) {
+        LOGGER.info("Rebuilding care aggregates");
+        int count = new CareAggregateRebuilder(_resourceFactory).rebuild();
+        LOGGER.info("Rebuilt {} care aggregates", count);
+      }
+    }
     createServices();
     for (StartStopService service : _services) {
       service.start();
@@ -117,6 +182,7 @@ public class PlantTrackerServer implements StartStopService {
   public void stop() {
     LOGGER.info("Stopping all services");
     _services.forEach(StartStopService::stop);
+    _channels.forEach(ManagedChannel::shutdown);
     if (_cosmosClient != null) {
       _cosmosClient.close();
       _cosmosClient = null;
@@ -127,6 +193,7 @@ public class PlantTrackerServer implements StartStopService {
   @Override
   public void shutdownNow() {
     _services.forEach(StartStopService::shutdownNow);
+    _channels.forEach(ManagedChannel::shutdownNow);
     if (_cosmosClient != null) {
       _cosmosClient.close();
       _cosmosClient = null;
@@ -153,6 +220,29 @@ public class PlantTrackerServer implements StartStopService {
     _services.get(_services.size() - 1).awaitTermination();
   }
 
+  private void createResourceFactory() {
+    if (StorageConfiguration.Backend.IN_MEMORY.equals(_storageConfiguration.getBackend())) {
+      _resourceFactory = new InMemoryResourceFactory();
+    } else {
+      createCosmosClient();
+      CosmosMetrics.Builder metricsBuilder = new CosmosMetrics.Builder()
+          .queryMetricsSampleRate(_cosmosDBConfiguration.getQueryMetricsSampleRate());
+      if (_cosmosDBConfiguration.getSlowOperationThresholdMs() > 0) {
+        metricsBuilder.slowOperationThreshold(
+            Duration.ofMillis(_cosmosDBConfiguration.getSlowOperationThresholdMs()));
+      }
+      _storageMetrics = metricsBuilder.build();
+      int requestUnitsPerSecond = _cosmosDBConfiguration.getRequestUnitsPerSecond() > 0
+          ? _cosmosDBConfiguration.getRequestUnitsPerSecond()
+          : Integer.parseInt(DEFAULT_COSMOS_DB_REQUEST_UNITS_PER_SECOND);
+      int maxQueueDelayMs = _cosmosDBConfiguration.getMaxQueueDelayMs() > 0
+          ? _cosmosDBConfiguration.getMaxQueueDelayMs()
+          : Integer.parseInt(DEFAULT_COSMOS_DB_MAX_QUEUE_DELAY_MS);
+      _resourceFactory = new CosmosAsyncResourceFactory(_cosmosClient, _storageMetrics, requestUnitsPerSecond,
+          Duration.ofMillis(maxQueueDelayMs));
+    }
+  }
+
   private void createCosmosClient() {
     if (_cosmosClient != null) {
       return;
@@ -161,33 +251,35 @@ public class PlantTrackerServer implements StartStopService {
         .key(_cosmosDBConfiguration.getAccountKey())
         .preferredRegions(_cosmosDBConfiguration.getPreferredRegionsList())
         .consistencyLevel(ConsistencyLevel.SESSION)
-        .buildClient();
+        // throttled requests are retried by the resources, which pace them with the rest of the container's load
+        .throttlingRetryOptions(new ThrottlingRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0))
+        .buildAsyncClient();
   }
 
   private void createServices() {
-    // servers
-    _services.add(new SpaceServer(SPACE_SERVICE_PORT, _cosmosClient));
-    _services.add(new FertilizationEventServer(FERTILIZATION_EVENT_SERVICE_PORT, _cosmosClient));
-    _services.add(new GardenServer(GARDEN_SERVICE_PORT, _cosmosClient));
-    _services.add(new GardenerServer(GARDENER_SERVICE_PORT, _cosmosClient));
-    _services.add(new GardenPlantServer(GARDEN_PLANT_SERVICE_PORT, _cosmosClient));
-    _services.add(new NoteEventServer(NOTE_EVENT_SERVICE_PORT, _cosmosClient));
-    _services.add(new PlantServer(PLANT_SERVICE_PORT, _cosmosClient));
-    _services.add(new WateringEventServer(WATERING_EVENT_SERVICE_PORT, _cosmosClient));
+    createGrpcServices();
 
     if (!COSMOS_TESTING) {
       // GraphQL module providers
       List<GraphQLModuleProvider> moduleProviders = new ArrayList<>();
+      // one generator for the ids of all entities, so that they are unique (and sort by time) across entities
+      IdGenerator<Long> idGenerator = createIdGenerator();
+      SharedDataLoaderCaches sharedDataLoaderCaches = getSharedDataLoaderCaches();
 
       // entitites
-      moduleProviders.add(new SpaceModuleProvider("localhost", SPACE_SERVICE_PORT));
-      moduleProviders.add(new FertilizationEventModuleProvider("localhost", FERTILIZATION_EVENT_SERVICE_PORT));
-      moduleProviders.add(new GardenModuleProvider("localhost", GARDEN_SERVICE_PORT));
-      moduleProviders.add(new GardenerModuleProvider("localhost", GARDENER_SERVICE_PORT));
-      moduleProviders.add(new GardenPlantModuleProvider("localhost", GARDEN_PLANT_SERVICE_PORT));
-      moduleProviders.add(new NoteEventModuleProvider("localhost", NOTE_EVENT_SERVICE_PORT));
-      moduleProviders.add(new PlantModuleProvider("localhost", PLANT_SERVICE_PORT));
-      moduleProviders.add(new WateringEventModuleProvider("localhost", WATERING_EVENT_SERVICE_PORT));
+      moduleProviders.add(
+          new SpaceModuleProvider(getServiceChannel(SPACE_SERVICE_PORT), idGenerator, sharedDataLoaderCaches));
+      moduleProviders.add(
+          new FertilizationEventModuleProvider(getServiceChannel(FERTILIZATION_EVENT_SERVICE_PORT), idGenerator));
+      moduleProviders.add(new GardenModuleProvider(getServiceChannel(GARDEN_SERVICE_PORT), idGenerator));
+      moduleProviders.add(
+          new GardenerModuleProvider(getServiceChannel(GARDENER_SERVICE_PORT), idGenerator, sharedDataLoaderCaches));
+      moduleProviders.add(new GardenPlantModuleProvider(getServiceChannel(GARDEN_PLANT_SERVICE_PORT), idGenerator));
+      moduleProviders.add(new NoteEventModuleProvider(getServiceChannel(NOTE_EVENT_SERVICE_PORT), idGenerator));
+      moduleProviders.add(
+          new PlantModuleProvider(getServiceChannel(PLANT_SERVICE_PORT), idGenerator, sharedDataLoaderCaches));
+      moduleProviders.add(new WateringEventModuleProvider(getServiceChannel(WATERING_EVENT_SERVICE_PORT), idGenerator));
+      moduleProviders.add(new CareAggregateModuleProvider(getServiceChannel(CARE_AGGREGATE_SERVICE_PORT)));
 
       // common models
       moduleProviders.add(new EventMetadataModuleProvider());
@@ -195,14 +287,117 @@ public class PlantTrackerServer implements StartStopService {
       // graphql server
       GraphQLModuleProvider fullGraphProvider = new FullGraphProvider(moduleProviders);
       _services.add(new GraphQLServer(GRAPHQL_SERVER_PORT, fullGraphProvider,
-          _graphQLServerConfiguration.getStaticResourcesPath()));
+          _graphQLServerConfiguration.getStaticResourcesPath(), _storageMetrics, getGraphQLServerLimits()));
+    }
+  }
+
+  private GraphQLServerLimits getGraphQLServerLimits() {
+    GraphQLServerLimits.Builder builder = new GraphQLServerLimits.Builder();
+    if (_graphQLServerConfiguration.getMaxThreads() > 0) {
+      builder.maxThreads(_graphQLServerConfiguration.getMaxThreads());
+    }
+    if (_graphQLServerConfiguration.getMaxQueuedRequests() > 0) {
+      builder.maxQueuedRequests(_graphQLServerConfiguration.getMaxQueuedRequests());
+    }
+    if (_graphQLServerConfiguration.getRequestTimeoutMs() > 0) {
+      builder.requestTimeout(Duration.ofMillis(_graphQLServerConfiguration.getRequestTimeoutMs()));
+    }
+    if (_graphQLServerConfiguration.getMaxQueryDepth() > 0) {
+      builder.maxQueryDepth(_graphQLServerConfiguration.getMaxQueryDepth());
+    }
+    if (_graphQLServerConfiguration.getMaxQueryCost() > 0) {
+      builder.maxQueryCost(_graphQLServerConfiguration.getMaxQueryCost());
+    }
+    return builder.build();
+  }
+
+  private SharedDataLoaderCaches getSharedDataLoaderCaches() {
+    SharedDataLoaderCaches.Builder builder = new SharedDataLoaderCaches.Builder();
+    for (GraphQLServerConfiguration.SharedDataLoaderCache cache
+        : _graphQLServerConfiguration.getSharedDataLoaderCachesList()) {
+      builder.cache(cache.getDataLoaderName(), cache.getMaxSize(), Duration.ofMillis(cache.getExpireAfterWriteMs()));
+    }
+    return builder.build();
+  }
+
+  private IdGenerator<Long> createIdGenerator() {
+    int nodeId;
+    switch (_graphQLServerConfiguration.getIdNodeIdAssignment()) {
+      case FIXED:
+        nodeId = _graphQLServerConfiguration.getIdNodeId();
+        break;
+      case RANDOM:
+        nodeId = SnowflakeIdGenerator.getRandomNodeId();
+        break;
+      default:
+        throw new IllegalStateException(
+            "Unsupported id node id assignment: " + _graphQLServerConfiguration.getIdNodeIdAssignment());
+    }
+    LOGGER.info("Generating ids as node {}", nodeId);
+    return new SnowflakeIdGenerator.Builder(nodeId).build();
+  }
+
+  private void createGrpcServices() {
+    switch (_grpcServicesConfiguration.getDeployment()) {
+      case SINGLE_SERVER:
+        List<BindableService> services = new ArrayList<>();
+        services.add(SpaceServer.createService(_resourceFactory));
+        services.add(FertilizationEventServer.createService(_resourceFactory));
+        services.add(GardenServer.createService(_resourceFactory));
+        services.add(GardenerServer.createService(_resourceFactory));
+        services.add(GardenPlantServer.createService(_resourceFactory));
+        services.add(NoteEventServer.createService(_resourceFactory));
+        services.add(PlantServer.createService(_resourceFactory));
+        services.add(WateringEventServer.createService(_resourceFactory));
+        services.add(CareAggregateServer.createService(_resourceFactory));
+        String serverName = SHARED_SERVICES_DESCRIPTION + ":" + UUID.randomUUID();
+        _services.add(new SharedGrpcServer(IN_PROCESS_SHARED_SERVICES_DESCRIPTION,
+            InProcessServerBuilder.forName(serverName), services));
+        if (_grpcServicesConfiguration.getPort() > 0) {
+          _services.add(new SharedGrpcServer(SHARED_SERVICES_DESCRIPTION,
+              ServerBuilder.forPort(_grpcServicesConfiguration.getPort()), services));
+        }
+        _channels.add(InProcessChannelBuilder.forName(serverName).build());
+        _sharedChannel = ClientInterceptors.intercept(_channels.get(0), StorageSession.clientInterceptor());
+        break;
+      case REMOTE_SERVER:
+        for (int i = 0; i < _grpcServicesConfiguration.getChannelPoolSize(); i++) {
+          _channels.add(ManagedChannelBuilder.forAddress(_grpcServicesConfiguration.getHost(),
+              _grpcServicesConfiguration.getPort()).usePlaintext().build());
+        }
+        _sharedChannel = ClientInterceptors.intercept(new ChannelPool(_channels), StorageSession.clientInterceptor());
+        break;
+      default:
+        _services.add(new SpaceServer(SPACE_SERVICE_PORT, _resourceFactory));
+        _services.add(new FertilizationEventServer(FERTILIZATION_EVENT_SERVICE_PORT, _resourceFactory));
+        _services.add(new GardenServer(GARDEN_SERVICE_PORT, _resourceFactory));
+        _services.add(new GardenerServer(GARDENER_SERVICE_PORT, _resourceFactory));
+        _services.add(new GardenPlantServer(GARDEN_PLANT_SERVICE_PORT, _resourceFactory));
+        _services.add(new NoteEventServer(NOTE_EVENT_SERVICE_PORT, _resourceFactory));
+        _services.add(new PlantServer(PLANT_SERVICE_PORT, _resourceFactory));
+        _services.add(new WateringEventServer(WATERING_EVENT_SERVICE_PORT, _resourceFactory));
+        _services.add(new CareAggregateServer(CARE_AGGREGATE_SERVICE_PORT, _resourceFactory));
+        break;
+    }
+  }
+
+  private Channel getServiceChannel(int separateServerPort) {
+    if (_sharedChannel != null) {
+      return _sharedChannel;
     }
+    ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", separateServerPort).usePlaintext().build();
+    _channels.add(channel);
+    return ClientInterceptors.intercept(channel, StorageSession.clientInterceptor());
   }
 
   private PlantTrackerServer(PlantTrackerServerInitializationParams params) {
     checkNotNull(params, "Initialization params cannot be null");
-    _cosmosDBConfiguration = validateConfiguration(params.getCosmosDbConfiguration());
+    _storageConfiguration = validateConfiguration(params.getStorageConfiguration());
+    // Cosmos DB is not needed if nothing is stored in it
+    _cosmosDBConfiguration = StorageConfiguration.Backend.IN_MEMORY.equals(_storageConfiguration.getBackend())
+        ? params.getCosmosDbConfiguration() : validateConfiguration(params.getCosmosDbConfiguration());
     _graphQLServerConfiguration = validateConfiguration(params.getGraphqlServerConfiguration());
+    _grpcServicesConfiguration = validateConfiguration(params.getGrpcServicesConfiguration());
   }
 
   private static CosmosDBConfiguration validateConfiguration(CosmosDBConfiguration cosmosDBConfiguration) {
@@ -215,6 +410,14 @@ public class PlantTrackerServer implements StartStopService {
     List<String> preferredRegions =
         checkNotNull(cosmosDBConfiguration.getPreferredRegionsList(), "Cosmos preferred regions cannot be null");
     checkArgument(!preferredRegions.isEmpty(), "Cosmos preferred regions cannot be empty");
+    double queryMetricsSampleRate = cosmosDBConfiguration.getQueryMetricsSampleRate();
+    checkArgument(queryMetricsSampleRate >= 0 && queryMetricsSampleRate <= 1,
+        "Cosmos query metrics sample rate should be between 0 and 1");
+    checkArgument(cosmosDBConfiguration.getSlowOperationThresholdMs() >= 0,
+        "Cosmos slow operation threshold should be >= 0");
+    checkArgument(cosmosDBConfiguration.getRequestUnitsPerSecond() >= 0,
+        "Cosmos request units per second should be >= 0");
+    checkArgument(cosmosDBConfiguration.getMaxQueueDelayMs() >= 0, "Cosmos max queue delay should be >= 0");
     return cosmosDBConfiguration;
   }
 
@@ -224,9 +427,51 @@ public class PlantTrackerServer implements StartStopService {
     String staticResourcesPath =
         checkNotNull(graphQLServerConfiguration.getStaticResourcesPath(), "Static resources path cannot be null");
     checkArgument(!staticResourcesPath.isEmpty(), "Static resources path cannot be empty");
+    checkArgument(!GraphQLServerConfiguration.IdNodeIdAssignment.UNRECOGNIZED.equals(
+        graphQLServerConfiguration.getIdNodeIdAssignment()), "Unrecognized id node id assignment");
+    checkArgument(!GraphQLServerConfiguration.IdNodeIdAssignment.ID_NODE_ID_ASSIGNMENT_UNSPECIFIED.equals(
+        graphQLServerConfiguration.getIdNodeIdAssignment()),
+        "Id node id assignment is missing: FIXED (with an id node id) or RANDOM");
+    checkArgument(graphQLServerConfiguration.getIdNodeId() >= 0
+            && graphQLServerConfiguration.getIdNodeId() <= SnowflakeIdGenerator.MAX_NODE_ID,
+        "Id node id should be between 0 and %s", SnowflakeIdGenerator.MAX_NODE_ID);
+    checkArgument(graphQLServerConfiguration.getMaxThreads() >= 0, "GraphQL server max threads should be >= 0");
+    checkArgument(graphQLServerConfiguration.getMaxQueuedRequests() >= 0,
+        "GraphQL server max queued requests should be >= 0");
+    checkArgument(graphQLServerConfiguration.getRequestTimeoutMs() >= 0,
+        "GraphQL server request timeout should be >= 0");
+    checkArgument(graphQLServerConfiguration.getMaxQueryDepth() >= 0, "GraphQL server max query depth should be >= 0");
+    checkArgument(graphQLServerConfiguration.getMaxQueryCost() >= 0, "GraphQL server max query cost should be >= 0");
+    for (GraphQLServerConfiguration.SharedDataLoaderCache cache
+        : graphQLServerConfiguration.getSharedDataLoaderCachesList()) {
+      checkArgument(!cache.getDataLoaderName().isEmpty(), "Shared data loader cache name cannot be empty");
+      checkArgument(cache.getMaxSize() > 0, "Shared data loader cache max size should be > 0");
+      checkArgument(cache.getExpireAfterWriteMs() > 0, "Shared data loader cache expire after write should be > 0");
+    }
     return graphQLServerConfiguration;
   }
 
+  private static GrpcServicesConfiguration validateConfiguration(GrpcServicesConfiguration grpcServicesConfiguration) {
+    checkNotNull(grpcServicesConfiguration, "GrpcServicesConfiguration cannot be null");
+    GrpcServicesConfiguration.Deployment deployment = grpcServicesConfiguration.getDeployment();
+    checkArgument(!GrpcServicesConfiguration.Deployment.UNRECOGNIZED.equals(deployment),
+        "Unrecognized gRPC services deployment");
+    checkArgument(grpcServicesConfiguration.getPort() >= 0, "gRPC services port should be >= 0");
+    if (GrpcServicesConfiguration.Deployment.REMOTE_SERVER.equals(deployment)) {
+      checkArgument(!grpcServicesConfiguration.getHost().isEmpty(), "gRPC services host cannot be empty");
+      checkArgument(grpcServicesConfiguration.getPort() > 0, "gRPC services port should be > 0");
+      checkArgument(grpcServicesConfiguration.getChannelPoolSize() > 0, "gRPC channel pool size should be > 0");
+    }
+    return grpcServicesConfiguration;
+  }
+
+  private static StorageConfiguration validateConfiguration(StorageConfiguration storageConfiguration) {
+    checkNotNull(storageConfiguration, "StorageConfiguration cannot be null");
+    checkArgument(!StorageConfiguration.Backend.UNRECOGNIZED.equals(storageConfiguration.getBackend()),
+        "Unrecognized storage backend");
+    return storageConfiguration;
+  }
+
   public static void main(String[] args) throws Exception {
     PlantTrackerServer ptrackerServer = new PlantTrackerServer(getInitParams(args));
     try {
@@ -269,6 +514,8 @@ public class PlantTrackerServer implements StartStopService {
     Options options = new Options();
     getCosmosDBOptions().getOptions().forEach(options::addOption);
     getGQLServerOptions().getOptions().forEach(options::addOption);
+    getGrpcServicesOptions().getOptions().forEach(options::addOption);
+    getStorageOptions().getOptions().forEach(options::addOption);
 
     CommandLineParser parser = new DefaultParser();
     CommandLine commandLine = parser.parse(options, args);
@@ -276,6 +523,8 @@ public class PlantTrackerServer implements StartStopService {
     PlantTrackerServerInitializationParams.Builder builder = PlantTrackerServerInitializationParams.newBuilder();
     builder.setCosmosDbConfiguration(getCosmosDBConfiguration(commandLine));
     builder.setGraphqlServerConfiguration(getGraphQLServerConfiguration(commandLine));
+    builder.setGrpcServicesConfiguration(getGrpcServicesConfiguration(commandLine));
+    builder.setStorageConfiguration(getStorageConfiguration(commandLine));
     return builder.build();
   }
 
@@ -283,36 +532,78 @@ public class PlantTrackerServer implements StartStopService {
     Options options = new Options();
     options.addOption(Option.builder()
         .longOpt(OPT_COSMOS_DB_ACCOUNT_ENDPOINT)
-        .desc("Cosmos DB Account endpoint")
-        .required()
+        .desc("Cosmos DB Account endpoint (required unless the storage backend is IN_MEMORY)")
+        .required(false)
         .hasArg()
         .argName("COSMOS_DB_ACCOUNT_ENDPOINT")
         .build());
     options.addOption(Option.builder()
         .longOpt(OPT_COSMOS_DB_ACCOUNT_KEY)
-        .desc("Cosmos DB Account key")
-        .required()
+        .desc("Cosmos DB Account key (required unless the storage backend is IN_MEMORY)")
+        .required(false)
         .hasArg()
         .argName("COSMOS_DB_ACCOUNT_KEY")
         .build());
     options.addOption(Option.builder()
         .longOpt(OPT_COSMOS_DB_PREFERRED_REGIONS)
-        .desc("Comma separated list of preferred regions")
-        .required()
+        .desc("Comma separated list of preferred regions (required unless the storage backend is IN_MEMORY)")
+        .required(false)
         .hasArg()
         .argName("COSMOS_DB_ACCOUNT_PREFERRED_REGION1,COSMOS_DB_ACCOUNT_PREFERRED_REGION2")
         .valueSeparator(',')
         .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_COSMOS_DB_QUERY_METRICS_SAMPLE_RATE)
+        .desc("Fraction of queries that collect query metrics, between 0 and 1 (default "
+            + DEFAULT_COSMOS_DB_QUERY_METRICS_SAMPLE_RATE + ")")
+        .required(false)
+        .hasArg()
+        .argName("COSMOS_DB_QUERY_METRICS_SAMPLE_RATE")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS)
+        .desc("Cosmos DB operations that take at least this long are logged (default "
+            + DEFAULT_COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS + ")")
+        .required(false)
+        .hasArg()
+        .argName("COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_COSMOS_DB_REQUEST_UNITS_PER_SECOND)
+        .desc("Request units per second that each container is paced to at first, e.g. its provisioned throughput "
+            + "(default " + DEFAULT_COSMOS_DB_REQUEST_UNITS_PER_SECOND + ")")
+        .required(false)
+        .hasArg()
+        .argName("COSMOS_DB_REQUEST_UNITS_PER_SECOND")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_COSMOS_DB_MAX_QUEUE_DELAY_MS)
+        .desc("Cosmos DB calls that would wait longer than this for request units are rejected (default "
+            + DEFAULT_COSMOS_DB_MAX_QUEUE_DELAY_MS + ")")
+        .required(false)
+        .hasArg()
+        .argName("COSMOS_DB_MAX_QUEUE_DELAY_MS")
+        .build());
     return options;
   }
 
   private static CosmosDBConfiguration getCosmosDBConfiguration(CommandLine commandLine) {
     CosmosDBConfiguration.Builder builder = CosmosDBConfiguration.newBuilder();
-    builder.setAccountEndpoint(commandLine.getOptionValue(OPT_COSMOS_DB_ACCOUNT_ENDPOINT));
-    builder.setAccountKey(commandLine.getOptionValue(OPT_COSMOS_DB_ACCOUNT_KEY));
-    for (String region : commandLine.getOptionValues(OPT_COSMOS_DB_PREFERRED_REGIONS)) {
-      builder.addPreferredRegions(region);
+    builder.setAccountEndpoint(commandLine.getOptionValue(OPT_COSMOS_DB_ACCOUNT_ENDPOINT, ""));
+    builder.setAccountKey(commandLine.getOptionValue(OPT_COSMOS_DB_ACCOUNT_KEY, ""));
+    if (commandLine.hasOption(OPT_COSMOS_DB_PREFERRED_REGIONS)) {
+      for (String region : commandLine.getOptionValues(OPT_COSMOS_DB_PREFERRED_REGIONS)) {
+        builder.addPreferredRegions(region);
+      }
     }
+    builder.setQueryMetricsSampleRate(Double.parseDouble(commandLine.getOptionValue(
+        OPT_COSMOS_DB_QUERY_METRICS_SAMPLE_RATE, DEFAULT_COSMOS_DB_QUERY_METRICS_SAMPLE_RATE)));
+    builder.setSlowOperationThresholdMs(Integer.parseInt(commandLine.getOptionValue(
+        OPT_COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS, DEFAULT_COSMOS_DB_SLOW_OPERATION_THRESHOLD_MS)));
+    builder.setRequestUnitsPerSecond(Integer.parseInt(commandLine.getOptionValue(
+        OPT_COSMOS_DB_REQUEST_UNITS_PER_SECOND, DEFAULT_COSMOS_DB_REQUEST_UNITS_PER_SECOND)));
+    builder.setMaxQueueDelayMs(Integer.parseInt(commandLine.getOptionValue(
+        OPT_COSMOS_DB_MAX_QUEUE_DELAY_MS, DEFAULT_COSMOS_DB_MAX_QUEUE_DELAY_MS)));
     return builder.build();
   }
 
@@ -325,6 +616,66 @@ public class PlantTrackerServer implements StartStopService {
         .hasArg()
         .argName("GQL_SERVER_STATIC_RESOURCES_PATH")
         .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_ID_NODE_ID_ASSIGNMENT)
+        .desc("How the node id in the ids of created entities is picked: FIXED (the default if there is a node id) or"
+            + " RANDOM (local runs only)")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_ID_NODE_ID_ASSIGNMENT")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_ID_NODE_ID)
+        .desc("The node id in the ids of created entities (0 to " + SnowflakeIdGenerator.MAX_NODE_ID
+            + "), unique among the running servers. Required for FIXED assignment")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_ID_NODE_ID")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_MAX_THREADS)
+        .desc("The most threads that the GraphQL server reads, plans and writes requests on")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_MAX_THREADS")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_MAX_QUEUED_REQUESTS)
+        .desc("The most requests that wait for a GraphQL server thread before more are turned away")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_MAX_QUEUED_REQUESTS")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_REQUEST_TIMEOUT_MS)
+        .desc("How long a GraphQL request may take before it is answered with an error")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_REQUEST_TIMEOUT_MS")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_SHARED_DATA_LOADER_CACHES)
+        .desc("Comma separated data loaders whose entities are cached across requests, as "
+            + "NAME:MAX_SIZE:EXPIRE_AFTER_WRITE_MS (default " + DEFAULT_GRAPHQL_SERVER_SHARED_DATA_LOADER_CACHES
+            + ", empty for none)")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_SHARED_DATA_LOADER_CACHES")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_MAX_QUERY_DEPTH)
+        .desc("GraphQL operations with fields that are nested deeper than this are rejected")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_MAX_QUERY_DEPTH")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GQL_SERVER_MAX_QUERY_COST)
+        .desc("GraphQL operations that are estimated to cost more than this are rejected")
+        .required(false)
+        .hasArg()
+        .argName("GQL_SERVER_MAX_QUERY_COST")
+        .build());
     return options;
   }
 
@@ -333,6 +684,106 @@ public class PlantTrackerServer implements StartStopService {
     String staticResourcesPath =
         commandLine.getOptionValue(OPT_GQL_SERVER_STATIC_RESOURCES_PATH, DEFAULT_GRAPHQL_SERVER_STATIC_RESOURCES_PATH);
     builder.setStaticResourcesPath(staticResourcesPath);
+    // a node id picks FIXED assignment, and without one there is no assignment unless RANDOM is asked for
+    boolean hasIdNodeId = commandLine.hasOption(OPT_GQL_SERVER_ID_NODE_ID);
+    GraphQLServerConfiguration.IdNodeIdAssignment idNodeIdAssignment =
+        GraphQLServerConfiguration.IdNodeIdAssignment.valueOf(commandLine.getOptionValue(
+            OPT_GQL_SERVER_ID_NODE_ID_ASSIGNMENT, hasIdNodeId
+                ? GraphQLServerConfiguration.IdNodeIdAssignment.FIXED.name()
+                : GraphQLServerConfiguration.IdNodeIdAssignment.ID_NODE_ID_ASSIGNMENT_UNSPECIFIED.name()));
+    checkArgument(hasIdNodeId || !GraphQLServerConfiguration.IdNodeIdAssignment.FIXED.equals(idNodeIdAssignment),
+        "FIXED id node id assignment needs --%s", OPT_GQL_SERVER_ID_NODE_ID);
+    builder.setIdNodeIdAssignment(idNodeIdAssignment);
+    builder.setIdNodeId(Integer.parseInt(commandLine.getOptionValue(OPT_GQL_SERVER_ID_NODE_ID, "0")));
+    builder.setMaxThreads(Integer.parseInt(commandLine.getOptionValue(OPT_GQL_SERVER_MAX_THREADS, "0")));
+    builder.setMaxQueuedRequests(
+        Integer.parseInt(commandLine.getOptionValue(OPT_GQL_SERVER_MAX_QUEUED_REQUESTS, "0")));
+    builder.setRequestTimeoutMs(Integer.parseInt(commandLine.getOptionValue(OPT_GQL_SERVER_REQUEST_TIMEOUT_MS, "0")));
+    builder.setMaxQueryDepth(Integer.parseInt(commandLine.getOptionValue(OPT_GQL_SERVER_MAX_QUERY_DEPTH, "0")));
+    builder.setMaxQueryCost(Long.parseLong(commandLine.getOptionValue(OPT_GQL_SERVER_MAX_QUERY_COST, "0")));
+    String sharedDataLoaderCaches = commandLine.getOptionValue(OPT_GQL_SERVER_SHARED_DATA_LOADER_CACHES,
+        DEFAULT_GRAPHQL_SERVER_SHARED_DATA_LOADER_CACHES);
+    for (String cache : sharedDataLoaderCaches.split(",")) {
+      if (cache.isEmpty()) {
+        continue;
+      }
+      String[] parts = cache.split(":");
+      checkArgument(parts.length == 3, "Shared data loader cache should be NAME:MAX_SIZE:EXPIRE_AFTER_WRITE_MS: %s",
+          cache);
+      builder.addSharedDataLoaderCaches(GraphQLServerConfiguration.SharedDataLoaderCache.newBuilder()
+          .setDataLoaderName(parts[0])
+          .setMaxSize(Long.parseLong(parts[1]))
+          .setExpireAfterWriteMs(Integer.parseInt(parts[2])));
+    }
+    return builder.build();
+  }
+
+  private static Options getGrpcServicesOptions() {
+    Options options = new Options();
+    options.addOption(Option.builder()
+        .longOpt(OPT_GRPC_SERVICES_DEPLOYMENT)
+        .desc("How the gRPC services are deployed: SEPARATE_SERVERS (default), SINGLE_SERVER or REMOTE_SERVER")
+        .required(false)
+        .hasArg()
+        .argName("GRPC_SERVICES_DEPLOYMENT")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GRPC_SERVICES_HOST)
+        .desc("Host of the gRPC services (REMOTE_SERVER only)")
+        .required(false)
+        .hasArg()
+        .argName("GRPC_SERVICES_HOST")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GRPC_SERVICES_PORT)
+        .desc("Port to serve the gRPC services on (SINGLE_SERVER, optional) or to reach them on (REMOTE_SERVER)")
+        .required(false)
+        .hasArg()
+        .argName("GRPC_SERVICES_PORT")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_GRPC_CHANNEL_POOL_SIZE)
+        .desc("Number of channels to reach the gRPC services with (REMOTE_SERVER only)")
+        .required(false)
+        .hasArg()
+        .argName("GRPC_CHANNEL_POOL_SIZE")
+        .build());
+    return options;
+  }
+
+  private static GrpcServicesConfiguration getGrpcServicesConfiguration(CommandLine commandLine) {
+    GrpcServicesConfiguration.Builder builder = GrpcServicesConfiguration.newBuilder();
+    builder.setDeployment(GrpcServicesConfiguration.Deployment.valueOf(commandLine.getOptionValue(
+        OPT_GRPC_SERVICES_DEPLOYMENT, GrpcServicesConfiguration.Deployment.SEPARATE_SERVERS.name())));
+    builder.setHost(commandLine.getOptionValue(OPT_GRPC_SERVICES_HOST, ""));
+    builder.setPort(Integer.parseInt(commandLine.getOptionValue(OPT_GRPC_SERVICES_PORT, "0")));
+    builder.setChannelPoolSize(
+        Integer.parseInt(commandLine.getOptionValue(OPT_GRPC_CHANNEL_POOL_SIZE, DEFAULT_GRPC_CHANNEL_POOL_SIZE)));
+    return builder.build();
+  }
+
+  private static Options getStorageOptions() {
+    Options options = new Options();
+    options.addOption(Option.builder()
+        .longOpt(OPT_STORAGE_BACKEND)
+        .desc("Where the gRPC services store entities: COSMOS_DB (default) or IN_MEMORY")
+        .required(false)
+        .hasArg()
+        .argName("STORAGE_BACKEND")
+        .build());
+    options.addOption(Option.builder()
+        .longOpt(OPT_REBUILD_CARE_AGGREGATES)
+        .desc("Recompute the care aggregates from all events before starting the services")
+        .required(false)
+        .build());
+    return options;
+  }
+
+  private static StorageConfiguration getStorageConfiguration(CommandLine commandLine) {
+    StorageConfiguration.Builder builder = StorageConfiguration.newBuilder();
+    builder.setBackend(StorageConfiguration.Backend.valueOf(
+        commandLine.getOptionValue(OPT_STORAGE_BACKEND, StorageConfiguration.Backend.COSMOS_DB.name())));
+    builder.setRebuildCareAggregates(commandLine.hasOption(OPT_REBUILD_CARE_AGGREGATES));
     return builder.build();
   }
 
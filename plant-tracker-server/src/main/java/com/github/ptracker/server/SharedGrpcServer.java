@@ -0,0 +1,22 @@
+package com.github.ptracker.server;
+
+import com.github.ptracker.service.GrpcServer;
+import io.grpc.BindableService;
+import io.grpc.ServerBuilder;
+import java.util.List;
+
+
+/**
+ * Hosts several services on one server.
+ */
+class SharedGrpcServer extends GrpcServer {
+
+  SharedGrpcServer(String description, ServerBuilder<?> serverBuilder, List<BindableService> services) {
+    super(description, addServices(serverBuilder, services));
+  }
+
+  private static ServerBuilder<?> addServices(ServerBuilder<?> serverBuilder, List<BindableService> services) {
+    services.forEach(serverBuilder::addService);
+    return serverBuilder;
+  }
+}
@@ -15,6 +15,7 @@ import com.github.ptracker.service.SpaceGrpc.SpaceBlockingStub;
 import com.github.ptracker.service.SpaceQueryRequest;
 import com.github.ptracker.service.SpaceUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -38,7 +39,10 @@ public class SpaceClient implements GrpcResource.GrpcClient<String, Space> {
   @Override
   public List<Space> query(Space template, QueryRequestOptions options) {
     SpaceQueryRequest request = SpaceQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getSpaceList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<Space> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getSpaceList()));
+    return values;
   }
 
   @Override
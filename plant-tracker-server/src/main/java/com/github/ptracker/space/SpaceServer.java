@@ -1,14 +1,18 @@
 package com.github.ptracker.space;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.ptracker.entity.Space;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CachingResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,10 +23,18 @@ public class SpaceServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "spaces";
+  // only ever read by id
+  private static final List<String> INDEXED_PATHS = ImmutableList.of();
 
-  public SpaceServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION,
-        ServerBuilder.forPort(port).addService(new SpaceService(getCosmosResource(cosmosClient))));
+  private static final Duration CACHE_TTL = Duration.ofMinutes(10);
+  private static final long CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+  public SpaceServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    return new SpaceService(getResource(resourceFactory));
   }
 
   private static void verifySpace(Space space) {
@@ -30,12 +42,15 @@ public class SpaceServer extends GrpcServer {
     verifyStringFieldNotNullOrEmpty(space.getName(), Space.class.getName(), "name");
   }
 
-  private static Resource<String, Space> getCosmosResource(CosmosClient cosmosClient) {
+  private static AsyncResource<String, Space> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, Space> dataInterchange = new ProtoBufJsonInterchange<>(Space::newBuilder);
     Function<String, Space> valueWithIdOnlyCreator = key -> Space.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, Space> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange,
-            valueWithIdOnlyCreator, SpaceServer::verifySpace);
-    return supplier.get();
+    Function<Space, String> partitionKeyExtractor = Space::getId;
+    AsyncResource<String, Space> resource =
+        resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+            partitionKeyExtractor, SpaceServer::verifySpace, INDEXED_PATHS);
+    return new CachingResource.Builder<>(resource, Space::getId).ttl(CACHE_TTL)
+        .weigher(Space::getSerializedSize, CACHE_MAX_BYTES)
+        .build();
   }
 }
@@ -1,15 +1,23 @@
 package com.github.ptracker.space;
 
-import com.github.ptracker.StreamObserverConverter;
 import com.github.ptracker.entity.Space;
+import com.github.ptracker.resource.AsyncResource;
 import com.github.ptracker.resource.CreateRequestOptionsImpl;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
 import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.SpaceBatchGetRequest;
+import com.github.ptracker.service.SpaceBatchGetResponse;
+import com.github.ptracker.service.SpaceBatchQueryRequest;
+import com.github.ptracker.service.SpaceBatchQueryResponse;
 import com.github.ptracker.service.SpaceCreateRequest;
 import com.github.ptracker.service.SpaceCreateResponse;
 import com.github.ptracker.service.SpaceDeleteRequest;
@@ -21,114 +29,221 @@ import com.github.ptracker.service.SpaceQueryRequest;
 import com.github.ptracker.service.SpaceQueryResponse;
 import com.github.ptracker.service.SpaceUpdateRequest;
 import com.github.ptracker.service.SpaceUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.github.ptracker.service.StorageSession;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.util.List;
-import java.util.Optional;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class SpaceService extends SpaceImplBase {
-  private final Resource<String, Space> _spaceResource;
+  private final AsyncResource<String, Space> _spaceResource;
 
-  public SpaceService(Resource<String, Space> spaceResource) {
+  public SpaceService(AsyncResource<String, Space> spaceResource) {
     _spaceResource = checkNotNull(spaceResource, "Space Resource cannot be null");
   }
 
   @Override
   public void get(SpaceGetRequest request, StreamObserver<SpaceGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Space ID is missing")));
     } else {
-      // TODO: add metadata
-      SpaceQueryRequest spaceQueryRequest =
-          SpaceQueryRequest.newBuilder().setTemplate(Space.newBuilder().setId(request.getId())).build();
-      query(spaceQueryRequest, new StreamObserverConverter<>(responseObserver, spaceQueryResponse -> {
-        Space space = Iterables.getOnlyElement(spaceQueryResponse.getSpaceList());
-        responseObserver.onNext(SpaceGetResponse.newBuilder().setSpace(space).build());
-      }));
+      _spaceResource.get(request.getId(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return SpaceGetResponse.newBuilder().setSpace(FieldMasks.trim(fieldMask, getResponse.getPayload())).build();
+          }));
     }
   }
 
   @Override
   public void query(SpaceQueryRequest request, StreamObserver<SpaceQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _spaceResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<Space>> responses =
-          _spaceResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      SpaceQueryResponse.Builder responseBuilder = SpaceQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addSpace(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _spaceResource.query(request.getTemplate(), getQueryRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            SpaceQueryResponse.Builder responseBuilder = SpaceQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addSpace(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(SpaceQueryRequest request, StreamObserver<SpaceQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _spaceResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(SpaceBatchGetRequest request, StreamObserver<SpaceBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Space ID is missing")));
+    } else {
+      _spaceResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            SpaceBatchGetResponse.Builder responseBuilder = SpaceBatchGetResponse.newBuilder();
+            for (ResourceResponse<Space> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addSpace(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
     }
   }
 
+  @Override
+  public void batchQuery(SpaceBatchQueryRequest request,
+      StreamObserver<SpaceBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    _spaceResource.batchQuery(request.getTemplateList(), getQueryRequestOptions(fieldMask, session))
+        .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
+  }
+
   @Override
   public void create(SpaceCreateRequest request, StreamObserver<SpaceCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasSpace()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Space is missing")));
     } else {
-      ResourceResponse<Void> createResponse =
-          _spaceResource.create(request.getSpace(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(SpaceCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      _spaceResource.create(request.getSpace(), new CreateRequestOptionsImpl())
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return SpaceCreateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void update(SpaceUpdateRequest request, StreamObserver<SpaceUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasSpace()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Space is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _spaceResource.update(request.getSpace(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(SpaceUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      _spaceResource.update(request.getSpace(),
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return SpaceUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(SpaceDeleteRequest request, StreamObserver<SpaceDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Space ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _spaceResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(SpaceDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      _spaceResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build())
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return SpaceDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+    }
+  }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, Space.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session)).build();
+  }
+
+  private static String getContinuationToken(SpaceQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(SpaceQueryRequest request, String continuationToken,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .build();
+  }
+
+  private SpaceQueryResponse toQueryResponse(ResourcePage<Space> page, List<String> fieldMask) {
+    SpaceQueryResponse.Builder responseBuilder = SpaceQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addSpace(FieldMasks.trim(fieldMask, response.getPayload()));
       }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
     }
+    return responseBuilder.build();
+  }
+
+  private SpaceBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<Space>>> responses,
+      List<String> fieldMask) {
+    SpaceBatchQueryResponse.Builder responseBuilder = SpaceBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      SpaceQueryResponse.Builder templateResponseBuilder = SpaceQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addSpace(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
   }
 }
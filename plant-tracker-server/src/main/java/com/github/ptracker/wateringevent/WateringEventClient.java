@@ -15,6 +15,7 @@ import com.github.ptracker.service.WateringEventGrpc.WateringEventBlockingStub;
 import com.github.ptracker.service.WateringEventQueryRequest;
 import com.github.ptracker.service.WateringEventUpdateRequest;
 import io.grpc.ManagedChannelBuilder;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -31,14 +32,21 @@ public class WateringEventClient implements GrpcResource.GrpcClient<String, Wate
 
   @Override
   public WateringEvent get(String key, GetRequestOptions options) {
-    WateringEventGetRequest request = WateringEventGetRequest.newBuilder().setId(key).build();
+    WateringEventGetRequest.Builder requestBuilder = WateringEventGetRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenPlantId(options.getPartitionKey());
+    }
+    WateringEventGetRequest request = requestBuilder.build();
     return _blockingStub.get(request).getWateringEvent();
   }
 
   @Override
   public List<WateringEvent> query(WateringEvent template, QueryRequestOptions options) {
     WateringEventQueryRequest request = WateringEventQueryRequest.newBuilder().setTemplate(template).build();
-    return _blockingStub.query(request).getWateringEventList();
+    // stream the results so that large result sets are not limited by the maximum message size
+    List<WateringEvent> values = new ArrayList<>();
+    _blockingStub.streamQuery(request).forEachRemaining(response -> values.addAll(response.getWateringEventList()));
+    return values;
   }
 
   @Override
@@ -58,7 +66,11 @@ public class WateringEventClient implements GrpcResource.GrpcClient<String, Wate
 
   @Override
   public void delete(String key, DeleteRequestOptions options) {
-    WateringEventDeleteRequest request = WateringEventDeleteRequest.newBuilder().setId(key).build();
+    WateringEventDeleteRequest.Builder requestBuilder = WateringEventDeleteRequest.newBuilder().setId(key);
+    if (options != null && options.getPartitionKey() != null) {
+      requestBuilder.setGardenPlantId(options.getPartitionKey());
+    }
+    WateringEventDeleteRequest request = requestBuilder.build();
     _blockingStub.delete(request);
   }
 }
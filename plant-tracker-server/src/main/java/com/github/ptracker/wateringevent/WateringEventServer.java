@@ -1,14 +1,19 @@
 package com.github.ptracker.wateringevent;
 
-import com.azure.cosmos.CosmosClient;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.careaggregate.CareAggregateServer;
+import com.github.ptracker.careaggregate.CareAggregator;
+import com.github.ptracker.careaggregate.CareEventKind;
 import com.github.ptracker.entity.WateringEvent;
 import com.github.ptracker.interchange.DataInterchange;
 import com.github.ptracker.interchange.ProtoBufJsonInterchange;
-import com.github.ptracker.resource.Resource;
-import com.github.ptracker.service.GrpcCosmosResourceSupplier;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.service.AsyncResourceFactory;
 import com.github.ptracker.service.GrpcServer;
+import com.google.common.collect.ImmutableList;
+import io.grpc.BindableService;
 import io.grpc.ServerBuilder;
+import java.util.List;
 import java.util.function.Function;
 
 import static com.github.ptracker.ModelVerifierUtils.*;
@@ -19,10 +24,18 @@ public class WateringEventServer extends GrpcServer {
 
   private static final String COSMOS_DB_NAME = "PlantsTracker";
   private static final String COSMOS_CONTAINER_NAME = "wateringEvents";
+  // the fields that templates filter on, most selective first
+  private static final List<String> INDEXED_PATHS = ImmutableList.of("gardenPlantId", "metadata.gardenerId");
 
-  public WateringEventServer(int port, CosmosClient cosmosClient) {
-    super(SERVICE_DESCRIPTION,
-        ServerBuilder.forPort(port).addService(new WateringEventService(getCosmosResource(cosmosClient))));
+  public WateringEventServer(int port, AsyncResourceFactory resourceFactory) {
+    super(SERVICE_DESCRIPTION, ServerBuilder.forPort(port).addService(createService(resourceFactory)));
+  }
+
+  public static BindableService createService(AsyncResourceFactory resourceFactory) {
+    AsyncResource<String, WateringEvent> resource = getResource(resourceFactory);
+    return new WateringEventService(resource,
+        new CareAggregator.Builder<>(CareAggregateServer.getResource(resourceFactory),
+            CareAggregateServer.getAppliedEventResource(resourceFactory), CareEventKind.WATERING).build());
   }
 
   private static void verifyWateringEvent(WateringEvent wateringEvent) {
@@ -32,13 +45,12 @@ public class WateringEventServer extends GrpcServer {
     verifyEventMetadata(wateringEvent.getMetadata(), WateringEvent.class.getName(), "metadata");
   }
 
-  private static Resource<String, WateringEvent> getCosmosResource(CosmosClient cosmosClient) {
+  public static AsyncResource<String, WateringEvent> getResource(AsyncResourceFactory resourceFactory) {
     DataInterchange<ObjectNode, WateringEvent> dataInterchange =
         new ProtoBufJsonInterchange<>(WateringEvent::newBuilder);
     Function<String, WateringEvent> valueWithIdOnlyCreator = key -> WateringEvent.newBuilder().setId(key).build();
-    GrpcCosmosResourceSupplier<String, WateringEvent> supplier =
-        new GrpcCosmosResourceSupplier<>(cosmosClient, COSMOS_DB_NAME, COSMOS_CONTAINER_NAME,
-            dataInterchange, valueWithIdOnlyCreator, WateringEventServer::verifyWateringEvent);
-    return supplier.get();
+    Function<WateringEvent, String> partitionKeyExtractor = WateringEvent::getGardenPlantId;
+    return resourceFactory.create(COSMOS_DB_NAME, COSMOS_CONTAINER_NAME, dataInterchange, valueWithIdOnlyCreator,
+        partitionKeyExtractor, WateringEventServer::verifyWateringEvent, INDEXED_PATHS);
   }
 }
@@ -1,14 +1,30 @@
 package com.github.ptracker.wateringevent;
 
-import com.github.ptracker.StreamObserverConverter;
+import com.github.ptracker.careaggregate.CareAggregator;
 import com.github.ptracker.entity.WateringEvent;
-import com.github.ptracker.resource.CreateRequestOptionsImpl;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.BulkWriter;
+import com.github.ptracker.resource.DeleteRequestOptions;
 import com.github.ptracker.resource.DeleteRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
 import com.github.ptracker.resource.QueryRequestOptionsImpl;
-import com.github.ptracker.resource.Resource;
+import com.github.ptracker.resource.ResourcePage;
 import com.github.ptracker.resource.ResourceResponse;
 import com.github.ptracker.resource.ResponseStatus;
 import com.github.ptracker.resource.UpdateRequestOptionsImpl;
+import com.github.ptracker.service.EventRange;
+import com.github.ptracker.service.EventRanges;
+import com.github.ptracker.service.FieldMasks;
+import com.github.ptracker.service.FlowControlledCreateReceiver;
+import com.github.ptracker.service.FlowControlledPageStreamer;
+import com.github.ptracker.service.StorageSession;
+import com.github.ptracker.service.WateringEventBatchGetRequest;
+import com.github.ptracker.service.WateringEventBatchGetResponse;
+import com.github.ptracker.service.WateringEventBatchQueryRequest;
+import com.github.ptracker.service.WateringEventBatchQueryResponse;
+import com.github.ptracker.service.WateringEventCreateManyResponse;
 import com.github.ptracker.service.WateringEventCreateRequest;
 import com.github.ptracker.service.WateringEventCreateResponse;
 import com.github.ptracker.service.WateringEventDeleteRequest;
@@ -20,113 +36,325 @@ import com.github.ptracker.service.WateringEventQueryRequest;
 import com.github.ptracker.service.WateringEventQueryResponse;
 import com.github.ptracker.service.WateringEventUpdateRequest;
 import com.github.ptracker.service.WateringEventUpdateResponse;
-import com.google.common.collect.Iterables;
+import com.google.protobuf.FieldMask;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import static com.github.ptracker.service.StreamObserverCallbacks.*;
 import static com.google.common.base.Preconditions.*;
 
 
 public class WateringEventService extends WateringEventImplBase {
-  private final Resource<String, WateringEvent> _wateringEventResource;
+  private static final Logger LOGGER = LoggerFactory.getLogger(WateringEventService.class);
 
-  public WateringEventService(Resource<String, WateringEvent> wateringEventResource) {
+  private static final int MAX_IN_FLIGHT_CREATES_PER_CALL = 64;
+
+  private final AsyncResource<String, WateringEvent> _wateringEventResource;
+  private final BulkWriter<String, WateringEvent> _wateringEventBulkWriter;
+  private final CareAggregator<WateringEvent> _careAggregator;
+
+  public WateringEventService(AsyncResource<String, WateringEvent> wateringEventResource,
+      CareAggregator<WateringEvent> careAggregator) {
     _wateringEventResource = checkNotNull(wateringEventResource, "WateringEvent Resource cannot be null");
+    _wateringEventBulkWriter = new BulkWriter.Builder<>(_wateringEventResource).build();
+    _careAggregator = checkNotNull(careAggregator, "CareAggregator cannot be null");
   }
 
   @Override
   public void get(WateringEventGetRequest request, StreamObserver<WateringEventGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("WateringEvent ID is missing")));
     } else {
-      // TODO: add metadata
-      WateringEventQueryRequest wateringEventQueryRequest =
-          WateringEventQueryRequest.newBuilder().setTemplate(WateringEvent.newBuilder().setId(request.getId())).build();
-      query(wateringEventQueryRequest, new StreamObserverConverter<>(responseObserver, wateringEventQueryResponse -> {
-        WateringEvent wateringEvent = Iterables.getOnlyElement(wateringEventQueryResponse.getWateringEventList());
-        responseObserver.onNext(WateringEventGetResponse.newBuilder().setWateringEvent(wateringEvent).build());
-        }));
+      _wateringEventResource.get(request.getId(), getGetRequestOptions(fieldMask, request.getGardenPlantId(), session))
+          .whenComplete(completing(responseObserver, getResponse -> {
+            checkOk(getResponse);
+            return WateringEventGetResponse.newBuilder()
+                .setWateringEvent(FieldMasks.trim(fieldMask, getResponse.getPayload()))
+                .build();
+          }));
     }
   }
 
   @Override
   public void query(WateringEventQueryRequest request, StreamObserver<WateringEventQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
     if (request.getTemplate() == null) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else if (request.getLimit() > 0 || !request.getContinuationToken().isEmpty()) {
+      // the client is paging through the results, so only return the requested page
+      _wateringEventResource.queryPage(request.getTemplate(),
+          getQueryRequestOptions(request, request.getContinuationToken(), session))
+          .whenComplete(completing(responseObserver, page -> toQueryResponse(page, fieldMask)));
     } else {
-      // TODO: add metadata
-      List<ResourceResponse<WateringEvent>> responses =
-          _wateringEventResource.query(request.getTemplate(), new QueryRequestOptionsImpl.Builder().build());
-      WateringEventQueryResponse.Builder responseBuilder = WateringEventQueryResponse.newBuilder();
-      if (!responses.isEmpty()) {
-        responses.forEach(response -> {
-          if (response.getStatus().equals(ResponseStatus.OK)) {
-            responseBuilder.addWateringEvent(response.getPayload());
-          }
-        });
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(
-            Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate())));
-      }
+      _wateringEventResource.query(request.getTemplate(),
+          getQueryRequestOptions(fieldMask, request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> {
+            if (responses.isEmpty()) {
+              throw new StatusRuntimeException(
+                  Status.NOT_FOUND.augmentDescription("Did not find anything matching " + request.getTemplate()));
+            }
+            WateringEventQueryResponse.Builder responseBuilder = WateringEventQueryResponse.newBuilder();
+            responses.forEach(response -> {
+              if (response.getStatus().equals(ResponseStatus.OK)) {
+                responseBuilder.addWateringEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+              }
+            });
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void streamQuery(WateringEventQueryRequest request,
+      StreamObserver<WateringEventQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getTemplate() == null) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("Template is missing")));
+    } else if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      FlowControlledPageStreamer.stream(getContinuationToken(request),
+          continuationToken -> _wateringEventResource.queryPage(request.getTemplate(),
+              getQueryRequestOptions(request, continuationToken, session)), page -> toQueryResponse(page, fieldMask),
+          responseObserver);
+    }
+  }
+
+  @Override
+  public void batchGet(WateringEventBatchGetRequest request,
+      StreamObserver<WateringEventBatchGetResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (request.getIdList().stream().anyMatch(String::isEmpty)) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("WateringEvent ID is missing")));
+    } else {
+      _wateringEventResource.batchGet(request.getIdList(), getGetRequestOptions(fieldMask, session))
+          .whenComplete(completing(responseObserver, responses -> {
+            WateringEventBatchGetResponse.Builder responseBuilder = WateringEventBatchGetResponse.newBuilder();
+            for (ResourceResponse<WateringEvent> response : responses) {
+              if (ResponseStatus.OK.equals(response.getStatus())) {
+                responseBuilder.addWateringEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+              } else if (!ResponseStatus.NOT_FOUND.equals(response.getStatus())) {
+                throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
+              }
+            }
+            return responseBuilder.build();
+          }));
+    }
+  }
+
+  @Override
+  public void batchQuery(WateringEventBatchQueryRequest request,
+      StreamObserver<WateringEventBatchQueryResponse> responseObserver) {
+    List<String> fieldMask = getFieldMask(request.getFieldMask());
+    StorageSession session = StorageSession.current();
+    if (!EventRanges.isValid(request.getRange())) {
+      responseObserver.onError(
+          new StatusRuntimeException(Status.INVALID_ARGUMENT.augmentDescription("Range is invalid")));
+    } else {
+      _wateringEventResource.batchQuery(request.getTemplateList(),
+          getQueryRequestOptions(fieldMask, request.getRange(), session))
+          .whenComplete(completing(responseObserver, responses -> toBatchQueryResponse(responses, fieldMask)));
     }
   }
 
   @Override
   public void create(WateringEventCreateRequest request, StreamObserver<WateringEventCreateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasWateringEvent()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("WateringEvent is missing")));
     } else {
-      ResourceResponse<Void> createResponse =
-          _wateringEventResource.create(request.getWateringEvent(), new CreateRequestOptionsImpl());
-      if (ResponseStatus.OK.equals(createResponse.getStatus())) {
-        responseObserver.onNext(WateringEventCreateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(createResponse.getStatus().getGrpcStatus()));
-      }
+      WateringEvent event = request.getWateringEvent();
+      _wateringEventBulkWriter.create(event)
+          .thenCompose(createResponse -> aggregated(createResponse, () -> _careAggregator.onWritten(event)))
+          .whenComplete(completing(responseObserver, createResponse -> {
+            checkOk(createResponse);
+            session.update(createResponse.getStorageMetadata());
+            return WateringEventCreateResponse.newBuilder().build();
+          }));
     }
   }
 
+  @Override
+  public StreamObserver<WateringEventCreateRequest> createMany(
+      StreamObserver<WateringEventCreateManyResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
+    return FlowControlledCreateReceiver.receive(request -> {
+      if (!request.hasWateringEvent()) {
+        throw new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("WateringEvent is missing"));
+      }
+      WateringEvent event = request.getWateringEvent();
+      return _wateringEventBulkWriter.create(event)
+          .thenCompose(createResponse -> aggregated(createResponse, () -> _careAggregator.onWritten(event)))
+          .thenApply(createResponse -> {
+            session.update(createResponse.getStorageMetadata());
+            return createResponse;
+          });
+    }, createdCount -> WateringEventCreateManyResponse.newBuilder().setCreatedCount(createdCount).build(),
+        MAX_IN_FLIGHT_CREATES_PER_CALL, responseObserver);
+  }
+
   @Override
   public void update(WateringEventUpdateRequest request, StreamObserver<WateringEventUpdateResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (!request.hasWateringEvent()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("WateringEvent is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> updateResponse = _wateringEventResource.update(request.getWateringEvent(),
-          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build());
-      if (ResponseStatus.OK.equals(updateResponse.getStatus())) {
-        responseObserver.onNext(WateringEventUpdateResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(updateResponse.getStatus().getGrpcStatus()));
-      }
+      WateringEvent event = request.getWateringEvent();
+      _wateringEventResource.update(event,
+          new UpdateRequestOptionsImpl.Builder().shouldUpsert(request.getShouldUpsert()).build())
+          .thenCompose(updateResponse -> aggregated(updateResponse, () -> _careAggregator.onWritten(event)))
+          .whenComplete(completing(responseObserver, updateResponse -> {
+            checkOk(updateResponse);
+            session.update(updateResponse.getStorageMetadata());
+            return WateringEventUpdateResponse.newBuilder().build();
+          }));
     }
   }
 
   @Override
   public void delete(WateringEventDeleteRequest request, StreamObserver<WateringEventDeleteResponse> responseObserver) {
+    StorageSession session = StorageSession.current();
     if (request.getId() == null || request.getId().isEmpty()) {
       responseObserver.onError(
           new StatusRuntimeException(Status.FAILED_PRECONDITION.augmentDescription("WateringEvent ID is missing")));
     } else {
-      // TODO: add metadata
-      ResourceResponse<Void> deleteResponse =
-          _wateringEventResource.delete(request.getId(), new DeleteRequestOptionsImpl.Builder().build());
-      if (ResponseStatus.OK.equals(deleteResponse.getStatus())) {
-        responseObserver.onNext(WateringEventDeleteResponse.newBuilder().build());
-        responseObserver.onCompleted();
-      } else {
-        responseObserver.onError(new StatusRuntimeException(deleteResponse.getStatus().getGrpcStatus()));
+      // the event is read first, to take it out of the care aggregates once it is deleted
+      _wateringEventResource.get(request.getId(),
+          getGetRequestOptions(Collections.emptyList(), request.getGardenPlantId(), session))
+          .thenCompose(getResponse -> _wateringEventResource.delete(request.getId(),
+              getDeleteRequestOptions(request, getResponse)).thenCompose(deleteResponse ->
+              ResponseStatus.OK.equals(getResponse.getStatus())
+                  ? aggregated(deleteResponse, () -> _careAggregator.onDeleted(getResponse.getPayload()))
+                  : CompletableFuture.completedFuture(deleteResponse)))
+          .whenComplete(completing(responseObserver, deleteResponse -> {
+            checkOk(deleteResponse);
+            session.update(deleteResponse.getStorageMetadata());
+            return WateringEventDeleteResponse.newBuilder().build();
+          }));
+    }
+  }
+
+  /**
+   * @return {@code response}, once the care aggregates count the write that it is of. The write happened either way,
+   * so failing to update the aggregates (once the aggregator ran out of retries) is only logged, for the next rebuild
+   * of the aggregates to fix.
+   */
+  private static <T> CompletableFuture<ResourceResponse<T>> aggregated(ResourceResponse<T> response,
+      Supplier<CompletableFuture<Void>> aggregation) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      return CompletableFuture.completedFuture(response);
+    }
+    return aggregation.get().handle((ignored, throwable) -> {
+      if (throwable != null) {
+        LOGGER.warn("Could not update the care aggregates", throwable);
       }
+      return response;
+    });
+  }
+
+  private static void checkOk(ResourceResponse<?> response) {
+    if (!ResponseStatus.OK.equals(response.getStatus())) {
+      throw new StatusRuntimeException(response.getStatus().getGrpcStatus());
     }
   }
+
+  private static List<String> getFieldMask(FieldMask fieldMask) {
+    return FieldMasks.getTopLevelFields(fieldMask, WateringEvent.getDescriptor());
+  }
+
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask).metadata(session.getMetadata()).build();
+  }
+
+  /**
+   * @param partitionKey the partition of the WateringEvent, or empty if the caller did not say.
+   */
+  private static GetRequestOptions getGetRequestOptions(List<String> fieldMask, String partitionKey,
+      StorageSession session) {
+    return new GetRequestOptionsImpl.Builder().fieldMask(fieldMask)
+        .partitionKey(partitionKey)
+        .metadata(session.getMetadata())
+        .build();
+  }
+
+  /**
+   * @return the options of the delete, in the partition of the event that was read (or else the one that the caller
+   * said).
+   */
+  private static DeleteRequestOptions getDeleteRequestOptions(WateringEventDeleteRequest request,
+      ResourceResponse<WateringEvent> getResponse) {
+    String partitionKey = ResponseStatus.OK.equals(getResponse.getStatus())
+        ? getResponse.getPayload().getGardenPlantId() : request.getGardenPlantId();
+    return new DeleteRequestOptionsImpl.Builder().partitionKey(partitionKey).build();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(List<String> fieldMask, EventRange range,
+      StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().getRequestOptions(getGetRequestOptions(fieldMask, session))
+        .bounds(EventRanges.toQueryBounds(range))
+        .build();
+  }
+
+  private static String getContinuationToken(WateringEventQueryRequest request) {
+    return request.getContinuationToken().isEmpty() ? null : request.getContinuationToken();
+  }
+
+  private static QueryRequestOptions getQueryRequestOptions(WateringEventQueryRequest request,
+      String continuationToken, StorageSession session) {
+    return new QueryRequestOptionsImpl.Builder().continuationToken(continuationToken)
+        .getRequestOptions(getGetRequestOptions(getFieldMask(request.getFieldMask()), session))
+        .pageSize(Math.max(request.getLimit(), 0))
+        .bounds(EventRanges.toQueryBounds(request.getRange()))
+        .build();
+  }
+
+  private WateringEventQueryResponse toQueryResponse(ResourcePage<WateringEvent> page, List<String> fieldMask) {
+    WateringEventQueryResponse.Builder responseBuilder = WateringEventQueryResponse.newBuilder();
+    page.getResponses().forEach(response -> {
+      if (ResponseStatus.OK.equals(response.getStatus())) {
+        responseBuilder.addWateringEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+      }
+    });
+    if (page.getContinuationToken() != null) {
+      responseBuilder.setContinuationToken(page.getContinuationToken());
+    }
+    return responseBuilder.build();
+  }
+
+  private WateringEventBatchQueryResponse toBatchQueryResponse(List<List<ResourceResponse<WateringEvent>>> responses,
+      List<String> fieldMask) {
+    WateringEventBatchQueryResponse.Builder responseBuilder = WateringEventBatchQueryResponse.newBuilder();
+    responses.forEach(templateResponses -> {
+      WateringEventQueryResponse.Builder templateResponseBuilder = WateringEventQueryResponse.newBuilder();
+      templateResponses.forEach(response -> {
+        if (ResponseStatus.OK.equals(response.getStatus())) {
+          templateResponseBuilder.addWateringEvent(FieldMasks.trim(fieldMask, response.getPayload()));
+        }
+      });
+      responseBuilder.addResponse(templateResponseBuilder);
+    });
+    return responseBuilder.build();
+  }
 }
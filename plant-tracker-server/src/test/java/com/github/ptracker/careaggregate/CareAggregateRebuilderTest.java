@@ -0,0 +1,104 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.common.EventMetadata;
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.CareAggregate.Granularity;
+import com.github.ptracker.entity.FertilizationEvent;
+import com.github.ptracker.entity.GardenPlant;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.fertilizationevent.FertilizationEventServer;
+import com.github.ptracker.gardenplant.GardenPlantServer;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CreateRequestOptionsImpl;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.ResourceResponse;
+import com.github.ptracker.resource.ResponseStatus;
+import com.github.ptracker.service.InMemoryResourceFactory;
+import com.github.ptracker.wateringevent.WateringEventServer;
+import java.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class CareAggregateRebuilderTest {
+  private static final long DAY_START = Instant.parse("2024-03-14T00:00:00Z").toEpochMilli();
+  private static final long LAST_MONTH_START = Instant.parse("2024-02-01T00:00:00Z").toEpochMilli();
+
+  private InMemoryResourceFactory _resourceFactory;
+  private AsyncResource<String, CareAggregate> _aggregates;
+  private AsyncResource<String, AppliedCareEvent> _appliedEvents;
+  private AsyncResource<String, WateringEvent> _wateringEvents;
+
+  @Before
+  public void setUp() {
+    _resourceFactory = new InMemoryResourceFactory();
+    _aggregates = CareAggregateServer.getResource(_resourceFactory);
+    _appliedEvents = CareAggregateServer.getAppliedEventResource(_resourceFactory);
+    _wateringEvents = WateringEventServer.getResource(_resourceFactory);
+    GardenPlantServer.getResource(_resourceFactory).create(GardenPlant.newBuilder()
+        .setId("plant-1")
+        .setName("Basil")
+        .setGardenId("garden-1")
+        .setPlantId("basil")
+        .build(), new CreateRequestOptionsImpl()).join();
+  }
+
+  @Test
+  public void aggregatesAreSummedUpFromTheEventsOfEachGardenPlant() {
+    _wateringEvents.create(newWateringEvent("event-1", DAY_START + 10, 100), new CreateRequestOptionsImpl()).join();
+    _wateringEvents.create(newWateringEvent("event-2", DAY_START + 20, 50), new CreateRequestOptionsImpl()).join();
+    FertilizationEventServer.getResource(_resourceFactory).create(FertilizationEvent.newBuilder()
+        .setId("event-3")
+        .setGardenPlantId("plant-1")
+        .setQuantityMg(5)
+        .setMetadata(EventMetadata.newBuilder().setTimestamp(DAY_START + 30).setGardenerId("gardener-1"))
+        .build(), new CreateRequestOptionsImpl()).join();
+
+    // one bucket per granularity, which the watering and fertilization events share
+    assertEquals(3, new CareAggregateRebuilder(_resourceFactory).rebuild());
+    CareAggregate aggregate = get(CareAggregates.getId("plant-1", Granularity.DAY, DAY_START));
+    assertEquals(150, aggregate.getTotalQuantityMl());
+    assertEquals(2, aggregate.getWateringCount());
+    assertEquals(DAY_START + 20, aggregate.getLastWateringTimestamp());
+    assertEquals(5, aggregate.getTotalQuantityMg());
+    assertEquals(1, aggregate.getFertilizationCount());
+  }
+
+  @Test
+  public void staleAggregatesAndAppliedEventsAreDeleted() {
+    WateringEvent event = newWateringEvent("event-1", DAY_START + 10, 100);
+    _wateringEvents.create(event, new CreateRequestOptionsImpl()).join();
+    CareAggregator<WateringEvent> aggregator =
+        new CareAggregator.Builder<>(_aggregates, _appliedEvents, CareEventKind.WATERING).build();
+    WateringEvent deletedEvent = newWateringEvent("event-2", LAST_MONTH_START + 10, 50);
+    aggregator.onWritten(deletedEvent).join();
+
+    new CareAggregateRebuilder(_resourceFactory).rebuild();
+    assertNull(get(CareAggregates.getId("plant-1", Granularity.MONTH, LAST_MONTH_START)));
+    String deletedEventId = CareAggregates.newAppliedEvent(CareEventKind.WATERING, deletedEvent).getId();
+    assertEquals(ResponseStatus.NOT_FOUND,
+        _appliedEvents.get(deletedEventId, new GetRequestOptionsImpl.Builder().build()).join().getStatus());
+
+    // the aggregator goes on from what the rebuild counted
+    aggregator.onDeleted(event).join();
+    aggregator.onDeleted(event).join();
+    assertEquals(0, get(CareAggregates.getId("plant-1", Granularity.DAY, DAY_START)).getWateringCount());
+  }
+
+  private CareAggregate get(String id) {
+    ResourceResponse<CareAggregate> response = _aggregates.get(id, new GetRequestOptionsImpl.Builder().build()).join();
+    return ResponseStatus.OK.equals(response.getStatus()) ? response.getPayload() : null;
+  }
+
+  private static WateringEvent newWateringEvent(String id, long timestamp, int quantityMl) {
+    return WateringEvent.newBuilder()
+        .setId(id)
+        .setGardenPlantId("plant-1")
+        .setQuantityMl(quantityMl)
+        .setMetadata(EventMetadata.newBuilder().setTimestamp(timestamp).setGardenerId("gardener-1"))
+        .build();
+  }
+}
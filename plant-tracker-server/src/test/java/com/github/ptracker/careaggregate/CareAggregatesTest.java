@@ -0,0 +1,158 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.AppliedCareEvent.Count;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.CareAggregate.Granularity;
+import java.time.Instant;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class CareAggregatesTest {
+  // a Thursday
+  private static final long TIMESTAMP = toMillis("2024-03-14T15:00:00Z");
+
+  @Test
+  public void bucketStartsAreInUtc() {
+    assertEquals(toMillis("2024-03-14T00:00:00Z"), CareAggregates.getBucketStart(TIMESTAMP, Granularity.DAY));
+    assertEquals(toMillis("2024-03-11T00:00:00Z"), CareAggregates.getBucketStart(TIMESTAMP, Granularity.WEEK));
+    assertEquals(toMillis("2024-03-01T00:00:00Z"), CareAggregates.getBucketStart(TIMESTAMP, Granularity.MONTH));
+  }
+
+  @Test
+  public void weeksStartOnMondays() {
+    assertEquals(toMillis("2024-03-11T00:00:00Z"),
+        CareAggregates.getBucketStart(toMillis("2024-03-11T00:00:00Z"), Granularity.WEEK));
+    assertEquals(toMillis("2024-03-11T00:00:00Z"),
+        CareAggregates.getBucketStart(toMillis("2024-03-17T23:59:59.999Z"), Granularity.WEEK));
+  }
+
+  @Test
+  public void bucketEndsAreTheNextBucketStarts() {
+    assertEquals(toMillis("2024-03-15T00:00:00Z"),
+        CareAggregates.getBucketEnd(toMillis("2024-03-14T00:00:00Z"), Granularity.DAY));
+    assertEquals(toMillis("2024-03-18T00:00:00Z"),
+        CareAggregates.getBucketEnd(toMillis("2024-03-11T00:00:00Z"), Granularity.WEEK));
+    // months differ in length, and February of a leap year has 29 days
+    assertEquals(toMillis("2024-03-01T00:00:00Z"),
+        CareAggregates.getBucketEnd(toMillis("2024-02-01T00:00:00Z"), Granularity.MONTH));
+    assertEquals(toMillis("2025-01-01T00:00:00Z"),
+        CareAggregates.getBucketEnd(toMillis("2024-12-01T00:00:00Z"), Granularity.MONTH));
+  }
+
+  @Test
+  public void idsAreSplitFromTheirEnd() {
+    CareAggregate bucket = CareAggregates.newBucket("garden:plant", Granularity.DAY, TIMESTAMP).build();
+    assertEquals("garden:plant:DAY:" + toMillis("2024-03-14T00:00:00Z"), bucket.getId());
+
+    CareAggregate valueWithIdOnly = CareAggregates.getValueWithIdOnly(bucket.getId());
+    assertEquals(bucket.getId(), valueWithIdOnly.getId());
+    assertEquals("garden:plant", valueWithIdOnly.getGardenPlantId());
+  }
+
+  @Test
+  public void appliedEventIdsAreSplitByTheLengthOfTheGardenPlantId() {
+    String id = CareAggregates.getAppliedEventId("garden:plant", AppliedCareEvent.Kind.WATERING, "event:1");
+    assertEquals("WATERING:12:garden:plant:event:1", id);
+    assertEquals("garden:plant", CareAggregates.getAppliedEventWithIdOnly(id).getGardenPlantId());
+    assertEquals("", CareAggregates.getAppliedEventWithIdOnly("WATERING:plant").getGardenPlantId());
+  }
+
+  @Test
+  public void addSumsUpCounts() {
+    CareAggregate.Builder aggregate = newBucket();
+    CareAggregates.add(CareEventKind.WATERING, aggregate, newCount(100, TIMESTAMP));
+    CareAggregates.add(CareEventKind.WATERING, aggregate, newCount(50, TIMESTAMP - 1000));
+
+    assertEquals(150, aggregate.getTotalQuantityMl());
+    assertEquals(2, aggregate.getWateringCount());
+    assertEquals(TIMESTAMP, aggregate.getLastWateringTimestamp());
+    assertEquals(0, aggregate.getFertilizationCount());
+  }
+
+  @Test
+  public void applyReplacesWhatWasCountedBefore() {
+    CareAggregate.Builder aggregate = newBucket();
+    CareAggregates.add(CareEventKind.WATERING, aggregate, newCount(100, TIMESTAMP));
+
+    AppliedCareEvent appliedEvent = newAppliedEvent().setPreviouslyCounted(newCount(100, TIMESTAMP))
+        .setCounted(newCount(30, TIMESTAMP - 1000))
+        .build();
+    // the bucket counts nothing but the event, so its last timestamp is not looked up
+    assertFalse(CareAggregates.apply(CareEventKind.WATERING, aggregate, appliedEvent));
+    assertEquals(30, aggregate.getTotalQuantityMl());
+    assertEquals(1, aggregate.getWateringCount());
+    assertEquals(TIMESTAMP - 1000, aggregate.getLastWateringTimestamp());
+  }
+
+  @Test
+  public void applyOnlyChangesTheBucketThatTheCountsFallInto() {
+    CareAggregate.Builder aggregate = newBucket();
+    CareAggregates.add(CareEventKind.WATERING, aggregate, newCount(100, TIMESTAMP));
+    CareAggregate before = aggregate.build();
+
+    long nextDay = TIMESTAMP + 24 * 60 * 60 * 1000;
+    AppliedCareEvent appliedEvent = newAppliedEvent().setCounted(newCount(30, nextDay)).build();
+    assertFalse(CareAggregates.apply(CareEventKind.WATERING, aggregate, appliedEvent));
+    assertEquals(before, aggregate.build());
+  }
+
+  @Test
+  public void applyTellsWhenTheLastEventIsTakenOut() {
+    CareAggregate.Builder aggregate = newBucket();
+    CareAggregates.add(CareEventKind.WATERING, aggregate, newCount(100, TIMESTAMP - 1000));
+    CareAggregates.add(CareEventKind.WATERING, aggregate, newCount(50, TIMESTAMP));
+
+    assertTrue(CareAggregates.apply(CareEventKind.WATERING, aggregate,
+        newAppliedEvent().setPreviouslyCounted(newCount(50, TIMESTAMP)).build()));
+    assertEquals(100, aggregate.getTotalQuantityMl());
+    assertEquals(1, aggregate.getWateringCount());
+
+    // nothing is left to look up once the bucket counts nothing
+    assertFalse(CareAggregates.apply(CareEventKind.WATERING, aggregate,
+        newAppliedEvent().setPreviouslyCounted(newCount(100, TIMESTAMP - 1000)).build()));
+    assertEquals(0, aggregate.getTotalQuantityMl());
+    assertEquals(0, aggregate.getWateringCount());
+    assertEquals(0, aggregate.getLastWateringTimestamp());
+  }
+
+  @Test
+  public void bucketsOfAChangeAreOfBothCounts() {
+    long nextDay = TIMESTAMP + 24 * 60 * 60 * 1000;
+    AppliedCareEvent appliedEvent = newAppliedEvent().setPreviouslyCounted(newCount(100, TIMESTAMP))
+        .setCounted(newCount(30, nextDay))
+        .build();
+    // the days differ, but the week and month are the same
+    assertEquals(4, CareAggregates.getBuckets(appliedEvent).size());
+    assertEquals(3, CareAggregates.getBuckets(appliedEvent.toBuilder().clearPreviouslyCounted().build()).size());
+  }
+
+  @Test
+  public void totalsFieldMaskLeavesOutTheLastChange() {
+    assertTrue(CareAggregates.TOTALS_FIELD_MASK.contains("totalQuantityMl"));
+    assertTrue(CareAggregates.TOTALS_FIELD_MASK.contains("bucketStart"));
+    assertFalse(CareAggregates.TOTALS_FIELD_MASK.contains("lastChangeId"));
+    assertFalse(CareAggregates.TOTALS_FIELD_MASK.contains("lastChangeVersion"));
+  }
+
+  private static CareAggregate.Builder newBucket() {
+    return CareAggregates.newBucket("plant-1", Granularity.DAY, TIMESTAMP);
+  }
+
+  private static AppliedCareEvent.Builder newAppliedEvent() {
+    return AppliedCareEvent.newBuilder()
+        .setId(CareAggregates.getAppliedEventId("plant-1", AppliedCareEvent.Kind.WATERING, "event-1"))
+        .setGardenPlantId("plant-1")
+        .setKind(AppliedCareEvent.Kind.WATERING);
+  }
+
+  private static Count newCount(long quantity, long timestamp) {
+    return Count.newBuilder().setQuantity(quantity).setTimestamp(timestamp).build();
+  }
+
+  private static long toMillis(String instant) {
+    return Instant.parse(instant).toEpochMilli();
+  }
+}
@@ -0,0 +1,309 @@
+package com.github.ptracker.careaggregate;
+
+import com.github.ptracker.common.EventMetadata;
+import com.github.ptracker.entity.AppliedCareEvent;
+import com.github.ptracker.entity.CareAggregate;
+import com.github.ptracker.entity.CareAggregate.Granularity;
+import com.github.ptracker.entity.WateringEvent;
+import com.github.ptracker.resource.AsyncResource;
+import com.github.ptracker.resource.CreateRequestOptions;
+import com.github.ptracker.resource.DeleteRequestOptions;
+import com.github.ptracker.resource.GetRequestOptions;
+import com.github.ptracker.resource.GetRequestOptionsImpl;
+import com.github.ptracker.resource.QueryRequestOptions;
+import com.github.ptracker.resource.ResourcePage;
+import com.github.ptracker.resource.ResourceResponse;
+import com.github.ptracker.resource.ResponseStatus;
+import com.github.ptracker.resource.UpdateRequestOptions;
+import com.github.ptracker.service.InMemoryResourceFactory;
+import com.google.common.collect.ImmutableList;
+import io.grpc.Status;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class CareAggregatorTest {
+  private static final long DAY_START = Instant.parse("2024-03-14T00:00:00Z").toEpochMilli();
+  private static final long NEXT_DAY_START = Instant.parse("2024-03-15T00:00:00Z").toEpochMilli();
+  private static final long WEEK_START = Instant.parse("2024-03-11T00:00:00Z").toEpochMilli();
+  private static final int MAX_RETRIES = 2;
+
+  private ScheduledExecutorService _scheduler;
+  private FailingResource _aggregates;
+  private AsyncResource<String, AppliedCareEvent> _appliedEvents;
+  private CareAggregator<WateringEvent> _aggregator;
+
+  @Before
+  public void setUp() {
+    _scheduler = Executors.newSingleThreadScheduledExecutor();
+    InMemoryResourceFactory resourceFactory = new InMemoryResourceFactory();
+    _aggregates = new FailingResource(CareAggregateServer.getResource(resourceFactory));
+    _appliedEvents = CareAggregateServer.getAppliedEventResource(resourceFactory);
+    _aggregator = newAggregator();
+  }
+
+  @After
+  public void tearDown() {
+    _scheduler.shutdownNow();
+  }
+
+  @Test
+  public void createdEventIsCountedInEveryBucket() {
+    _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+    _aggregator.onWritten(newEvent("event-2", NEXT_DAY_START + 10, 50)).join();
+
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+    assertCounted(get(Granularity.DAY, NEXT_DAY_START), 50, 1, NEXT_DAY_START + 10);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 150, 2, NEXT_DAY_START + 10);
+  }
+
+  @Test
+  public void eventCreatedAgainIsCountedOnce() {
+    WateringEvent event = newEvent("event-1", DAY_START + 10, 100);
+    _aggregator.onWritten(event).join();
+    _aggregator.onWritten(event).join();
+
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 100, 1, DAY_START + 10);
+  }
+
+  @Test
+  public void eventDeletedAgainIsTakenOutOnce() {
+    _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+    WateringEvent event = newEvent("event-2", DAY_START + 20, 50);
+    _aggregator.onWritten(event).join();
+
+    _aggregator.onDeleted(event).join();
+    _aggregator.onDeleted(event).join();
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+  }
+
+  @Test
+  public void eventThatWasNotCountedIsNotTakenOut() {
+    _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+
+    _aggregator.onDeleted(newEvent("event-2", DAY_START + 20, 50)).join();
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+    _aggregator.onDeleted(newEvent("event-3", NEXT_DAY_START, 50)).join();
+    assertNull(get(Granularity.DAY, NEXT_DAY_START));
+  }
+
+  @Test
+  public void replacedEventMovesBetweenBuckets() {
+    WateringEvent event = newEvent("event-1", DAY_START + 10, 100);
+    _aggregator.onWritten(event).join();
+    WateringEvent movedEvent = newEvent("event-1", NEXT_DAY_START + 10, 30);
+    _aggregator.onWritten(movedEvent).join();
+    _aggregator.onWritten(movedEvent).join();
+
+    assertCounted(get(Granularity.DAY, DAY_START), 0, 0, 0);
+    assertCounted(get(Granularity.DAY, NEXT_DAY_START), 30, 1, NEXT_DAY_START + 10);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 30, 1, NEXT_DAY_START + 10);
+  }
+
+  @Test
+  public void deletedLastEventIsLookedUpAgain() {
+    _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+    WateringEvent lastEvent = newEvent("event-2", DAY_START + 30, 50);
+    _aggregator.onWritten(lastEvent).join();
+    _aggregator.onWritten(newEvent("event-3", NEXT_DAY_START + 10, 20)).join();
+
+    _aggregator.onDeleted(lastEvent).join();
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 120, 2, NEXT_DAY_START + 10);
+  }
+
+  @Test
+  public void concurrentChangesOfOneBucketAreAllCountedOnce() {
+    CareAggregator<WateringEvent> otherAggregator = newAggregator();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        CareAggregator<WateringEvent> aggregator = i % 2 == 0 ? _aggregator : otherAggregator;
+        WateringEvent event = newEvent("event-" + i, DAY_START + i, 10);
+        // each event is written twice, as a retried write would be
+        futures.add(CompletableFuture.runAsync(() -> aggregator.onWritten(event).join(), executor));
+        futures.add(CompletableFuture.runAsync(() -> aggregator.onWritten(event).join(), executor));
+      }
+      futures.forEach(CompletableFuture::join);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertCounted(get(Granularity.DAY, DAY_START), 200, 20, DAY_START + 19);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 200, 20, DAY_START + 19);
+  }
+
+  @Test
+  public void changeThatStoppedHalfWayIsFinishedByTheNextChangeOfItsEvent() {
+    WateringEvent event = newEvent("event-1", DAY_START + 10, 100);
+    _aggregates._failureStatus = Status.INTERNAL;
+    _aggregates._failingId = CareAggregates.getId("plant-1", Granularity.WEEK, WEEK_START);
+    _aggregates._failures = 1;
+    try {
+      _aggregator.onWritten(event).join();
+      fail("Change should have failed");
+    } catch (CompletionException e) {
+      assertEquals(Status.Code.INTERNAL, Status.fromThrowable(e).getCode());
+    }
+    assertNull(get(Granularity.WEEK, WEEK_START));
+
+    _aggregator.onWritten(event).join();
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 100, 1, DAY_START + 10);
+    assertEquals(0, getAppliedEvent(event).getPendingBucketIdsCount());
+  }
+
+  @Test
+  public void changeOfAnotherEventTakesTheBucketOffAChangeThatStoppedHalfWay() {
+    WateringEvent event = newEvent("event-1", DAY_START + 10, 100);
+    _aggregates._failureStatus = Status.INTERNAL;
+    _aggregates._failingId = CareAggregates.getId("plant-1", Granularity.WEEK, WEEK_START);
+    _aggregates._failures = 1;
+    try {
+      _aggregator.onWritten(event).join();
+      fail("Change should have failed");
+    } catch (CompletionException e) {
+      assertEquals(Status.Code.INTERNAL, Status.fromThrowable(e).getCode());
+    }
+
+    // the day of the event forgets its change once it counts another event, so the change is told first
+    _aggregator.onWritten(newEvent("event-2", DAY_START + 20, 50)).join();
+    assertEquals(ImmutableList.of(CareAggregates.getId("plant-1", Granularity.WEEK, WEEK_START)),
+        getAppliedEvent(event).getPendingBucketIdsList());
+
+    _aggregator.onWritten(event).join();
+    assertCounted(get(Granularity.DAY, DAY_START), 150, 2, DAY_START + 20);
+    assertCounted(get(Granularity.WEEK, WEEK_START), 150, 2, DAY_START + 20);
+  }
+
+  @Test
+  public void failedChangeIsRetried() {
+    _aggregates._failures = MAX_RETRIES;
+    _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+
+    assertCounted(get(Granularity.DAY, DAY_START), 100, 1, DAY_START + 10);
+  }
+
+  @Test
+  public void changeFailsOnceRetriesRunOut() {
+    // every bucket fails every attempt
+    _aggregates._failures = (MAX_RETRIES + 1) * CareAggregates.GRANULARITIES.size();
+    try {
+      _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+      fail("Change should have failed");
+    } catch (CompletionException e) {
+      assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(e).getCode());
+    }
+  }
+
+  @Test
+  public void changeThatCannotPassIsNotRetried() {
+    _aggregates._failureStatus = Status.INTERNAL;
+    _aggregates._failures = CareAggregates.GRANULARITIES.size();
+    try {
+      _aggregator.onWritten(newEvent("event-1", DAY_START + 10, 100)).join();
+      fail("Change should have failed");
+    } catch (CompletionException e) {
+      assertEquals(Status.Code.INTERNAL, Status.fromThrowable(e).getCode());
+    }
+  }
+
+  private CareAggregator<WateringEvent> newAggregator() {
+    return new CareAggregator.Builder<>(_aggregates, _appliedEvents, CareEventKind.WATERING).retries(MAX_RETRIES,
+        Duration.ZERO).scheduler(_scheduler).build();
+  }
+
+  private AppliedCareEvent getAppliedEvent(WateringEvent event) {
+    String id = CareAggregates.newAppliedEvent(CareEventKind.WATERING, event).getId();
+    return _appliedEvents.get(id, new GetRequestOptionsImpl.Builder().build()).join().getPayload();
+  }
+
+  private CareAggregate get(Granularity granularity, long bucketStart) {
+    String id = CareAggregates.getId("plant-1", granularity, bucketStart);
+    ResourceResponse<CareAggregate> response = _aggregates.get(id, new GetRequestOptionsImpl.Builder().build()).join();
+    return ResponseStatus.OK.equals(response.getStatus()) ? response.getPayload() : null;
+  }
+
+  private static void assertCounted(CareAggregate aggregate, long totalQuantityMl, int count, long lastTimestamp) {
+    assertNotNull(aggregate);
+    assertEquals(totalQuantityMl, aggregate.getTotalQuantityMl());
+    assertEquals(count, aggregate.getWateringCount());
+    assertEquals(lastTimestamp, aggregate.getLastWateringTimestamp());
+  }
+
+  private static WateringEvent newEvent(String id, long timestamp, int quantityMl) {
+    return WateringEvent.newBuilder()
+        .setId(id)
+        .setGardenPlantId("plant-1")
+        .setQuantityMl(quantityMl)
+        .setMetadata(EventMetadata.newBuilder().setTimestamp(timestamp))
+        .build();
+  }
+
+  /**
+   * Fails the next reads (of one aggregate, if there is a failing id), like a storage that is unavailable for a while.
+   */
+  private static class FailingResource implements AsyncResource<String, CareAggregate> {
+    private final AsyncResource<String, CareAggregate> _resource;
+    private volatile int _failures = 0;
+    private volatile Status _failureStatus = Status.UNAVAILABLE;
+    private volatile String _failingId = null;
+
+    FailingResource(AsyncResource<String, CareAggregate> resource) {
+      _resource = resource;
+    }
+
+    @Override
+    public synchronized CompletableFuture<ResourceResponse<CareAggregate>> get(String key,
+        GetRequestOptions options) {
+      if (_failures > 0 && (_failingId == null || _failingId.equals(key))) {
+        _failures--;
+        CompletableFuture<ResourceResponse<CareAggregate>> future = new CompletableFuture<>();
+        future.completeExceptionally(_failureStatus.withDescription("Injected failure").asRuntimeException());
+        return future;
+      }
+      return _resource.get(key, options);
+    }
+
+    @Override
+    public CompletableFuture<List<ResourceResponse<CareAggregate>>> query(CareAggregate template,
+        QueryRequestOptions options) {
+      return _resource.query(template, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourcePage<CareAggregate>> queryPage(CareAggregate template,
+        QueryRequestOptions options) {
+      return _resource.queryPage(template, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> create(CareAggregate payload, CreateRequestOptions options) {
+      return _resource.create(payload, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> update(CareAggregate payload, UpdateRequestOptions options) {
+      return _resource.update(payload, options);
+    }
+
+    @Override
+    public CompletableFuture<ResourceResponse<Void>> delete(String key, DeleteRequestOptions options) {
+      return _resource.delete(key, options);
+    }
+  }
+}
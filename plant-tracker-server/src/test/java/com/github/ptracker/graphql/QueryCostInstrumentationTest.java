@@ -0,0 +1,266 @@
+package com.github.ptracker.graphql;
+
+import graphql.ErrorType;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.GraphQLError;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.schema.idl.FieldWiringEnvironment;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.WiringFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class QueryCostInstrumentationTest {
+  private static final String SCHEMA = String.join("\n",
+      "type Query { garden(id: String): Garden }",
+      "type Garden { name: String, gardenPlants(input: Limit): [GardenPlant],",
+      "  gardenPlantsConnection(page: PageRequest): GardenPlantConnection }",
+      "type GardenPlant { name: String, garden: Garden, wateringEvents(input: Limit): [WateringEvent] }",
+      "type WateringEvent { quantityMl: Int, gardenPlant: GardenPlant }",
+      "type GardenPlantConnection { edges: [GardenPlantEdge], pageInfo: PageInfo }",
+      "type GardenPlantEdge { node: GardenPlant }",
+      "type PageInfo { hasNextPage: Boolean, endCursor: String }",
+      "input Limit { limit: Int }",
+      "input PageRequest { first: Int, after: String }");
+  private static final String PAGE_QUERY =
+      "query($first: Int) { garden { gardenPlantsConnection(page: {first: $first}) { edges { node { name } } } } }";
+  // costs 2 plus the expected size of gardenPlants
+  private static final String LIST_QUERY = "{ garden { gardenPlants { garden { name } } } }";
+  private static final String LIMITED_LIST_QUERY =
+      "query($limit: Int) { garden { gardenPlants(input: {limit: $limit}) { garden { name } } } }";
+  // costs 2 plus the limit times (2 plus the limit) for limited lists, which fan out through the cycle
+  private static final String CYCLIC_LIMITED_LIST_QUERY = "query($limit: Int) { garden {"
+      + " gardenPlants(input: {limit: $limit}) { garden {"
+      + " gardenPlants(input: {limit: $limit}) { garden { name } } } } } }";
+  // costs 3 plus twice the expected size of the edges
+  private static final String CONNECTION_QUERY =
+      "{ garden { gardenPlantsConnection { edges { node { garden { name } } } } } }";
+  // enough lists for their sizes to be used instead of the default
+  private static final int OBSERVED_LISTS = 100;
+
+  private final AtomicInteger _fetches = new AtomicInteger();
+  private final AtomicInteger _parses = new AtomicInteger();
+  private volatile int _listSize = 2;
+  private GraphQLMetrics _metrics;
+  // the sizes of lists are observed by the field definitions of the schema, so every execution shares it
+  private GraphQLSchema _schema;
+
+  @Before
+  public void setUp() {
+    _metrics = new GraphQLMetrics();
+    _schema = newSchema();
+  }
+
+  @Test
+  public void pageSizeAboveTheMaxIsValidationError() {
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().build());
+
+    ExecutionResult result = executePage(graphQL, ConnectionUtils.MAX_PAGE_SIZE + 1);
+    assertValidationError(result, "first of gardenPlantsConnection should be between 0 and 100, but was 101");
+    result = graphQL.execute("{ garden { gardenPlantsConnection(page: {first: 1000}) { pageInfo { endCursor } } } }");
+    assertValidationError(result, "first of gardenPlantsConnection should be between 0 and 100, but was 1000");
+    result = executePage(graphQL, -1);
+    assertValidationError(result, "first of gardenPlantsConnection should be between 0 and 100, but was -1");
+    assertEquals(0, _fetches.get());
+    // they are the client's mistake, not queries that cost too much
+    assertEquals(0, _metrics.getQueryCostHistogram().getCount());
+  }
+
+  @Test
+  public void pageSizeUpToTheMaxIsExecuted() {
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().build());
+
+    ExecutionResult result = executePage(graphQL, ConnectionUtils.MAX_PAGE_SIZE);
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    result = executePage(graphQL, null);
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    assertTrue(_fetches.get() > 0);
+  }
+
+  @Test
+  public void cyclicQueryNestedTooDeeplyIsRejected() {
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().build());
+
+    // the second time from the cached document
+    for (int i = 0; i < 2; i++) {
+      ExecutionResult result = graphQL.execute(getNestedQuery(17));
+      assertNull(result.getData());
+      assertEquals(result.getErrors().toString(), 1, result.getErrors().size());
+      assertEquals("Query depth 17 exceeds the maximum of 15", result.getErrors().get(0).getMessage());
+    }
+    assertEquals(1, _parses.get());
+    assertEquals(0, _fetches.get());
+
+    graphQL = newGraphQL(new GraphQLServerLimits.Builder().maxQueryCost(Long.MAX_VALUE).build());
+    ExecutionResult result = graphQL.execute(getNestedQuery(15));
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+  }
+
+  @Test
+  public void limitedListIsExpectedAtItsLimit() {
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().maxQueryCost(1).build());
+
+    assertCost(12, execute(graphQL, LIST_QUERY, Collections.emptyMap()));
+    assertCost(5, execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 3)));
+    assertCost(52, execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 50)));
+  }
+
+  @Test
+  public void cachedDocumentIsCheckedWithTheVariablesOfEachExecution() {
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().maxQueryCost(5).build());
+
+    ExecutionResult result = execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 3));
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    result = execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 4));
+    assertNull(result.getData());
+    assertEquals("Query cost 6 exceeds the maximum of 5", result.getErrors().get(0).getMessage());
+    result = execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 3));
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    assertEquals(1, _parses.get());
+  }
+
+  @Test
+  public void shortObservedListsDoNotLowerTheExpectedSize() {
+    _listSize = 0;
+    observeLists(newGraphQL(new GraphQLServerLimits.Builder().build()));
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().maxQueryCost(1).build());
+
+    assertCost(7, execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 5)));
+    // a list that nothing limits can grow, so it is expected to have the default size anyway
+    assertCost(12, execute(graphQL, LIST_QUERY, Collections.emptyMap()));
+    // and limited lists fan out by their limits through a cycle
+    assertCost(2 + 100 * (2 + 100),
+        execute(graphQL, CYCLIC_LIMITED_LIST_QUERY, Collections.singletonMap("limit", 100)));
+  }
+
+  @Test
+  public void longObservedListsRaiseTheExpectedSizeOfUnlimitedListsOnly() {
+    _listSize = 50;
+    observeLists(newGraphQL(new GraphQLServerLimits.Builder().build()));
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().maxQueryCost(1).build());
+
+    assertCost(52, execute(graphQL, LIST_QUERY, Collections.emptyMap()));
+    assertCost(5, execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 3)));
+  }
+
+  @Test
+  public void maxListSizeIsExpectedOfUnlimitedList() {
+    GraphQL graphQL = newGraphQL(
+        new GraphQLServerLimits.Builder().maxQueryCost(1).maxListSize("Garden.gardenPlants", 50).build());
+
+    assertCost(52, execute(graphQL, LIST_QUERY, Collections.emptyMap()));
+    // which also caps a limit above it
+    assertCost(52, execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 100)));
+    assertCost(5, execute(graphQL, LIMITED_LIST_QUERY, Collections.singletonMap("limit", 3)));
+    // however many it returned so far
+    _listSize = 0;
+    observeLists(newGraphQL(new GraphQLServerLimits.Builder().build()));
+    assertCost(52, execute(graphQL, LIST_QUERY, Collections.emptyMap()));
+  }
+
+  @Test
+  public void edgesOfConnectionAreLimitedByItsDefaultPageSize() {
+    _listSize = 50;
+    observeLists(newGraphQL(new GraphQLServerLimits.Builder().build()));
+    GraphQL graphQL = newGraphQL(new GraphQLServerLimits.Builder().maxQueryCost(1).build());
+
+    assertCost(3 + 2 * ConnectionUtils.DEFAULT_PAGE_SIZE, execute(graphQL, CONNECTION_QUERY, Collections.emptyMap()));
+  }
+
+  private void observeLists(GraphQL graphQL) {
+    for (int i = 0; i < OBSERVED_LISTS; i++) {
+      for (String query : new String[]{LIST_QUERY, CONNECTION_QUERY}) {
+        ExecutionResult result = graphQL.execute(query);
+        assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+      }
+    }
+  }
+
+  private ExecutionResult executePage(GraphQL graphQL, Object first) {
+    return execute(graphQL, PAGE_QUERY, Collections.singletonMap("first", first));
+  }
+
+  private ExecutionResult execute(GraphQL graphQL, String query, Map<String, Object> variables) {
+    return graphQL.execute(ExecutionInput.newExecutionInput().query(query).variables(variables).build());
+  }
+
+  private static void assertCost(long cost, ExecutionResult result) {
+    assertEquals(result.getErrors().toString(), 1, result.getErrors().size());
+    assertEquals("Query cost " + cost + " exceeds the maximum of 1", result.getErrors().get(0).getMessage());
+  }
+
+  /**
+   * @return a query that follows the cycle of gardens and their plants, with as many fields nested as the depth.
+   */
+  private static String getNestedQuery(int depth) {
+    StringBuilder query = new StringBuilder("{ garden");
+    for (int i = 2; i < depth; i++) {
+      query.append(i % 2 == 0 ? " { gardenPlants" : " { garden");
+    }
+    query.append(" { name }");
+    for (int i = 1; i < depth; i++) {
+      query.append(" }");
+    }
+    return query.toString();
+  }
+
+  private static void assertValidationError(ExecutionResult result, String message) {
+    assertNull(result.getData());
+    assertEquals(result.getErrors().toString(), 1, result.getErrors().size());
+    GraphQLError error = result.getErrors().get(0);
+    assertEquals(message, error.getMessage());
+    assertEquals(ErrorType.ValidationError, error.getErrorType());
+    assertEquals(1, error.getLocations().size());
+  }
+
+  private GraphQL newGraphQL(GraphQLServerLimits limits) {
+    CachingPreparsedDocumentProvider documents = new CachingPreparsedDocumentProvider(10);
+    return GraphQL.newGraphQL(_schema)
+        .instrumentation(new QueryCostInstrumentation(_metrics, limits))
+        .preparsedDocumentProvider((executionInput, parseAndValidate) -> documents.getDocument(executionInput,
+            input -> {
+              _parses.incrementAndGet();
+              return parseAndValidate.apply(input);
+            }))
+        .build();
+  }
+
+  /**
+   * Returns lists of the list size, and an object for every other field that is not a scalar.
+   */
+  private GraphQLSchema newSchema() {
+    DataFetcher<Object> dataFetcher = environment -> {
+      if (GraphQLTypeUtil.isLeaf(GraphQLTypeUtil.unwrapAll(environment.getFieldType()))) {
+        return null;
+      }
+      _fetches.incrementAndGet();
+      return GraphQLTypeUtil.isList(GraphQLTypeUtil.unwrapNonNull(environment.getFieldType()))
+          ? Collections.nCopies(_listSize, new HashMap<>()) : new HashMap<>();
+    };
+    RuntimeWiring wiring = RuntimeWiring.newRuntimeWiring().wiringFactory(new WiringFactory() {
+      @Override
+      public boolean providesDataFetcher(FieldWiringEnvironment environment) {
+        return true;
+      }
+
+      @Override
+      public DataFetcher<?> getDataFetcher(FieldWiringEnvironment environment) {
+        return dataFetcher;
+      }
+    }).build();
+    return new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(SCHEMA), wiring);
+  }
+}
@@ -0,0 +1,96 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosItemRequestOptions;
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.PartitionKey;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.concurrent.CompletableFuture;
+import reactor.core.publisher.Mono;
+
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.CREATE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.DELETE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.READ_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.REPLACE_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.UPSERT_OPERATION;
+import static com.google.common.base.Preconditions.*;
+
+
+public class CosmosDBAsyncContainerPointOperations implements CosmosDBAsyncPointOperations {
+  private static final int NOT_FOUND_STATUS_CODE = 404;
+  private static final int PRECONDITION_FAILED_STATUS_CODE = 412;
+
+  private final CosmosAsyncContainer _container;
+  private final CosmosDBRequestObserver _requestObserver;
+
+  public CosmosDBAsyncContainerPointOperations(CosmosAsyncContainer container) {
+    this(container, CosmosDBRequestObserver.NO_OP);
+  }
+
+  public CosmosDBAsyncContainerPointOperations(CosmosAsyncContainer container,
+      CosmosDBRequestObserver requestObserver) {
+    _container = checkNotNull(container, "CosmosAsyncContainer cannot be null");
+    _requestObserver = checkNotNull(requestObserver, "CosmosDBRequestObserver cannot be null");
+  }
+
+  @Override
+  public CompletableFuture<ObjectNode> read(String id, PartitionKey partitionKey, String sessionToken) {
+    CosmosItemRequestOptions options = new CosmosItemRequestOptions().setSessionToken(sessionToken);
+    return observe(READ_OPERATION, _container.readItem(id, partitionKey, options, ObjectNode.class))
+        .map(CosmosItemResponse::getItem)
+        .onErrorResume(CosmosDBAsyncContainerPointOperations::isNotFound, e -> Mono.empty())
+        .toFuture();
+  }
+
+  @Override
+  public CompletableFuture<CosmosItemResponse<ObjectNode>> readIfNoneMatch(String id, PartitionKey partitionKey,
+      String etag, String sessionToken) {
+    CosmosItemRequestOptions options =
+        new CosmosItemRequestOptions().setIfNoneMatchETag(etag).setSessionToken(sessionToken);
+    return observe(READ_OPERATION, _container.readItem(id, partitionKey, options, ObjectNode.class))
+        .onErrorResume(CosmosDBAsyncContainerPointOperations::isNotFound, e -> Mono.empty())
+        .toFuture();
+  }
+
+  @Override
+  public CompletableFuture<CosmosItemResponse<ObjectNode>> create(ObjectNode item) {
+    return observe(CREATE_OPERATION, _container.createItem(item, new CosmosItemRequestOptions())).toFuture();
+  }
+
+  @Override
+  public CompletableFuture<CosmosItemResponse<ObjectNode>> upsert(ObjectNode item) {
+    return observe(UPSERT_OPERATION, _container.upsertItem(item, new CosmosItemRequestOptions())).toFuture();
+  }
+
+  @Override
+  public CompletableFuture<CosmosItemResponse<ObjectNode>> replaceIfMatch(String id, PartitionKey partitionKey,
+      ObjectNode item, String etag) {
+    CosmosItemRequestOptions options = new CosmosItemRequestOptions().setIfMatchETag(etag);
+    return observe(REPLACE_OPERATION, _container.replaceItem(item, id, partitionKey, options))
+        .onErrorResume(throwable -> isNotFound(throwable) || isPreconditionFailed(throwable), e -> Mono.empty())
+        .toFuture();
+  }
+
+  @Override
+  public CompletableFuture<Integer> delete(String id, PartitionKey partitionKey) {
+    return observe(DELETE_OPERATION, _container.deleteItem(id, partitionKey, new CosmosItemRequestOptions()))
+        .map(CosmosItemResponse::getStatusCode)
+        .onErrorResume(CosmosDBAsyncContainerPointOperations::isNotFound, e -> Mono.just(NOT_FOUND_STATUS_CODE))
+        .toFuture();
+  }
+
+  private <T> Mono<CosmosItemResponse<T>> observe(String operation, Mono<CosmosItemResponse<T>> request) {
+    return CosmosDBRequestObserver.observe(_requestObserver, operation, request);
+  }
+
+  private static boolean isNotFound(Throwable throwable) {
+    return throwable instanceof CosmosException
+        && ((CosmosException) throwable).getStatusCode() == NOT_FOUND_STATUS_CODE;
+  }
+
+  private static boolean isPreconditionFailed(Throwable throwable) {
+    return throwable instanceof CosmosException
+        && ((CosmosException) throwable).getStatusCode() == PRECONDITION_FAILED_STATUS_CODE;
+  }
+}
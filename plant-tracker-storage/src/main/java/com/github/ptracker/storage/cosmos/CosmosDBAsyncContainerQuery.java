@@ -0,0 +1,94 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.CosmosAsyncContainer;
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.azure.cosmos.util.CosmosPagedFlux;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import com.github.ptracker.storage.query.QueryPlanner;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import reactor.core.publisher.Mono;
+
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.BATCH_QUERY_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.QUERY_OPERATION;
+import static com.github.ptracker.storage.cosmos.CosmosDBRequestObserver.QUERY_PAGE_OPERATION;
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Runs queries against a {@link CosmosAsyncContainer}. The returned futures complete on the threads of the client.
+ */
+public class CosmosDBAsyncContainerQuery implements CosmosDBAsyncQuery {
+  private final CosmosAsyncContainer _container;
+  private final CosmosDBQueryBuilder _queryBuilder;
+  private final CosmosDBRequestObserver _requestObserver;
+
+  public CosmosDBAsyncContainerQuery(CosmosAsyncContainer container, QueryPlanner queryPlanner,
+      CosmosDBRequestObserver requestObserver) {
+    _container = checkNotNull(container, "CosmosAsyncContainer cannot be null");
+    _queryBuilder = new CosmosDBQueryBuilder(container.getId(), queryPlanner);
+    _requestObserver = checkNotNull(requestObserver, "CosmosDBRequestObserver cannot be null");
+  }
+
+  @Override
+  public CompletableFuture<List<ObjectNode>> getResults(ObjectNode objectNode, List<String> projectedFields,
+      QueryBounds bounds, CosmosQueryRequestOptions options) {
+    return getResults(QUERY_OPERATION, _queryBuilder.getQuerySpec(objectNode, projectedFields, bounds), options);
+  }
+
+  @Override
+  public CompletableFuture<FeedResponse<ObjectNode>> getResultPage(ObjectNode objectNode, List<String> projectedFields,
+      QueryBounds bounds, CosmosQueryRequestOptions options, String continuationToken, int pageSize) {
+    checkArgument(pageSize >= 0, "Page size should be >= 0");
+    SqlQuerySpec querySpec = _queryBuilder.getQuerySpec(objectNode, projectedFields, bounds);
+    return Mono.defer(() -> {
+      long startNanos = System.nanoTime();
+      CosmosPagedFlux<ObjectNode> results = _container.queryItems(querySpec, options, ObjectNode.class);
+      return (pageSize > 0 ? results.byPage(continuationToken, pageSize) : results.byPage(continuationToken)).next()
+          .doOnSuccess(page -> {
+            if (page != null) {
+              _requestObserver.onQueryResponse(QUERY_PAGE_OPERATION, querySpec, Collections.singletonList(page),
+                  System.nanoTime() - startNanos);
+            }
+          })
+          .doOnError(throwable -> _requestObserver.onFailure(QUERY_PAGE_OPERATION, querySpec, throwable,
+              System.nanoTime() - startNanos));
+    }).toFuture();
+  }
+
+  @Override
+  public SqlQuerySpec getQuerySpec(ObjectNode objectNode) {
+    return _queryBuilder.getQuerySpec(objectNode);
+  }
+
+  @Override
+  public CompletableFuture<List<List<ObjectNode>>> getBatchResults(List<ObjectNode> templates,
+      List<String> projectedFields, QueryBounds bounds, CosmosQueryRequestOptions options) {
+    CosmosDBBatchQuery batchQuery = _queryBuilder.getBatchQuery(templates, projectedFields, bounds);
+    if (batchQuery.isEmpty()) {
+      return CompletableFuture.completedFuture(batchQuery.groupByTemplate(Collections.emptyList()));
+    }
+    return getResults(BATCH_QUERY_OPERATION, batchQuery.getQuerySpec(), options)
+        .thenApply(batchQuery::groupByTemplate);
+  }
+
+  private CompletableFuture<List<ObjectNode>> getResults(String operation, SqlQuerySpec querySpec,
+      CosmosQueryRequestOptions options) {
+    // the items are read page by page so that the cost of every page can be observed
+    return Mono.defer(() -> {
+      long startNanos = System.nanoTime();
+      return _container.queryItems(querySpec, options, ObjectNode.class).byPage().collectList()
+          .doOnSuccess(pages -> _requestObserver.onQueryResponse(operation, querySpec, pages,
+              System.nanoTime() - startNanos))
+          .doOnError(throwable -> _requestObserver.onFailure(operation, querySpec, throwable,
+              System.nanoTime() - startNanos));
+    })
+        .map(pages -> pages.stream().flatMap(page -> page.getResults().stream()).collect(Collectors.toList()))
+        .toFuture();
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.PartitionKey;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Reads, writes and deletes single items of a container by their id and partition key, without blocking.
+ */
+public interface CosmosDBAsyncPointOperations {
+
+  /**
+   * @return the item (including the system properties like {@code _etag}) or {@code null} if there is no such item
+   */
+  default CompletableFuture<ObjectNode> read(String id, PartitionKey partitionKey) {
+    return read(id, partitionKey, null);
+  }
+
+  /**
+   * @param sessionToken the session whose writes the read should see, or {@code null} for the client's own session.
+   * @return the item (including the system properties like {@code _etag}) or {@code null} if there is no such item
+   */
+  CompletableFuture<ObjectNode> read(String id, PartitionKey partitionKey, String sessionToken);
+
+  /**
+   * Reads the item only if it changed, i.e. if its etag is no longer {@code etag}.
+   * @return the response (with status code {@code 304} and no item if it did not change) or {@code null} if there is
+   * no such item
+   */
+  default CompletableFuture<CosmosItemResponse<ObjectNode>> readIfNoneMatch(String id, PartitionKey partitionKey,
+      String etag) {
+    return readIfNoneMatch(id, partitionKey, etag, null);
+  }
+
+  /**
+   * Reads the item only if it changed, i.e. if its etag is no longer {@code etag}.
+   * @param sessionToken the session whose writes the read should see, or {@code null} for the client's own session.
+   * @return the response (with status code {@code 304} and no item if it did not change) or {@code null} if there is
+   * no such item
+   */
+  CompletableFuture<CosmosItemResponse<ObjectNode>> readIfNoneMatch(String id, PartitionKey partitionKey, String etag,
+      String sessionToken);
+
+  /**
+   * @return the response, or a failed future (with a {@link com.azure.cosmos.CosmosException}) if the item exists
+   */
+  CompletableFuture<CosmosItemResponse<ObjectNode>> create(ObjectNode item);
+
+  /**
+   * Creates the item, or replaces the item with the same id and partition key.
+   */
+  CompletableFuture<CosmosItemResponse<ObjectNode>> upsert(ObjectNode item);
+
+  /**
+   * Replaces the item only if it did not change, i.e. if its etag is still {@code etag}.
+   * @return the response, or {@code null} if the item changed or there is no such item
+   */
+  CompletableFuture<CosmosItemResponse<ObjectNode>> replaceIfMatch(String id, PartitionKey partitionKey,
+      ObjectNode item, String etag);
+
+  /**
+   * @return the status code of the delete ({@code 404} if there was no such item)
+   */
+  CompletableFuture<Integer> delete(String id, PartitionKey partitionKey);
+}
@@ -0,0 +1,98 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Runs the queries built by {@link CosmosDBQueryBuilder} against a container without blocking the calling thread.
+ */
+public interface CosmosDBAsyncQuery {
+
+  default CompletableFuture<List<ObjectNode>> getResults(ObjectNode objectNode, CosmosQueryRequestOptions options) {
+    return getResults(objectNode, Collections.emptyList(), options);
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   */
+  default CompletableFuture<List<ObjectNode>> getResults(ObjectNode objectNode, List<String> projectedFields,
+      CosmosQueryRequestOptions options) {
+    return getResults(objectNode, projectedFields, QueryBounds.NONE, options);
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @param bounds the range, order and limit of the matching items.
+   */
+  CompletableFuture<List<ObjectNode>> getResults(ObjectNode objectNode, List<String> projectedFields,
+      QueryBounds bounds, CosmosQueryRequestOptions options);
+
+  /**
+   * @param continuationToken the page to resume from, or {@code null} to start from the first page.
+   * @param pageSize the preferred number of items per page, or 0 for the default.
+   * @return the page of matching items. Its continuation token is {@code null} if it is the last page.
+   */
+  default CompletableFuture<FeedResponse<ObjectNode>> getResultPage(ObjectNode objectNode,
+      CosmosQueryRequestOptions options, String continuationToken, int pageSize) {
+    return getResultPage(objectNode, Collections.emptyList(), options, continuationToken, pageSize);
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @param continuationToken the page to resume from, or {@code null} to start from the first page.
+   * @param pageSize the preferred number of items per page, or 0 for the default.
+   * @return the page of matching items. Its continuation token is {@code null} if it is the last page.
+   */
+  default CompletableFuture<FeedResponse<ObjectNode>> getResultPage(ObjectNode objectNode,
+      List<String> projectedFields, CosmosQueryRequestOptions options, String continuationToken, int pageSize) {
+    return getResultPage(objectNode, projectedFields, QueryBounds.NONE, options, continuationToken, pageSize);
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @param bounds the range, order and limit of the matching items, across all pages.
+   * @param continuationToken the page to resume from, or {@code null} to start from the first page.
+   * @param pageSize the preferred number of items per page, or 0 for the default.
+   * @return the page of matching items. Its continuation token is {@code null} if it is the last page.
+   */
+  CompletableFuture<FeedResponse<ObjectNode>> getResultPage(ObjectNode objectNode, List<String> projectedFields,
+      QueryBounds bounds, CosmosQueryRequestOptions options, String continuationToken, int pageSize);
+
+  SqlQuerySpec getQuerySpec(ObjectNode objectNode);
+
+  /**
+   * Runs one query for all the given templates.
+   * @return the items that matched each template, in the order of the templates.
+   */
+  default CompletableFuture<List<List<ObjectNode>>> getBatchResults(List<ObjectNode> templates,
+      CosmosQueryRequestOptions options) {
+    return getBatchResults(templates, Collections.emptyList(), options);
+  }
+
+  /**
+   * Runs one query for all the given templates.
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @return the items that matched each template, in the order of the templates.
+   */
+  default CompletableFuture<List<List<ObjectNode>>> getBatchResults(List<ObjectNode> templates,
+      List<String> projectedFields, CosmosQueryRequestOptions options) {
+    return getBatchResults(templates, projectedFields, QueryBounds.NONE, options);
+  }
+
+  /**
+   * Runs one query for all the given templates.
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @param bounds the range and order of the items that match each template. It cannot have a limit (see
+   *               {@link CosmosDBQueryBuilder#getBatchQuery(List, List, QueryBounds)}).
+   * @return the items that matched each template, in the order of the templates.
+   */
+  CompletableFuture<List<List<ObjectNode>>> getBatchResults(List<ObjectNode> templates, List<String> projectedFields,
+      QueryBounds bounds, CosmosQueryRequestOptions options);
+}
@@ -0,0 +1,72 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.storage.query.FieldFilter;
+import com.github.ptracker.storage.query.QueryPlan;
+import com.github.ptracker.storage.query.QueryPlanner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * One query for several templates (see {@link CosmosDBQueryBuilder#getBatchQuery(List)}).
+ */
+public class CosmosDBBatchQuery {
+  private final SqlQuerySpec _querySpec;
+  private final List<List<FieldFilter>> _templateFilters;
+
+  CosmosDBBatchQuery(SqlQuerySpec querySpec, List<List<FieldFilter>> templateFilters) {
+    _querySpec = querySpec;
+    _templateFilters = templateFilters;
+  }
+
+  /**
+   * @return {@code true} if there are no templates, in which case there is nothing to query.
+   */
+  public boolean isEmpty() {
+    return _templateFilters.isEmpty();
+  }
+
+  public SqlQuerySpec getQuerySpec() {
+    return _querySpec;
+  }
+
+  /**
+   * @return the items that matched each template, in the order of the templates.
+   */
+  public List<List<ObjectNode>> groupByTemplate(Iterable<ObjectNode> items) {
+    List<List<ObjectNode>> results = new ArrayList<>(_templateFilters.size());
+    _templateFilters.forEach(ignored -> results.add(new ArrayList<>()));
+    if (isEmpty()) {
+      return results;
+    }
+    String path = QueryPlanner.getSingleFilterPath(_templateFilters);
+    if (path != null) {
+      // look the matching templates up by value instead of testing every template against every item
+      Map<Object, List<Integer>> templateIndexesByValue = new HashMap<>();
+      for (int i = 0; i < _templateFilters.size(); i++) {
+        for (Object value : _templateFilters.get(i).get(0).getValues()) {
+          templateIndexesByValue.computeIfAbsent(value, ignored -> new ArrayList<>()).add(i);
+        }
+      }
+      for (ObjectNode item : items) {
+        Object itemValue = QueryPlanner.getFieldValue(item, path);
+        templateIndexesByValue.getOrDefault(itemValue, Collections.emptyList())
+            .forEach(index -> results.get(index).add(item));
+      }
+    } else {
+      for (ObjectNode item : items) {
+        for (int i = 0; i < _templateFilters.size(); i++) {
+          if (QueryPlan.matches(_templateFilters.get(i), item)) {
+            results.get(i).add(item);
+          }
+        }
+      }
+    }
+    return results;
+  }
+}
@@ -6,7 +6,7 @@ import com.github.ptracker.common.storage.StorageMetadata;
 
 
 public class CosmosDBMetadataHandler {
-  private static final String ETAG_FIELD_NAME = "_etag";
+  static final String ETAG_FIELD_NAME = "_etag";
 
   public StorageMetadata getStorageMetadata(CosmosItemResponse<?> cosmosItemResponse) {
     StorageMetadata.Builder builder = StorageMetadata.newBuilder();
@@ -14,6 +14,10 @@ public class CosmosDBMetadataHandler {
     if (etag != null && !etag.isEmpty()) {
       builder.setEtag(etag);
     }
+    String sessionToken = cosmosItemResponse.getSessionToken();
+    if (sessionToken != null && !sessionToken.isEmpty()) {
+      builder.setSessionToken(sessionToken);
+    }
     return builder.build();
   }
 
@@ -25,4 +29,18 @@ public class CosmosDBMetadataHandler {
     }
     return builder.build();
   }
+
+  /**
+   * @return the etag in {@code metadata}, or {@code null} if there is none.
+   */
+  public String getEtag(StorageMetadata metadata) {
+    return metadata == null || metadata.getEtag().isEmpty() ? null : metadata.getEtag();
+  }
+
+  /**
+   * @return the session token in {@code metadata}, or {@code null} if there is none.
+   */
+  public String getSessionToken(StorageMetadata metadata) {
+    return metadata == null || metadata.getSessionToken().isEmpty() ? null : metadata.getSessionToken();
+  }
 }
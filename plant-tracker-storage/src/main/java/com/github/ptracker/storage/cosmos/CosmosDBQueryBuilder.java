@@ -0,0 +1,318 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.models.SqlParameter;
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import com.github.ptracker.storage.query.FieldFilter;
+import com.github.ptracker.storage.query.QueryPlan;
+import com.github.ptracker.storage.query.QueryPlanner;
+import com.github.ptracker.storage.query.RangeFilter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Turns the {@link QueryPlan}s of templates into parameterized queries. The query text only depends on the shape of
+ * the plan (the paths it filters on and the number of values of each filter) so it is cached per shape and reused with
+ * new parameters. This also lets the backend reuse the plans it compiled for the text.
+ *
+ * Several templates can be answered with one query (see {@link QueryPlanner#plan(List)}). The results are then matched
+ * back to the templates that selected them.
+ *
+ * A query can be projected onto some top level fields, in which case only those (along with the id and the metadata of
+ * the item) are returned instead of whole items.
+ *
+ * A query can also be narrowed down by {@link QueryBounds}, to a range of a field that becomes part of the filter, an
+ * {@code ORDER BY} and an {@code OFFSET 0 LIMIT}, so that e.g. the latest few events of a long history are read
+ * without reading the rest of it.
+ */
+public class CosmosDBQueryBuilder {
+  private static final String SELECT_KEYWORDS = "SELECT";
+  private static final String SELECT_ALL_KEYWORDS = "*";
+  private static final String FROM_KEYWORDS = "FROM";
+  private static final String FILTER_KEYWORDS = "WHERE";
+  private static final String CONJUNCTION_KEYWORDS = "AND";
+  private static final String DISJUNCTION_KEYWORDS = "OR";
+  private static final String IN_KEYWORDS = "IN";
+  private static final String ORDER_KEYWORDS = "ORDER BY";
+  private static final String ASCENDING_KEYWORDS = "ASC";
+  private static final String DESCENDING_KEYWORDS = "DESC";
+  private static final String LIMIT_KEYWORDS = "OFFSET 0 LIMIT";
+  private static final String LENGTH_FUNCTION = "LENGTH";
+  private static final String CONTAINER_FIELD_NAME_SEPARATOR = ".";
+  private static final Pattern FIELD_NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+  // the fields that are returned along with any projection
+  private static final List<String> ALWAYS_PROJECTED_FIELD_NAMES =
+      ImmutableList.of(QueryPlanner.ID_PATH, CosmosDBMetadataHandler.ETAG_FIELD_NAME);
+  private static final String PARAMETER_NAME_PREFIX = "@p";
+  private static final String[] PARAMETER_NAMES = new String[16];
+  private static final int DEFAULT_MAX_CACHED_QUERY_SHAPES = 128;
+
+  static {
+    for (int i = 0; i < PARAMETER_NAMES.length; i++) {
+      PARAMETER_NAMES[i] = PARAMETER_NAME_PREFIX + i;
+    }
+  }
+
+  private final String _containerId;
+  private final String _querySuffix;
+  private final QueryPlanner _queryPlanner;
+  private final Cache<List<List<String>>, String> _queryTextByShape;
+
+  public CosmosDBQueryBuilder(String containerId) {
+    this(containerId, new QueryPlanner(), DEFAULT_MAX_CACHED_QUERY_SHAPES);
+  }
+
+  public CosmosDBQueryBuilder(String containerId, int maxCachedQueryShapes) {
+    this(containerId, new QueryPlanner(), maxCachedQueryShapes);
+  }
+
+  public CosmosDBQueryBuilder(String containerId, QueryPlanner queryPlanner) {
+    this(containerId, queryPlanner, DEFAULT_MAX_CACHED_QUERY_SHAPES);
+  }
+
+  public CosmosDBQueryBuilder(String containerId, QueryPlanner queryPlanner, int maxCachedQueryShapes) {
+    _containerId = checkNotNull(containerId, "Container ID cannot be null");
+    _queryPlanner = checkNotNull(queryPlanner, "QueryPlanner cannot be null");
+    checkArgument(maxCachedQueryShapes > 0, "Max cached query shapes should be > 0");
+    _querySuffix = FROM_KEYWORDS + " " + containerId;
+    _queryTextByShape = CacheBuilder.newBuilder().maximumSize(maxCachedQueryShapes).build();
+  }
+
+  public SqlQuerySpec getQuerySpec(ObjectNode objectNode) {
+    return getQuerySpec(objectNode, Collections.emptyList());
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   */
+  public SqlQuerySpec getQuerySpec(ObjectNode objectNode, List<String> projectedFields) {
+    return getQuerySpec(objectNode, projectedFields, QueryBounds.NONE);
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   */
+  public SqlQuerySpec getQuerySpec(ObjectNode objectNode, List<String> projectedFields, QueryBounds bounds) {
+    checkNotNull(objectNode, "ObjectNode cannot be null");
+    return getQuerySpec(_queryPlanner.plan(objectNode, bounds),
+        getSelectedFields(projectedFields, Collections.emptyList()));
+  }
+
+  /**
+   * @return a single query for all the given templates, that can also match its results back to the templates.
+   */
+  public CosmosDBBatchQuery getBatchQuery(List<ObjectNode> templates) {
+    return getBatchQuery(templates, Collections.emptyList());
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @return a single query for all the given templates, that can also match its results back to the templates.
+   */
+  public CosmosDBBatchQuery getBatchQuery(List<ObjectNode> templates, List<String> projectedFields) {
+    return getBatchQuery(templates, projectedFields, QueryBounds.NONE);
+  }
+
+  /**
+   * @param projectedFields the top level fields to return, or an empty list to return whole items.
+   * @param bounds the range and order of the matches of every template. A limit would apply to all the templates
+   *               together, so it is not allowed.
+   * @return a single query for all the given templates, that can also match its results back to the templates.
+   */
+  public CosmosDBBatchQuery getBatchQuery(List<ObjectNode> templates, List<String> projectedFields,
+      QueryBounds bounds) {
+    checkNotNull(templates, "Templates cannot be null");
+    checkArgument(bounds.getLimit() == 0, "Batch queries cannot be limited");
+    List<List<FieldFilter>> templateFilters = new ArrayList<>(templates.size());
+    templates.forEach(template -> templateFilters.add(_queryPlanner.getFilters(template)));
+    QueryPlan queryPlan = _queryPlanner.bound(_queryPlanner.plan(templateFilters), bounds);
+    if (queryPlan == null) {
+      return new CosmosDBBatchQuery(null, templateFilters);
+    }
+    // the fields that the results are matched back to the templates with cannot be projected away
+    List<String> selectedFields = getSelectedFields(projectedFields, templateFilters);
+    return new CosmosDBBatchQuery(getQuerySpec(queryPlan, selectedFields), templateFilters);
+  }
+
+  private SqlQuerySpec getQuerySpec(QueryPlan queryPlan, List<String> selectedFields) {
+    List<List<FieldFilter>> conjunctions = queryPlan.matchesAll() ? Collections.emptyList()
+        : queryPlan.getConjunctions();
+    List<List<String>> shape = new ArrayList<>(conjunctions.size() + 1);
+    shape.add(selectedFields);
+    List<SqlParameter> parameters = new ArrayList<>();
+    for (List<FieldFilter> conjunction : conjunctions) {
+      List<String> conjunctionShape = new ArrayList<>(conjunction.size());
+      for (FieldFilter filter : conjunction) {
+        conjunctionShape.add(filter.getPath());
+        conjunctionShape.add(Integer.toString(filter.getValues().size()));
+        for (Object value : filter.getValues()) {
+          parameters.add(new SqlParameter(getParameterName(parameters.size()), value));
+        }
+      }
+      shape.add(conjunctionShape);
+    }
+    RangeFilter range = queryPlan.getRange();
+    if (range != null) {
+      shape.add(ImmutableList.of(range.getPath(), Boolean.toString(range.getLowerBound() != null),
+          Boolean.toString(range.getUpperBound() != null), Boolean.toString(range.isInt64())));
+      addBoundParameters(parameters, range, range.getLowerBound());
+      addBoundParameters(parameters, range, range.getUpperBound());
+    }
+    if (queryPlan.getOrderPath() != null) {
+      shape.add(ImmutableList.of(queryPlan.getOrderPath(), Boolean.toString(queryPlan.isDescending())));
+    }
+    if (queryPlan.getLimit() > 0) {
+      // the limit is a parameter too, so that the query text does not depend on it
+      shape.add(Collections.singletonList(LIMIT_KEYWORDS));
+      addParameter(parameters, queryPlan.getLimit());
+    }
+    String queryText =
+        _queryTextByShape.asMap().computeIfAbsent(shape, ignored -> getQueryText(selectedFields, queryPlan));
+    return new SqlQuerySpec(queryText, parameters);
+  }
+
+  /**
+   * @return the fields to select (in a stable order), or an empty list to select whole items.
+   */
+  private static List<String> getSelectedFields(List<String> projectedFields,
+      List<List<FieldFilter>> templateFilters) {
+    checkNotNull(projectedFields, "Projected fields cannot be null");
+    if (projectedFields.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Set<String> selectedFields = new TreeSet<>(ALWAYS_PROJECTED_FIELD_NAMES);
+    for (String field : projectedFields) {
+      checkArgument(FIELD_NAME_PATTERN.matcher(field).matches(), "%s is not a top level field name", field);
+      selectedFields.add(field);
+    }
+    for (List<FieldFilter> filters : templateFilters) {
+      filters.forEach(filter -> selectedFields.add(getTopLevelField(filter.getPath())));
+    }
+    return ImmutableList.copyOf(selectedFields);
+  }
+
+  private static String getTopLevelField(String fieldPath) {
+    int separatorIndex = fieldPath.indexOf(CONTAINER_FIELD_NAME_SEPARATOR);
+    return separatorIndex < 0 ? fieldPath : fieldPath.substring(0, separatorIndex);
+  }
+
+  private static void addBoundParameters(List<SqlParameter> parameters, RangeFilter range, Object bound) {
+    if (bound != null && range.isInt64()) {
+      addParameter(parameters, ((String) bound).length());
+    }
+    addParameter(parameters, bound);
+  }
+
+  private static void addParameter(List<SqlParameter> parameters, Object value) {
+    if (value != null) {
+      parameters.add(new SqlParameter(getParameterName(parameters.size()), value));
+    }
+  }
+
+  private String getQueryText(List<String> selectedFields, QueryPlan queryPlan) {
+    List<List<FieldFilter>> conjunctions = queryPlan.matchesAll() ? Collections.emptyList()
+        : queryPlan.getConjunctions();
+    RangeFilter range = queryPlan.getRange();
+    StringBuilder queryBuilder = new StringBuilder(SELECT_KEYWORDS).append(" ");
+    if (selectedFields.isEmpty()) {
+      queryBuilder.append(SELECT_ALL_KEYWORDS);
+    } else {
+      for (int i = 0; i < selectedFields.size(); i++) {
+        queryBuilder.append(i == 0 ? "" : ", ").append(getContainerField(selectedFields.get(i)));
+      }
+    }
+    queryBuilder.append(" ").append(_querySuffix);
+    if (!conjunctions.isEmpty() || range != null) {
+      queryBuilder.append(" ").append(FILTER_KEYWORDS);
+    }
+    // a disjunction has to be grouped to be combined with the range
+    boolean disjunction = conjunctions.size() > 1;
+    boolean groupDisjunction = disjunction && range != null;
+    queryBuilder.append(groupDisjunction ? " (" : "");
+    int parameterIndex = 0;
+    for (int i = 0; i < conjunctions.size(); i++) {
+      List<FieldFilter> conjunction = conjunctions.get(i);
+      queryBuilder.append(i == 0 ? (groupDisjunction ? "" : " ") : " " + DISJUNCTION_KEYWORDS + " ")
+          .append(disjunction ? "(" : "");
+      for (int j = 0; j < conjunction.size(); j++) {
+        FieldFilter filter = conjunction.get(j);
+        queryBuilder.append(j == 0 ? "" : " " + CONJUNCTION_KEYWORDS + " ")
+            .append(getContainerField(filter.getPath()));
+        int valueCount = filter.getValues().size();
+        if (valueCount == 1) {
+          queryBuilder.append(" = ").append(getParameterName(parameterIndex++));
+          continue;
+        }
+        queryBuilder.append(" ").append(IN_KEYWORDS).append(" (");
+        for (int k = 0; k < valueCount; k++) {
+          queryBuilder.append(k == 0 ? "" : ", ").append(getParameterName(parameterIndex++));
+        }
+        queryBuilder.append(")");
+      }
+      queryBuilder.append(disjunction ? ")" : "");
+    }
+    queryBuilder.append(groupDisjunction ? ")" : "");
+    if (range != null) {
+      String field = getContainerField(range.getPath());
+      String separator = conjunctions.isEmpty() ? " " : " " + CONJUNCTION_KEYWORDS + " ";
+      if (range.getLowerBound() != null) {
+        queryBuilder.append(separator);
+        parameterIndex = appendBound(queryBuilder, field, ">", ">=", range.isInt64(), parameterIndex);
+        separator = " " + CONJUNCTION_KEYWORDS + " ";
+      }
+      if (range.getUpperBound() != null) {
+        queryBuilder.append(separator);
+        parameterIndex = appendBound(queryBuilder, field, "<", "<", range.isInt64(), parameterIndex);
+      }
+    }
+    if (queryPlan.getOrderPath() != null) {
+      queryBuilder.append(" ").append(ORDER_KEYWORDS).append(" ").append(getContainerField(queryPlan.getOrderPath()))
+          .append(" ").append(queryPlan.isDescending() ? DESCENDING_KEYWORDS : ASCENDING_KEYWORDS);
+    }
+    if (queryPlan.getLimit() > 0) {
+      queryBuilder.append(" ").append(LIMIT_KEYWORDS).append(" ").append(getParameterName(parameterIndex));
+    }
+    return queryBuilder.toString();
+  }
+
+  /**
+   * Appends the comparison of {@code field} to a bound. An int64 field is stored as a decimal string, so it is compared
+   * by its length first (see {@link RangeFilter#int64}). The index cannot serve that, but the filters of the template
+   * narrow the items down first.
+   *
+   * @return the index of the next parameter.
+   */
+  private static int appendBound(StringBuilder queryBuilder, String field, String lengthOperator, String operator,
+      boolean int64, int parameterIndex) {
+    if (!int64) {
+      queryBuilder.append(field).append(" ").append(operator).append(" ").append(getParameterName(parameterIndex));
+      return parameterIndex + 1;
+    }
+    String length = LENGTH_FUNCTION + "(" + field + ")";
+    String lengthParameter = getParameterName(parameterIndex);
+    queryBuilder.append("(").append(length).append(" ").append(lengthOperator).append(" ").append(lengthParameter)
+        .append(" ").append(DISJUNCTION_KEYWORDS).append(" (").append(length).append(" = ").append(lengthParameter)
+        .append(" ").append(CONJUNCTION_KEYWORDS).append(" ").append(field).append(" ").append(operator).append(" ")
+        .append(getParameterName(parameterIndex + 1)).append("))");
+    return parameterIndex + 2;
+  }
+
+  private String getContainerField(String fieldPath) {
+    return _containerId + CONTAINER_FIELD_NAME_SEPARATOR + fieldPath;
+  }
+
+  private static String getParameterName(int index) {
+    return index < PARAMETER_NAMES.length ? PARAMETER_NAMES[index] : PARAMETER_NAME_PREFIX + index;
+  }
+}
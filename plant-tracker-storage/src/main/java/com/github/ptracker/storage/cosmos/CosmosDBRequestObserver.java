@@ -0,0 +1,107 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.SqlQuerySpec;
+import java.util.List;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * Told about the outcome of every request sent to a container, e.g. to account for the request units it cost. Methods
+ * are called on the threads of the client, so they should return quickly.
+ */
+public interface CosmosDBRequestObserver {
+  String READ_OPERATION = "read";
+  String CREATE_OPERATION = "create";
+  String UPSERT_OPERATION = "upsert";
+  String REPLACE_OPERATION = "replace";
+  String DELETE_OPERATION = "delete";
+  String QUERY_OPERATION = "query";
+  String QUERY_PAGE_OPERATION = "queryPage";
+  String BATCH_QUERY_OPERATION = "batchQuery";
+
+  CosmosDBRequestObserver NO_OP = new CosmosDBRequestObserver() {
+  };
+
+  /**
+   * @return whether the next query should ask for query metrics, which are returned in the headers of its pages.
+   */
+  default boolean shouldCollectQueryMetrics() {
+    return false;
+  }
+
+  /**
+   * @param operation the kind of point operation, e.g. {@link #READ_OPERATION}.
+   * @param latencyNanos the time from sending the request to receiving the response, including retries by the client.
+   */
+  default void onItemResponse(String operation, CosmosItemResponse<?> response, long latencyNanos) {
+  }
+
+  /**
+   * @param operation the kind of query, e.g. {@link #QUERY_OPERATION} or {@link #BATCH_QUERY_OPERATION}.
+   * @param pages every page that was fetched for the query, in order.
+   * @param latencyNanos the time from sending the first request to receiving the last page.
+   */
+  default void onQueryResponse(String operation, SqlQuerySpec querySpec, List<? extends FeedResponse<?>> pages,
+      long latencyNanos) {
+  }
+
+  /**
+   * @param querySpec the query that failed, or {@code null} if it was a point operation.
+   */
+  default void onFailure(String operation, SqlQuerySpec querySpec, Throwable throwable, long latencyNanos) {
+  }
+
+  /**
+   * @return an observer that tells each of {@code observers}, and collects query metrics if any of them asks to.
+   */
+  static CosmosDBRequestObserver allOf(CosmosDBRequestObserver... observers) {
+    return new CosmosDBRequestObserver() {
+      @Override
+      public boolean shouldCollectQueryMetrics() {
+        boolean shouldCollect = false;
+        for (CosmosDBRequestObserver observer : observers) {
+          // every observer is asked, so that the ones that sample see every query
+          shouldCollect |= observer.shouldCollectQueryMetrics();
+        }
+        return shouldCollect;
+      }
+
+      @Override
+      public void onItemResponse(String operation, CosmosItemResponse<?> response, long latencyNanos) {
+        for (CosmosDBRequestObserver observer : observers) {
+          observer.onItemResponse(operation, response, latencyNanos);
+        }
+      }
+
+      @Override
+      public void onQueryResponse(String operation, SqlQuerySpec querySpec, List<? extends FeedResponse<?>> pages,
+          long latencyNanos) {
+        for (CosmosDBRequestObserver observer : observers) {
+          observer.onQueryResponse(operation, querySpec, pages, latencyNanos);
+        }
+      }
+
+      @Override
+      public void onFailure(String operation, SqlQuerySpec querySpec, Throwable throwable, long latencyNanos) {
+        for (CosmosDBRequestObserver observer : observers) {
+          observer.onFailure(operation, querySpec, throwable, latencyNanos);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return {@code request}, which tells {@code observer} about its outcome, timed from when it is subscribed to.
+   */
+  static <T> Mono<CosmosItemResponse<T>> observe(CosmosDBRequestObserver observer, String operation,
+      Mono<CosmosItemResponse<T>> request) {
+    return Mono.defer(() -> {
+      long startNanos = System.nanoTime();
+      return request
+          .doOnSuccess(response -> observer.onItemResponse(operation, response, System.nanoTime() - startNanos))
+          .doOnError(throwable -> observer.onFailure(operation, null, throwable, System.nanoTime() - startNanos));
+    });
+  }
+}
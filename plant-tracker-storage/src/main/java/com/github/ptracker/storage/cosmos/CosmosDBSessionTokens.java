@@ -0,0 +1,59 @@
+package com.github.ptracker.storage.cosmos;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Session tokens are a comma separated list of {@code partitionKeyRangeId:token}, where the token is the LSN the
+ * session has reached in that range ({@code 12}), or a version and the global LSN followed by regional ones
+ * ({@code 1#12#1=10}).
+ */
+public final class CosmosDBSessionTokens {
+  private static final String TOKEN_SEPARATOR = ",";
+  private static final String RANGE_SEPARATOR = ":";
+  private static final String LSN_SEPARATOR = "#";
+
+  private CosmosDBSessionTokens() {
+  }
+
+  /**
+   * @return a session token that has reached, in every partition key range, the later of {@code first} and
+   * {@code second} (or {@code second} where their progress cannot be compared). Either token can be {@code null}.
+   */
+  public static String merge(String first, String second) {
+    if (first == null || first.isEmpty()) {
+      return second;
+    }
+    if (second == null || second.isEmpty() || first.equals(second)) {
+      return first;
+    }
+    Map<String, String> tokensByRange = new LinkedHashMap<>();
+    for (String sessionToken : new String[]{first, second}) {
+      for (String rangeToken : sessionToken.split(TOKEN_SEPARATOR)) {
+        int separatorIndex = rangeToken.indexOf(RANGE_SEPARATOR);
+        if (separatorIndex < 0) {
+          // not a token of this format, so there is nothing to merge it with
+          return second;
+        }
+        tokensByRange.merge(rangeToken.substring(0, separatorIndex), rangeToken,
+            (current, candidate) -> getGlobalLsn(candidate) >= getGlobalLsn(current) ? candidate : current);
+      }
+    }
+    return String.join(TOKEN_SEPARATOR, tokensByRange.values());
+  }
+
+  /**
+   * @return the global LSN of a {@code partitionKeyRangeId:token} pair, or {@link Long#MAX_VALUE} if it cannot be
+   * read (so that the pair wins).
+   */
+  private static long getGlobalLsn(String rangeToken) {
+    String token = rangeToken.substring(rangeToken.indexOf(RANGE_SEPARATOR) + 1);
+    String[] parts = token.split(LSN_SEPARATOR);
+    try {
+      return Long.parseLong(parts.length > 1 ? parts[1] : parts[0]);
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+}
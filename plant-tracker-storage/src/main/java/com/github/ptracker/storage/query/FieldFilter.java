@@ -0,0 +1,46 @@
+package com.github.ptracker.storage.query;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Selects the items whose field at a path has one of the given values: an equality if there is one value, an
+ * {@code IN} list otherwise.
+ */
+public class FieldFilter {
+  private final String _path;
+  private final Set<Object> _values;
+
+  public FieldFilter(String path, Collection<?> values) {
+    _path = checkNotNull(path, "Path cannot be null");
+    _values = ImmutableSet.copyOf(checkNotNull(values, "Values cannot be null"));
+    checkArgument(!_values.isEmpty(), "Values cannot be empty");
+  }
+
+  /**
+   * @return the path of the field, with nested fields separated by {@code .} (e.g. {@code metadata.gardenerId}).
+   */
+  public String getPath() {
+    return _path;
+  }
+
+  /**
+   * @return the distinct values, in the order they were given in.
+   */
+  public Set<Object> getValues() {
+    return _values;
+  }
+
+  public boolean matches(Object fieldValue) {
+    return fieldValue != null && _values.contains(fieldValue);
+  }
+
+  @Override
+  public String toString() {
+    return _values.size() == 1 ? _path + " = " + _values.iterator().next() : _path + " IN " + _values;
+  }
+}
@@ -0,0 +1,133 @@
+package com.github.ptracker.storage.query;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * The filters of a query, as a disjunction of conjunctions. An empty conjunction matches every item. The filters of
+ * each conjunction are in the order they should be applied in: most selective first.
+ *
+ * A plan can also have a range that every match has to be within, an order to return the matches in and a limit on
+ * their number (see {@link QueryPlanner#bound}).
+ */
+public class QueryPlan {
+  // the order of values of different types, as the stores order them
+  private static final Comparator<Object> VALUE_TYPE_ORDER = Comparator.comparingInt(value -> {
+    if (value == null) {
+      return 0;
+    } else if (value instanceof Boolean) {
+      return 1;
+    } else if (value instanceof Number) {
+      return 2;
+    }
+    return 3;
+  });
+  private static final Comparator<Object> VALUE_ORDER = VALUE_TYPE_ORDER.thenComparing((first, second) -> {
+    Integer comparison = RangeFilter.compare(first, second);
+    return comparison == null ? 0 : comparison;
+  });
+
+  private final List<List<FieldFilter>> _conjunctions;
+  private final RangeFilter _range;
+  private final String _orderPath;
+  private final boolean _descending;
+  private final int _limit;
+
+  QueryPlan(List<List<FieldFilter>> conjunctions) {
+    this(conjunctions, null, null, false, 0);
+  }
+
+  QueryPlan(List<List<FieldFilter>> conjunctions, RangeFilter range, String orderPath, boolean descending,
+      int limit) {
+    _conjunctions = conjunctions;
+    _range = range;
+    _orderPath = orderPath;
+    _descending = descending;
+    _limit = limit;
+  }
+
+  public List<List<FieldFilter>> getConjunctions() {
+    return _conjunctions;
+  }
+
+  /**
+   * @return the range that every match has to be within, or {@code null} if there is none.
+   */
+  public RangeFilter getRange() {
+    return _range;
+  }
+
+  /**
+   * @return the path of the field to order the matches by, or {@code null} to leave the order to the store.
+   */
+  public String getOrderPath() {
+    return _orderPath;
+  }
+
+  public boolean isDescending() {
+    return _descending;
+  }
+
+  /**
+   * @return the maximum number of matches, or 0 for all of them.
+   */
+  public int getLimit() {
+    return _limit;
+  }
+
+  /**
+   * @return {@code true} if the conjunctions have no filter at all, in which case only the range (if any) narrows the
+   * items that match.
+   */
+  public boolean matchesAll() {
+    return _conjunctions.stream().anyMatch(List::isEmpty);
+  }
+
+  public boolean matches(ObjectNode item) {
+    return matchesRange(item) && _conjunctions.stream().anyMatch(conjunction -> matches(conjunction, item));
+  }
+
+  public boolean matchesRange(ObjectNode item) {
+    return _range == null || _range.matches(QueryPlanner.getFieldValue(item, _range.getPath()));
+  }
+
+  /**
+   * @return the order of the matches, or {@code null} if the plan leaves it to the store. Items without the field come
+   * first (last when descending), and values of different types are in the order that the stores put them in:
+   * booleans, numbers, strings.
+   */
+  public Comparator<ObjectNode> getItemOrder() {
+    if (_orderPath == null) {
+      return null;
+    }
+    Comparator<ObjectNode> order =
+        Comparator.comparing(item -> QueryPlanner.getFieldValue(item, _orderPath), VALUE_ORDER);
+    return _descending ? order.reversed() : order;
+  }
+
+  public static boolean matches(List<FieldFilter> conjunction, ObjectNode item) {
+    for (FieldFilter filter : conjunction) {
+      if (!filter.matches(QueryPlanner.getFieldValue(item, filter.getPath()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(_conjunctions.toString());
+    if (_range != null) {
+      builder.append(" AND ").append(_range);
+    }
+    if (_orderPath != null) {
+      builder.append(" ORDER BY ").append(_orderPath).append(_descending ? " DESC" : " ASC");
+    }
+    if (_limit > 0) {
+      builder.append(" LIMIT ").append(_limit);
+    }
+    return builder.toString();
+  }
+}
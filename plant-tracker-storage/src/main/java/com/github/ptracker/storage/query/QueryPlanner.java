@@ -0,0 +1,180 @@
+package com.github.ptracker.storage.query;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import com.google.common.base.Splitter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Turns templates into {@link QueryPlan}s. Every populated field of a template, including the fields of nested
+ * messages, becomes an equality filter and the filters of a template are combined with AND. Several templates that
+ * filter on the same single field become one {@code IN} list, anything else a disjunction of the templates.
+ *
+ * The filters are ordered by the declared indexes of the container, most selective first, followed by the filters on
+ * fields that are not indexed. Backends use the first filter to find candidates and check the others on those.
+ *
+ * Plans can be narrowed down by {@link QueryBounds}, which become a {@link RangeFilter}, an order and a limit.
+ */
+public class QueryPlanner {
+  public static final String ID_PATH = "id";
+
+  private static final String FIELD_PATH_SEPARATOR = ".";
+  private static final Splitter FIELD_PATH_SPLITTER = Splitter.on(FIELD_PATH_SEPARATOR);
+
+  private final Map<String, Integer> _indexRanks = new HashMap<>();
+  private final Comparator<FieldFilter> _selectivityOrder;
+
+  public QueryPlanner() {
+    this(Collections.emptyList());
+  }
+
+  /**
+   * @param indexedPaths the paths of the indexed fields, most selective first.
+   */
+  public QueryPlanner(List<String> indexedPaths) {
+    checkNotNull(indexedPaths, "Indexed paths cannot be null");
+    // the id is the primary key, so it always comes first
+    _indexRanks.put(ID_PATH, 0);
+    indexedPaths.forEach(path -> _indexRanks.putIfAbsent(path, _indexRanks.size()));
+    _selectivityOrder =
+        Comparator.comparingInt(filter -> _indexRanks.getOrDefault(filter.getPath(), Integer.MAX_VALUE));
+  }
+
+  public boolean isIndexed(String path) {
+    return _indexRanks.containsKey(path);
+  }
+
+  public QueryPlan plan(ObjectNode template) {
+    return new QueryPlan(Collections.singletonList(getFilters(template)));
+  }
+
+  /**
+   * @return a plan for {@code template} that is narrowed down to {@code bounds}.
+   */
+  public QueryPlan plan(ObjectNode template, QueryBounds bounds) {
+    return bound(plan(template), bounds);
+  }
+
+  /**
+   * @return {@code queryPlan} narrowed down to {@code bounds}, or {@code null} if it is {@code null}.
+   */
+  public QueryPlan bound(QueryPlan queryPlan, QueryBounds bounds) {
+    checkNotNull(bounds, "Bounds cannot be null");
+    if (queryPlan == null || QueryBounds.NONE.equals(bounds)) {
+      return queryPlan;
+    }
+    RangeFilter range = bounds.hasRange()
+        ? RangeFilter.int64(bounds.getRangePath(), bounds.getLowerBound(), bounds.getUpperBound()) : null;
+    return new QueryPlan(queryPlan.getConjunctions(), range, bounds.getOrderPath(), bounds.isDescending(),
+        bounds.getLimit());
+  }
+
+  /**
+   * @return one plan for all the templates, or {@code null} if there are none.
+   */
+  public QueryPlan plan(List<ObjectNode> templates) {
+    checkNotNull(templates, "Templates cannot be null");
+    List<List<FieldFilter>> conjunctions = new ArrayList<>(templates.size());
+    templates.forEach(template -> conjunctions.add(getFilters(template)));
+    return plan(conjunctions);
+  }
+
+  /**
+   * @param templateFilters the filters of each template (see {@link #getFilters(ObjectNode)}).
+   */
+  public QueryPlan plan(Collection<List<FieldFilter>> templateFilters) {
+    if (templateFilters.isEmpty()) {
+      return null;
+    }
+    String path = getSingleFilterPath(templateFilters);
+    if (path != null) {
+      // duplicate values are common (e.g. many children of the same parent), so each value is only listed once
+      Set<Object> values = new LinkedHashSet<>();
+      templateFilters.forEach(filters -> values.addAll(filters.get(0).getValues()));
+      return new QueryPlan(Collections.singletonList(Collections.singletonList(new FieldFilter(path, values))));
+    }
+    if (templateFilters.stream().anyMatch(List::isEmpty)) {
+      // a template without filters matches everything, and so does the whole disjunction
+      return new QueryPlan(Collections.singletonList(Collections.emptyList()));
+    }
+    return new QueryPlan(new ArrayList<>(templateFilters));
+  }
+
+  /**
+   * @return the filters of {@code template}, most selective first.
+   */
+  public List<FieldFilter> getFilters(ObjectNode template) {
+    checkNotNull(template, "Template cannot be null");
+    List<FieldFilter> filters = new ArrayList<>();
+    collectFilters(null, template, filters);
+    // stable, so the filters on fields that are not indexed keep the order of the template
+    filters.sort(_selectivityOrder);
+    return filters;
+  }
+
+  /**
+   * @return the path that every template filters on and nothing else, if there is one.
+   */
+  public static String getSingleFilterPath(Collection<List<FieldFilter>> templateFilters) {
+    String path = null;
+    for (List<FieldFilter> filters : templateFilters) {
+      if (filters.size() != 1 || (path != null && !path.equals(filters.get(0).getPath()))) {
+        return null;
+      }
+      path = filters.get(0).getPath();
+    }
+    return path;
+  }
+
+  /**
+   * @return the value of the field at {@code path} in the form that filters compare, or {@code null} if the item has
+   * no such field or it is not a value (e.g. a list).
+   */
+  public static Object getFieldValue(ObjectNode item, String path) {
+    JsonNode value = item;
+    for (String field : FIELD_PATH_SPLITTER.split(path)) {
+      value = value.path(field);
+    }
+    return value.isValueNode() && !value.isNull() ? getFilterValue(path, value) : null;
+  }
+
+  private static void collectFilters(String pathPrefix, ObjectNode objectNode, List<FieldFilter> filters) {
+    Iterator<Map.Entry<String, JsonNode>> fields = objectNode.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      String path = pathPrefix == null ? field.getKey() : pathPrefix + FIELD_PATH_SEPARATOR + field.getKey();
+      JsonNode value = field.getValue();
+      if (value.isObject()) {
+        collectFilters(path, (ObjectNode) value, filters);
+      } else {
+        filters.add(new FieldFilter(path, Collections.singletonList(getFilterValue(path, value))));
+      }
+    }
+  }
+
+  private static Object getFilterValue(String path, JsonNode value) {
+    if (value.isTextual()) {
+      return value.textValue();
+    } else if (value.isBoolean()) {
+      return value.booleanValue();
+    } else if (value.isIntegralNumber() && value.canConvertToLong()) {
+      return value.longValue();
+    } else if (value.isNumber()) {
+      return value.doubleValue();
+    }
+    throw new IllegalArgumentException("Cannot filter " + path + " on value of type " + value.getNodeType());
+  }
+}
@@ -0,0 +1,122 @@
+package com.github.ptracker.storage.query;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Selects the items whose field at a path is at least a lower bound and/or below an upper bound. The bounds are in the
+ * form that the field is stored in, and are compared the way the stores compare them: strings lexicographically and
+ * numbers numerically.
+ *
+ * Ranges of int64 fields (see {@link #int64}) are an exception: those fields are stored in their JSON form, which is a
+ * decimal string, so their values are compared by their number of digits first and only then lexicographically.
+ */
+public class RangeFilter {
+  private final String _path;
+  private final Object _lowerBound;
+  private final Object _upperBound;
+  private final boolean _int64;
+
+  /**
+   * @param lowerBound the least value (inclusive), or {@code null} for no lower bound.
+   * @param upperBound the value to end before (exclusive), or {@code null} for no upper bound.
+   */
+  public RangeFilter(String path, Object lowerBound, Object upperBound) {
+    this(path, lowerBound, upperBound, false);
+  }
+
+  private RangeFilter(String path, Object lowerBound, Object upperBound, boolean int64) {
+    _path = checkNotNull(path, "Path cannot be null");
+    checkArgument(lowerBound == null || lowerBound instanceof String || lowerBound instanceof Number,
+        "Lower bound should be a string or a number");
+    checkArgument(upperBound == null || upperBound instanceof String || upperBound instanceof Number,
+        "Upper bound should be a string or a number");
+    _lowerBound = lowerBound;
+    _upperBound = upperBound;
+    _int64 = int64;
+  }
+
+  /**
+   * @return a range of an int64 field, with its bounds in the form that the field is stored in. Decimal strings are
+   * only ordered by their number of digits for values that are not negative, so neither bound can be negative.
+   */
+  public static RangeFilter int64(String path, Long lowerBound, Long upperBound) {
+    checkArgument(lowerBound == null || lowerBound >= 0, "Lower bound should be >= 0");
+    checkArgument(upperBound == null || upperBound >= 0, "Upper bound should be >= 0");
+    return new RangeFilter(path, lowerBound == null ? null : Long.toString(lowerBound),
+        upperBound == null ? null : Long.toString(upperBound), true);
+  }
+
+  public String getPath() {
+    return _path;
+  }
+
+  public Object getLowerBound() {
+    return _lowerBound;
+  }
+
+  public Object getUpperBound() {
+    return _upperBound;
+  }
+
+  /**
+   * @return {@code true} if the field is an int64, whose values are compared by their number of digits first.
+   */
+  public boolean isInt64() {
+    return _int64;
+  }
+
+  public boolean matches(Object fieldValue) {
+    if (fieldValue == null) {
+      return false;
+    }
+    if (_lowerBound != null) {
+      Integer comparison = compareToBound(fieldValue, _lowerBound);
+      if (comparison == null || comparison < 0) {
+        return false;
+      }
+    }
+    if (_upperBound != null) {
+      Integer comparison = compareToBound(fieldValue, _upperBound);
+      return comparison != null && comparison < 0;
+    }
+    return true;
+  }
+
+  private Integer compareToBound(Object fieldValue, Object bound) {
+    if (_int64 && fieldValue instanceof String && bound instanceof String) {
+      return compareDecimals((String) fieldValue, (String) bound);
+    }
+    return compare(fieldValue, bound);
+  }
+
+  /**
+   * @return the numerical order of two decimal strings without a sign, or the order of their lengths for others.
+   */
+  public static int compareDecimals(String first, String second) {
+    int comparison = Integer.compare(first.length(), second.length());
+    return comparison != 0 ? comparison : first.compareTo(second);
+  }
+
+  /**
+   * @return the order of two field values, or {@code null} if values of their types are not ordered against each other
+   * (in which case a range on one never matches the other).
+   */
+  public static Integer compare(Object first, Object second) {
+    if (first instanceof String && second instanceof String) {
+      return ((String) first).compareTo((String) second);
+    }
+    if (first instanceof Number && second instanceof Number) {
+      return Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+    }
+    if (first instanceof Boolean && second instanceof Boolean) {
+      return ((Boolean) first).compareTo((Boolean) second);
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return (_lowerBound == null ? "" : _lowerBound + " <= ") + _path + (_upperBound == null ? "" : " < " + _upperBound);
+  }
+}
@@ -0,0 +1,215 @@
+package com.github.ptracker.storage.cosmos;
+
+import com.azure.cosmos.models.SqlQuerySpec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import com.github.ptracker.storage.query.QueryPlanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class CosmosDBQueryBuilderTest {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String TIMESTAMP_PATH = "metadata.timestamp";
+
+  private final CosmosDBQueryBuilder _queryBuilder =
+      new CosmosDBQueryBuilder("c", new QueryPlanner(Arrays.asList("gardenPlantId", "metadata.gardenerId")));
+
+  @Test
+  public void filtersAreCombinedWithAnd() throws Exception {
+    SqlQuerySpec querySpec = _queryBuilder.getQuerySpec(
+        getTemplate("{\"quantityMl\": 3, \"metadata\": {\"gardenerId\": \"g\"}, \"gardenPlantId\": \"gp\"}"));
+
+    assertEquals("SELECT * FROM c WHERE c.gardenPlantId = @p0 AND c.metadata.gardenerId = @p1 AND c.quantityMl = @p2",
+        querySpec.getQueryText());
+    assertEquals(Arrays.asList("gp", "g", 3L), getParameterValues(querySpec));
+  }
+
+  @Test
+  public void emptyTemplateSelectsEverything() throws Exception {
+    assertEquals("SELECT * FROM c", _queryBuilder.getQuerySpec(getTemplate("{}")).getQueryText());
+  }
+
+  @Test
+  public void templatesAreCombinedWithOr() throws Exception {
+    CosmosDBBatchQuery batchQuery = _queryBuilder.getBatchQuery(Arrays.asList(
+        getTemplate("{\"gardenPlantId\": \"a\", \"quantityMl\": 1}"), getTemplate("{\"gardenPlantId\": \"b\"}")));
+
+    assertEquals("SELECT * FROM c WHERE (c.gardenPlantId = @p0 AND c.quantityMl = @p1) OR (c.gardenPlantId = @p2)",
+        batchQuery.getQuerySpec().getQueryText());
+    assertEquals(Arrays.asList("a", 1L, "b"), getParameterValues(batchQuery.getQuerySpec()));
+  }
+
+  @Test
+  public void templatesOnTheSameSingleFieldAreAnInList() throws Exception {
+    CosmosDBBatchQuery batchQuery = _queryBuilder.getBatchQuery(Arrays.asList(getTemplate("{\"gardenPlantId\": \"a\"}"),
+        getTemplate("{\"gardenPlantId\": \"b\"}"), getTemplate("{\"gardenPlantId\": \"a\"}")));
+
+    assertEquals("SELECT * FROM c WHERE c.gardenPlantId IN (@p0, @p1)", batchQuery.getQuerySpec().getQueryText());
+    assertEquals(Arrays.asList("a", "b"), getParameterValues(batchQuery.getQuerySpec()));
+  }
+
+  @Test
+  public void batchWithAnEmptyTemplateSelectsEverything() throws Exception {
+    CosmosDBBatchQuery batchQuery =
+        _queryBuilder.getBatchQuery(Arrays.asList(getTemplate("{}"), getTemplate("{\"gardenPlantId\": \"a\"}")));
+
+    assertEquals("SELECT * FROM c", batchQuery.getQuerySpec().getQueryText());
+  }
+
+  @Test
+  public void emptyBatchHasNothingToQuery() {
+    assertTrue(_queryBuilder.getBatchQuery(Collections.emptyList()).isEmpty());
+  }
+
+  @Test
+  public void resultsAreMatchedBackToTheirTemplates() throws Exception {
+    CosmosDBBatchQuery batchQuery = _queryBuilder.getBatchQuery(Arrays.asList(
+        getTemplate("{\"gardenPlantId\": \"a\", \"metadata\": {\"gardenerId\": \"g\"}}"),
+        getTemplate("{\"gardenPlantId\": \"b\", \"quantityMl\": 1}")));
+
+    List<List<ObjectNode>> itemsByTemplate = batchQuery.groupByTemplate(Arrays.asList(
+        getTemplate("{\"id\": \"1\", \"gardenPlantId\": \"a\", \"metadata\": {\"gardenerId\": \"g\"}}"),
+        getTemplate("{\"id\": \"2\", \"gardenPlantId\": \"a\"}"),
+        getTemplate("{\"id\": \"3\", \"gardenPlantId\": \"b\", \"quantityMl\": 1}")));
+
+    assertEquals(2, itemsByTemplate.size());
+    assertEquals(1, itemsByTemplate.get(0).size());
+    assertEquals("1", itemsByTemplate.get(0).get(0).get("id").textValue());
+    assertEquals(1, itemsByTemplate.get(1).size());
+    assertEquals("3", itemsByTemplate.get(1).get(0).get("id").textValue());
+  }
+
+  @Test
+  public void queryTextIsCachedPerShape() throws Exception {
+    String queryText =
+        _queryBuilder.getQuerySpec(getTemplate("{\"gardenPlantId\": \"a\", \"quantityMl\": 1}")).getQueryText();
+
+    // the same paths in a different order with other values have the same shape
+    assertSame(queryText,
+        _queryBuilder.getQuerySpec(getTemplate("{\"quantityMl\": 2, \"gardenPlantId\": \"b\"}")).getQueryText());
+    assertNotEquals(queryText, _queryBuilder.getQuerySpec(getTemplate("{\"gardenPlantId\": \"a\"}")).getQueryText());
+    String inListText = _queryBuilder.getBatchQuery(
+        Arrays.asList(getTemplate("{\"gardenPlantId\": \"a\"}"), getTemplate("{\"gardenPlantId\": \"b\"}")))
+        .getQuerySpec()
+        .getQueryText();
+    assertNotEquals(inListText, _queryBuilder.getBatchQuery(Arrays.asList(getTemplate("{\"gardenPlantId\": \"a\"}"),
+        getTemplate("{\"gardenPlantId\": \"b\"}"), getTemplate("{\"gardenPlantId\": \"c\"}")))
+        .getQuerySpec()
+        .getQueryText());
+  }
+
+  @Test
+  public void boundsAreARangeAnOrderAndAnOffsetLimit() throws Exception {
+    QueryBounds bounds =
+        new QueryBounds.Builder().range(TIMESTAMP_PATH, 100L, 200L).order(TIMESTAMP_PATH, true).limit(10).build();
+
+    SqlQuerySpec querySpec =
+        _queryBuilder.getQuerySpec(getTemplate("{\"gardenPlantId\": \"a\"}"), Collections.emptyList(), bounds);
+
+    assertEquals("SELECT * FROM c WHERE c.gardenPlantId = @p0 "
+        + "AND (LENGTH(c.metadata.timestamp) > @p1 OR (LENGTH(c.metadata.timestamp) = @p1 "
+        + "AND c.metadata.timestamp >= @p2)) "
+        + "AND (LENGTH(c.metadata.timestamp) < @p3 OR (LENGTH(c.metadata.timestamp) = @p3 "
+        + "AND c.metadata.timestamp < @p4)) "
+        + "ORDER BY c.metadata.timestamp DESC OFFSET 0 LIMIT @p5", querySpec.getQueryText());
+    // int64 fields are stored as decimal strings, which are compared by their number of digits first
+    assertEquals(Arrays.asList("a", 3, "100", 3, "200", 10), getParameterValues(querySpec));
+  }
+
+  @Test
+  public void boundsCanBeUsedWithoutFilters() throws Exception {
+    assertEquals("SELECT * FROM c WHERE (LENGTH(c.metadata.timestamp) < @p0 "
+        + "OR (LENGTH(c.metadata.timestamp) = @p0 AND c.metadata.timestamp < @p1))",
+        _queryBuilder.getQuerySpec(getTemplate("{}"), Collections.emptyList(),
+            new QueryBounds.Builder().range(TIMESTAMP_PATH, null, 200L).build()).getQueryText());
+    assertEquals("SELECT * FROM c ORDER BY c.metadata.timestamp ASC OFFSET 0 LIMIT @p0",
+        _queryBuilder.getQuerySpec(getTemplate("{}"), Collections.emptyList(),
+            new QueryBounds.Builder().order(TIMESTAMP_PATH, false).limit(3).build()).getQueryText());
+  }
+
+  @Test
+  public void limitIsAParameterOfTheCachedText() throws Exception {
+    ObjectNode template = getTemplate("{\"gardenPlantId\": \"a\"}");
+    String queryText = _queryBuilder.getQuerySpec(template, Collections.emptyList(),
+        new QueryBounds.Builder().order(TIMESTAMP_PATH, true).limit(1).build()).getQueryText();
+
+    assertSame(queryText, _queryBuilder.getQuerySpec(template, Collections.emptyList(),
+        new QueryBounds.Builder().order(TIMESTAMP_PATH, true).limit(50).build()).getQueryText());
+    assertNotEquals(queryText, _queryBuilder.getQuerySpec(template, Collections.emptyList(),
+        new QueryBounds.Builder().order(TIMESTAMP_PATH, false).limit(1).build()).getQueryText());
+  }
+
+  @Test
+  public void digitCountOfABoundIsAParameterOfTheCachedText() throws Exception {
+    ObjectNode template = getTemplate("{\"gardenPlantId\": \"a\"}");
+    SqlQuerySpec querySpec = _queryBuilder.getQuerySpec(template, Collections.emptyList(),
+        new QueryBounds.Builder().range(TIMESTAMP_PATH, 999L, null).build());
+    SqlQuerySpec longerQuerySpec = _queryBuilder.getQuerySpec(template, Collections.emptyList(),
+        new QueryBounds.Builder().range(TIMESTAMP_PATH, 1_600_000_000_000L, null).build());
+
+    assertSame(querySpec.getQueryText(), longerQuerySpec.getQueryText());
+    assertEquals(Arrays.asList("a", 3, "999"), getParameterValues(querySpec));
+    assertEquals(Arrays.asList("a", 13, "1600000000000"), getParameterValues(longerQuerySpec));
+  }
+
+  @Test
+  public void disjunctionIsGroupedToBeCombinedWithARange() throws Exception {
+    QueryBounds bounds =
+        new QueryBounds.Builder().range(TIMESTAMP_PATH, 5L, null).order(TIMESTAMP_PATH, false).build();
+
+    CosmosDBBatchQuery batchQuery = _queryBuilder.getBatchQuery(Arrays.asList(
+        getTemplate("{\"gardenPlantId\": \"a\", \"quantityMl\": 1}"), getTemplate("{\"gardenPlantId\": \"b\"}")),
+        Collections.emptyList(), bounds);
+    assertEquals("SELECT * FROM c WHERE ((c.gardenPlantId = @p0 AND c.quantityMl = @p1) OR (c.gardenPlantId = @p2)) "
+        + "AND (LENGTH(c.metadata.timestamp) > @p3 OR (LENGTH(c.metadata.timestamp) = @p3 "
+        + "AND c.metadata.timestamp >= @p4)) ORDER BY c.metadata.timestamp ASC",
+        batchQuery.getQuerySpec().getQueryText());
+
+    batchQuery = _queryBuilder.getBatchQuery(
+        Arrays.asList(getTemplate("{\"gardenPlantId\": \"a\"}"), getTemplate("{\"gardenPlantId\": \"b\"}")),
+        Collections.emptyList(), bounds);
+    assertEquals("SELECT * FROM c WHERE c.gardenPlantId IN (@p0, @p1) "
+        + "AND (LENGTH(c.metadata.timestamp) > @p2 OR (LENGTH(c.metadata.timestamp) = @p2 "
+        + "AND c.metadata.timestamp >= @p3)) ORDER BY c.metadata.timestamp ASC",
+        batchQuery.getQuerySpec().getQueryText());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void batchCannotBeLimited() throws Exception {
+    _queryBuilder.getBatchQuery(Collections.singletonList(getTemplate("{}")), Collections.emptyList(),
+        new QueryBounds.Builder().limit(1).build());
+  }
+
+  @Test
+  public void projectionSelectsTheIdAndTheEtagToo() throws Exception {
+    ObjectNode template = getTemplate("{\"gardenId\": \"g\"}");
+
+    assertEquals("SELECT c._etag, c.id, c.name FROM c WHERE c.gardenId = @p0",
+        _queryBuilder.getQuerySpec(template, Arrays.asList("name", "id")).getQueryText());
+    // the results of a batch are matched back to the templates on the fields they filter on
+    assertEquals("SELECT c._etag, c.gardenId, c.id, c.name FROM c WHERE c.gardenId IN (@p0, @p1)",
+        _queryBuilder.getBatchQuery(Arrays.asList(template, getTemplate("{\"gardenId\": \"h\"}")),
+            Collections.singletonList("name")).getQuerySpec().getQueryText());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void onlyTopLevelFieldsCanBeProjected() throws Exception {
+    _queryBuilder.getQuerySpec(getTemplate("{}"), Collections.singletonList("metadata.timestamp"));
+  }
+
+  private static List<Object> getParameterValues(SqlQuerySpec querySpec) {
+    return querySpec.getParameters().stream().map(parameter -> parameter.getValue(Object.class))
+        .collect(Collectors.toList());
+  }
+
+  private static ObjectNode getTemplate(String json) throws Exception {
+    return (ObjectNode) OBJECT_MAPPER.readTree(json);
+  }
+}
@@ -0,0 +1,48 @@
+package com.github.ptracker.storage.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class FieldFilterTest {
+
+  @Test
+  public void singleValueIsAnEquality() {
+    FieldFilter filter = new FieldFilter("gardenPlantId", Collections.singletonList("plant-1"));
+
+    assertEquals("gardenPlantId = plant-1", filter.toString());
+    assertTrue(filter.matches("plant-1"));
+    assertFalse(filter.matches("plant-2"));
+  }
+
+  @Test
+  public void severalValuesAreAnInListOfDistinctValues() {
+    FieldFilter filter = new FieldFilter("gardenPlantId", Arrays.asList("plant-2", "plant-1", "plant-2"));
+
+    assertEquals(Arrays.asList("plant-2", "plant-1"), Arrays.asList(filter.getValues().toArray()));
+    assertEquals("gardenPlantId IN [plant-2, plant-1]", filter.toString());
+    assertTrue(filter.matches("plant-1"));
+    assertFalse(filter.matches("plant-3"));
+  }
+
+  @Test
+  public void missingFieldDoesNotMatch() {
+    assertFalse(new FieldFilter("quantityMl", Collections.singletonList(0L)).matches(null));
+  }
+
+  @Test
+  public void valuesMatchByType() {
+    FieldFilter filter = new FieldFilter("quantityMl", Collections.singletonList(5L));
+
+    assertTrue(filter.matches(5L));
+    assertFalse(filter.matches("5"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noValuesAreRejected() {
+    new FieldFilter("gardenPlantId", Collections.emptyList());
+  }
+}
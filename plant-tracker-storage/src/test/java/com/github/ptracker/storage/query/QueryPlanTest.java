@@ -0,0 +1,78 @@
+package com.github.ptracker.storage.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class QueryPlanTest {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final QueryPlanner _queryPlanner = new QueryPlanner();
+
+  @Test
+  public void itemHasToMatchEveryFilterOfAConjunction() throws Exception {
+    QueryPlan queryPlan =
+        _queryPlanner.plan(getItem("{\"gardenPlantId\": \"a\", \"metadata\": {\"gardenerId\": \"g\"}}"));
+
+    assertTrue(
+        queryPlan.matches(getItem("{\"gardenPlantId\": \"a\", \"metadata\": {\"gardenerId\": \"g\"}, \"x\": 1}")));
+    assertFalse(queryPlan.matches(getItem("{\"gardenPlantId\": \"a\", \"metadata\": {\"gardenerId\": \"h\"}}")));
+    assertFalse(queryPlan.matches(getItem("{\"gardenPlantId\": \"a\"}")));
+  }
+
+  @Test
+  public void itemHasToMatchOneConjunctionOfADisjunction() throws Exception {
+    QueryPlan queryPlan = _queryPlanner.plan(
+        Arrays.asList(getItem("{\"gardenPlantId\": \"a\", \"quantityMl\": 1}"), getItem("{\"gardenPlantId\": \"b\"}")));
+
+    assertTrue(queryPlan.matches(getItem("{\"gardenPlantId\": \"a\", \"quantityMl\": 1}")));
+    assertTrue(queryPlan.matches(getItem("{\"gardenPlantId\": \"b\", \"quantityMl\": 2}")));
+    assertFalse(queryPlan.matches(getItem("{\"gardenPlantId\": \"a\", \"quantityMl\": 2}")));
+  }
+
+  @Test
+  public void itemHasToBeWithinTheRange() throws Exception {
+    QueryPlan queryPlan = _queryPlanner.plan(getItem("{}"),
+        new QueryBounds.Builder().range("metadata.timestamp", 100L, 200L).build());
+
+    assertTrue(queryPlan.matchesAll());
+    assertTrue(queryPlan.matches(getItem("{\"metadata\": {\"timestamp\": \"100\"}}")));
+    assertFalse(queryPlan.matches(getItem("{\"metadata\": {\"timestamp\": \"200\"}}")));
+    assertFalse(queryPlan.matches(getItem("{}")));
+  }
+
+  @Test
+  public void planWithoutOrderLeavesItToTheStore() throws Exception {
+    assertNull(_queryPlanner.plan(getItem("{}")).getItemOrder());
+  }
+
+  @Test
+  public void itemsAreOrderedByTypeThenByValue() throws Exception {
+    List<ObjectNode> items = new ArrayList<>(Arrays.asList(getItem("{\"id\": \"string\", \"v\": \"b\"}"),
+        getItem("{\"id\": \"big number\", \"v\": 10}"), getItem("{\"id\": \"string first\", \"v\": \"a\"}"),
+        getItem("{\"id\": \"boolean\", \"v\": false}"), getItem("{\"id\": \"missing\"}"),
+        getItem("{\"id\": \"number\", \"v\": 2.5}")));
+
+    items.sort(_queryPlanner.plan(getItem("{}"), new QueryBounds.Builder().order("v", false).build()).getItemOrder());
+    assertEquals(Arrays.asList("missing", "boolean", "number", "big number", "string first", "string"), getIds(items));
+
+    items.sort(_queryPlanner.plan(getItem("{}"), new QueryBounds.Builder().order("v", true).build()).getItemOrder());
+    assertEquals(Arrays.asList("string", "string first", "big number", "number", "boolean", "missing"), getIds(items));
+  }
+
+  private static List<String> getIds(List<ObjectNode> items) {
+    return items.stream().map(item -> item.get("id").textValue()).collect(Collectors.toList());
+  }
+
+  private static ObjectNode getItem(String json) throws Exception {
+    return (ObjectNode) OBJECT_MAPPER.readTree(json);
+  }
+}
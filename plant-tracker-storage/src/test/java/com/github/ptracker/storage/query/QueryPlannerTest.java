@@ -0,0 +1,122 @@
+package com.github.ptracker.storage.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ptracker.resource.QueryBounds;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class QueryPlannerTest {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final QueryPlanner _queryPlanner = new QueryPlanner(Arrays.asList("gardenPlantId", "metadata.gardenerId"));
+
+  @Test
+  public void filtersAreOrderedByIndexThenByTemplate() throws Exception {
+    ObjectNode template =
+        getTemplate("{\"quantityMl\": 3, \"metadata\": {\"gardenerId\": \"g\"}, \"gardenPlantId\": \"gp\"}");
+
+    assertEquals("[[gardenPlantId = gp, metadata.gardenerId = g, quantityMl = 3]]",
+        _queryPlanner.plan(template).toString());
+  }
+
+  @Test
+  public void idAlwaysComesFirst() throws Exception {
+    ObjectNode template = getTemplate("{\"gardenPlantId\": \"gp\", \"id\": \"1\"}");
+
+    assertEquals("[[id = 1, gardenPlantId = gp]]", _queryPlanner.plan(template).toString());
+    assertTrue(_queryPlanner.isIndexed(QueryPlanner.ID_PATH));
+    assertTrue(_queryPlanner.isIndexed("metadata.gardenerId"));
+    assertFalse(_queryPlanner.isIndexed("quantityMl"));
+  }
+
+  @Test
+  public void emptyTemplateMatchesAll() throws Exception {
+    QueryPlan queryPlan = _queryPlanner.plan(getTemplate("{}"));
+
+    assertTrue(queryPlan.matchesAll());
+    assertTrue(queryPlan.matches(getTemplate("{\"id\": \"1\"}")));
+  }
+
+  @Test
+  public void templatesOnTheSameSingleFieldBecomeAnInList() throws Exception {
+    QueryPlan queryPlan = _queryPlanner.plan(Arrays.asList(getTemplate("{\"gardenPlantId\": \"a\"}"),
+        getTemplate("{\"gardenPlantId\": \"b\"}"), getTemplate("{\"gardenPlantId\": \"a\"}")));
+
+    assertEquals("[[gardenPlantId IN [a, b]]]", queryPlan.toString());
+  }
+
+  @Test
+  public void otherTemplatesBecomeADisjunction() throws Exception {
+    QueryPlan queryPlan = _queryPlanner.plan(Arrays.asList(getTemplate("{\"quantityMl\": 1, \"gardenPlantId\": \"a\"}"),
+        getTemplate("{\"gardenPlantId\": \"b\"}")));
+
+    assertEquals("[[gardenPlantId = a, quantityMl = 1], [gardenPlantId = b]]", queryPlan.toString());
+    assertFalse(queryPlan.matchesAll());
+  }
+
+  @Test
+  public void emptyTemplateMakesTheDisjunctionMatchAll() throws Exception {
+    QueryPlan queryPlan =
+        _queryPlanner.plan(Arrays.asList(getTemplate("{\"gardenPlantId\": \"a\"}"), getTemplate("{}")));
+
+    assertTrue(queryPlan.matchesAll());
+  }
+
+  @Test
+  public void noTemplatesHaveNoPlan() {
+    assertNull(_queryPlanner.plan(Collections.<ObjectNode>emptyList()));
+    assertNull(_queryPlanner.bound(null, new QueryBounds.Builder().limit(1).build()));
+  }
+
+  @Test
+  public void boundsAddARangeAnOrderAndALimit() throws Exception {
+    QueryBounds bounds = new QueryBounds.Builder().range("metadata.timestamp", 100L, null)
+        .order("metadata.timestamp", true)
+        .limit(10)
+        .build();
+
+    QueryPlan queryPlan = _queryPlanner.plan(getTemplate("{\"gardenPlantId\": \"a\"}"), bounds);
+
+    assertEquals("[[gardenPlantId = a]] AND 100 <= metadata.timestamp ORDER BY metadata.timestamp DESC LIMIT 10",
+        queryPlan.toString());
+    // int64 fields are stored in their JSON form, which is a decimal string
+    assertEquals("100", queryPlan.getRange().getLowerBound());
+    assertNull(queryPlan.getRange().getUpperBound());
+  }
+
+  @Test
+  public void noBoundsLeaveThePlanAsItIs() throws Exception {
+    QueryPlan queryPlan = _queryPlanner.plan(getTemplate("{\"gardenPlantId\": \"a\"}"));
+
+    assertSame(queryPlan, _queryPlanner.bound(queryPlan, QueryBounds.NONE));
+  }
+
+  @Test
+  public void fieldValuesAreReadAlongNestedPaths() throws Exception {
+    ObjectNode item = getTemplate("{\"metadata\": {\"gardenerId\": \"g\", \"timestamp\": \"17\"}, \"quantityMl\": 3, "
+        + "\"ratio\": 0.5, \"watered\": true, \"tags\": [\"a\"], \"note\": null}");
+
+    assertEquals("g", QueryPlanner.getFieldValue(item, "metadata.gardenerId"));
+    assertEquals("17", QueryPlanner.getFieldValue(item, "metadata.timestamp"));
+    assertEquals(3L, QueryPlanner.getFieldValue(item, "quantityMl"));
+    assertEquals(0.5, QueryPlanner.getFieldValue(item, "ratio"));
+    assertEquals(true, QueryPlanner.getFieldValue(item, "watered"));
+    assertNull(QueryPlanner.getFieldValue(item, "tags"));
+    assertNull(QueryPlanner.getFieldValue(item, "note"));
+    assertNull(QueryPlanner.getFieldValue(item, "metadata.missing.field"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void listsCannotBeFilteredOn() throws Exception {
+    _queryPlanner.getFilters(getTemplate("{\"tags\": [\"a\"]}"));
+  }
+
+  private static ObjectNode getTemplate(String json) throws Exception {
+    return (ObjectNode) OBJECT_MAPPER.readTree(json);
+  }
+}
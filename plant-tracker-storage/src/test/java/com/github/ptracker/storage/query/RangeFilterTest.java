@@ -0,0 +1,86 @@
+package com.github.ptracker.storage.query;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class RangeFilterTest {
+
+  @Test
+  public void lowerBoundIsInclusiveAndUpperBoundExclusive() {
+    RangeFilter filter = new RangeFilter("quantityMl", 10L, 20L);
+
+    assertFalse(filter.matches(9L));
+    assertTrue(filter.matches(10L));
+    assertTrue(filter.matches(19.5));
+    assertFalse(filter.matches(20L));
+  }
+
+  @Test
+  public void rangeCanBeOpenOnEitherSide() {
+    assertTrue(new RangeFilter("quantityMl", 10L, null).matches(Long.MAX_VALUE));
+    assertFalse(new RangeFilter("quantityMl", 10L, null).matches(9L));
+    assertTrue(new RangeFilter("quantityMl", null, 10L).matches(Long.MIN_VALUE));
+    assertFalse(new RangeFilter("quantityMl", null, 10L).matches(10L));
+  }
+
+  @Test
+  public void stringsAreComparedLexicographically() {
+    RangeFilter filter = new RangeFilter("metadata.timestamp", "1600000000000", "1700000000000");
+
+    assertTrue(filter.matches("1650000000000"));
+    assertFalse(filter.matches("1700000000000"));
+    // which only orders decimal strings numerically while they have the same number of digits
+    assertTrue(filter.matches("17"));
+  }
+
+  @Test
+  public void int64RangeHoldsAcrossDigitCounts() {
+    RangeFilter filter = RangeFilter.int64("metadata.timestamp", 1000L, 1_600_000_000_000L);
+
+    assertTrue(filter.isInt64());
+    assertEquals("1000", filter.getLowerBound());
+    assertFalse(filter.matches("999"));
+    assertTrue(filter.matches("1000"));
+    assertTrue(filter.matches("1700"));
+    assertTrue(filter.matches("999999999999"));
+    assertFalse(filter.matches("1600000000000"));
+    assertFalse(filter.matches("10000000000000"));
+    assertFalse(filter.matches(null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void int64BoundsCannotBeNegative() {
+    RangeFilter.int64("metadata.timestamp", -1L, null);
+  }
+
+  @Test
+  public void decimalsAreComparedByTheirNumberOfDigitsFirst() {
+    assertTrue(RangeFilter.compareDecimals("999", "1000") < 0);
+    assertTrue(RangeFilter.compareDecimals("1000", "999") > 0);
+    assertTrue(RangeFilter.compareDecimals("1000", "1001") < 0);
+    assertEquals(0, RangeFilter.compareDecimals("1000", "1000"));
+  }
+
+  @Test
+  public void valuesOfOtherTypesDoNotMatch() {
+    RangeFilter filter = new RangeFilter("quantityMl", 10L, null);
+
+    assertFalse(filter.matches("11"));
+    assertFalse(filter.matches(true));
+    assertFalse(filter.matches(null));
+    assertNull(RangeFilter.compare("11", 10L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void boundsAreStringsOrNumbers() {
+    new RangeFilter("watered", true, null);
+  }
+
+  @Test
+  public void rangeIsPrintedAroundItsPath() {
+    assertEquals("10 <= quantityMl < 20", new RangeFilter("quantityMl", 10L, 20L).toString());
+    assertEquals("quantityMl < 20", new RangeFilter("quantityMl", null, 20L).toString());
+  }
+}